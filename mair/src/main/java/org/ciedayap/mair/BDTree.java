@@ -5,9 +5,24 @@
  */
 package org.ciedayap.mair;
 
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import org.apache.commons.lang3.SerializationUtils;
 
 /**
@@ -18,13 +33,111 @@ import org.apache.commons.lang3.SerializationUtils;
  * @author Mario José Diván
  * @version 1.0
  */
-public class BDTree {
+public class BDTree implements IntegrityTree {
     public static final int CHILD_LEFT=0;
     public static final int CHILD_RIGHT=1;
+    /**
+     * The length in bytes of a MD5 digest
+     */
+    public static final int DIGEST_LENGTH=16;
+    /**
+     * It indicates that a transaction has not an event timestamp
+     */
+    public static final long NO_TIMESTAMP=Long.MIN_VALUE;
+    /**
+     * The first bytes of each page written by the binary dump
+     */
+    public static final int DUMP_MAGIC=0x4D414944;//MAID
+    /**
+     * The version of the binary dump
+     */
+    public static final int DUMP_VERSION=1;
+    /**
+     * The size of the buffer used when the dump is written into a channel
+     */
+    private static final int DUMP_BUFFER=8192;
+    private static final byte HEX_DIGITS[]={'0','1','2','3','4','5','6','7','8','9','a','b','c','d','e','f'};
     
     private final MessageDigest md5;
     private final TreeNode tree[];
     private final Integer levels; 
+    /**
+     * The number of nodes of the tree (including the root)
+     */
+    private final int nodes;
+    /**
+     * The position of the first leaf in the array (nodeID-1)
+     */
+    private final int firstLeaf;
+    /**
+     * TRUE when the tree keeps only the packed representation (the TreeNode array is not created)
+     */
+    private final boolean compact;
+    /**
+     * The number of bytes kept in the packed representation for each intermediary node
+     */
+    private final int innerLength;
+    /**
+     * The number of bytes kept in the packed representation for each leaf
+     */
+    private final int leafLength;
+    /**
+     * The number of transactions pushed into the tree since its creation
+     */
+    private long pushCount;
+    /**
+     * The number of MD5 hashes computed since the creation of the tree (it is reported by the flight recorder events)
+     */
+    private long hashCount;
+    /**
+     * It is an optional reverse index from the leaf hash (in lower case) to the sequence numbers
+     * of the transactions currently contained in the leaves. The sequence numbers are absolute,
+     * so the index does not change when the leaves are shifted. It is null when disabled.
+     */
+    private HashMap<String,ArrayDeque<Long>> leafIndex;
+    /**
+     * It is the packed representation of the tree used by pushDigest: DIGEST_LENGTH bytes for each node
+     * in the same order than the tree. It is created on the first pushDigest.
+     */
+    private byte digests[];
+    /**
+     * It indicates whether each node of the packed representation has a hash
+     */
+    private boolean present[];
+    /**
+     * The buffer in which the hexadecimal form of "left.right" is written before being hashed
+     */
+    private byte scratch[];
+    /**
+     * The buffer in which a whole digest is computed before being truncated
+     */
+    private byte full[];
+    /**
+     * TRUE when the packed representation reflects the current hashes of the tree
+     */
+    private boolean packedValid;
+    /**
+     * TRUE when the hashes of the tree nodes are older than the packed representation
+     */
+    private boolean nodesStale;
+    /**
+     * The event timestamp of each leaf in the same order than the leaves (it is not decreasing).
+     * It is created with the first timestamped transaction, null before it.
+     */
+    private long timestamps[];
+    /**
+     * The most recent event timestamp pushed into the tree
+     */
+    private long lastTimestamp=NO_TIMESTAMP;
+    /**
+     * The intermediary nodes (by node ID) reported by the current scrub pass without being repaired, so their
+     * fathers are not repaired from them. It is created when a pass starts from the last intermediary node.
+     */
+    private BitSet unverified;
+    /**
+     * The timestamps array discarded by reset, kept for being reused by the next timestamped transaction
+     */
+    private long spareTimestamps[];
     
     /**
      * The dense and binary Merkle tree is created.
@@ -41,6 +154,45 @@ public class BDTree {
         if(power>25) throw new BDTreeException("It is not recommendable such a level of record in a mobile device");
         tree=createBDTree(power);
         levels=power;
+        nodes=tree.length;
+        firstLeaf=BDTree.getInitialNodeByLevel(power)-1;
+        compact=false;
+        innerLength=DIGEST_LENGTH;
+        leafLength=DIGEST_LENGTH;
+    }
+    
+    /**
+     * The dense and binary Merkle tree is created in compact mode. The hashes are kept only as binary digests
+     * (no TreeNode nor String is kept for each node), and the intermediary nodes keep the first digestLength
+     * bytes of their MD5 hash. Each leaf keeps the whole MD5 of its transaction, or the first digestLength bytes
+     * when truncateLeaves is TRUE.
+     * The trade-off: with 8 bytes per node, the tree needs about 9 bytes per node instead of the TreeNode and
+     * the 32-character String (more than 100 bytes per node), but the root and the intermediary hashes are no longer
+     * MD5 hashes and the collision resistance falls to 2^32 (8 bytes) or 2^48 (12 bytes) operations. The hashes are
+     * reported in hexadecimal with 2*digestLength characters, the verification of a truncated node accepts either
+     * its truncated hash or a whole MD5 hash starting with it, and only hexadecimal hashes can be pushed.
+     * @param power The number of levels to be represented (without the root)
+     * @param digestLength The number of bytes kept for each intermediary node (8, 12 or 16)
+     * @param truncateLeaves TRUE for truncating also the leaves, FALSE for keeping the whole MD5 of each transaction
+     * @throws BDTreeException It is raised when the indicated power is lower than 1 or the digest length is not supported
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    public BDTree(Integer power,int digestLength,boolean truncateLeaves) throws BDTreeException, NoSuchAlgorithmException
+    {
+        if(power==null || power<1) throw new BDTreeException("The power must be equal or upper than 1");
+        if(power>25) throw new BDTreeException("It is not recommendable such a level of record in a mobile device");
+        if(digestLength!=8 && digestLength!=12 && digestLength!=DIGEST_LENGTH) throw new BDTreeException("The digest length must be 8, 12 or 16 bytes");
+        md5=MessageDigest.getInstance("MD5");
+        
+        tree=null;
+        levels=power;
+        nodes=BDTree.getTotalRequiredNodes(power);
+        firstLeaf=BDTree.getInitialNodeByLevel(power)-1;
+        compact=true;
+        innerLength=digestLength;
+        leafLength=truncateLeaves?digestLength:DIGEST_LENGTH;
+        allocatePacked();
+        packedValid=true;
     }
     
     /**
@@ -61,6 +213,11 @@ public class BDTree {
         
         tree=tr;
         levels=power;
+        nodes=tree.length;
+        firstLeaf=BDTree.getInitialNodeByLevel(power)-1;
+        compact=false;
+        innerLength=DIGEST_LENGTH;
+        leafLength=DIGEST_LENGTH;
     }
     
     /**
@@ -178,10 +335,9 @@ public class BDTree {
     public String getRootHash()
     {
         if(levels<1) return null;
-        if(tree==null) return null;
-        if(tree[0]==null) return null;
+        if(!hasNode(0)) return null;
         
-        return tree[0].getHash();
+        return hashOf(0);
     }
     
     /**
@@ -192,9 +348,9 @@ public class BDTree {
     public String getNodeHash(int nodeid)
     {
         if(nodeid<1) return null;
-        if((nodeid-1)>this.tree.length) return null;
+        if(nodeid>nodes) return null;
         
-        return (tree[nodeid-1]!=null)?tree[nodeid-1].getHash():null;
+        return hasNode(nodeid-1)?hashOf(nodeid-1):null;
     }
     
     /**
@@ -214,7 +370,7 @@ public class BDTree {
         
         int oldestLeaf=BDTree.getInitialNodeByLevel(levels);
         
-        return tree[(oldestLeaf-1)+roffset].getHash();
+        return hashOf((oldestLeaf-1)+roffset);
     }
     
     /**
@@ -236,7 +392,7 @@ public class BDTree {
        
        int differ=levels-qlevels;
        
-       if(differ==0) return (tree[0]!=null)?tree[0].getHash():null;
+       if(differ==0) return hasNode(0)?hashOf(0):null;
        
        int currentNode=1;//Start from the root
        while(differ>0)
@@ -246,7 +402,7 @@ public class BDTree {
            differ--;
        }
        
-       return (tree[currentNode-1]!=null)?tree[currentNode-1].getHash():null;
+       return hasNode(currentNode-1)?hashOf(currentNode-1):null;
     }
     
     /**
@@ -268,7 +424,7 @@ public class BDTree {
        
        int differ=levels-qlevels;
        
-       if(differ==0) return (tree[0]!=null)?tree[0].getHash():null;
+       if(differ==0) return hasNode(0)?hashOf(0):null;
        
        int currentNode=1;//Start from the root
        while(differ>0)
@@ -278,14 +434,61 @@ public class BDTree {
            differ--;
        }
        
-       return (tree[currentNode-1]!=null)?tree[currentNode-1].getHash():null;
+       return hasNode(currentNode-1)?hashOf(currentNode-1):null;
+    }
+    
+    /**
+     * It copies the digest of the node that covers the first or the last 2^qlevels transactions (the root when qlevels
+     * is the levels of the tree). The packed digest is copied as it is, while the hash of a node is decoded.
+     * @param qlevels The number of levels of the subtree
+     * @param last TRUE for the last transactions, FALSE for the first ones
+     * @param dst The array in which the digest is copied (it must have room for DIGEST_LENGTH bytes)
+     * @param offset The position of dst in which the digest is copied
+     * @return The number of copied bytes, 0 when the node is not defined or it has no hash, -1 when its hash is not a
+     * lower-case hexadecimal MD5 hash (e.g. a leaf copied by a father with only one child)
+     */
+    public synchronized int copySubtreeDigest(int qlevels,boolean last,byte dst[],int offset)
+    {
+        if(levels==null || qlevels<1 || qlevels>levels) return 0;
+        
+        int depth=levels-qlevels;
+        int idx=last?(1<<(depth+1))-2:(1<<depth)-1;
+        if(!hasNode(idx)) return 0;
+        if(compact || nodesStale)
+        {
+            if(!present[idx]) return 0;
+            
+            System.arraycopy(digests, slot(idx), dst, offset, width(idx));
+            return width(idx);
+        }
+        
+        String hash=tree[idx].getHash();
+        if(hash==null) return 0;
+        
+        return BDTree.decodeHex(hash, dst, offset)?DIGEST_LENGTH:-1;
     }
     
     @Override
     public BDTree clone() throws CloneNotSupportedException
     {
         if(levels==null || levels<1) return null;
+        if(compact)
+        {
+            try {
+                BDTree ret=new BDTree(levels,innerLength,leafLength<DIGEST_LENGTH);
+                synchronized(this)
+                {
+                    System.arraycopy(digests, 0, ret.digests, 0, digests.length);
+                    System.arraycopy(present, 0, ret.present, 0, present.length);
+                }
+                
+                return ret;
+            } catch (BDTreeException | NoSuchAlgorithmException ex) {
+                return null;
+            }
+        }
         
+        materialize();
         TreeNode[] copyOf = SerializationUtils.clone(tree);
         
         BDTree ret;
@@ -317,6 +520,14 @@ public class BDTree {
     @Override
     public int hashCode() {
         int hash = 7;
+        if(compact)
+        {
+            synchronized(this)
+            {
+                return 11 * hash + Arrays.hashCode(this.digests);
+            }
+        }
+        materialize();
         hash = 11 * hash + Arrays.deepHashCode(this.tree);
         return hash;
     }
@@ -445,25 +656,180 @@ public class BDTree {
     @Override
     public String toString()
     {
-        if(this.tree==null || this.tree.length==0) return "Empty Tree";
+        if(!compact && (this.tree==null || this.tree.length==0)) return "Empty Tree";
         
         StringBuilder sb=new StringBuilder();
-        for(TreeNode tn:tree)
-        {
-            sb.append(tn.toString()).append("\n");
+        try{
+            dump(sb,1,nodes,nodes);
+        }catch(IOException e)
+        {//A StringBuilder does not raise IOException
         }
         
         return sb.toString();
     }
     
     /**
-     * It assigns a new set of hash for each leaf of the three, recomputing all the hashes
+     * It returns the range of node IDs belonging to the indicated levels (0 is the root, maxlevel contains the leaves)
+     * @param maxlevel The max level of depth related to the tree without take into consideration the root
+     * @param firstLevel The first level of the range
+     * @param lastLevel The last level of the range
+     * @return An array with the first and last node IDs, null when the levels are out of the tree
+     */
+    public static final int[] getNodeRangeOfLevels(int maxlevel,int firstLevel,int lastLevel)
+    {
+        if(firstLevel<0 || lastLevel<firstLevel || lastLevel>maxlevel) return null;
+        
+        return new int[]{1<<firstLevel,(1<<(lastLevel+1))-1};
+    }
+    
+    /**
+     * It returns the range of node IDs of the leaves related to the indicated offsets
+     * @param maxlevel The max level of depth related to the tree without take into consideration the root
+     * @param firstOffset The first offset (from 1 to 2^maxlevel)
+     * @param lastOffset The last offset
+     * @return An array with the first and last node IDs, null when the offsets are out of the tree
+     */
+    public static final int[] getNodeRangeOfOffsets(int maxlevel,int firstOffset,int lastOffset)
+    {
+        if(maxlevel<1 || firstOffset<1 || lastOffset<firstOffset || lastOffset>getMaxNumberOfTransactions(maxlevel)) return null;
+        
+        int first=getInitialNodeByLevel(maxlevel)-1;
+        
+        return new int[]{first+firstOffset,first+lastOffset};
+    }
+    
+    /**
+     * It writes a page of nodes in the same human-readable format as toString (one line per node), without building
+     * the representation of the whole tree. The next page is obtained calling again with the returned node ID as fromNode.
+     * @param out The destination
+     * @param fromNode The first node ID of the page
+     * @param toNode The last node ID of the range (it is limited to the nodes of the tree)
+     * @param maxNodes The max number of nodes of the page
+     * @return The node ID from which the next page starts, 0 when the range has been completed
+     * @throws IOException It is raised when the destination cannot be written
+     */
+    public synchronized int dump(Appendable out,int fromNode,int toNode,int maxNodes) throws IOException
+    {
+        int last=lastOfPage(fromNode,toNode,maxNodes);
+        if(out==null || last<1 || last<fromNode) return 0;
+        
+        StringBuilder sb=new StringBuilder(160);
+        for(int id=fromNode;id<=last;id++)
+        {
+            String hash=hashOf(id-1);
+            sb.setLength(0);
+            sb.append("ID: ").append(id);
+            if(!compact)
+            {
+                TreeNode tn=tree[id-1];
+                sb.append(" Parent: ").append((tn.getParent()==null)?"-":tn.getParent())
+                  .append(" Left Child: ").append((tn.getLeftchild()==null)?"-":tn.getLeftchild())
+                  .append(" Right Child: ").append((tn.getRightchild()==null)?"-":tn.getRightchild());
+            }
+            sb.append(" Hash: ").append((hash==null)?"-":hash).append('\n');
+            out.append(sb);
+        }
+        
+        return (last<Math.min(toNode, nodes))?last+1:0;
+    }
+    
+    /**
+     * It writes a page of nodes in a compact binary format. Each page starts with a header (DUMP_MAGIC, DUMP_VERSION,
+     * the levels, the bytes kept by the intermediary nodes and the leaves, the first node ID and the number of nodes),
+     * followed by the length of each node hash (0 when it is not present, -1 when it is not a hexadecimal MD5 hash and
+     * it is written as UTF) and its bytes. The next page is obtained calling again with the returned node ID as fromNode.
+     * @param out The destination (it is not closed)
+     * @param fromNode The first node ID of the page
+     * @param toNode The last node ID of the range (it is limited to the nodes of the tree)
+     * @param maxNodes The max number of nodes of the page
+     * @return The node ID from which the next page starts, 0 when the range has been completed
+     * @throws IOException It is raised when the destination cannot be written
+     */
+    public synchronized int dump(OutputStream out,int fromNode,int toNode,int maxNodes) throws IOException
+    {
+        int last=lastOfPage(fromNode,toNode,maxNodes);
+        if(out==null || last<1 || last<fromNode) return 0;
+        
+        DataOutputStream dos=new DataOutputStream(out);
+        dos.writeInt(DUMP_MAGIC);
+        dos.writeByte(DUMP_VERSION);
+        dos.writeByte(levels);
+        dos.writeByte(compact?innerLength:DIGEST_LENGTH);
+        dos.writeByte(compact?leafLength:DIGEST_LENGTH);
+        dos.writeInt(fromNode);
+        dos.writeInt(last-fromNode+1);
+        byte buffer[]=new byte[DIGEST_LENGTH];
+        for(int idx=fromNode-1;idx<last;idx++)
+        {
+            if(compact || nodesStale || packedValid)
+            {
+                if(!present[idx]) dos.writeByte(0);
+                else
+                {
+                    dos.writeByte(width(idx));
+                    dos.write(digests, slot(idx), width(idx));
+                }
+                continue;
+            }
+            
+            String hash=tree[idx].getHash();
+            if(hash==null) dos.writeByte(0);
+            else if(BDTree.decodeHex(hash, buffer, 0))
+            {
+                dos.writeByte(DIGEST_LENGTH);
+                dos.write(buffer);
+            }
+            else
+            {
+                dos.writeByte(-1);
+                dos.writeUTF(hash);
+            }
+        }
+        dos.flush();
+        
+        return (last<Math.min(toNode, nodes))?last+1:0;
+    }
+    
+    /**
+     * It writes a page of nodes in the compact binary format into a channel (see dump(OutputStream,int,int,int))
+     * @param channel The destination (it is not closed)
+     * @param fromNode The first node ID of the page
+     * @param toNode The last node ID of the range (it is limited to the nodes of the tree)
+     * @param maxNodes The max number of nodes of the page
+     * @return The node ID from which the next page starts, 0 when the range has been completed
+     * @throws IOException It is raised when the channel cannot be written
+     */
+    public int dump(WritableByteChannel channel,int fromNode,int toNode,int maxNodes) throws IOException
+    {
+        if(channel==null) return 0;
+        
+        BufferedOutputStream out=new BufferedOutputStream(Channels.newOutputStream(channel),DUMP_BUFFER);
+        int ret=dump(out,fromNode,toNode,maxNodes);
+        out.flush();
+        
+        return ret;
+    }
+    
+    /**
+     * @return The last node ID of the page, lower than fromNode (or than 1) when the page is empty
+     */
+    private int lastOfPage(int fromNode,int toNode,int maxNodes)
+    {
+        if(fromNode<1 || maxNodes<1) return 0;
+        if(!compact && tree==null) return 0;
+        
+        return (int)Math.min(Math.min(toNode, nodes), (long)fromNode+maxNodes-1);
+    }
+    
+    /**
+     * It assigns a new set of hash for each leaf of the three, recomputing all the hashes.
+     * It holds the monitor of the tree like push does, so the reverse index of leaves is never seen half updated.
      * @param multiplehashs The set of hashes to be updated in the leafs
      * @return TRUE/FALSE depending on the possibility of update all the nodes
      * @throws BDTreeException It is raides when some anomaly in the parameters is detected
      * @throws NoSuchAlgorithmException It is raised when MD5 algorithm is not defined
      */
-    public Boolean setNewHashinLeafs(String multiplehashs[]) throws BDTreeException, NoSuchAlgorithmException
+    public synchronized Boolean setNewHashinLeafs(String multiplehashs[]) throws BDTreeException, NoSuchAlgorithmException
     {
         if(multiplehashs==null) throw new BDTreeException("Hashes not defined");
         int init=BDTree.getInitialNodeByLevel(this.getLevels());
@@ -471,15 +837,36 @@ public class BDTree {
         int range=end-init+1;
         
         if(multiplehashs.length!=range) throw new BDTreeException("The range "+range+" is different from the list of hashes "+multiplehashs.length);
+        if(compact)
+        {
+            for(String hash:multiplehashs)
+                if(hash!=null && !parseCompact(hash,leafLength)) throw new BDTreeException("The hash "+hash+" is not a hexadecimal hash");
+            for(int i=0;i<multiplehashs.length;i++) storeCompact(firstLeaf+i,multiplehashs[i]);
+            
+            Object event=IntegrityEvents.beginRecompute();
+            long hashes=hashCount;
+            boolean ret=recomputeDigests();
+            IntegrityEvents.endRecompute(event, levels, hashCount-hashes, true);
+            
+            return ret;
+        }
         
+        materialize();
+        packedValid=false;
         int idx=init-1;
         for(String hash:multiplehashs)
         {
             tree[idx].setHash(hash);
             idx++;
         }
+        if(leafIndex!=null) rebuildLeafIndex();
         
-        return recomputeHashes();
+        Object event=IntegrityEvents.beginRecompute();
+        long hashes=hashCount;
+        Boolean ret=recomputeHashes();
+        IntegrityEvents.endRecompute(event, levels, hashCount-hashes, false);
+        
+        return ret;
     }
     
     /**
@@ -566,14 +953,15 @@ public class BDTree {
     }
     
     /**
-     * It updates the hash in an individual leaf and recomputes the hash in the path up to the root
+     * It updates the hash in an individual leaf and recomputes the hash in the path up to the root.
+     * It holds the monitor of the tree like push does, so the reverse index of leaves is never seen half updated.
      * 
      * @param offset It is the position of the element in the list of lead starting from 1 to...
      * @param hash The new hash expressed as MD5
      * @return TRUE/FALSE depending on the change has been made. Null wheen atypical parameters are received.
      * @throws java.security.NoSuchAlgorithmException It is raised when the MD5 algorithm is not present
      */
-    public Boolean setNewHashinLeaf(int offset,String hash) throws NoSuchAlgorithmException
+    public synchronized Boolean setNewHashinLeaf(int offset,String hash) throws NoSuchAlgorithmException
     {
         if(offset<0) return null;
         
@@ -582,6 +970,22 @@ public class BDTree {
         int range=end-init+1;
         
         if(offset>range) return null;
+        if(compact)
+        {
+            if(offset<1) return null;
+            if(!storeCompact(firstLeaf+offset-1,hash)) return false;
+            
+            return recomputePath(firstLeaf+offset-1);
+        }
+        
+        materialize();
+        packedValid=false;
+        if(leafIndex!=null && offset>=1)
+        {
+            long seq=sequenceOfOffset(offset);
+            unindexLeaf(tree[init+offset-2].getHash(),seq);
+            indexLeaf(hash,seq);
+        }
         
         return updateHash(init+(offset-1),hash);
         
@@ -647,11 +1051,31 @@ public class BDTree {
         if(hash==null || hash.trim().length()==0) return null;        
         if(md5==null) return null;
                 
+        hashCount++;
         md5.update(hash.getBytes());
         
         return toHexString(md5.digest());
     }
     
+    /**
+     * It combines the hashes of two brother nodes following the same rules used along the tree.
+     * When both hashes are present, the result is the MD5 of "left.right". When only one of them
+     * is present, it is propagated without recomputing. When both are absent, the result is null.
+     * @param md The message digest to be used
+     * @param left The hash of the left node
+     * @param right The hash of the right node
+     * @return The combined hash, null when both hashes are absent
+     */
+    static String combineHashes(MessageDigest md,String left,String right)
+    {
+        if(left==null) return right;
+        if(right==null) return left;
+
+        md.update((left+"."+right).getBytes());
+
+        return toHexString(md.digest());
+    }
+
     /**
      * It converts the hexadecimal to a String representaiton
      * @param bytes The hexadecimal to be converted
@@ -674,6 +1098,28 @@ public class BDTree {
       return hexString.toString();
     }    
     
+    /**
+     * It converts a hexadecimal String representation into its bytes
+     * @param hex The hexadecimal representation (its length must be even)
+     * @return The bytes represented by the String, null when it is not a valid hexadecimal representation
+     */
+    public static byte[] fromHexString(String hex)
+    {
+        if(hex==null || hex.length()==0 || (hex.length()%2)!=0) return null;
+
+        byte ret[]=new byte[hex.length()/2];
+        for(int i=0;i<ret.length;i++)
+        {
+            int hi=Character.digit(hex.charAt(2*i), 16);
+            int lo=Character.digit(hex.charAt(2*i+1), 16);
+            if(hi<0 || lo<0) return null;
+
+            ret[i]=(byte)((hi<<4)+lo);
+        }
+
+        return ret;
+    }
+
     /**
      * It scrolls left the hash of the leafs, discarding the first one (the old transaction) 
      * and appending at the end the newHash as the most recet transacction  (last node)
@@ -682,28 +1128,1073 @@ public class BDTree {
      * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not present
      */
     public synchronized Boolean push(String newHash) throws NoSuchAlgorithmException
+    {
+        return push(newHash,NO_TIMESTAMP);
+    }
+    
+    /**
+     * It scrolls left the hash of the leafs like push does, keeping the event timestamp of the new transaction
+     * alongside its leaf. The timestamps must not decrease; a transaction without timestamp (NO_TIMESTAMP)
+     * takes the timestamp of the previous one.
+     * @param newHash The new hash to be incorporated
+     * @param timestamp The event timestamp of the transaction (e.g. milliseconds since the epoch), or NO_TIMESTAMP
+     * @return TRUE/FALSE depending on the change has been made (FALSE when the timestamp is older than the last one). 
+     * Null wheen atypical parameters are received.
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not present
+     */
+    public synchronized Boolean push(String newHash,long timestamp) throws NoSuchAlgorithmException
     {
         if(levels<1) return false;
-        if(tree==null) return false;
+        if(tree==null && !compact) return false;
+        if(timestamp!=NO_TIMESTAMP && timestamp<lastTimestamp) return false;
+        if(compact)
+        {
+            if(newHash!=null && !parseCompact(newHash,leafLength)) return false;
+            
+            return appendPacked((newHash==null)?null:full,0,timestamp);
+        }
         
         int init=BDTree.getInitialNodeByLevel(this.getLevels());
         int end=BDTree.getLastNodeByLevel(this.getLevels());
         
+        materialize();
+        packedValid=false;
+        if(leafIndex!=null)
+        {
+            unindexLeaf(tree[init-1].getHash(),sequenceOfOffset(1));
+            indexLeaf(newHash,pushCount+1);
+        }
+        
         for(int i=init+1;i<=end;i++)
         {
             tree[i-2].setHash(tree[i-1].getHash());
         }
         tree[end-1].setHash(newHash);
+        pushCount++;
+        stampLeaf(timestamp);
         
         return recomputeHashes();
 
     }
-    
+
     /**
-     * @return the levels
+     * It scrolls left the leafs and appends the indicated MD5 digest as the most recent transaction,
+     * like push does with its hexadecimal representation. The hashes are kept and recomputed
+     * in a packed binary form, so once the packed form has been created, this method does not allocate memory.
+     * The node hashes are converted to String only when they are read.
+     * When the reverse index of leaves is enabled or the tree contains hashes which are not lower-case
+     * hexadecimal MD5 hashes (e.g. pushed as String), the transaction is pushed through push.
+     * @param digest The array containing the MD5 digest of the transaction
+     * @param offset The position in which the digest starts in the array
+     * @return TRUE when the transaction has been pushed, FALSE otherwise
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not present
      */
-    public Integer getLevels() {
-        return levels;
+    public synchronized boolean pushDigest(byte digest[],int offset) throws NoSuchAlgorithmException
+    {
+        return pushDigest(digest,offset,NO_TIMESTAMP);
+    }
+
+    /**
+     * It appends the indicated MD5 digest like pushDigest does, keeping the event timestamp of the transaction
+     * alongside its leaf (see push(String,long)).
+     * @param digest The array containing the MD5 digest of the transaction
+     * @param offset The position in which the digest starts in the array
+     * @param timestamp The event timestamp of the transaction, or NO_TIMESTAMP
+     * @return TRUE when the transaction has been pushed, FALSE otherwise (e.g. the timestamp is older than the last one)
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not present
+     */
+    public synchronized boolean pushDigest(byte digest[],int offset,long timestamp) throws NoSuchAlgorithmException
+    {
+        if(digest==null || offset<0 || offset+DIGEST_LENGTH>digest.length) return false;
+        if(levels<1) return false;
+        if(tree==null && !compact) return false;
+        if(timestamp!=NO_TIMESTAMP && timestamp<lastTimestamp) return false;
+
+        if(!compact && (leafIndex!=null || (!packedValid && !pack())))
+        {
+            Boolean ret=push(BDTree.toHexString(Arrays.copyOfRange(digest, offset, offset+DIGEST_LENGTH)),timestamp);
+
+            return ret!=null && ret;
+        }
+
+        return appendPacked(digest,offset,timestamp);
+    }
+
+    /**
+     * It scrolls left the leaves of the packed representation, appends the new digest and recomputes the tree
+     * @param digest The array containing the digest (null when the new leaf has not a hash)
+     * @param offset The position in which the digest starts in the array
+     * @param timestamp The event timestamp of the transaction, or NO_TIMESTAMP
+     * @return TRUE when all the hashes have been recomputed, FALSE otherwise
+     */
+    private boolean appendPacked(byte digest[],int offset,long timestamp)
+    {
+        int end=nodes-1;
+        System.arraycopy(digests, slot(firstLeaf+1), digests, slot(firstLeaf), (end-firstLeaf)*leafLength);
+        System.arraycopy(present, firstLeaf+1, present, firstLeaf, end-firstLeaf);
+        if(digest!=null) System.arraycopy(digest, offset, digests, slot(end), leafLength);
+        present[end]=(digest!=null);
+        pushCount++;
+        nodesStale=!compact;
+        stampLeaf(timestamp);
+
+        return recomputeDigests();
+    }
+
+    /**
+     * It recomputes the intermediary nodes of the packed representation from the leaves up to the root
+     * @return TRUE when all the hashes have been recomputed, FALSE otherwise
+     */
+    private boolean recomputeDigests()
+    {
+        for(int idx=firstLeaf-1;idx>=0;idx--)
+        {
+            if(!combineDigests(idx)) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * It recomputes the packed representation of the path from the indicated node up to the root
+     * @param idx The position of the node in the array (nodeID-1)
+     * @return TRUE when all the hashes have been recomputed, FALSE otherwise
+     */
+    private boolean recomputePath(int idx)
+    {
+        while(idx>0)
+        {
+            idx=(idx-1)/2;
+            if(!combineDigests(idx)) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * It computes the packed hash of an intermediary node from its children, following the same rules than
+     * the String representation. The intermediary nodes keep the first innerLength bytes of the digest.
+     * @param idx The position of the node in the array (nodeID-1)
+     * @return TRUE when the hash has been computed, FALSE otherwise
+     */
+    private boolean combineDigests(int idx)
+    {
+        int left=2*idx+1;
+        int right=left+1;
+
+        if(present[left] && present[right])
+        {
+            int lw=width(left),rw=width(right);
+            BDTree.encodeHex(digests, slot(left), lw, scratch, 0);
+            scratch[2*lw]='.';
+            BDTree.encodeHex(digests, slot(right), rw, scratch, 2*lw+1);
+            md5.update(scratch, 0, 2*(lw+rw)+1);
+            hashCount++;
+            try {
+                if(innerLength==DIGEST_LENGTH)
+                {
+                    md5.digest(digests, slot(idx), DIGEST_LENGTH);
+                }
+                else
+                {
+                    md5.digest(full, 0, DIGEST_LENGTH);
+                    System.arraycopy(full, 0, digests, slot(idx), innerLength);
+                }
+            } catch (DigestException ex) {
+                md5.reset();
+                return false;
+            }
+            present[idx]=true;
+        }
+        else if(present[left] || present[right])
+        {
+            System.arraycopy(digests, slot(present[left]?left:right), digests, slot(idx), innerLength);
+            present[idx]=true;
+        }
+        else
+        {
+            present[idx]=false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @param idx The position of the node in the array (nodeID-1)
+     * @return The position in which the node starts in the packed representation
+     */
+    private int slot(int idx)
+    {
+        if(idx<firstLeaf) return idx*innerLength;
+
+        return firstLeaf*innerLength+(idx-firstLeaf)*leafLength;
+    }
+
+    /**
+     * @param idx The position of the node in the array (nodeID-1)
+     * @return The number of bytes kept for the node in the packed representation
+     */
+    private int width(int idx)
+    {
+        return (idx<firstLeaf)?innerLength:leafLength;
+    }
+
+    /**
+     * It creates the arrays of the packed representation
+     */
+    private void allocatePacked()
+    {
+        digests=new byte[firstLeaf*innerLength+(nodes-firstLeaf)*leafLength];
+        present=new boolean[nodes];
+        scratch=new byte[4*DIGEST_LENGTH+1];
+        full=new byte[DIGEST_LENGTH];
+    }
+
+    /**
+     * It creates (or refreshes) the packed representation from the hashes of the tree nodes
+     * @return TRUE when all the hashes are lower-case hexadecimal MD5 hashes, FALSE otherwise
+     */
+    private boolean pack()
+    {
+        if(digests==null) allocatePacked();
+
+        for(int i=0;i<nodes;i++)
+        {
+            String hash=tree[i].getHash();
+            present[i]=(hash!=null);
+            if(hash!=null && !BDTree.decodeHex(hash, digests, slot(i))) return false;
+        }
+
+        packedValid=true;
+        return true;
+    }
+
+    /**
+     * It stores a hexadecimal hash in the packed representation of a compact tree. The hash could be
+     * a whole MD5 hash or an already truncated one; the case is ignored.
+     * @param idx The position of the node in the array (nodeID-1)
+     * @param hash The hexadecimal hash (null for removing the hash)
+     * @return TRUE when the hash has been stored, FALSE when it is not a valid hexadecimal hash
+     */
+    private boolean storeCompact(int idx,String hash)
+    {
+        if(hash==null)
+        {
+            present[idx]=false;
+            return true;
+        }
+
+        int w=width(idx);
+        if(!parseCompact(hash,w)) return false;
+        System.arraycopy(full, 0, digests, slot(idx), w);
+        present[idx]=true;
+
+        return true;
+    }
+
+    /**
+     * It reads the first bytes of a hexadecimal hash into the full buffer
+     * @param hash The hexadecimal hash, whole or already truncated to the indicated length
+     * @param length The number of bytes to be read
+     * @return TRUE when the hash is a valid hexadecimal hash, FALSE otherwise
+     */
+    /**
+     * It indicates whether the hash could be kept by a compact leaf of the indicated length, following
+     * the same rules than push (e.g. when a history is imported, see HistoryImporter)
+     * @param hash The hexadecimal hash
+     * @param length The number of bytes kept by the leaves
+     * @return TRUE when the hash is accepted, FALSE otherwise
+     */
+    static boolean isPackable(String hash,int length)
+    {
+        if(hash.length()!=2*length && hash.length()!=2*DIGEST_LENGTH) return false;
+        for(int i=0;i<2*length;i++)
+            if(Character.digit(hash.charAt(i), 16)<0) return false;
+
+        return true;
+    }
+
+    private boolean parseCompact(String hash,int length)
+    {
+        if(hash.length()!=2*length && hash.length()!=2*DIGEST_LENGTH) return false;
+        for(int i=0;i<length;i++)
+        {
+            int hi=Character.digit(hash.charAt(2*i), 16);
+            int lo=Character.digit(hash.charAt(2*i+1), 16);
+            if(hi<0 || lo<0) return false;
+
+            full[i]=(byte)((hi<<4)+lo);
+        }
+
+        return true;
+    }
+
+    /**
+     * It updates the hashes of the tree nodes from the packed representation when they are stale
+     */
+    private synchronized void materialize()
+    {
+        if(!nodesStale) return;
+
+        for(int i=0;i<nodes;i++) tree[i].setHash(present[i]?BDTree.toHexString(digests, slot(i), DIGEST_LENGTH):null);
+        nodesStale=false;
+    }
+
+    /**
+     * It returns the current hash of the node stored in the indicated position of the array
+     * @param idx The position in the array (nodeID-1)
+     * @return The hash of the node (it could be null)
+     */
+    private synchronized String hashOf(int idx)
+    {
+        if(!compact && !nodesStale) return tree[idx].getHash();
+
+        return present[idx]?BDTree.toHexString(digests, slot(idx), width(idx)):null;
+    }
+
+    /**
+     * @param idx The position in the array (nodeID-1)
+     * @return TRUE when the node exists, FALSE otherwise
+     */
+    private boolean hasNode(int idx)
+    {
+        if(compact) return idx>=0 && idx<nodes;
+        
+        return tree!=null && tree[idx]!=null;
+    }
+
+    /**
+     * It writes the lower-case hexadecimal representation of a digest into a buffer
+     */
+    static void encodeHex(byte src[],int srcOffset,int length,byte dst[],int dstOffset)
+    {
+        for(int i=0;i<length;i++)
+        {
+            int b=src[srcOffset+i]&0xFF;
+            dst[dstOffset+2*i]=HEX_DIGITS[b>>>4];
+            dst[dstOffset+2*i+1]=HEX_DIGITS[b&0x0F];
+        }
+    }
+
+    /**
+     * It reads a lower-case hexadecimal MD5 hash into a buffer
+     * @return TRUE when the hash is a lower-case hexadecimal MD5 hash, FALSE otherwise
+     */
+    private static boolean decodeHex(String hash,byte dst[],int dstOffset)
+    {
+        if(hash.length()!=2*DIGEST_LENGTH) return false;
+
+        for(int i=0;i<DIGEST_LENGTH;i++)
+        {
+            int hi=BDTree.lowerHexDigit(hash.charAt(2*i));
+            int lo=BDTree.lowerHexDigit(hash.charAt(2*i+1));
+            if(hi<0 || lo<0) return false;
+
+            dst[dstOffset+i]=(byte)((hi<<4)+lo);
+        }
+
+        return true;
+    }
+
+    private static int lowerHexDigit(char c)
+    {
+        if(c>='0' && c<='9') return c-'0';
+        if(c>='a' && c<='f') return c-'a'+10;
+
+        return -1;
+    }
+
+    /**
+     * It converts a digest contained in an array to its hexadecimal representation
+     * @param bytes The array containing the digest
+     * @param offset The position in which the digest starts
+     * @param length The number of bytes of the digest
+     * @return A string representing the digest as a hexadecimal
+     */
+    static String toHexString(byte bytes[],int offset,int length)
+    {
+        byte hex[]=new byte[2*length];
+        BDTree.encodeHex(bytes, offset, length, hex, 0);
+
+        return new String(hex, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * It shifts the leaf timestamps along with the leaves and keeps the timestamp of the new transaction
+     * @param timestamp The event timestamp of the new transaction, or NO_TIMESTAMP
+     */
+    private void stampLeaf(long timestamp)
+    {
+        if(timestamp!=NO_TIMESTAMP)
+        {
+            if(timestamps==null)
+            {
+                timestamps=(spareTimestamps!=null)?spareTimestamps:new long[BDTree.getMaxNumberOfTransactions(levels)];
+                spareTimestamps=null;
+                Arrays.fill(timestamps, NO_TIMESTAMP);
+            }
+            lastTimestamp=timestamp;
+        }
+        if(timestamps==null) return;
+
+        System.arraycopy(timestamps, 1, timestamps, 0, timestamps.length-1);
+        timestamps[timestamps.length-1]=lastTimestamp;
+    }
+
+    /**
+     * It returns the event timestamp of the transaction stored in the indicated offset
+     * @param offset The offset of the leaf (1 is the oldest and 2^levels the newest)
+     * @return The timestamp, NO_TIMESTAMP when the transaction has not a timestamp or the offset is out of range
+     */
+    public synchronized long getTimestamp(int offset)
+    {
+        if(timestamps==null || offset<1 || offset>timestamps.length) return NO_TIMESTAMP;
+
+        return timestamps[offset-1];
+    }
+
+    /**
+     * It resolves a time interval to the range of offsets whose transactions happened in it, using binary search.
+     * The transactions without timestamp are never included.
+     * @param from The start of the interval (inclusive)
+     * @param to The end of the interval (inclusive)
+     * @return An array with two positions (0: first offset, 1: last offset), null when there are not transactions in the interval
+     */
+    public synchronized int[] getOffsetRange(long from,long to)
+    {
+        if(timestamps==null || from>to) return null;
+        if(from==NO_TIMESTAMP) from++;
+
+        int first=BDTree.lowerBound(timestamps, from);
+        int last=BDTree.upperBound(timestamps, to)-1;
+        if(first>last) return null;
+
+        return new int[]{first+1,last+1};
+    }
+
+    /**
+     * @return The first position whose value is upper or equal than the key (the length when there is not)
+     */
+    private static int lowerBound(long values[],long key)
+    {
+        int lo=0,hi=values.length;
+        while(lo<hi)
+        {
+            int mid=(lo+hi)>>>1;
+            if(values[mid]<key) lo=mid+1;
+            else hi=mid;
+        }
+
+        return lo;
+    }
+
+    /**
+     * @return The first position whose value is upper than the key (the length when there is not)
+     */
+    private static int upperBound(long values[],long key)
+    {
+        int lo=0,hi=values.length;
+        while(lo<hi)
+        {
+            int mid=(lo+hi)>>>1;
+            if(values[mid]<=key) lo=mid+1;
+            else hi=mid;
+        }
+
+        return lo;
+    }
+
+    /**
+     * It returns the hashes of the transactions that happened in the indicated time interval, from the oldest to the newest
+     * @param from The start of the interval (inclusive)
+     * @param to The end of the interval (inclusive)
+     * @return The hashes of the transactions, null when there are not transactions in the interval
+     */
+    public synchronized String[] getHashesBetween(long from,long to)
+    {
+        int range[]=getOffsetRange(from,to);
+        if(range==null) return null;
+
+        int init=BDTree.getInitialNodeByLevel(levels);
+        String ret[]=new String[range[1]-range[0]+1];
+        for(int i=0;i<ret.length;i++) ret[i]=hashOf(init+range[0]+i-2);
+
+        return ret;
+    }
+
+    /**
+     * It returns the hashes of the minimal set of subtrees that covers exactly the transactions happened in the indicated
+     * time interval, from the left to the right. At most 2*levels hashes are returned.
+     * @param from The start of the interval (inclusive)
+     * @param to The end of the interval (inclusive)
+     * @return The hashes of the covering subtrees, null when there are not transactions in the interval
+     */
+    public synchronized String[] getCoveringHashes(long from,long to)
+    {
+        int range[]=getOffsetRange(from,to);
+        if(range==null) return null;
+
+        int cover[]=coverOf(range[0],range[1]);
+        String ret[]=new String[cover.length];
+        for(int i=0;i<cover.length;i++) ret[i]=hashOf(cover[i]-1);
+
+        return ret;
+    }
+
+    /**
+     * It verifies the transactions that happened in the indicated time interval. The hashes of the covering subtrees
+     * are recomputed from the indicated hashes and contrasted with the ones in the tree.
+     * @param from The start of the interval (inclusive)
+     * @param to The end of the interval (inclusive)
+     * @param hashes The hashes of the transactions happened in the interval, from the oldest to the newest
+     * @return TRUE when the hashes match, FALSE otherwise (including a different number of transactions)
+     */
+    public synchronized Boolean verifyTimeRange(long from,long to,String hashes[])
+    {
+        if(hashes==null) return false;
+        int range[]=getOffsetRange(from,to);
+        if(range==null) return hashes.length==0;
+        if(hashes.length!=range[1]-range[0]+1) return false;
+
+        int pos=0;
+        for(int node:coverOf(range[0],range[1]))
+        {
+            int height=levels-(31-Integer.numberOfLeadingZeros(node));
+            int size=1<<height;
+
+            String level[]=Arrays.copyOfRange(hashes, pos, pos+size);
+            for(int n=size;n>1;n/=2)
+                for(int i=0;i<n/2;i++) level[i]=BDTree.combineHashes(md5, level[2*i], level[2*i+1]);
+            pos+=size;
+
+            String current=hashOf(node-1);
+            if(current==null || level[0]==null || !current.equalsIgnoreCase(level[0])) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * It creates a single proof for several offsets of the current window (see MultiProof). The brothers shared by the
+     * paths of the offsets are included once, and the ones computable from the requested leaves are omitted.
+     * @param offsets The offsets to be proven (from 1 to 2^levels, in any order; the repetitions are ignored)
+     * @return The proof, null when there are not offsets or some of them is out of the window
+     */
+    public synchronized MultiProof getMultiProof(int offsets[])
+    {
+        int sorted[]=MultiProof.normalize(offsets, levels);
+        if(sorted==null) return null;
+        if(!compact && tree==null) return null;
+        
+        int count=sorted.length;
+        int known[]=new int[count];
+        int first=BDTree.getInitialNodeByLevel(levels)-1;
+        for(int i=0;i<count;i++) known[i]=first+sorted[i];
+        
+        ArrayList<String> helpers=new ArrayList<>();
+        for(int lv=levels;lv>0;lv--)
+        {
+            int next=0;
+            for(int i=0;i<count;i++)
+            {
+                int id=known[i];
+                if((id&1)==0 && i+1<count && known[i+1]==id+1) i++;//the brother is computable
+                else helpers.add(hashOf((id^1)-1));
+                
+                known[next++]=id>>1;
+            }
+            count=next;
+        }
+        
+        return new MultiProof(levels,compact?innerLength:DIGEST_LENGTH,compact?leafLength:DIGEST_LENGTH,sorted,
+                helpers.toArray(new String[helpers.size()]),getRootHash());
+    }
+    
+    /**
+     * It recomputes a batch of intermediary nodes from their children and contrasts them with the stored hashes.
+     * The nodes are walked from the last intermediary node up to the root. A mismatched node is repaired only when
+     * its children were verified: an intermediary child must have matched (or been repaired) in the current pass,
+     * while a leaf must be confirmed by the reverse index of leaves (the leaves cannot be recomputed, their source
+     * are the transactions). Thus, a corrupted leaf or subtree is reported up to the root instead of being
+     * laundered into a consistent root. Without the reverse index, the mismatches of the last level of intermediary
+     * nodes are only reported.
+     * @param fromNode The node ID from which the batch starts (downwards), 0 or upper than the last intermediary node for starting a new pass
+     * @param maxNodes The max number of nodes of the batch
+     * @param repair TRUE for replacing the mismatched hashes recomputed from verified children, FALSE for only reporting them
+     * @param mismatches The list in which the IDs of the mismatched nodes are incorporated (it could be null)
+     * @return The node ID from which the next batch starts, 0 when the root has been reached
+     */
+    public synchronized int scrub(int fromNode,int maxNodes,boolean repair,List<Integer> mismatches)
+    {
+        if(maxNodes<1 || (!compact && tree==null)) return 0;
+        
+        int id=(fromNode<1 || fromNode>firstLeaf)?firstLeaf:fromNode;
+        if(id==firstLeaf || unverified==null) unverified=new BitSet(firstLeaf+1);
+        boolean packed=compact || nodesStale;
+        for(int n=0;n<maxNodes && id>0;n++,id--)
+        {
+            boolean fix=repair && isVerified(2*id) && isVerified(2*id+1);
+            boolean ok=packed?scrubPacked(id-1,fix):scrubNode(id-1,fix);
+            if(ok) continue;
+            
+            if(mismatches!=null) mismatches.add(id);
+            if(!fix) unverified.set(id);
+        }
+        if(id==0) unverified=null;
+        
+        return id;
+    }
+    
+    /**
+     * It indicates whether a child was verified by the current scrub pass
+     * @param id The node ID
+     * @return TRUE when the intermediary node was not reported without being repaired, or when the leaf is
+     * confirmed by the reverse index of leaves (or it has not received transactions yet)
+     */
+    private boolean isVerified(int id)
+    {
+        if(id<=firstLeaf) return !unverified.get(id);
+        
+        int offset=id-firstLeaf;
+        long seq=sequenceOfOffset(offset);
+        String hash=hashOf(id-1);
+        if(seq<1) return hash==null;
+        if(leafIndex==null || hash==null) return false;
+        
+        ArrayDeque<Long> seqs=leafIndex.get(hash.toLowerCase(Locale.ROOT));
+        
+        return seqs!=null && seqs.contains(seq);
+    }
+    
+    /**
+     * It contrasts the hash of an intermediary node with the one recomputed from its children
+     * @param idx The position of the node in the array (nodeID-1)
+     * @param repair TRUE for replacing a mismatched hash
+     * @return TRUE when the hash matches, FALSE otherwise
+     */
+    private boolean scrubNode(int idx,boolean repair)
+    {
+        String expected=BDTree.combineHashes(md5, tree[2*idx+1].getHash(), tree[2*idx+2].getHash());
+        String stored=tree[idx].getHash();
+        if((expected==null)?stored==null:expected.equals(stored)) return true;
+        
+        if(repair)
+        {
+            tree[idx].setHash(expected);
+            packedValid=false;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * It contrasts the packed digest of an intermediary node with the one recomputed from its children
+     * (see combineDigests)
+     * @param idx The position of the node in the array (nodeID-1)
+     * @param repair TRUE for replacing a mismatched digest
+     * @return TRUE when the digest matches, FALSE otherwise
+     */
+    private boolean scrubPacked(int idx,boolean repair)
+    {
+        int left=2*idx+1;
+        int right=left+1;
+        boolean expected=present[left] || present[right];
+        if(present[left] && present[right])
+        {
+            int lw=width(left),rw=width(right);
+            BDTree.encodeHex(digests, slot(left), lw, scratch, 0);
+            scratch[2*lw]='.';
+            BDTree.encodeHex(digests, slot(right), rw, scratch, 2*lw+1);
+            md5.update(scratch, 0, 2*(lw+rw)+1);
+            try {
+                md5.digest(full, 0, DIGEST_LENGTH);
+            } catch (DigestException ex) {
+                md5.reset();
+                return true;//it could not be recomputed
+            }
+        }
+        else if(expected)
+        {
+            System.arraycopy(digests, slot(present[left]?left:right), full, 0, innerLength);
+        }
+        
+        boolean ok=(expected==present[idx]);
+        for(int i=0;ok && expected && i<innerLength;i++) ok=(full[i]==digests[slot(idx)+i]);
+        if(!ok && repair)
+        {
+            if(expected) System.arraycopy(full, 0, digests, slot(idx), innerLength);
+            present[idx]=expected;
+        }
+        
+        return ok;
+    }
+    
+    /**
+     * It returns the minimal set of nodes whose subtrees cover exactly the indicated range of leaves
+     * @param first The first offset (inclusive)
+     * @param last The last offset (inclusive)
+     * @return The node IDs from the left to the right
+     */
+    private int[] coverOf(int first,int last)
+    {
+        int init=BDTree.getInitialNodeByLevel(levels);
+        int l=init+first-1;
+        int r=init+last-1;
+        int left[]=new int[2*levels+2],right[]=new int[2*levels+2];
+        int nl=0,nr=0;
+        while(l<=r)
+        {
+            if((l&1)==1) left[nl++]=l++;
+            if((r&1)==0) right[nr++]=r--;
+            l>>=1;
+            r>>=1;
+        }
+
+        int ret[]=Arrays.copyOf(left, nl+nr);
+        for(int i=0;i<nr;i++) ret[nl+i]=right[nr-1-i];
+
+        return ret;
+    }
+
+    /**
+     * It enables or disables the reverse index from the leaf hashes to their positions.
+     * When it is enabled, the index is built from the current leaves and then it is incrementally
+     * updated with a constant amount of work for each push. The compact trees do not keep the index.
+     * @param enabled TRUE for enabling the index, FALSE for discarding it
+     */
+    public synchronized void setLeafIndexEnabled(boolean enabled)
+    {
+        if(!enabled)
+        {
+            leafIndex=null;
+            return;
+        }
+        
+        if(compact) return;//The compact trees are scanned
+        if(leafIndex==null)
+        {
+            materialize();
+            rebuildLeafIndex();
+        }
+    }
+    
+    /**
+     * @return TRUE when the reverse index of leaves is enabled, FALSE otherwise
+     */
+    public synchronized boolean isLeafIndexEnabled()
+    {
+        return leafIndex!=null;
+    }
+    
+    /**
+     * It looks for the most recent leaf containing the indicated hash. When the reverse index is enabled,
+     * the lookup is O(1), otherwise the leaves are scanned from the newest to the oldest.
+     * @param hash The hash to be found (it is compared ignoring the case)
+     * @return The offset of the most recent leaf containing the hash, -1 when it is not present
+     */
+    public synchronized int findOffset(String hash)
+    {
+        if(hash==null || levels==null || levels<1) return -1;
+        
+        int init=BDTree.getInitialNodeByLevel(levels);
+        int capacity=BDTree.getMaxNumberOfTransactions(levels);
+        if(leafIndex==null)
+        {
+            for(int offset=capacity;offset>=1;offset--)
+            {
+                if(isSameHash(hashOf(init+offset-2),hash)) return offset;
+            }
+            
+            return -1;
+        }
+        
+        ArrayDeque<Long> seqs=leafIndex.get(hash.toLowerCase(Locale.ROOT));
+        if(seqs==null || seqs.isEmpty()) return -1;
+        
+        long newest=Long.MIN_VALUE;
+        for(Long seq:seqs) if(seq>newest) newest=seq;
+        
+        return (int)(newest-(pushCount-capacity));
+    }
+    
+    /**
+     * It returns the absolute sequence number related to the transaction stored in the indicated offset
+     * @param offset The offset of the leaf (1 is the oldest and 2^levels the newest)
+     * @return The sequence number of the transaction
+     */
+    private long sequenceOfOffset(int offset)
+    {
+        return pushCount-BDTree.getMaxNumberOfTransactions(levels)+offset;
+    }
+    
+    private void indexLeaf(String hash,long seq)
+    {
+        if(hash==null) return;
+        
+        String key=hash.toLowerCase(Locale.ROOT);
+        ArrayDeque<Long> seqs=leafIndex.get(key);
+        if(seqs==null)
+        {
+            seqs=new ArrayDeque<>(2);
+            leafIndex.put(key, seqs);
+        }
+        seqs.addLast(seq);
+    }
+    
+    private void unindexLeaf(String hash,long seq)
+    {
+        if(hash==null) return;
+        
+        String key=hash.toLowerCase(Locale.ROOT);
+        ArrayDeque<Long> seqs=leafIndex.get(key);
+        if(seqs==null) return;
+        
+        seqs.removeFirstOccurrence(seq);
+        if(seqs.isEmpty()) leafIndex.remove(key);
+    }
+    
+    private void rebuildLeafIndex()
+    {
+        int init=BDTree.getInitialNodeByLevel(levels);
+        int capacity=BDTree.getMaxNumberOfTransactions(levels);
+        
+        leafIndex=new HashMap<>(2*capacity);
+        for(int offset=1;offset<=capacity;offset++)
+            indexLeaf(tree[init+offset-2].getHash(),sequenceOfOffset(offset));
+    }
+    
+    /**
+     * It writes the push counter, the hashes of all the nodes (including the intermediary ones) and the leaf timestamps in binary format.
+     * The lower-case hexadecimal MD5 hashes are written as 16 bytes, while the rest of the hashes are written as UTF.
+     * The compact trees write their packed representation as it is, so they must be read by a tree with the same storage.
+     * @param out The output stream
+     * @throws IOException It is raised when the nodes cannot be written
+     */
+    synchronized void writeNodes(DataOutputStream out) throws IOException
+    {
+        out.writeLong(pushCount);
+        out.writeInt(nodes);
+        if(compact)
+        {
+            for(boolean p:present) out.writeBoolean(p);
+            out.write(digests);
+        }
+        else
+        {
+            materialize();
+            for(TreeNode node:tree) BDTree.writeHash(out, node.getHash());
+        }
+        out.writeLong(lastTimestamp);
+        out.writeBoolean(timestamps!=null);
+        if(timestamps!=null) for(long ts:timestamps) out.writeLong(ts);
+    }
+    
+    /**
+     * It restores the push counter, the hashes of all the nodes and the leaf timestamps written by writeNodes, without recomputing them
+     * @param in The input stream
+     * @throws IOException It is raised when the nodes cannot be read or they do not correspond with the tree's levels
+     */
+    synchronized void readNodes(DataInputStream in) throws IOException
+    {
+        long pushes=in.readLong();
+        int nnodes=in.readInt();
+        if(nnodes!=nodes) throw new IOException("There is not correspondence between the stored nodes and the tree levels");
+        
+        if(compact)
+        {
+            for(int i=0;i<nodes;i++) present[i]=in.readBoolean();
+            in.readFully(digests);
+        }
+        else
+        {
+            for(TreeNode node:tree) node.setHash(BDTree.readHash(in));
+            packedValid=false;
+        }
+        pushCount=pushes;
+        nodesStale=false;
+        lastTimestamp=in.readLong();
+        timestamps=null;
+        if(in.readBoolean())
+        {
+            timestamps=new long[BDTree.getMaxNumberOfTransactions(levels)];
+            for(int i=0;i<timestamps.length;i++) timestamps[i]=in.readLong();
+        }
+        if(leafIndex!=null) rebuildLeafIndex();
+    }
+    
+    /**
+     * It loads the leaves of a window together with the state left by the transactions pushed up to it
+     * (the push counter and the leaf timestamps), recomputing the intermediary nodes once.
+     * The result is the same than pushing such transactions one at a time (see HistoryImporter).
+     * @param leaves The hashes of the leaves (the first one is the oldest), null for the empty leaves
+     * @param pushes The number of transactions pushed up to the window
+     * @param stamps The timestamps of the leaves, null when no transaction has had a timestamp
+     * @param lastTimestamp The timestamp of the last transaction (NO_TIMESTAMP when there is not)
+     * @throws BDTreeException It is raised when the number of leaves or timestamps does not correspond with the levels,
+     * or a hash cannot be kept by a compact tree
+     * @throws NoSuchAlgorithmException It is raised when MD5 algorithm is not defined
+     */
+    synchronized void load(String leaves[],long pushes,long stamps[],long lastTimestamp) throws BDTreeException, NoSuchAlgorithmException
+    {
+        int capacity=BDTree.getMaxNumberOfTransactions(levels);
+        if(stamps!=null && stamps.length!=capacity) throw new BDTreeException("The timestamps do not correspond with the leaves");
+
+        pushCount=pushes;
+        this.lastTimestamp=lastTimestamp;
+        if(stamps==null)
+        {
+            if(timestamps!=null) spareTimestamps=timestamps;
+            timestamps=null;
+        }
+        else
+        {
+            if(timestamps==null) timestamps=(spareTimestamps!=null)?spareTimestamps:new long[capacity];
+            spareTimestamps=null;
+            System.arraycopy(stamps, 0, timestamps, 0, capacity);
+        }
+        setNewHashinLeafs(leaves);
+    }
+
+    /**
+     * It writes a hash in binary format
+     * @param out The output stream
+     * @param hash The hash to be written (it could be null)
+     * @throws IOException It is raised when the hash cannot be written
+     */
+    static void writeHash(DataOutputStream out,String hash) throws IOException
+    {
+        if(hash==null)
+        {
+            out.writeByte(0);
+            return;
+        }
+        
+        byte digest[]=(hash.length()==32)?BDTree.fromHexString(hash):null;
+        if(digest!=null && hash.equals(BDTree.toHexString(digest)))
+        {
+            out.writeByte(1);
+            out.write(digest);
+            return;
+        }
+        
+        out.writeByte(2);
+        out.writeUTF(hash);
+    }
+    
+    /**
+     * It reads a hash written by writeHash
+     * @param in The input stream
+     * @return The read hash (it could be null)
+     * @throws IOException It is raised when the hash cannot be read
+     */
+    static String readHash(DataInputStream in) throws IOException
+    {
+        int tag=in.readByte();
+        switch(tag)
+        {
+            case 0:
+                return null;
+            case 1:
+                byte digest[]=new byte[16];
+                in.readFully(digest);
+                return BDTree.toHexString(digest);
+            case 2:
+                return in.readUTF();
+        }
+        
+        throw new IOException("Unknown hash tag: "+tag);
+    }
+    
+    /**
+     * It compares a hash reported by the tree with an informed one ignoring the case. In a compact tree with
+     * truncated digests, a whole MD5 hash starting with the truncated hash is also accepted.
+     * @param stored The hash reported by the tree
+     * @param given The informed hash
+     * @return TRUE when the hashes match, FALSE otherwise
+     */
+    public boolean isSameHash(String stored,String given)
+    {
+        if(stored==null || given==null) return false;
+        if(stored.equalsIgnoreCase(given)) return true;
+        if(!compact || given.length()!=2*DIGEST_LENGTH || stored.length()>=given.length()) return false;
+        
+        return given.regionMatches(true, 0, stored, 0, stored.length());
+    }
+    
+    /**
+     * It clears the tree in order to be reused by another measurement adapter (see BDTreePool). The topology
+     * (the TreeNode array), the packed representation and the buffers are kept, while the hashes, the push counter,
+     * the timestamps and the entries of the leaf index are discarded. The leaf index keeps its state (enabled or not).
+     */
+    public synchronized void reset()
+    {
+        if(!compact) for(TreeNode node:tree) node.setHash(null);
+        if(present!=null) Arrays.fill(present, false);
+        packedValid=(present!=null);
+        nodesStale=false;
+        pushCount=0;
+        if(timestamps!=null) spareTimestamps=timestamps;
+        timestamps=null;
+        lastTimestamp=NO_TIMESTAMP;
+        if(leafIndex!=null) leafIndex.clear();
+    }
+    
+    /**
+     * @return TRUE when the tree keeps only the packed binary digests, FALSE otherwise
+     */
+    public boolean isCompact() {
+        return compact;
+    }
+    
+    /**
+     * @return The number of bytes kept for each intermediary node (16 when the digests are not truncated)
+     */
+    public int getDigestLength() {
+        return innerLength;
+    }
+    
+    /**
+     * @return TRUE when the leaves keep truncated digests, FALSE when they keep the whole MD5
+     */
+    public boolean isTruncatingLeaves() {
+        return leafLength<DIGEST_LENGTH;
+    }
+    
+    /**
+     * @return The number of MD5 hashes computed since the creation of the tree
+     */
+    public synchronized long getHashCount() {
+        return hashCount;
+    }
+    
+    /**
+     * It returns the number of transactions pushed into the tree since its creation. The leaf
+     * with offset 2^levels is always related to the transaction with sequence number pushCount.
+     * @return the number of pushed transactions
+     */
+    public synchronized long getPushCount() {
+        return pushCount;
+    }
+
+    /**
+     * @return the levels
+     */
+    public Integer getLevels() {
+        return levels;
+    }
+
+    /**
+     * @return The number of children of each intermediary node (always 2)
+     */
+    public int getArity() {
+        return 2;
+    }
+
+    /**
+     * @return The number of transactions kept by the tree (2^levels)
+     */
+    public int getCapacity() {
+        return getMaxNumberOfTransactions(levels);
     }
         
     public static void main(String args[]) throws BDTreeException, NoSuchAlgorithmException, TreeNodeException, CloneNotSupportedException
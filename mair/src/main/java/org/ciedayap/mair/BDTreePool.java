@@ -0,0 +1,246 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+/**
+ * It keeps cleared trees grouped by their shape (levels and storage), so the trees of the removed measurement adapters
+ * are reused by the new ones instead of being allocated again. Each tree is reset when it is returned to the pool,
+ * keeping its topology and buffers, so a workload with a high churn of measurement adapters does not allocate large arrays
+ * (which are usually placed directly in the old generation). The number of trees kept for each shape is limited;
+ * the trees beyond such a limit are left to the garbage collector.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class BDTreePool {
+    /**
+     * The default number of trees kept for each shape
+     */
+    public static final int DEFAULT_MAX_PER_SHAPE=64;
+
+    private final HashMap<Integer,ArrayDeque<BDTree>> free;
+    private final int maxPerShape;
+    private long hits;
+    private long misses;
+    private long recycled;
+    private long discarded;
+
+    /**
+     * It creates a pool keeping up to DEFAULT_MAX_PER_SHAPE trees for each shape
+     */
+    public BDTreePool()
+    {
+        free=new HashMap<>();
+        maxPerShape=DEFAULT_MAX_PER_SHAPE;
+    }
+
+    /**
+     * It creates a pool
+     * @param maxPerShape The max number of trees kept for each shape
+     * @throws BDTreeException It is raised when maxPerShape is lower than 1
+     */
+    public BDTreePool(int maxPerShape) throws BDTreeException
+    {
+        if(maxPerShape<1) throw new BDTreeException("The number of trees by shape must be upper or equal than 1");
+
+        free=new HashMap<>();
+        this.maxPerShape=maxPerShape;
+    }
+
+    /**
+     * It returns a cleared default tree, creating it when the pool has not one
+     * @param levels The number of levels of the tree
+     * @return A cleared tree
+     * @throws BDTreeException It is raised when the levels are not valid
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     * @throws TreeNodeException It is raised when the nodes of a new tree cannot be created
+     */
+    public BDTree acquire(int levels) throws BDTreeException, NoSuchAlgorithmException, TreeNodeException
+    {
+        BDTree ret=poll(shapeOf(levels,0,false));
+
+        return (ret!=null)?ret:BDTree.create(levels);
+    }
+
+    /**
+     * It returns a cleared compact tree (see BDTree(Integer,int,boolean)), creating it when the pool has not one
+     * @param levels The number of levels of the tree
+     * @param digestLength The number of bytes kept for each intermediary node (8, 12 or 16)
+     * @param truncateLeaves TRUE for truncating also the leaves, FALSE for keeping the whole MD5 of each transaction
+     * @return A cleared compact tree
+     * @throws BDTreeException It is raised when the levels or the digest length are not valid
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    public BDTree acquire(int levels,int digestLength,boolean truncateLeaves) throws BDTreeException, NoSuchAlgorithmException
+    {
+        BDTree ret=poll(shapeOf(levels,digestLength,truncateLeaves));
+
+        return (ret!=null)?ret:new BDTree(levels,digestLength,truncateLeaves);
+    }
+
+    /**
+     * It clears the tree and keeps it for being reused. The tree must not be used by its previous owner after this call.
+     * @param tree The tree to be returned
+     * @return TRUE when the tree has been kept, FALSE when the pool is full for its shape
+     */
+    public boolean release(BDTree tree)
+    {
+        if(tree==null) return false;
+
+        int shape=shapeOf(tree.getLevels(),tree.isCompact()?tree.getDigestLength():0,tree.isTruncatingLeaves());
+        if(!isFull(shape))
+        {
+            tree.reset();//outside the pool's lock
+            if(offer(shape,tree))
+            {
+                synchronized(this){ recycled++; }
+                return true;
+            }
+        }
+
+        synchronized(this){ discarded++; }
+        return false;
+    }
+
+    /**
+     * It creates default trees in advance, up to the indicated number of trees in the pool for the levels
+     * @param levels The number of levels of the trees
+     * @param count The number of trees to be kept (it is limited by the max number of trees by shape)
+     * @throws BDTreeException It is raised when the levels are not valid
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     * @throws TreeNodeException It is raised when the nodes of a new tree cannot be created
+     */
+    public void prefill(int levels,int count) throws BDTreeException, NoSuchAlgorithmException, TreeNodeException
+    {
+        int target=Math.min(count, maxPerShape);
+        while(getPooledCount(levels)<target)
+        {
+            if(!offer(shapeOf(levels,0,false),BDTree.create(levels))) return;
+        }
+    }
+
+    private synchronized BDTree poll(int shape)
+    {
+        ArrayDeque<BDTree> queue=free.get(shape);
+        BDTree ret=(queue==null)?null:queue.poll();
+        if(ret==null) misses++;
+        else hits++;
+
+        return ret;
+    }
+
+    private synchronized boolean isFull(int shape)
+    {
+        ArrayDeque<BDTree> queue=free.get(shape);
+
+        return queue!=null && queue.size()>=maxPerShape;
+    }
+
+    private synchronized boolean offer(int shape,BDTree tree)
+    {
+        ArrayDeque<BDTree> queue=free.get(shape);
+        if(queue==null)
+        {
+            queue=new ArrayDeque<>();
+            free.put(shape, queue);
+        }
+        if(queue.size()>=maxPerShape) return false;
+
+        queue.push(tree);
+        return true;
+    }
+
+    /**
+     * It computes the key of the shape of a tree
+     * @param levels The number of levels
+     * @param digestLength The bytes kept by the intermediary nodes of a compact tree, 0 for the default trees
+     * @param truncateLeaves TRUE when the leaves of the compact tree are truncated
+     * @return The key of the shape
+     */
+    private static int shapeOf(int levels,int digestLength,boolean truncateLeaves)
+    {
+        return (levels<<6) | (digestLength<<1) | (truncateLeaves?1:0);
+    }
+
+    /**
+     * @param levels The number of levels
+     * @return The number of default trees with such levels kept in the pool
+     */
+    public synchronized int getPooledCount(int levels)
+    {
+        ArrayDeque<BDTree> queue=free.get(shapeOf(levels,0,false));
+
+        return (queue==null)?0:queue.size();
+    }
+
+    /**
+     * @return The number of trees kept in the pool for all the shapes
+     */
+    public synchronized int getPooledCount()
+    {
+        int ret=0;
+        for(ArrayDeque<BDTree> queue:free.values()) ret+=queue.size();
+
+        return ret;
+    }
+
+    /**
+     * It discards all the trees kept in the pool
+     */
+    public synchronized void clear()
+    {
+        free.clear();
+    }
+
+    /**
+     * @return The number of trees obtained from the pool
+     */
+    public synchronized long getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * @return The number of trees created because the pool had not one with the required shape
+     */
+    public synchronized long getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * @return The number of trees returned and kept in the pool
+     */
+    public synchronized long getRecycledCount()
+    {
+        return recycled;
+    }
+
+    /**
+     * @return The number of returned trees discarded because the pool was full for their shape
+     */
+    public synchronized long getDiscardedCount()
+    {
+        return discarded;
+    }
+
+    /**
+     * @return the max number of trees kept for each shape
+     */
+    public int getMaxPerShape() {
+        return maxPerShape;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "BDTreePool{pooled="+getPooledCount()+", hits="+hits+", misses="+misses+", recycled="+recycled+", discarded="+discarded+"}";
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * It contains the outcome of a bulk verification. The position of each request
+ * in the submitted collection is mapped to a bit, which is set when the verification
+ * succeeded. The failure details are only kept for the requests that failed.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class BulkVerificationResult {
+    /**
+     * The number of evaluated requests
+     */
+    private final int size;
+    /**
+     * The bit i is set when the i-th request has been successfully verified
+     */
+    private final BitSet verified;
+    /**
+     * The reason of each failure. The key is the position of the request.
+     */
+    private final TreeMap<Integer,String> failures;
+
+    /**
+     * It creates the bulk result from the individual outcomes
+     * @param ok The outcome for each request (TRUE when it was verified)
+     * @param reasons The failure reason for each request (null when it was verified)
+     */
+    BulkVerificationResult(boolean ok[],String reasons[])
+    {
+        size=(ok==null)?0:ok.length;
+        verified=new BitSet(size);
+        failures=new TreeMap<>();
+
+        for(int i=0;i<size;i++)
+        {
+            if(ok[i]) verified.set(i);
+            else failures.put(i, (reasons==null || reasons[i]==null)?"Not verified":reasons[i]);
+        }
+    }
+
+    /**
+     * @return the number of evaluated requests
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * It indicates whether the request in the indicated position was verified or not
+     * @param idx The position of the request in the submitted collection
+     * @return TRUE when the request was verified, FALSE otherwise
+     */
+    public boolean isVerified(int idx)
+    {
+        if(idx<0 || idx>=size) return false;
+
+        return verified.get(idx);
+    }
+
+    /**
+     * @return TRUE when all the requests were verified, FALSE otherwise
+     */
+    public boolean allVerified()
+    {
+        return verified.cardinality()==size;
+    }
+
+    /**
+     * @return The number of verified requests
+     */
+    public int getVerifiedCount()
+    {
+        return verified.cardinality();
+    }
+
+    /**
+     * @return The number of failed requests
+     */
+    public int getFailureCount()
+    {
+        return failures.size();
+    }
+
+    /**
+     * It returns the reason for which the indicated request failed
+     * @param idx The position of the request in the submitted collection
+     * @return The failure reason, null when the request was verified or it is out of range
+     */
+    public String getFailureReason(int idx)
+    {
+        return failures.get(idx);
+    }
+
+    /**
+     * @return A copy of the bitmap of verified requests
+     */
+    public BitSet getVerifiedBitmap()
+    {
+        return (BitSet)verified.clone();
+    }
+
+    /**
+     * @return An unmodifiable view of the failures ordered by position
+     */
+    public Map<Integer,String> getFailures()
+    {
+        return Collections.unmodifiableMap(failures);
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb=new StringBuilder();
+        sb.append("Requests: ").append(size).append(" Verified: ").append(getVerifiedCount())
+                .append(" Failures: ").append(getFailureCount());
+
+        return sb.toString();
+    }
+}
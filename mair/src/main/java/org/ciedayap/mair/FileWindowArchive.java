@@ -0,0 +1,85 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * It keeps the window archive on disk using fixed-size records of 40 bytes
+ * (8 bytes for the sequence number, 16 bytes for the root and 16 bytes for the chain hash).
+ * Because the records have a fixed size, the binary search on the sequence numbers
+ * is made directly on the file. An existing file is reopened and the chain continues from its last entry.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class FileWindowArchive extends WindowArchive implements Closeable {
+    public static final int RECORD_LENGTH=8+2*DIGEST_LENGTH;
+
+    private final RandomAccessFile raf;
+    private long count;
+
+    /**
+     * It opens (or creates) the archive stored in the indicated file
+     * @param file The file in which the archive is stored
+     * @throws IOException It is raised when the file cannot be opened or its length is not consistent with the record size
+     */
+    public FileWindowArchive(File file) throws IOException
+    {
+        if(file==null) throw new IOException("The file is not defined");
+
+        raf=new RandomAccessFile(file,"rw");
+        long len=raf.length();
+        if((len%RECORD_LENGTH)!=0)
+        {
+            raf.close();
+            throw new IOException("The archive length is not a multiple of the record size");
+        }
+
+        count=len/RECORD_LENGTH;
+    }
+
+    @Override
+    protected void write(long seq, byte[] root, byte[] chain) throws IOException
+    {
+        raf.seek(count*RECORD_LENGTH);
+        raf.writeLong(seq);
+        raf.write(root, 0, DIGEST_LENGTH);
+        raf.write(chain, 0, DIGEST_LENGTH);
+        count++;
+    }
+
+    @Override
+    protected long sequenceAt(long idx) throws IOException
+    {
+        raf.seek(idx*RECORD_LENGTH);
+
+        return raf.readLong();
+    }
+
+    @Override
+    protected void read(long idx, byte[] root, byte[] chain) throws IOException
+    {
+        raf.seek(idx*RECORD_LENGTH+8);
+        raf.readFully(root, 0, DIGEST_LENGTH);
+        raf.readFully(chain, 0, DIGEST_LENGTH);
+    }
+
+    @Override
+    public synchronized long size()
+    {
+        return count;
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        raf.close();
+    }
+}
@@ -5,8 +5,23 @@
  */
 package org.ciedayap.mair;
 
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 /**
  *
@@ -26,6 +41,68 @@ public class GlobalIntegrityRecord {
      * The defaul level value for the number of measurement adapters per project.
      */        
     private final int numberOfMA;
+    /**
+     * It keeps a Merkle tree over the roots of the projects, ordered by their IDs.
+     */
+    private final RootMerkleTree roots;
+    /**
+     * It creates the window archive for each new measurement adapter (it could be null)
+     */
+    private WindowArchiveFactory archiveFactory;
+    /**
+     * It indicates whether the reverse index of transactions is enabled for the measurement adapters
+     */
+    private boolean leafIndexing;
+    /**
+     * The number of versions retained by the records of the measurement adapters (0 when the retention is disabled)
+     */
+    private int retainedVersions;
+    /**
+     * The number of bytes kept for each intermediary node by the trees of the new measurement adapters
+     * (8, 12 or 16 for compact trees, 0 for the default trees)
+     */
+    private int digestLength;
+    /**
+     * It indicates whether the compact trees of the new measurement adapters truncate also the leaves
+     */
+    private boolean truncateLeaves;
+    /**
+     * The number of children of each intermediary node in the trees of the new measurement adapters
+     * (2 for the binary trees, 4, 8 or 16 for the k-ary trees)
+     */
+    private int arity=2;
+    /**
+     * It interns the project IDs into dense integers
+     */
+    private final IdRegistry projectIds;
+    /**
+     * It interns the measurement adapter IDs into dense integers (shared among projects)
+     */
+    private final IdRegistry maIds;
+    /**
+     * The project records cached by their integer ID. It is replaced when it grows.
+     */
+    private volatile ProjectIntegrityRecord projectsById[];
+    /**
+     * It indicates that the bulk verification is not filtered by role
+     */
+    private static final short ANY_ROLE=-1;
+    /**
+     * It limits the estimated memory of the measurement adapter records (null means without limit)
+     */
+    private MemoryBudget budget;
+    /**
+     * It provides the cleared trees for the new measurement adapters and receives the trees of the removed ones (it could be null)
+     */
+    private BDTreePool treePool;
+    /**
+     * It orders the changes of the records with respect to the consistent snapshots
+     */
+    private final SnapshotClock epochs=new SnapshotClock();
+    /**
+     * It offers the root changes of the measurement adapters to the subscriptions
+     */
+    private final RootChangePublisher publisher=new RootChangePublisher();
     
     /**
      * It initializes the Global Integrity record with an initial capacity of 10 projects.
@@ -42,7 +119,11 @@ public class GlobalIntegrityRecord {
         levels=plevels;
         numberOfMA=nOfMA;
         
-        map=new ConcurrentHashMap(10);        
+        map=new ConcurrentHashMap<>(10);        
+        roots=new RootMerkleTree();
+        projectIds=new IdRegistry();
+        maIds=new IdRegistry();
+        projectsById=new ProjectIntegrityRecord[0];
     }
     
     /**
@@ -64,7 +145,11 @@ public class GlobalIntegrityRecord {
         levels=plevels;
         numberOfMA=nOfMA;
         
-        map=new ConcurrentHashMap(nofPrj);
+        map=new ConcurrentHashMap<>(nofPrj);
+        roots=new RootMerkleTree();
+        projectIds=new IdRegistry();
+        maIds=new IdRegistry();
+        projectsById=new ProjectIntegrityRecord[0];
     }
     
     /**
@@ -80,18 +165,335 @@ public class GlobalIntegrityRecord {
      * @throws org.ciedayap.mair.IntegrityRecordException  It is raised when the number of measurement adapter records in the hash map is indicated under 1.
      */
     public synchronized Boolean addTransaction(String projectID, String maID,short currentRole, String hashMD5) throws BDTreeException, NoSuchAlgorithmException, TreeNodeException, IntegrityRecordException
+    {
+        return addTransaction(projectID,maID,currentRole,hashMD5,BDTree.NO_TIMESTAMP);
+    }
+    
+    /**
+     * It adds a new hash associated with a transaction together with its event timestamp in the MAIntegrityRecord. 
+     * In case of the record does not exist, it is created.
+     * @param projectID The project ID
+     * @param maID The measurement adapter ID
+     * @param currentRole The current role related to the measurement adapter
+     * @param hashMD5 The hash associated with the transaction to be stored
+     * @param timestamp The event timestamp of the transaction (BDTree.NO_TIMESTAMP when it is not known)
+     * @return TRUE when the transaction has been stored in the integrity record, FALSE otherwise (e.g. the timestamp is older than the last one or the measurement adapter is blocked)
+     * @throws BDTreeException It is raised when the Merkel tree cannot be created
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available on the platform
+     * @throws TreeNodeException It is raised when the new node for the transaction cannot be created
+     * @throws IntegrityRecordException It is raised when the project record cannot be created, or when the transaction
+     * has been incorporated but the root of the window that it completes cannot be archived
+     */
+    public synchronized Boolean addTransaction(String projectID, String maID,short currentRole, String hashMD5,long timestamp) throws BDTreeException, NoSuchAlgorithmException, TreeNodeException, IntegrityRecordException
     {
         if(projectID==null || projectID.trim().length()==0) return false;
         if(maID==null || maID.trim().length()==0) return false;
         if(!MAIntegrityRecord.isValidRole(currentRole)) return false;
         if(hashMD5==null || hashMD5.trim().length()==0) return false;
         
-        ProjectIntegrityRecord record=(map.containsKey(projectID))?map.get(projectID):new ProjectIntegrityRecord(this.levels,this.numberOfMA);
+        epochs.enter();
+        try{
+            ProjectIntegrityRecord record=map.get(projectID);
+            if(record==null)
+            {
+                record=newProject(projectID);
+                map.put(projectID, record);
+            }
+
+            try{
+                return record.addTransaction(maID, currentRole, hashMD5, timestamp);
+            }finally{
+                roots.update(projectID, record.getProjectRootHash());
+            }
+        }finally{
+            epochs.exit();
+        }
+    }
+    
+    /**
+     * It adds a new hash associated with a transaction using the integer IDs obtained from 
+     * registerProject and registerMA. The records are resolved through primitive-indexed arrays,
+     * avoiding the String-keyed lookups on the hot path. It saves only the lookups: the transaction is still
+     * incorporated under the global monitor and the monitor of the project record, like addTransaction(String,String,short,String),
+     * so a project removed in the meantime cannot be incorporated again into the global root.
+     * @param projectIdx The integer ID of the project
+     * @param maIdx The integer ID of the measurement adapter
+     * @param currentRole The current role related to the measurement adapter
+     * @param hashMD5 The hash associated with the transaction to be stored
+     * @return TRUE when the transaction has been stored, FALSE otherwise (e.g. the integer IDs are not registered)
+     * @throws BDTreeException It is raised when the Merkel tree cannot be created
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available on the platform
+     * @throws TreeNodeException It is raised when the new node for the transaction cannot be created
+     * @throws org.ciedayap.mair.IntegrityRecordException  It is raised when the project record cannot be created
+     */
+    public synchronized Boolean addTransaction(int projectIdx, int maIdx,short currentRole, String hashMD5) throws BDTreeException, NoSuchAlgorithmException, TreeNodeException, IntegrityRecordException
+    {
+        String maID=maIds.getName(maIdx);
+        if(maID==null) return false;
         
-        boolean ret= record.addTransaction(maID, currentRole, hashMD5);
-        map.put(projectID, record);
+        ProjectIntegrityRecord record=getProjectRecord(projectIdx);
+        if(record==null)
+        {
+            String projectID=projectIds.getName(projectIdx);
+            if(projectID==null) return false;
+            
+            Boolean ret=addTransaction(projectID,maID,currentRole,hashMD5);
+            record=map.get(projectID);
+            cacheProjectRecord(projectIdx,record);
+            if(record!=null) record.cacheRecord(maIdx, record.getRecord(maID));
+            
+            return ret;
+        }
         
-        return ret;
+        try{
+            return record.addTransaction(maIdx, maID, currentRole, hashMD5);
+        }finally{
+            roots.update(record.getProjectID(), record.getProjectRootHash());
+        }
+    }
+    
+    /**
+     * It registers the project ID in order to be used with the integer-based methods
+     * @param projectID The project ID
+     * @return The integer ID of the project, -1 when the project ID is not valid
+     */
+    public int registerProject(String projectID)
+    {
+        return projectIds.register(projectID);
+    }
+    
+    /**
+     * It registers the measurement adapter ID in order to be used with the integer-based methods.
+     * The integer IDs of the measurement adapters are shared among all the projects.
+     * @param maID The measurement adapter ID
+     * @return The integer ID of the measurement adapter, -1 when the measurement adapter ID is not valid
+     */
+    public int registerMA(String maID)
+    {
+        return maIds.register(maID);
+    }
+    
+    /**
+     * It resolves the measurement adapter record using the integer IDs, caching it when required
+     * @param projectIdx The integer ID of the project
+     * @param maIdx The integer ID of the measurement adapter
+     * @return The measurement adapter record, null when it does not exist
+     */
+    private MAIntegrityRecord resolve(int projectIdx,int maIdx)
+    {
+        ProjectIntegrityRecord prj=getProjectRecord(projectIdx);
+        if(prj==null)
+        {
+            String projectID=projectIds.getName(projectIdx);
+            prj=(projectID==null)?null:map.get(projectID);
+            if(prj==null) return null;
+            
+            cacheProjectRecord(projectIdx,prj);
+        }
+        
+        MAIntegrityRecord record=prj.getRecord(maIdx);
+        if(record==null)
+        {
+            String maID=maIds.getName(maIdx);
+            record=(maID==null)?null:prj.getRecord(maID);
+            if(record==null) return null;
+            
+            prj.cacheRecord(maIdx, record);
+        }
+        
+        return record;
+    }
+    
+    /**
+     * It returns the integrity record of the indicated measurement adapter without taking the global lock
+     * @param projectID The project ID
+     * @param maID The measurement adapter ID
+     * @return The measurement adapter record, null when it does not exist
+     */
+    MAIntegrityRecord getRecord(String projectID,String maID)
+    {
+        if(projectID==null || maID==null) return null;
+        
+        ProjectIntegrityRecord prj=map.get(projectID);
+        
+        return (prj==null)?null:prj.getRecord(maID);
+    }
+    
+    /**
+     * It updates the global root after changing the root of the indicated project outside addTransaction (e.g. a repair)
+     * @param projectID The project ID
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    synchronized void refreshProjectRoot(String projectID) throws NoSuchAlgorithmException
+    {
+        ProjectIntegrityRecord record=(projectID==null)?null:map.get(projectID);
+        if(record!=null) roots.update(projectID, record.getProjectRootHash());
+    }
+    
+    /**
+     * @return An unmodifiable view of the project records indexed by their IDs
+     */
+    Map<String,ProjectIntegrityRecord> getProjects()
+    {
+        return Collections.unmodifiableMap(map);
+    }
+    
+    /**
+     * It returns the project record, creating it when it does not exist (e.g. while restoring a checkpoint)
+     * @param projectID The project ID
+     * @return The project record
+     * @throws BDTreeException It is raised when the number of levels is lower than 1
+     * @throws IntegrityRecordException It is raised when the project record cannot be created
+     */
+    synchronized ProjectIntegrityRecord getOrCreateProject(String projectID) throws BDTreeException, IntegrityRecordException
+    {
+        ProjectIntegrityRecord record=map.get(projectID);
+        if(record==null)
+        {
+            record=newProject(projectID);
+            map.put(projectID, record);
+        }
+        
+        return record;
+    }
+    
+    /**
+     * It rebuilds the project roots and the global root at once (e.g. after restoring a checkpoint)
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    synchronized void rebuildRoots() throws NoSuchAlgorithmException
+    {
+        HashMap<String,String> values=new HashMap<>();
+        for(Map.Entry<String,ProjectIntegrityRecord> entry:map.entrySet())
+        {
+            entry.getValue().rebuildRoots();
+            values.put(entry.getKey(), entry.getValue().getProjectRootHash());
+        }
+        
+        roots.reset(values);
+    }
+    
+    /**
+     * @return the default level value for the number of transactions to keep an integrity record (2^levels)
+     */
+    public int getLevels() {
+        return levels;
+    }
+    
+    /**
+     * @return the default value for the number of measurement adapters per project
+     */
+    public int getNumberOfMA() {
+        return numberOfMA;
+    }
+    
+    /**
+     * It returns the project record cached for the integer ID
+     * @param projectIdx The integer ID of the project
+     * @return The project record when it is cached, null otherwise
+     */
+    private ProjectIntegrityRecord getProjectRecord(int projectIdx)
+    {
+        ProjectIntegrityRecord current[]=projectsById;
+        if(projectIdx<0 || projectIdx>=current.length) return null;
+        
+        return current[projectIdx];
+    }
+    
+    private synchronized void cacheProjectRecord(int projectIdx,ProjectIntegrityRecord record)
+    {
+        if(projectIdx<0) return;
+        
+        ProjectIntegrityRecord current[]=projectsById;
+        if(projectIdx>=current.length) current=Arrays.copyOf(current, Math.max(projectIdx+1, 2*current.length));
+        current[projectIdx]=record;
+        projectsById=current;
+    }
+    
+    /**
+     * it verifies whether the root hash matches or not with the indicated hash using the integer IDs
+     * @param projectIdx The integer ID of the project
+     * @param maIdx The integer ID of the measurement adapter
+     * @param comeMD5 The hash to be contrasted with the root hash
+     * @return TRUE when the hashes match between them, FALSE otherwise
+     */
+    public Boolean hasWholeIntegrity(int projectIdx, int maIdx,String comeMD5)
+    {
+        MAIntegrityRecord record=resolve(projectIdx,maIdx);
+        if(record==null) return false;
+        
+        return record.hasWholeIntegrity(comeMD5);
+    }
+    
+    /**
+     * It verifies the hash of the firsts 2^levels transactions using the integer IDs
+     * @param projectIdx The integer ID of the project
+     * @param maIdx The integer ID of the measurement adapter
+     * @param hashMD5 The hash associated with the firsts 2^levels transactions
+     * @param levels The number of levels related to the transactions to be contrasted
+     * @return TRUE when the hashes match between them, FALSE otherwise
+     */
+    public Boolean verifyIntegrityFirsts(int projectIdx, int maIdx,String hashMD5, int levels)
+    {
+        MAIntegrityRecord record=resolve(projectIdx,maIdx);
+        if(record==null) return false;
+        
+        return record.verifyIntegrityFirsts(hashMD5, levels);
+    }
+    
+    /**
+     * It verifies the hash of the lasts 2^levels transactions using the integer IDs
+     * @param projectIdx The integer ID of the project
+     * @param maIdx The integer ID of the measurement adapter
+     * @param hashMD5 The hash associated with the lasts 2^levels transactions
+     * @param levels The number of levels related to the transactions to be contrasted
+     * @return TRUE when the hashes match between them, FALSE otherwise
+     */
+    public Boolean verifyIntegrityLasts(int projectIdx, int maIdx,String hashMD5, int levels)
+    {
+        MAIntegrityRecord record=resolve(projectIdx,maIdx);
+        if(record==null) return false;
+        
+        return record.verifyIntegrityLasts(hashMD5, levels);
+    }
+    
+    /**
+     * It verify the hash for a given transaction using the integer IDs
+     * @param projectIdx The integer ID of the project
+     * @param maIdx The integer ID of the measurement adapter
+     * @param hashMD5 The hash to be verified
+     * @param offset The offset of the transaction for whom the hash is associated
+     * @return TRUE when the hashes match, false otherwise
+     */
+    public Boolean verifyTransactionIntegrity(int projectIdx, int maIdx,String hashMD5, int offset)
+    {
+        MAIntegrityRecord record=resolve(projectIdx,maIdx);
+        if(record==null) return false;
+        
+        return record.verifyTransactionIntegrity(hashMD5, offset);
+    }
+    
+    /**
+     * It creates a new project integrity record
+     * @param projectID The project ID
+     * @return The new project integrity record
+     */
+    private ProjectIntegrityRecord newProject(String projectID) throws BDTreeException, IntegrityRecordException
+    {
+        ProjectIntegrityRecord record=new ProjectIntegrityRecord(this.levels,this.numberOfMA);
+        record.setProjectID(projectID);
+        record.setArchiveFactory(archiveFactory);
+        if(leafIndexing) record.setLeafIndexing(true);
+        if(retainedVersions>0) record.setRetainedVersions(retainedVersions);
+        if(digestLength!=0) record.setDigestStorage(digestLength, truncateLeaves);
+        if(arity!=2) record.setArity(arity);
+        if(budget!=null) record.setMemoryBudget(budget);
+        if(treePool!=null) record.setTreePool(treePool);
+        record.setSnapshotClock(epochs);
+        record.setRootChangePublisher(publisher);
+        record.setCreatedEpoch(epochs.getEpoch());
+        
+        return record;
     }
     
     /**
@@ -160,43 +562,856 @@ public class GlobalIntegrityRecord {
     }
     
     /**
-     * It verify the hash for a given transaction.The transactions are identified
-        considering the relative offset (i.e.1 is the oldest and 2^levels (of the tree)
-        is the newest.
+     * It verifies whether the root of the indicated version of the measurement adapter matches with the indicated hash.
+     * The version is the number of transactions incorporated by the measurement adapter when the hash was computed
+     * (see MAIntegrityRecord.hasWholeIntegrity(String,long)).
+     * @param projectID The project ID related to the measurement adapter
+     * @param maID It indicates the measurement adapter in which the verification should be made
+     * @param comeMD5 The hash to be contrasted with the root hash of the version
+     * @param version The version of the record against which the hash is contrasted
+     * @return TRUE when the hashes match between them, FALSE otherwise (e.g. the version is not retained)
+     */
+    public synchronized Boolean hasWholeIntegrity(String projectID,String maID,String comeMD5,long version)
+    {
+        if(maID==null || maID.trim().length()==0) return false;
+        if(projectID==null || projectID.trim().length()==0) return false;
+        if(comeMD5==null || comeMD5.trim().length()==0) return false;
+        
+        ProjectIntegrityRecord record=map.get(projectID);
+        if(record==null) return false;
+                
+        return record.hasWholeIntegrity(maID,comeMD5,version);
+    }
+    
+    /**
+     * It verifies whether the root of the current version of the measurement adapter or of one of its previous
+     * tolerance versions matches with the indicated hash, so the transactions incorporated after the hash was computed
+     * do not fail the verification (see setRetainedVersions)
+     * @param projectID The project ID related to the measurement adapter
+     * @param maID It indicates the measurement adapter in which the verification should be made
+     * @param comeMD5 The hash to be contrasted with the root hashes
+     * @param tolerance The number of previous versions that are accepted (0 means only the current version)
+     * @return TRUE when the hash matches with one of the accepted versions, FALSE otherwise
+     */
+    public synchronized Boolean hasWholeIntegrityWithin(String projectID,String maID,String comeMD5,int tolerance)
+    {
+        if(maID==null || maID.trim().length()==0) return false;
+        if(projectID==null || projectID.trim().length()==0) return false;
+        if(comeMD5==null || comeMD5.trim().length()==0) return false;
+        if(tolerance<0) return false;
+        
+        ProjectIntegrityRecord record=map.get(projectID);
+        if(record==null) return false;
+                
+        return record.hasWholeIntegrityWithin(maID,comeMD5,tolerance);
+    }
+    
+    /**
+     * It verifies the hash of the firsts 2^levels transactions of the indicated version of the measurement adapter
      * @param projectID The project ID associated with the measurement adapter
      * @param maID It indicates the measurement adapter in which the verification should be made
-     * @param hashMD5 The hash to be verified
-     * @param offset The offset of the transaction for whom the hash is associated
-     * @return TRUE when the hashes match, false otherwise
-     */    
-    public synchronized Boolean verifyTransactionIntegrity(String projectID,String maID, String hashMD5, int offset)
+     * @param hashMD5 The hash associated with the firsts 2^levels transactions
+     * @param levels The number of levels related to the transactions to be contrasted
+     * @param version The version of the record against which the hash is contrasted
+     * @return TRUE when the hashes match between them, FALSE otherwise (e.g. the version is not retained)
+     */
+    public synchronized Boolean verifyIntegrityFirsts(String projectID,String maID,String hashMD5,int levels,long version)
     {
         if(maID==null || maID.trim().length()==0) return false;
         if(projectID==null || projectID.trim().length()==0) return false;
+        if(levels<1) return false;
         if(hashMD5==null || hashMD5.trim().length()==0) return false;
-        if(offset<1) return false;
         
         ProjectIntegrityRecord record=map.get(projectID);
         if(record==null) return false;
                 
-        return record.verifyTransactionIntegrity(maID,hashMD5, offset);
-    }    
+        return record.verifyIntegrityFirsts(maID,hashMD5,levels,version);
+    }
     
     /**
-     * It returns a string version of the merkle tree associated with the indicated MA
-     * @param projectID The project id associated with the measurement adapter
-     * @param maID The measurement adapter to be analyzed
-     * @return A string representation of the merkle tree for the indicated measurement adapter 
+     * It verifies the hash of the firsts 2^levels transactions against the current version of the measurement adapter
+     * and its previous tolerance versions
+     * @param projectID The project ID associated with the measurement adapter
+     * @param maID It indicates the measurement adapter in which the verification should be made
+     * @param hashMD5 The hash associated with the firsts 2^levels transactions
+     * @param levels The number of levels related to the transactions to be contrasted
+     * @param tolerance The number of previous versions that are accepted (0 means only the current version)
+     * @return TRUE when the hash matches with one of the accepted versions, FALSE otherwise
      */
-    public String show(String projectID, String maID)
+    public synchronized Boolean verifyIntegrityFirstsWithin(String projectID,String maID,String hashMD5,int levels,int tolerance)
     {
-        if(map==null) return null;
-
-        ProjectIntegrityRecord record=map.get(projectID);
-        if(record==null) return null;
+        if(maID==null || maID.trim().length()==0) return false;
+        if(projectID==null || projectID.trim().length()==0) return false;
+        if(levels<1 || tolerance<0) return false;
+        if(hashMD5==null || hashMD5.trim().length()==0) return false;
         
-        return record.show(maID);
-    }    
+        ProjectIntegrityRecord record=map.get(projectID);
+        if(record==null) return false;
+                
+        return record.verifyIntegrityFirstsWithin(maID,hashMD5,levels,tolerance);
+    }
+    
+    /**
+     * It verifies the hash of the lasts 2^levels transactions of the indicated version of the measurement adapter
+     * @param projectID The project ID associated with the measurement adapter
+     * @param maID It indicates the measurement adapter in which the verification should be made
+     * @param hashMD5 The hash associated with the lasts 2^levels transactions
+     * @param levels The number of levels related to the transactions to be contrasted
+     * @param version The version of the record against which the hash is contrasted
+     * @return TRUE when the hashes match between them, FALSE otherwise (e.g. the version is not retained)
+     */
+    public synchronized Boolean verifyIntegrityLasts(String projectID,String maID,String hashMD5,int levels,long version)
+    {
+        if(maID==null || maID.trim().length()==0) return false;
+        if(projectID==null || projectID.trim().length()==0) return false;
+        if(levels<1) return false;
+        if(hashMD5==null || hashMD5.trim().length()==0) return false;
+        
+        ProjectIntegrityRecord record=map.get(projectID);
+        if(record==null) return false;
+                
+        return record.verifyIntegrityLasts(maID,hashMD5,levels,version);
+    }
+    
+    /**
+     * It verifies the hash of the lasts 2^levels transactions against the current version of the measurement adapter
+     * and its previous tolerance versions
+     * @param projectID The project ID associated with the measurement adapter
+     * @param maID It indicates the measurement adapter in which the verification should be made
+     * @param hashMD5 The hash associated with the lasts 2^levels transactions
+     * @param levels The number of levels related to the transactions to be contrasted
+     * @param tolerance The number of previous versions that are accepted (0 means only the current version)
+     * @return TRUE when the hash matches with one of the accepted versions, FALSE otherwise
+     */
+    public synchronized Boolean verifyIntegrityLastsWithin(String projectID,String maID,String hashMD5,int levels,int tolerance)
+    {
+        if(maID==null || maID.trim().length()==0) return false;
+        if(projectID==null || projectID.trim().length()==0) return false;
+        if(levels<1 || tolerance<0) return false;
+        if(hashMD5==null || hashMD5.trim().length()==0) return false;
+        
+        ProjectIntegrityRecord record=map.get(projectID);
+        if(record==null) return false;
+                
+        return record.verifyIntegrityLastsWithin(maID,hashMD5,levels,tolerance);
+    }
+    
+    /**
+     * It verify the hash for a given transaction.The transactions are identified
+        considering the relative offset (i.e.1 is the oldest and 2^levels (of the tree)
+        is the newest.
+     * @param projectID The project ID associated with the measurement adapter
+     * @param maID It indicates the measurement adapter in which the verification should be made
+     * @param hashMD5 The hash to be verified
+     * @param offset The offset of the transaction for whom the hash is associated
+     * @return TRUE when the hashes match, false otherwise
+     */    
+    public synchronized Boolean verifyTransactionIntegrity(String projectID,String maID, String hashMD5, int offset)
+    {
+        if(maID==null || maID.trim().length()==0) return false;
+        if(projectID==null || projectID.trim().length()==0) return false;
+        if(hashMD5==null || hashMD5.trim().length()==0) return false;
+        if(offset<1) return false;
+        
+        ProjectIntegrityRecord record=map.get(projectID);
+        if(record==null) return false;
+                
+        return record.verifyTransactionIntegrity(maID,hashMD5, offset);
+    }    
+    
+    /**
+     * It verifies the hash of a window that slid out of the tree of the indicated measurement adapter
+     * @param projectID The project ID associated with the measurement adapter
+     * @param maID It indicates the measurement adapter in which the verification should be made
+     * @param hashMD5 The hash to be contrasted with the archived root
+     * @param windowSeq The window sequence number
+     * @return TRUE when the hashes match, FALSE otherwise
+     * @throws IOException It is raised when the archive cannot be read
+     */
+    public Boolean verifyArchivedWindow(String projectID,String maID,String hashMD5,long windowSeq) throws IOException
+    {
+        if(projectID==null || projectID.trim().length()==0) return false;
+        
+        ProjectIntegrityRecord record=map.get(projectID);
+        if(record==null) return false;
+        
+        return record.verifyArchivedWindow(maID, hashMD5, windowSeq);
+    }
+    
+    /**
+     * It looks for the transaction with the indicated hash in the current window of the measurement adapter
+     * @param projectID The project ID associated with the measurement adapter
+     * @param maID The measurement adapter ID
+     * @param hashMD5 The hash of the transaction to be found
+     * @return The offset of the most recent transaction with such a hash, -1 when it is not present
+     */
+    public int findTransaction(String projectID,String maID,String hashMD5)
+    {
+        if(projectID==null || projectID.trim().length()==0) return -1;
+        
+        ProjectIntegrityRecord record=map.get(projectID);
+        if(record==null) return -1;
+        
+        return record.findTransaction(maID, hashMD5);
+    }
+
+    /**
+     * It returns the hashes of the transactions that the measurement adapter sent in the indicated time interval
+     * @param projectID The project ID
+     * @param maID The measurement adapter ID
+     * @param from The start of the interval (inclusive)
+     * @param to The end of the interval (inclusive)
+     * @return The hashes from the oldest to the newest, null when there are not transactions in the interval
+     */
+    public String[] getHashesBetween(String projectID,String maID,long from,long to)
+    {
+        if(projectID==null || projectID.trim().length()==0) return null;
+
+        ProjectIntegrityRecord record=map.get(projectID);
+        if(record==null) return null;
+
+        return record.getHashesBetween(maID, from, to);
+    }
+
+    /**
+     * It returns the hashes of the subtrees covering the transactions that the measurement adapter sent in the indicated time interval
+     * @param projectID The project ID
+     * @param maID The measurement adapter ID
+     * @param from The start of the interval (inclusive)
+     * @param to The end of the interval (inclusive)
+     * @return The covering hashes from the left to the right, null when there are not transactions in the interval
+     */
+    public String[] getCoveringHashes(String projectID,String maID,long from,long to)
+    {
+        if(projectID==null || projectID.trim().length()==0) return null;
+
+        ProjectIntegrityRecord record=map.get(projectID);
+        if(record==null) return null;
+
+        return record.getCoveringHashes(maID, from, to);
+    }
+
+    /**
+     * It verifies the transactions that the measurement adapter sent in the indicated time interval
+     * @param projectID The project ID
+     * @param maID The measurement adapter ID
+     * @param from The start of the interval (inclusive)
+     * @param to The end of the interval (inclusive)
+     * @param hashes The hashes of the transactions from the oldest to the newest
+     * @return TRUE when the hashes match, FALSE otherwise
+     */
+    public Boolean verifyTimeRange(String projectID,String maID,long from,long to,String hashes[])
+    {
+        if(projectID==null || projectID.trim().length()==0) return false;
+
+        ProjectIntegrityRecord record=map.get(projectID);
+        if(record==null) return false;
+
+        return record.verifyTimeRange(maID, from, to, hashes);
+    }
+
+    /**
+     * It enables or disables the reverse index of transactions for the current and new measurement adapters
+     * @param enabled TRUE for enabling the index, FALSE otherwise
+     */
+    public synchronized void setLeafIndexing(boolean enabled)
+    {
+        leafIndexing=enabled;
+        for(ProjectIntegrityRecord record:map.values()) record.setLeafIndexing(enabled);
+    }
+    
+    /**
+     * @return TRUE when the reverse index of transactions is enabled for the measurement adapters, FALSE otherwise
+     */
+    public synchronized boolean isLeafIndexing()
+    {
+        return leafIndexing;
+    }
+
+    /**
+     * It defines the number of versions retained by the current and new measurement adapters, so the hashes computed
+     * by a measurement adapter can be verified against the version it saw (e.g. hasWholeIntegrity(String,String,String,long)).
+     * The retention is disabled by default.
+     * @param versions The number of versions to be retained, 0 for disabling the retention
+     * @throws IntegrityRecordException It is raised when the number of versions is negative
+     */
+    public synchronized void setRetainedVersions(int versions) throws IntegrityRecordException
+    {
+        if(versions<0) throw new IntegrityRecordException("The number of retained versions must be upper or equal than 0");
+        
+        retainedVersions=versions;
+        for(ProjectIntegrityRecord record:map.values()) record.setRetainedVersions(versions);
+    }
+    
+    /**
+     * @return The number of versions retained by the measurement adapters, 0 when the retention is disabled
+     */
+    public synchronized int getRetainedVersions()
+    {
+        return retainedVersions;
+    }
+
+    /**
+     * It defines the storage of the trees for the new measurement adapters in all the projects. The existing trees keep their storage.
+     * @param digestLength The number of bytes kept for each intermediary node in a compact tree (8, 12 or 16),
+     * 0 for the default trees (see BDTree(Integer,int,boolean) for the trade-off)
+     * @param truncateLeaves TRUE for truncating also the leaves of the compact trees, FALSE otherwise
+     * @throws IntegrityRecordException It is raised when the digest length is not supported
+     */
+    public synchronized void setDigestStorage(int digestLength,boolean truncateLeaves) throws IntegrityRecordException
+    {
+        if(digestLength!=0 && digestLength!=8 && digestLength!=12 && digestLength!=BDTree.DIGEST_LENGTH) 
+            throw new IntegrityRecordException("The digest length must be 0, 8, 12 or 16 bytes");
+        
+        this.digestLength=digestLength;
+        this.truncateLeaves=truncateLeaves;
+        for(ProjectIntegrityRecord record:map.values()) record.setDigestStorage(digestLength, truncateLeaves);
+    }
+    
+    /**
+     * @return The number of bytes kept for each intermediary node by the new compact trees, 0 for the default trees
+     */
+    public synchronized int getDigestLength()
+    {
+        return digestLength;
+    }
+    
+    /**
+     * @return TRUE when the new compact trees truncate also the leaves, FALSE otherwise
+     */
+    public synchronized boolean isTruncatingLeaves()
+    {
+        return truncateLeaves;
+    }
+    
+    /**
+     * It defines the arity of the trees for the new measurement adapters in all the projects (see ProjectIntegrityRecord.setArity).
+     * The existing trees keep their arity.
+     * @param arity The number of children of each intermediary node (2, 4, 8 or 16)
+     * @throws IntegrityRecordException It is raised when the arity is not supported
+     */
+    public synchronized void setArity(int arity) throws IntegrityRecordException
+    {
+        if(!KaryTree.isSupported(arity)) throw new IntegrityRecordException("The arity must be 2, 4, 8 or 16");
+        
+        this.arity=arity;
+        for(ProjectIntegrityRecord record:map.values()) record.setArity(arity);
+    }
+    
+    /**
+     * @return The number of children of each intermediary node in the new trees (2 for the binary trees)
+     */
+    public synchronized int getArity()
+    {
+        return arity;
+    }
+    
+    /**
+     * It defines the memory budget that admits the new measurement adapter records in all the projects.
+     * The global limit is shared by all the projects, while the project limit is applied to each one. The
+     * existing records are charged to the new budget. When the EVICT policy is used, the evicted records
+     * are taken from the same project than the new measurement adapter.
+     * @param budget The memory budget (null means without limit)
+     */
+    public synchronized void setMemoryBudget(MemoryBudget budget)
+    {
+        this.budget=budget;
+        for(ProjectIntegrityRecord record:map.values()) record.setMemoryBudget(budget);
+    }
+    
+    /**
+     * @return the memory budget that admits the new measurement adapter records (null means without limit)
+     */
+    public synchronized MemoryBudget getMemoryBudget()
+    {
+        return budget;
+    }
+    
+    /**
+     * It changes the current role of the measurement adapter (e.g. for unblocking it) without incorporating a transaction.
+     * When the record is replicated, the role must be changed through ReplicationPrimary.setRole.
+     * @param projectID The project ID
+     * @param maID The measurement adapter ID
+     * @param role The new role
+     * @return TRUE when the role has been changed, FALSE when the measurement adapter does not exist or the role is not valid
+     */
+    public synchronized Boolean setRole(String projectID,String maID,short role)
+    {
+        if(projectID==null) return false;
+        
+        ProjectIntegrityRecord record=map.get(projectID);
+        if(record==null) return false;
+        
+        return record.setRole(maID, role);
+    }
+    
+    /**
+     * It returns the measurement adapters of the project whose current role is the indicated one
+     * @param projectID The project ID
+     * @param role The role
+     * @return An unmodifiable view of the IDs of the measurement adapters, an empty set when the project does not exist
+     */
+    public Set<String> getMAsByRole(String projectID,short role)
+    {
+        ProjectIntegrityRecord record=(projectID==null)?null:map.get(projectID);
+        if(record==null) return Collections.emptySet();
+        
+        return record.getMAsByRole(role);
+    }
+    
+    /**
+     * It returns the measurement adapters whose current role is the indicated one in all the projects
+     * @param role The role
+     * @return A snapshot with the IDs of the measurement adapters by project ID (the projects without such measurement adapters are omitted)
+     */
+    public Map<String,Set<String>> getMAsByRole(short role)
+    {
+        HashMap<String,Set<String>> ret=new HashMap<>();
+        for(Map.Entry<String,ProjectIntegrityRecord> entry:map.entrySet())
+        {
+            Set<String> mas=entry.getValue().getMAsByRole(role);
+            if(!mas.isEmpty()) ret.put(entry.getKey(), new HashSet<>(mas));
+        }
+        
+        return ret;
+    }
+    
+    /**
+     * It indicates whether the measurement adapter is blocked (its transactions are rejected)
+     * @param projectID The project ID
+     * @param maID The measurement adapter ID
+     * @return TRUE when the measurement adapter is blocked, FALSE otherwise
+     */
+    public boolean isBlocked(String projectID,String maID)
+    {
+        ProjectIntegrityRecord record=(projectID==null)?null:map.get(projectID);
+        
+        return record!=null && record.isBlocked(maID);
+    }
+    
+    /**
+     * It defines the pool from which the trees of the new measurement adapters are obtained
+     * and to which the trees of the removed measurement adapters are returned, in all the projects
+     * @param treePool The pool of trees (null for creating a new tree for each measurement adapter)
+     */
+    public synchronized void setTreePool(BDTreePool treePool)
+    {
+        this.treePool=treePool;
+        for(ProjectIntegrityRecord record:map.values()) record.setTreePool(treePool);
+    }
+    
+    /**
+     * @return the pool of trees used for the measurement adapters (null when the trees are not pooled)
+     */
+    public synchronized BDTreePool getTreePool()
+    {
+        return treePool;
+    }
+    
+    /**
+     * It removes the measurement adapter from the project, updating the project and global roots. Its tree is returned
+     * to the pool of trees (when there is one) and its memory is released from the budget.
+     * @param projectID The project ID
+     * @param maID The measurement adapter ID
+     * @return TRUE when the measurement adapter has been removed, FALSE when it does not exist
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    public synchronized Boolean removeMA(String projectID,String maID) throws NoSuchAlgorithmException
+    {
+        if(projectID==null || maID==null) return false;
+        
+        ProjectIntegrityRecord record=map.get(projectID);
+        if(record==null || !record.removeMA(maID)) return false;
+        
+        roots.update(projectID, record.getProjectRootHash());
+        
+        return true;
+    }
+    
+    /**
+     * It subscribes the listener to the root changes of the measurement adapters. Each transaction incorporated and each
+     * removal (including the evictions of the memory budget) produces an event, which is delivered by the executor.
+     * The rapid changes of the same measurement adapter are coalesced into the latest state, and the pending events
+     * are bounded by maxPending, so a slow listener never holds up the incorporation of transactions.
+     * @param projectID The project ID to be observed (null for all the projects)
+     * @param maID The measurement adapter ID to be observed (null for all the measurement adapters)
+     * @param listener The listener receiving the events
+     * @param executor The executor delivering the events (null for a default pool of daemon threads)
+     * @param maxPending The max number of measurement adapters with a pending event
+     * @return The subscription
+     * @throws IntegrityRecordException It is raised when the listener is not defined or maxPending is lower than 1
+     */
+    public RootSubscription subscribe(String projectID,String maID,RootChangeListener listener,Executor executor,int maxPending) throws IntegrityRecordException
+    {
+        RootSubscription ret=new RootSubscription(projectID,maID,listener,executor,maxPending);
+        publisher.add(ret);
+        
+        return ret;
+    }
+    
+    /**
+     * It subscribes the listener to the root changes using the default executor and RootSubscription.DEFAULT_MAX_PENDING
+     * (see subscribe(String,String,RootChangeListener,Executor,int))
+     * @param projectID The project ID to be observed (null for all the projects)
+     * @param maID The measurement adapter ID to be observed (null for all the measurement adapters)
+     * @param listener The listener receiving the events
+     * @return The subscription
+     * @throws IntegrityRecordException It is raised when the listener is not defined
+     */
+    public RootSubscription subscribe(String projectID,String maID,RootChangeListener listener) throws IntegrityRecordException
+    {
+        return subscribe(projectID,maID,listener,null,RootSubscription.DEFAULT_MAX_PENDING);
+    }
+    
+    /**
+     * It cancels the subscription and stops offering it the root changes
+     * @param subscription The subscription
+     * @return TRUE when the subscription belonged to this record, FALSE otherwise
+     */
+    public Boolean unsubscribe(RootSubscription subscription)
+    {
+        if(subscription==null) return false;
+        
+        subscription.cancel();
+        
+        return publisher.remove(subscription);
+    }
+    
+    /**
+     * @return The number of active subscriptions to the root changes
+     */
+    public int getSubscriptionCount()
+    {
+        return publisher.size();
+    }
+    
+    /**
+     * It estimates the memory used by the measurement adapter records of all the projects (see MemoryBudget.estimate)
+     * @return The estimated bytes
+     */
+    public long getEstimatedBytes()
+    {
+        long ret=0;
+        for(ProjectIntegrityRecord record:map.values()) ret+=record.getEstimatedBytes();
+        
+        return ret;
+    }
+    
+    /**
+     * @return the factory used for creating the window archive of each new measurement adapter
+     */
+    public WindowArchiveFactory getArchiveFactory() {
+        return archiveFactory;
+    }
+
+    /**
+     * It sets the factory used for creating the window archive of each new measurement adapter.
+     * The existing projects adopt it for their new measurement adapters too.
+     * @param archiveFactory the factory to set (null disables the archiving)
+     */
+    public synchronized void setArchiveFactory(WindowArchiveFactory archiveFactory) {
+        this.archiveFactory = archiveFactory;
+        for(ProjectIntegrityRecord record:map.values()) record.setArchiveFactory(archiveFactory);
+    }
+    
+    /**
+     * It returns the root of the Merkle tree built over the roots of the measurement adapters
+     * belonging to the indicated project.
+     * @param projectID The project ID
+     * @return The project root hash, null when the project does not exist or it has not transactions
+     */
+    public String getProjectRootHash(String projectID)
+    {
+        if(projectID==null || projectID.trim().length()==0) return null;
+
+        ProjectIntegrityRecord record=map.get(projectID);
+
+        return (record==null)?null:record.getProjectRootHash();
+    }
+
+    /**
+     * It returns the root of the Merkle tree built over the project roots, ordered by the project IDs.
+     * @return The global root hash, null when there are not transactions
+     */
+    public String getGlobalRootHash()
+    {
+        return roots.getRootHash();
+    }
+
+    /**
+     * It returns the proof linking the root of the indicated measurement adapter with its project root
+     * and the global root.
+     * @param projectID The project ID related to the measurement adapter
+     * @param maID The measurement adapter ID
+     * @return The proof from the MA root up to the global root, null when the project or MA does not exist
+     */
+    public synchronized IntegrityProof getIntegrityProof(String projectID,String maID)
+    {
+        if(projectID==null || projectID.trim().length()==0) return null;
+        if(maID==null || maID.trim().length()==0) return null;
+
+        ProjectIntegrityRecord prj=map.get(projectID);
+        if(prj==null) return null;
+        MAIntegrityRecord record=prj.getRecord(maID);
+        if(record==null) return null;
+
+        List<IntegrityProof.Step> maToProject=prj.getProjectProof(maID);
+        List<IntegrityProof.Step> projectToGlobal=roots.getProof(projectID);
+        if(maToProject==null || projectToGlobal==null) return null;
+
+        return new IntegrityProof(projectID,maID,record.getRootHash(),maToProject,
+                prj.getProjectRootHash(),projectToGlobal,roots.getRootHash());
+    }
+
+    /**
+     * It creates a single proof linking several offsets of the current window of the measurement adapter with its root.
+     * The root could be linked with the project and global roots through getIntegrityProof.
+     * @param projectID The project ID related to the measurement adapter
+     * @param maID The measurement adapter ID
+     * @param offsets The offsets to be proven (1 is the oldest and 2^levels the newest)
+     * @return The proof, null when the project or MA does not exist or the offsets are not valid
+     */
+    public MultiProof getMultiProof(String projectID,String maID,int offsets[])
+    {
+        if(projectID==null || maID==null) return null;
+        
+        ProjectIntegrityRecord prj=map.get(projectID);
+        MAIntegrityRecord record=(prj==null)?null:prj.getRecord(maID);
+        
+        return (record==null)?null:record.getMultiProof(offsets);
+    }
+    
+    /**
+     * It takes a consistent snapshot of the roots of all the measurement adapters as of one instant without stopping
+     * the incorporation of transactions. A new epoch is opened (the changes in progress finish before it), and then the
+     * records are swept without the global lock. A record changed or removed during the sweep keeps its previous root for
+     * the snapshot, while the records and projects created after the start of the epoch are not part of it.
+     * Only one snapshot can be in progress at the same time.
+     * @return The snapshot, including the project and global roots computed from the roots of the measurement adapters
+     * @throws IntegrityRecordException It is raised when there is another snapshot in progress
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    public GlobalSnapshot takeSnapshot() throws IntegrityRecordException, NoSuchAlgorithmException
+    {
+        SnapshotClock.Cut cut=epochs.begin();
+        try{
+            long takenAt=System.currentTimeMillis();
+            for(Map.Entry<String,ProjectIntegrityRecord> prj:map.entrySet())
+            {
+                if(prj.getValue().getCreatedEpoch()>=cut.getEpoch()) continue;
+                
+                cut.addProject(prj.getKey());
+                for(Map.Entry<String,MAIntegrityRecord> ma:prj.getValue().getRecords().entrySet())
+                {
+                    MAIntegrityRecord record=ma.getValue();
+                    synchronized(record)
+                    {
+                        epochs.preserve(prj.getKey(), ma.getKey(), record);
+                    }
+                }
+            }
+            
+            return new GlobalSnapshot(cut.getEpoch(),takenAt,cut.getRoots());
+        }finally{
+            epochs.end(cut);
+        }
+    }
+    
+    /**
+     * It evaluates a collection of verification requests in bulk. The requests are grouped by
+     * project and measurement adapter, and each group is evaluated in parallel acquiring the
+     * monitor of the measurement adapter record only once. The global lock is not taken.
+     * @param requests The verification requests to be evaluated
+     * @return The bulk result in which the i-th bit is associated with the i-th request in the iteration order of the collection
+     */
+    public BulkVerificationResult verifyBulk(Collection<VerificationRequest> requests)
+    {
+        return verifyBulk(requests,ANY_ROLE);
+    }
+    
+    /**
+     * It evaluates in bulk the verification requests related to the measurement adapters whose current role is the indicated one
+     * (see verifyBulk(Collection)). The requests related to measurement adapters with another role are not verified, and the role
+     * is resolved through the role index of each project without acquiring the monitor of the records.
+     * @param requests The verification requests to be evaluated
+     * @param role The role of the measurement adapters to be verified
+     * @return The bulk result in which the i-th bit is associated with the i-th request in the iteration order of the collection
+     */
+    public BulkVerificationResult verifyBulk(Collection<VerificationRequest> requests,short role)
+    {
+        if(requests==null) return new BulkVerificationResult(new boolean[0],new String[0]);
+
+        VerificationRequest reqs[]=requests.toArray(new VerificationRequest[requests.size()]);
+        boolean ok[]=new boolean[reqs.length];
+        String reasons[]=new String[reqs.length];
+
+        HashMap<String,HashMap<String,VerificationGroup>> byProject=new HashMap<>();
+        ArrayList<VerificationGroup> groups=new ArrayList<>();
+        for(int i=0;i<reqs.length;i++)
+        {
+            VerificationRequest req=reqs[i];
+            if(req==null) {reasons[i]="Undefined request"; continue;}
+            if(req.getProjectID()==null || req.getProjectID().trim().length()==0) {reasons[i]="Undefined project ID"; continue;}
+            if(req.getMaID()==null || req.getMaID().trim().length()==0) {reasons[i]="Undefined measurement adapter ID"; continue;}
+            if(req.getHashMD5()==null || req.getHashMD5().trim().length()==0) {reasons[i]="Undefined hash"; continue;}
+            if(req.getType()!=VerificationRequest.TYPE_WHOLE && req.getValue()<1) {reasons[i]="The levels or offset must be upper or equal to 1"; continue;}
+
+            HashMap<String,VerificationGroup> byMA=byProject.get(req.getProjectID());
+            if(byMA==null)
+            {
+                byMA=new HashMap<>();
+                byProject.put(req.getProjectID(), byMA);
+            }
+
+            VerificationGroup group=byMA.get(req.getMaID());
+            if(group==null)
+            {
+                group=new VerificationGroup(req.getProjectID(),req.getMaID());
+                byMA.put(req.getMaID(), group);
+                groups.add(group);
+            }
+
+            group.add(i);
+        }
+
+        groups.parallelStream().forEach(group -> {
+            ProjectIntegrityRecord prj=map.get(group.projectID);
+            MAIntegrityRecord record=(prj==null)?null:prj.getRecord(group.maID);
+            String reason=null;
+            if(record==null) reason=(prj==null)?"Project not found":"Measurement adapter not found";
+            else if(role!=ANY_ROLE && !prj.hasRole(group.maID, role)) reason="The measurement adapter has not the indicated role";
+            if(reason!=null)
+            {
+                for(int i=0;i<group.count;i++) reasons[group.idx[i]]=reason;
+                return;
+            }
+
+            Object event=IntegrityEvents.beginVerification();
+            if(event==null)
+            {
+                record.verifyBatch(reqs, group.idx, group.count, ok, reasons);
+                return;
+            }
+            
+            long wait=System.nanoTime();
+            long hashes;
+            synchronized(record)
+            {
+                wait=System.nanoTime()-wait;
+                hashes=record.getHashCount();
+                record.verifyBatch(reqs, group.idx, group.count, ok, reasons);
+                hashes=record.getHashCount()-hashes;
+            }
+            boolean passed=true;
+            for(int i=0;i<group.count && passed;i++) passed=ok[group.idx[i]];
+            IntegrityEvents.endVerification(event, group.projectID, group.maID, "bulk", group.count, record.getLevels(), hashes, wait, passed);
+        });
+
+        return new BulkVerificationResult(ok,reasons);
+    }
+
+    /**
+     * It keeps the positions of the requests associated with the same project and measurement adapter
+     */
+    private static class VerificationGroup
+    {
+        private final String projectID;
+        private final String maID;
+        private int idx[];
+        private int count;
+
+        VerificationGroup(String projectID,String maID)
+        {
+            this.projectID=projectID;
+            this.maID=maID;
+            idx=new int[4];
+            count=0;
+        }
+
+        void add(int pos)
+        {
+            if(count==idx.length) idx=Arrays.copyOf(idx, idx.length*2);
+            idx[count++]=pos;
+        }
+    }
+
+    /**
+     * It returns a string version of the merkle tree associated with the indicated MA
+     * @param projectID The project id associated with the measurement adapter
+     * @param maID The measurement adapter to be analyzed
+     * @return A string representation of the merkle tree for the indicated measurement adapter 
+     */
+    public String show(String projectID, String maID)
+    {
+        if(map==null) return null;
+
+        ProjectIntegrityRecord record=map.get(projectID);
+        if(record==null) return null;
+        
+        return record.show(maID);
+    }    
+    
+    /**
+     * It writes a page of the merkle tree associated with the indicated MA in a human-readable format, without
+     * building the representation of the whole tree. It replaces show for the large trees: the next page is obtained
+     * calling again with the returned node ID as fromNode.
+     * @param projectID The project id associated with the measurement adapter
+     * @param maID The measurement adapter to be dumped
+     * @param out The destination
+     * @param fromNode The first node ID of the page
+     * @param toNode The last node ID of the range (see BDTree.getNodeRangeOfLevels and BDTree.getNodeRangeOfOffsets)
+     * @param maxNodes The max number of nodes of the page
+     * @return The node ID from which the next page starts, 0 when the range has been completed, -1 when the MA does not exist
+     * @throws IOException It is raised when the destination cannot be written
+     */
+    public int dump(String projectID,String maID,Appendable out,int fromNode,int toNode,int maxNodes) throws IOException
+    {
+        ProjectIntegrityRecord record=(projectID==null)?null:map.get(projectID);
+        
+        return (record==null)?-1:record.dump(maID, out, fromNode, toNode, maxNodes);
+    }
+    
+    /**
+     * It writes a page of the merkle tree associated with the indicated MA in the compact binary format
+     * (see BDTree.dump(OutputStream,int,int,int))
+     * @param projectID The project id associated with the measurement adapter
+     * @param maID The measurement adapter to be dumped
+     * @param out The destination (it is not closed)
+     * @param fromNode The first node ID of the page
+     * @param toNode The last node ID of the range (see BDTree.getNodeRangeOfLevels and BDTree.getNodeRangeOfOffsets)
+     * @param maxNodes The max number of nodes of the page
+     * @return The node ID from which the next page starts, 0 when the range has been completed, -1 when the MA does not exist
+     * @throws IOException It is raised when the destination cannot be written
+     */
+    public int dump(String projectID,String maID,OutputStream out,int fromNode,int toNode,int maxNodes) throws IOException
+    {
+        ProjectIntegrityRecord record=(projectID==null)?null:map.get(projectID);
+        
+        return (record==null)?-1:record.dump(maID, out, fromNode, toNode, maxNodes);
+    }
+    
+    /**
+     * It writes a page of the merkle tree associated with the indicated MA in the compact binary format into a channel
+     * (see BDTree.dump(OutputStream,int,int,int))
+     * @param projectID The project id associated with the measurement adapter
+     * @param maID The measurement adapter to be dumped
+     * @param channel The destination (it is not closed)
+     * @param fromNode The first node ID of the page
+     * @param toNode The last node ID of the range (see BDTree.getNodeRangeOfLevels and BDTree.getNodeRangeOfOffsets)
+     * @param maxNodes The max number of nodes of the page
+     * @return The node ID from which the next page starts, 0 when the range has been completed, -1 when the MA does not exist
+     * @throws IOException It is raised when the channel cannot be written
+     */
+    public int dump(String projectID,String maID,WritableByteChannel channel,int fromNode,int toNode,int maxNodes) throws IOException
+    {
+        if(channel==null) return -1;
+        
+        BufferedOutputStream out=new BufferedOutputStream(Channels.newOutputStream(channel),8192);
+        int ret=dump(projectID,maID,out,fromNode,toNode,maxNodes);
+        out.flush();
+        
+        return ret;
+    }
     
     public static void main(String args[]) throws BDTreeException, IntegrityRecordException, NoSuchAlgorithmException, TreeNodeException
     {
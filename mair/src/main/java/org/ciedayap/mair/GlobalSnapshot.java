@@ -0,0 +1,243 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * It contains the roots of all the measurement adapters of a global integrity record as of one instant (the start
+ * of an epoch), together with the project roots and the global root computed from them like the global integrity
+ * record does. It is taken through GlobalIntegrityRecord.takeSnapshot while the transactions continue being incorporated,
+ * and it can be exported as a compact binary manifest (the MD5 hashes are written as 16 bytes).
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class GlobalSnapshot {
+    private static final int MAGIC=0x4D414953;//MAIS
+    private static final int VERSION=1;
+
+    private final long epoch;
+    private final long takenAt;
+    private final TreeMap<String,TreeMap<String,String>> roots;
+    private final TreeMap<String,String> projectRoots;
+    private final String globalRoot;
+
+    /**
+     * It creates the snapshot computing the project and global roots
+     * @param epoch The epoch of the snapshot
+     * @param takenAt The moment in which the epoch started (milliseconds since the epoch)
+     * @param roots The roots of the measurement adapters by project
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    GlobalSnapshot(long epoch,long takenAt,TreeMap<String,TreeMap<String,String>> roots) throws NoSuchAlgorithmException
+    {
+        this.epoch=epoch;
+        this.takenAt=takenAt;
+        this.roots=roots;
+        projectRoots=new TreeMap<>();
+
+        RootMerkleTree tree=new RootMerkleTree();
+        for(Map.Entry<String,TreeMap<String,String>> prj:roots.entrySet())
+        {
+            tree.reset(prj.getValue());
+            projectRoots.put(prj.getKey(), tree.getRootHash());
+        }
+        tree.reset(projectRoots);
+        globalRoot=tree.getRootHash();
+    }
+
+    /**
+     * @return The epoch of the snapshot
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /**
+     * @return The moment in which the snapshot started (milliseconds since the epoch)
+     */
+    public long getTakenAt() {
+        return takenAt;
+    }
+
+    /**
+     * @return The global root as of the snapshot (null when there are not transactions)
+     */
+    public String getGlobalRootHash() {
+        return globalRoot;
+    }
+
+    /**
+     * @param projectID The project ID
+     * @return The project root as of the snapshot, null when the project is not part of the snapshot
+     */
+    public String getProjectRootHash(String projectID)
+    {
+        return (projectID==null)?null:projectRoots.get(projectID);
+    }
+
+    /**
+     * @param projectID The project ID
+     * @param maID The measurement adapter ID
+     * @return The root of the measurement adapter as of the snapshot, null when it is not part of the snapshot
+     */
+    public String getRootHash(String projectID,String maID)
+    {
+        TreeMap<String,String> mas=(projectID==null)?null:roots.get(projectID);
+
+        return (mas==null || maID==null)?null:mas.get(maID);
+    }
+
+    /**
+     * @return The IDs of the projects in the snapshot (ordered)
+     */
+    public Set<String> getProjectIDs()
+    {
+        return Collections.unmodifiableSet(projectRoots.keySet());
+    }
+
+    /**
+     * @param projectID The project ID
+     * @return The IDs of the measurement adapters of the project in the snapshot (ordered), an empty set when the project is not present
+     */
+    public Set<String> getMAs(String projectID)
+    {
+        TreeMap<String,String> mas=(projectID==null)?null:roots.get(projectID);
+
+        return (mas==null)?Collections.<String>emptySet():Collections.unmodifiableSet(mas.keySet());
+    }
+
+    /**
+     * @return The number of measurement adapters in the snapshot
+     */
+    public int size()
+    {
+        int ret=0;
+        for(TreeMap<String,String> mas:roots.values()) ret+=mas.size();
+
+        return ret;
+    }
+
+    /**
+     * It writes the manifest of the snapshot: the epoch, the moment, the global root and, for each project, its root
+     * and the roots of its measurement adapters.
+     * @param out The output stream (it is not closed)
+     * @throws IOException It is raised when the manifest cannot be written
+     */
+    public void write(OutputStream out) throws IOException
+    {
+        DataOutputStream dos=new DataOutputStream(out);
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeLong(epoch);
+        dos.writeLong(takenAt);
+        BDTree.writeHash(dos, globalRoot);
+        dos.writeInt(roots.size());
+        for(Map.Entry<String,TreeMap<String,String>> prj:roots.entrySet())
+        {
+            dos.writeUTF(prj.getKey());
+            BDTree.writeHash(dos, projectRoots.get(prj.getKey()));
+            dos.writeInt(prj.getValue().size());
+            for(Map.Entry<String,String> ma:prj.getValue().entrySet())
+            {
+                dos.writeUTF(ma.getKey());
+                BDTree.writeHash(dos, ma.getValue());
+            }
+        }
+        dos.flush();
+    }
+
+    /**
+     * It writes the manifest into the indicated file
+     * @param file The file
+     * @throws IOException It is raised when the manifest cannot be written
+     */
+    public void write(File file) throws IOException
+    {
+        try(OutputStream out=new BufferedOutputStream(new FileOutputStream(file)))
+        {
+            write(out);
+        }
+    }
+
+    /**
+     * It reads a manifest written by write. The project and global roots are recomputed from the roots of the
+     * measurement adapters and contrasted with the written ones.
+     * @param in The input stream (it is not closed)
+     * @return The snapshot
+     * @throws IOException It is raised when the manifest cannot be read or its roots do not match
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    public static GlobalSnapshot read(InputStream in) throws IOException, NoSuchAlgorithmException
+    {
+        DataInputStream dis=new DataInputStream(in);
+        if(dis.readInt()!=MAGIC) throw new IOException("It is not a snapshot manifest");
+        if(dis.readInt()!=VERSION) throw new IOException("Unsupported snapshot manifest version");
+
+        long epoch=dis.readLong();
+        long takenAt=dis.readLong();
+        String global=BDTree.readHash(dis);
+        TreeMap<String,String> written=new TreeMap<>();
+        TreeMap<String,TreeMap<String,String>> roots=new TreeMap<>();
+        int nprj=dis.readInt();
+        for(int i=0;i<nprj;i++)
+        {
+            String prj=dis.readUTF();
+            written.put(prj, BDTree.readHash(dis));
+            TreeMap<String,String> mas=new TreeMap<>();
+            int nma=dis.readInt();
+            for(int j=0;j<nma;j++) mas.put(dis.readUTF(), BDTree.readHash(dis));
+            roots.put(prj, mas);
+        }
+
+        GlobalSnapshot ret=new GlobalSnapshot(epoch,takenAt,roots);
+        if(!written.equals(ret.projectRoots) || !sameHash(global,ret.globalRoot))
+            throw new IOException("The roots of the manifest do not match its measurement adapters");
+
+        return ret;
+    }
+
+    /**
+     * It reads a manifest from the indicated file (see read(InputStream))
+     * @param file The file
+     * @return The snapshot
+     * @throws IOException It is raised when the manifest cannot be read or its roots do not match
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    public static GlobalSnapshot read(File file) throws IOException, NoSuchAlgorithmException
+    {
+        try(InputStream in=new BufferedInputStream(new FileInputStream(file)))
+        {
+            return read(in);
+        }
+    }
+
+    private static boolean sameHash(String a,String b)
+    {
+        return (a==null)?b==null:a.equals(b);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Snapshot epoch: "+epoch+" Projects: "+roots.size()+" MAs: "+size()+" Global root: "+globalRoot;
+    }
+}
@@ -0,0 +1,579 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * It imports a history of transactions (project, measurement adapter, role, hash and optionally the event timestamp)
+ * into a global integrity record, e.g. for seeding a new node or rebuilding it after a data loss. Instead of replaying
+ * each transaction through GlobalIntegrityRecord.addTransaction (a push and a recompute of the whole tree under the global lock),
+ * the rows are partitioned by measurement adapter keeping the order of the history, and the rules of the sequential replay
+ * (invalid rows, blocked measurement adapters, timestamps older than the last one, hashes not kept by the compact trees)
+ * are evaluated without hashing. Only the last window of accepted transactions of each measurement adapter (2^levels,
+ * or arity^levels for the k-ary trees) is loaded into its tree, and the trees are built in parallel. The resulting roots, versions, timestamps, roles,
+ * retained versions and archived windows are the same than the ones of the sequential replay.
+ * <p>
+ * The measurement adapters of the history must not exist in the target, the target must not have a memory budget
+ * (the admission of a record depends on the interleaving of the whole history) and it must not receive transactions
+ * while the history is imported. The subscribers receive one notification by measurement adapter with its final root.
+ * When the window archives are enabled, the rows of each complete window are kept until the import is applied.
+ * </p>
+ * The CSV history contains a row by line: projectID,maID,role,hash[,timestamp] (the empty lines and those
+ * starting with # are ignored). The binary history is written through writeHeader and writeRow.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class HistoryImporter {
+    private static final int MAGIC=0x4D414948;//MAIH
+    private static final int VERSION=1;
+    private static final int ROW=1;
+    private static final int BUFFER_SIZE=1<<16;
+
+    private final GlobalIntegrityRecord target;
+    private final int threads;
+    /**
+     * The partitions by project and measurement adapter, in order of appearance
+     */
+    private final LinkedHashMap<String,LinkedHashMap<String,Partition>> partitions;
+    private long rows;
+    private long stored;
+    private boolean applied;
+
+    /**
+     * It creates an importer building the trees with as many threads as available processors
+     * @param target The global integrity record in which the history is imported
+     * @throws IntegrityRecordException It is raised when the target is not defined or it has a memory budget
+     */
+    public HistoryImporter(GlobalIntegrityRecord target) throws IntegrityRecordException
+    {
+        this(target,Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * It creates an importer
+     * @param target The global integrity record in which the history is imported
+     * @param threads The number of threads used for building the trees
+     * @throws IntegrityRecordException It is raised when the target is not defined or it has a memory budget, or the threads are lower than 1
+     */
+    public HistoryImporter(GlobalIntegrityRecord target,int threads) throws IntegrityRecordException
+    {
+        if(target==null) throw new IntegrityRecordException("The global integrity record is not defined");
+        if(threads<1) throw new IntegrityRecordException("The number of threads should be upper or equal than 1");
+        if(target.getMemoryBudget()!=null) throw new IntegrityRecordException("The history cannot be imported into a record with a memory budget");
+
+        this.target=target;
+        this.threads=threads;
+        partitions=new LinkedHashMap<>();
+    }
+
+    /**
+     * It incorporates a row of the history into the partition of its measurement adapter
+     * @param projectID The project ID
+     * @param maID The measurement adapter ID
+     * @param currentRole The current role related to the measurement adapter
+     * @param hashMD5 The hash associated with the transaction
+     * @param timestamp The event timestamp of the transaction (BDTree.NO_TIMESTAMP when it is not known)
+     * @return TRUE when the sequential replay would store the transaction, FALSE otherwise
+     * @throws IntegrityRecordException It is raised when the import has already been applied
+     */
+    public synchronized boolean add(String projectID,String maID,short currentRole,String hashMD5,long timestamp) throws IntegrityRecordException
+    {
+        if(applied) throw new IntegrityRecordException("The import has already been applied");
+        rows++;
+        if(projectID==null || projectID.trim().length()==0) return false;
+        if(maID==null || maID.trim().length()==0) return false;
+        if(!MAIntegrityRecord.isValidRole(currentRole)) return false;
+        if(hashMD5==null || hashMD5.trim().length()==0) return false;
+
+        LinkedHashMap<String,Partition> mas=partitions.get(projectID);
+        if(mas==null)
+        {
+            mas=new LinkedHashMap<>();
+            partitions.put(projectID, mas);
+        }
+        Partition part=mas.get(maID);
+        if(part==null)
+        {
+            part=newPartition(projectID,currentRole);
+            mas.put(maID, part);
+        }
+
+        boolean ret=part.add(currentRole, hashMD5, timestamp);
+        if(ret) stored++;
+
+        return ret;
+    }
+
+    /**
+     * It creates the partition of a new measurement adapter following the settings of its project in the target
+     * (or the settings of the target when the project does not exist)
+     */
+    private Partition newPartition(String projectID,short role) throws IntegrityRecordException
+    {
+        ProjectIntegrityRecord prj=target.getProjects().get(projectID);
+        if(prj==null) return new Partition(target.getLevels(),target.getArity(),target.getDigestLength(),target.isTruncatingLeaves(),
+                target.getRetainedVersions(),target.getArchiveFactory()!=null,role);
+
+        return new Partition(prj.getLevels(),prj.getArity(),prj.getDigestLength(),prj.isTruncatingLeaves(),
+                prj.getRetainedVersions(),prj.getArchiveFactory()!=null,role);
+    }
+
+    /**
+     * It reads a CSV history (see the class description)
+     * @param in The reader (it is not closed)
+     * @return The number of read rows
+     * @throws IOException It is raised when the history cannot be read or a row is not valid
+     * @throws IntegrityRecordException It is raised when the import has already been applied
+     */
+    public synchronized long readCsv(Reader in) throws IOException, IntegrityRecordException
+    {
+        BufferedReader reader=(in instanceof BufferedReader)?(BufferedReader)in:new BufferedReader(in,BUFFER_SIZE);
+        long ret=0;
+        long line=0;
+        String text;
+        while((text=reader.readLine())!=null)
+        {
+            line++;
+            String row=text.trim();
+            if(row.length()==0 || row.charAt(0)=='#') continue;
+
+            String fields[]=row.split(",",-1);
+            if(fields.length!=4 && fields.length!=5) throw new IOException("Line "+line+": it must contain 4 or 5 fields");
+            try{
+                short role=Short.parseShort(fields[2].trim());
+                long ts=(fields.length==5 && fields[4].trim().length()>0)?Long.parseLong(fields[4].trim()):BDTree.NO_TIMESTAMP;
+                add(fields[0].trim(),fields[1].trim(),role,fields[3].trim(),ts);
+            }catch(NumberFormatException e)
+            {
+                throw new IOException("Line "+line+": the role or the timestamp is not a number");
+            }
+            ret++;
+        }
+
+        return ret;
+    }
+
+    /**
+     * It reads a CSV history from the indicated file (see readCsv(Reader))
+     * @param file The file (UTF-8)
+     * @return The number of read rows
+     * @throws IOException It is raised when the history cannot be read or a row is not valid
+     * @throws IntegrityRecordException It is raised when the import has already been applied
+     */
+    public long readCsv(File file) throws IOException, IntegrityRecordException
+    {
+        try(Reader in=new BufferedReader(new InputStreamReader(new FileInputStream(file),StandardCharsets.UTF_8),BUFFER_SIZE))
+        {
+            return readCsv(in);
+        }
+    }
+
+    /**
+     * It reads a binary history written through writeHeader and writeRow
+     * @param in The input stream (it is not closed)
+     * @return The number of read rows
+     * @throws IOException It is raised when the history cannot be read
+     * @throws IntegrityRecordException It is raised when the import has already been applied
+     */
+    public synchronized long readBinary(InputStream in) throws IOException, IntegrityRecordException
+    {
+        DataInputStream dis=new DataInputStream((in instanceof BufferedInputStream)?in:new BufferedInputStream(in,BUFFER_SIZE));
+        if(dis.readInt()!=MAGIC) throw new IOException("It is not a transaction history");
+        if(dis.readInt()!=VERSION) throw new IOException("Unsupported transaction history version");
+
+        long ret=0;
+        int marker;
+        while((marker=dis.read())==ROW)
+        {
+            String prj=dis.readUTF();
+            String ma=dis.readUTF();
+            short role=dis.readShort();
+            String hash=BDTree.readHash(dis);
+            long ts=dis.readLong();
+            add(prj,ma,role,hash,ts);
+            ret++;
+        }
+        if(marker!=-1) throw new IOException("The transaction history is corrupted after "+ret+" rows");
+
+        return ret;
+    }
+
+    /**
+     * It reads a binary history from the indicated file (see readBinary(InputStream))
+     * @param file The file
+     * @return The number of read rows
+     * @throws IOException It is raised when the history cannot be read
+     * @throws IntegrityRecordException It is raised when the import has already been applied
+     */
+    public long readBinary(File file) throws IOException, IntegrityRecordException
+    {
+        try(InputStream in=new BufferedInputStream(new FileInputStream(file),BUFFER_SIZE))
+        {
+            return readBinary(in);
+        }
+    }
+
+    /**
+     * It writes the header of a binary history
+     * @param out The output stream
+     * @throws IOException It is raised when the header cannot be written
+     */
+    public static void writeHeader(DataOutputStream out) throws IOException
+    {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    /**
+     * It writes a row of a binary history (the lower-case hexadecimal MD5 hashes are written as 16 bytes)
+     * @param out The output stream
+     * @param projectID The project ID
+     * @param maID The measurement adapter ID
+     * @param role The current role related to the measurement adapter
+     * @param hashMD5 The hash associated with the transaction
+     * @param timestamp The event timestamp of the transaction (BDTree.NO_TIMESTAMP when it is not known)
+     * @throws IOException It is raised when the row cannot be written
+     */
+    public static void writeRow(DataOutputStream out,String projectID,String maID,short role,String hashMD5,long timestamp) throws IOException
+    {
+        if(projectID==null || maID==null) throw new IOException("The project and measurement adapter IDs must be defined");
+
+        out.writeByte(ROW);
+        out.writeUTF(projectID);
+        out.writeUTF(maID);
+        out.writeShort(role);
+        BDTree.writeHash(out, hashMD5);
+        out.writeLong(timestamp);
+    }
+
+    /**
+     * It builds the trees of all the measurement adapters in parallel and incorporates them into the target,
+     * rebuilding the project and global roots once. It can be applied only once.
+     * @return The number of incorporated measurement adapters
+     * @throws IntegrityRecordException It is raised when a measurement adapter already exists in the target, the target
+     * has a memory budget, the import has already been applied or a tree cannot be built
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    public synchronized int apply() throws IntegrityRecordException, NoSuchAlgorithmException
+    {
+        if(applied) throw new IntegrityRecordException("The import has already been applied");
+
+        synchronized(target)
+        {
+            if(target.getMemoryBudget()!=null) throw new IntegrityRecordException("The history cannot be imported into a record with a memory budget");
+            for(Map.Entry<String,LinkedHashMap<String,Partition>> prj:partitions.entrySet())
+            {
+                ProjectIntegrityRecord record=target.getProjects().get(prj.getKey());
+                if(record==null) continue;
+                if(record.getMemoryBudget()!=null) throw new IntegrityRecordException("The project "+prj.getKey()+" has a memory budget");
+                for(String maID:prj.getValue().keySet())
+                    if(record.getRecord(maID)!=null) throw new IntegrityRecordException("The measurement adapter "+maID+" already exists in the project "+prj.getKey());
+            }
+            applied=true;
+
+            ArrayList<Partition> all=new ArrayList<>();
+            try{
+                for(Map.Entry<String,LinkedHashMap<String,Partition>> prj:partitions.entrySet())
+                {
+                    ProjectIntegrityRecord record=target.getOrCreateProject(prj.getKey());
+                    for(Map.Entry<String,Partition> ma:prj.getValue().entrySet())
+                    {
+                        ma.getValue().bind(record,ma.getKey());
+                        all.add(ma.getValue());
+                    }
+                }
+            }catch(BDTreeException e)
+            {
+                throw new IntegrityRecordException("The project record cannot be created: "+e.getMessage());
+            }
+
+            ArrayList<Callable<Void>> tasks=new ArrayList<>();
+            int nthreads=Math.min(threads, Math.max(1, all.size()));
+            for(int i=0;i<nthreads;i++)
+            {
+                final int first=i;
+                tasks.add(() -> {
+                    for(int j=first;j<all.size();j+=nthreads) all.get(j).build();
+                    return null;
+                });
+            }
+            runAll(tasks,nthreads);
+
+            for(Partition part:all) part.project.importRecord(part.maID, part.record, part.rejections);
+            target.rebuildRoots();
+            partitions.clear();
+
+            return all.size();
+        }
+    }
+
+    private static void runAll(List<Callable<Void>> tasks,int threads) throws IntegrityRecordException, NoSuchAlgorithmException
+    {
+        ExecutorService pool=Executors.newFixedThreadPool(threads);
+        try {
+            for(Future<Void> future:pool.invokeAll(tasks)) future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IntegrityRecordException("The import has been interrupted");
+        } catch (ExecutionException ex) {
+            if(ex.getCause() instanceof NoSuchAlgorithmException) throw (NoSuchAlgorithmException)ex.getCause();
+            throw new IntegrityRecordException("The trees cannot be built: "+ex.getCause().getMessage());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return The number of rows incorporated through add (including the invalid ones)
+     */
+    public synchronized long getRowCount()
+    {
+        return rows;
+    }
+
+    /**
+     * @return The number of transactions that are stored in the integrity records
+     */
+    public synchronized long getStoredCount()
+    {
+        return stored;
+    }
+
+    /**
+     * @return The number of measurement adapters read and not applied yet
+     */
+    public synchronized int getMACount()
+    {
+        int ret=0;
+        for(LinkedHashMap<String,Partition> mas:partitions.values()) ret+=mas.size();
+
+        return ret;
+    }
+
+    /**
+     * @return TRUE when the import has been applied, FALSE otherwise
+     */
+    public synchronized boolean isApplied()
+    {
+        return applied;
+    }
+
+    /**
+     * It keeps the state that the sequential replay would leave in the record of a measurement adapter:
+     * the role, the last timestamp, the number of pushes and a ring with the last accepted transactions
+     * (the window plus the transactions replayed for the retained versions).
+     */
+    private static class Partition {
+        private final int levels;
+        /**
+         * The number of children of each intermediary node (2 for the binary trees)
+         */
+        private final int arity;
+        private final int capacity;
+        /**
+         * The bytes kept by the compact leaves or the k-ary leaves, 0 for the default trees
+         */
+        private final int leafLength;
+        private final int retained;
+        private final short createdRole;
+        private short role;
+        /**
+         * It indicates whether the record would be created by the next transaction (it is not rejected when it is blocked)
+         */
+        private boolean fresh;
+        private long lastTimestamp;
+        private long pushes;
+        /**
+         * The first accepted transaction with a timestamp (0 when there is not)
+         */
+        private long firstStamped;
+        private long rejections;
+        private final String hashes[];
+        /**
+         * The timestamps as they were received (used when the transactions are replayed)
+         */
+        private final long received[];
+        /**
+         * The timestamps kept by the leaves (the last timestamp when the transaction has not one)
+         */
+        private final long stamps[];
+        /**
+         * The complete windows, when the archive is enabled (null otherwise)
+         */
+        private final List<String[]> windows;
+        private ProjectIntegrityRecord project;
+        private String maID;
+        private MAIntegrityRecord record;
+
+        Partition(int levels,int arity,int digestLength,boolean truncateLeaves,int retained,boolean archived,short role) throws IntegrityRecordException
+        {
+            this.levels=levels;
+            this.arity=arity;
+            //The k-ary trees keep their leaves as packed MD5 digests (see KaryTree.push)
+            if(arity!=2)
+            {
+                long cap=1;
+                for(int i=0;i<levels && cap<=Integer.MAX_VALUE;i++) cap*=arity;
+                if(cap>Integer.MAX_VALUE) throw new IntegrityRecordException("The k-ary tree is too large");
+                capacity=(int)cap;
+                leafLength=BDTree.DIGEST_LENGTH;
+            }
+            else
+            {
+                capacity=BDTree.getMaxNumberOfTransactions(levels);
+                leafLength=(digestLength==0)?0:(truncateLeaves?digestLength:BDTree.DIGEST_LENGTH);
+            }
+            this.retained=retained;
+            createdRole=role;
+            this.role=role;
+            fresh=true;
+            lastTimestamp=BDTree.NO_TIMESTAMP;
+            int size=capacity+Math.max(retained-1, 0);
+            hashes=new String[size];
+            received=new long[size];
+            stamps=new long[size];
+            windows=archived?new ArrayList<>():null;
+        }
+
+        /**
+         * It follows the rules of ProjectIntegrityRecord.addTransaction and BDTree.push
+         * @return TRUE when the transaction is stored, FALSE otherwise
+         */
+        boolean add(short currentRole,String hashMD5,long timestamp)
+        {
+            if(!fresh && role==MAIntegrityRecord.ROLE_BLOCKED)
+            {
+                rejections++;
+                return false;
+            }
+            fresh=false;
+            role=currentRole;
+            if(timestamp!=BDTree.NO_TIMESTAMP && timestamp<lastTimestamp) return false;
+            if(leafLength>0 && !BDTree.isPackable(hashMD5, leafLength)) return false;
+
+            if(timestamp!=BDTree.NO_TIMESTAMP)
+            {
+                lastTimestamp=timestamp;
+                if(firstStamped==0) firstStamped=pushes+1;
+            }
+            int slot=(int)(pushes%hashes.length);
+            hashes[slot]=hashMD5;
+            received[slot]=timestamp;
+            stamps[slot]=lastTimestamp;
+            pushes++;
+            if(windows!=null && pushes%capacity==0) windows.add(window(pushes));
+
+            return true;
+        }
+
+        /**
+         * @param version The number of accepted transactions
+         * @return The leaves of the window left by such transactions (it must be kept in the ring)
+         */
+        private String[] window(long version)
+        {
+            String ret[]=new String[capacity];
+            for(int i=0;i<capacity;i++)
+            {
+                long seq=version-capacity+i;//zero-based position of the transaction
+                if(seq>=0) ret[i]=hashes[(int)(seq%hashes.length)];
+            }
+
+            return ret;
+        }
+
+        void bind(ProjectIntegrityRecord project,String maID)
+        {
+            this.project=project;
+            this.maID=maID;
+        }
+
+        /**
+         * It creates the record, archives the complete windows, loads the window of the first retained version
+         * and pushes the transactions of the later retained versions
+         */
+        void build() throws BDTreeException, NoSuchAlgorithmException, TreeNodeException, IntegrityRecordException
+        {
+            long tail=Math.min(pushes, Math.max(retained-1, 0));
+            long base=pushes-tail;
+
+            record=project.createRecord(maID, createdRole);
+            if(windows!=null && base>=capacity)
+            {
+                BDTree shape=record.getTree();
+                BDTree scratch=null;
+                KaryTree karyScratch=null;
+                if(shape!=null) scratch=shape.isCompact()?new BDTree(levels,shape.getDigestLength(),shape.isTruncatingLeaves()):BDTree.create(levels);
+                else karyScratch=new KaryTree(arity,levels);
+                for(int n=1;n<=base/capacity;n++)
+                {
+                    String root;
+                    if(scratch!=null)
+                    {
+                        scratch.setNewHashinLeafs(windows.get(n-1));
+                        root=scratch.getRootHash();
+                    }
+                    else
+                    {
+                        //A complete window has all its leaves, so pushing them fills the k-ary tree
+                        karyScratch.reset();
+                        for(String hash:windows.get(n-1)) karyScratch.push(hash);
+                        root=karyScratch.getRootHash();
+                    }
+                    try {
+                        record.archive(n, root);
+                    } catch (IOException ex) {
+                        throw new IntegrityRecordException("The window "+n+" of "+maID+" cannot be archived: "+ex.getMessage());
+                    }
+                }
+            }
+
+            long leafStamps[]=null;
+            if(firstStamped>0 && firstStamped<=base)
+            {
+                leafStamps=new long[capacity];
+                for(int i=0;i<capacity;i++)
+                {
+                    long seq=base-capacity+i;
+                    leafStamps[i]=(seq>=0)?stamps[(int)(seq%stamps.length)]:BDTree.NO_TIMESTAMP;
+                }
+            }
+            long baseTimestamp=(base>0)?stamps[(int)((base-1)%stamps.length)]:BDTree.NO_TIMESTAMP;
+            record.load(createdRole, window(base), base, leafStamps, baseTimestamp);
+
+            for(long seq=base;seq<pushes;seq++)
+            {
+                int slot=(int)(seq%hashes.length);
+                if(!record.addTransaction(role, hashes[slot], received[slot])) throw new IntegrityRecordException("The transaction "+(seq+1)+" of "+maID+" has not been replayed");
+            }
+            record.setCurrentRole(role);
+            if(record.getArchiveFailures()>0) throw new IntegrityRecordException("The windows of "+maID+" cannot be archived: "+record.getArchiveError().getMessage());
+            if(windows!=null) windows.clear();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * It interns String IDs (e.g. project or measurement adapter IDs) into dense integers
+ * starting from 0. Once registered, an ID keeps its integer for the whole life of the registry,
+ * so the integers can be used as indexes of primitive arrays.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class IdRegistry {
+    private final ConcurrentHashMap<String,Integer> ids;
+    /**
+     * The registered IDs indexed by their integer. It is replaced (never modified in place) when it grows.
+     */
+    private volatile String names[];
+    private int count;
+
+    public IdRegistry()
+    {
+        ids=new ConcurrentHashMap<>(16);
+        names=new String[16];
+        count=0;
+    }
+
+    /**
+     * It registers the ID (when it is not registered yet) and returns its integer
+     * @param id The ID to be registered
+     * @return The integer associated with the ID, -1 when the ID is not valid
+     */
+    public int register(String id)
+    {
+        if(id==null || id.trim().length()==0) return -1;
+
+        Integer ret=ids.get(id);
+        if(ret!=null) return ret;
+
+        synchronized(this)
+        {
+            ret=ids.get(id);
+            if(ret!=null) return ret;
+
+            String current[]=names;
+            if(count==current.length) current=Arrays.copyOf(current, current.length*2);
+            current[count]=id;
+            names=current;
+            ids.put(id, count);
+
+            return count++;
+        }
+    }
+
+    /**
+     * It returns the integer associated with an ID without registering it
+     * @param id The ID to be found
+     * @return The integer associated with the ID, -1 when it is not registered
+     */
+    public int getId(String id)
+    {
+        if(id==null) return -1;
+
+        Integer ret=ids.get(id);
+
+        return (ret==null)?-1:ret;
+    }
+
+    /**
+     * It returns the ID associated with an integer
+     * @param idx The integer to be resolved
+     * @return The ID, null when the integer is not registered
+     */
+    public String getName(int idx)
+    {
+        String current[]=names;
+        if(idx<0 || idx>=current.length) return null;
+
+        return current[idx];
+    }
+
+    /**
+     * @return The number of registered IDs
+     */
+    public synchronized int size()
+    {
+        return count;
+    }
+}
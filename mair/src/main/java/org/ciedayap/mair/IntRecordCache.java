@@ -0,0 +1,155 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * It is an open addressing hash map from the integer IDs (see IdRegistry) to the records, so its size depends on the
+ * number of cached records and not on the number of registered IDs. The readings do not lock: the values are written
+ * before their keys, and the values are read and written with volatile semantics, so a reading sees the cached
+ * record, null, or (while the table is replaced) a miss that is solved through the String-keyed path.
+ * The writings must be guarded by the monitor of the owner. A removed entry keeps its key with a null value
+ * until the table is rebuilt.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ * @param <V> The type of the records
+ */
+class IntRecordCache<V> {
+    private static final int EMPTY=-1;
+
+    private static class Table<V> {
+        final int keys[];
+        final AtomicReferenceArray<V> values;
+        final int mask;
+
+        Table(int capacity)
+        {
+            keys=new int[capacity];
+            Arrays.fill(keys, EMPTY);
+            values=new AtomicReferenceArray<>(capacity);
+            mask=capacity-1;
+        }
+    }
+
+    private volatile Table<V> table;
+    /**
+     * The number of used slots (including the removed ones)
+     */
+    private int used;
+
+    IntRecordCache()
+    {
+        table=new Table<>(16);
+        used=0;
+    }
+
+    private static int slot(int key,int mask)
+    {
+        int h=key*0x9E3779B9;
+
+        return (h^(h>>>16))&mask;
+    }
+
+    /**
+     * @param key The integer ID
+     * @return The cached record, null when it is not cached
+     */
+    V get(int key)
+    {
+        if(key<0) return null;
+
+        Table<V> t=table;
+        for(int i=slot(key,t.mask);;i=(i+1)&t.mask)
+        {
+            int k=t.keys[i];
+            if(k==key) return t.values.get(i);
+            if(k==EMPTY) return null;
+        }
+    }
+
+    /**
+     * It caches the record for the integer ID, replacing the previous one
+     * @param key The integer ID
+     * @param value The record (null removes the entry)
+     */
+    void put(int key,V value)
+    {
+        if(key<0) return;
+
+        Table<V> t=table;
+        int i=slot(key,t.mask);
+        while(t.keys[i]!=EMPTY && t.keys[i]!=key) i=(i+1)&t.mask;
+        if(t.keys[i]==key)
+        {
+            t.values.set(i, value);
+            return;
+        }
+        if(value==null) return;
+
+        if(2*(used+1)>t.keys.length)
+        {
+            t=rebuild(t);
+            i=slot(key,t.mask);
+            while(t.keys[i]!=EMPTY) i=(i+1)&t.mask;
+        }
+        t.values.set(i, value);
+        t.keys[i]=key;
+        used++;
+        table=t;
+    }
+
+    /**
+     * It removes all the entries whose record is the indicated one
+     * @param value The record
+     */
+    void removeValue(V value)
+    {
+        if(value==null) return;
+
+        Table<V> t=table;
+        for(int i=0;i<t.keys.length;i++)
+            if(t.keys[i]!=EMPTY && t.values.get(i)==value) t.values.set(i, null);
+    }
+
+    /**
+     * It creates a new table with the live entries, doubling the capacity when they use more than a quarter of it
+     */
+    private Table<V> rebuild(Table<V> t)
+    {
+        int live=0;
+        for(int i=0;i<t.keys.length;i++)
+            if(t.keys[i]!=EMPTY && t.values.get(i)!=null) live++;
+
+        int capacity=t.keys.length;
+        while(4*(live+1)>capacity) capacity*=2;
+        Table<V> ret=new Table<>(capacity);
+        used=0;
+        for(int i=0;i<t.keys.length;i++)
+        {
+            V value=(t.keys[i]==EMPTY)?null:t.values.get(i);
+            if(value==null) continue;
+
+            int j=slot(t.keys[i],ret.mask);
+            while(ret.keys[j]!=EMPTY) j=(j+1)&ret.mask;
+            ret.keys[j]=t.keys[i];
+            ret.values.set(j, value);
+            used++;
+        }
+
+        return ret;
+    }
+
+    /**
+     * @return The number of slots of the current table
+     */
+    int capacity()
+    {
+        return table.keys.length;
+    }
+}
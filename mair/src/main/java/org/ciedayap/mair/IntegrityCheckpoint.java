@@ -0,0 +1,284 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * It writes a consistent binary image of a global integrity record (projects, measurement adapters,
+ * roles and the hashes of all the tree nodes, including the intermediary ones) into a set of segment files,
+ * and it restores such an image loading the segments in parallel. The restored trees are not rehashed,
+ * only the project and global roots are rebuilt (one hash per measurement adapter).
+ * The manifest is written at the end, so an interrupted checkpoint cannot be restored.
+ * The records with k-ary trees (see KaryTree) keep their arity, so they are restored with the same layout.
+ * The window archives are not part of the checkpoint (the file archives keep their own state).
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class IntegrityCheckpoint {
+    public static final String MANIFEST="checkpoint.manifest";
+    private static final int MAGIC=0x4D414952;//MAIR
+    private static final int VERSION=4;
+    private static final int BUFFER_SIZE=1<<16;
+
+    /**
+     * It writes the checkpoint of the record. The record's global lock is kept while the image is written,
+     * so the image is consistent.
+     * @param record The global integrity record
+     * @param dir The directory in which the checkpoint is written (it is created when it does not exist)
+     * @param segments The number of segment files, written in parallel
+     * @return The number of written measurement adapter records
+     * @throws IOException It is raised when the checkpoint cannot be written
+     * @throws IntegrityRecordException It is raised when the parameters are not valid
+     */
+    public static long write(GlobalIntegrityRecord record,File dir,int segments) throws IOException, IntegrityRecordException
+    {
+        if(record==null) throw new IntegrityRecordException("The global integrity record is not defined");
+        if(dir==null) throw new IntegrityRecordException("The directory is not defined");
+        if(segments<1) throw new IntegrityRecordException("The number of segments should be upper or equal than 1");
+        if(!dir.isDirectory() && !dir.mkdirs()) throw new IOException("The directory cannot be created: "+dir);
+
+        File manifest=new File(dir,MANIFEST);
+        if(manifest.exists() && !manifest.delete()) throw new IOException("The previous manifest cannot be removed");
+
+        synchronized(record)
+        {
+            @SuppressWarnings({"unchecked","rawtypes"})
+            final List<Entry> parts[]=new List[segments];
+            for(int i=0;i<segments;i++) parts[i]=new ArrayList<>();
+
+            long total=0;
+            for(Map.Entry<String,ProjectIntegrityRecord> prj:record.getProjects().entrySet())
+            {
+                for(Map.Entry<String,MAIntegrityRecord> ma:prj.getValue().getRecords().entrySet())
+                {
+                    parts[(int)(total%segments)].add(new Entry(prj.getKey(),ma.getKey(),ma.getValue()));
+                    total++;
+                }
+            }
+
+            ArrayList<Callable<Void>> tasks=new ArrayList<>();
+            for(int i=0;i<segments;i++)
+            {
+                final int seg=i;
+                tasks.add(() -> {
+                    writeSegment(new File(dir,segmentName(seg)),parts[seg]);
+                    return null;
+                });
+            }
+            IntegrityCheckpoint.runAll(tasks,segments);
+
+            try (DataOutputStream out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(manifest)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(record.getLevels());
+                out.writeInt(record.getNumberOfMA());
+                out.writeBoolean(record.isLeafIndexing());
+                out.writeInt(record.getDigestLength());
+                out.writeBoolean(record.isTruncatingLeaves());
+                out.writeInt(record.getArity());
+                out.writeInt(segments);
+                out.writeLong(total);
+            }
+
+            return total;
+        }
+    }
+
+    /**
+     * It restores the checkpoint stored in the indicated directory
+     * @param dir The directory containing the checkpoint
+     * @param threads The number of threads used for loading the segments
+     * @return The restored global integrity record, ready to serve
+     * @throws IOException It is raised when the checkpoint cannot be read or it is not consistent
+     * @throws IntegrityRecordException It is raised when the parameters are not valid or the records cannot be created
+     * @throws BDTreeException It is raised when the trees cannot be created
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    public static GlobalIntegrityRecord restore(File dir,int threads) throws IOException, IntegrityRecordException, BDTreeException, NoSuchAlgorithmException
+    {
+        if(dir==null) throw new IntegrityRecordException("The directory is not defined");
+        if(threads<1) throw new IntegrityRecordException("The number of threads should be upper or equal than 1");
+
+        int levels,nOfMA,segments,digestLength,arity;
+        boolean leafIndexing,truncateLeaves;
+        long total;
+        try (DataInputStream in=new DataInputStream(new BufferedInputStream(new FileInputStream(new File(dir,MANIFEST))))) {
+            if(in.readInt()!=MAGIC) throw new IOException("The manifest does not correspond with a checkpoint");
+            int version=in.readInt();
+            if(version!=VERSION) throw new IOException("Unsupported checkpoint version: "+version);
+
+            levels=in.readInt();
+            nOfMA=in.readInt();
+            leafIndexing=in.readBoolean();
+            digestLength=in.readInt();
+            truncateLeaves=in.readBoolean();
+            arity=in.readInt();
+            segments=in.readInt();
+            total=in.readLong();
+        }
+
+        final GlobalIntegrityRecord record=new GlobalIntegrityRecord(levels,nOfMA);
+        if(leafIndexing) record.setLeafIndexing(true);
+        if(digestLength!=0) record.setDigestStorage(digestLength, truncateLeaves);
+        if(arity!=2) record.setArity(arity);
+
+        //The segments are read and decoded without holding the monitor of the record
+        ArrayList<Callable<List<Entry>>> tasks=new ArrayList<>();
+        for(int i=0;i<segments;i++)
+        {
+            final File segment=new File(dir,segmentName(i));
+            tasks.add(() -> readSegment(segment));
+        }
+
+        List<List<Entry>> decoded=IntegrityCheckpoint.runAll(tasks,threads);
+        long restored=0;
+        for(List<Entry> entries:decoded) restored+=entries.size();
+        if(restored!=total) throw new IOException("The number of restored records ("+restored+") does not match the manifest ("+total+")");
+
+        //The decoded records are installed at once
+        synchronized(record)
+        {
+            for(List<Entry> entries:decoded)
+                for(Entry entry:entries) record.getOrCreateProject(entry.projectID).putRecord(entry.maID, entry.record);
+
+            record.rebuildRoots();
+        }
+
+        return record;
+    }
+
+    private static String segmentName(int seg)
+    {
+        return String.format("segment-%05d.bin", seg);
+    }
+
+    private static void writeSegment(File file,List<Entry> entries) throws IOException
+    {
+        try (DataOutputStream out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),BUFFER_SIZE))) {
+            out.writeInt(MAGIC);
+            out.writeInt(entries.size());
+            for(Entry entry:entries)
+            {
+                synchronized(entry.record)
+                {
+                    BDTree tree=entry.record.getTree();
+                    IntegrityTree window=entry.record.getWindow();
+                    if(window==null) throw new IOException("The record has been recycled: "+entry.maID);
+
+                    out.writeUTF(entry.projectID);
+                    out.writeUTF(entry.maID);
+                    out.writeShort(entry.record.getCurrentRole());
+                    out.writeInt(window.getLevels());
+                    out.writeBoolean(tree==null);
+                    if(tree==null)
+                    {
+                        out.writeInt(window.getArity());
+                        ((KaryTree)window).writeNodes(out);
+                    }
+                    else
+                    {
+                        out.writeBoolean(tree.isLeafIndexEnabled());
+                        out.writeBoolean(tree.isCompact());
+                        out.writeInt(tree.getDigestLength());
+                        out.writeBoolean(tree.isTruncatingLeaves());
+                        tree.writeNodes(out);
+                    }
+                }
+            }
+        }
+    }
+
+    private static List<Entry> readSegment(File file) throws IOException, BDTreeException, NoSuchAlgorithmException, TreeNodeException, IntegrityRecordException
+    {
+        try (DataInputStream in=new DataInputStream(new BufferedInputStream(new FileInputStream(file),BUFFER_SIZE))) {
+            if(in.readInt()!=MAGIC) throw new IOException("The segment does not correspond with a checkpoint: "+file);
+
+            int count=in.readInt();
+            if(count<0) throw new IOException("The segment is not consistent: "+file);
+            ArrayList<Entry> ret=new ArrayList<>(Math.min(count, 1<<16));
+            for(int i=0;i<count;i++)
+            {
+                String projectID=in.readUTF();
+                String maID=in.readUTF();
+                short role=in.readShort();
+                int levels=in.readInt();
+                boolean kary=in.readBoolean();
+                if(kary)
+                {
+                    KaryTree window=new KaryTree(in.readInt(),levels);
+                    window.readNodes(in);
+
+                    ret.add(new Entry(projectID,maID,new MAIntegrityRecord(window,role)));
+                }
+                else
+                {
+                    boolean leafIndex=in.readBoolean();
+                    boolean compact=in.readBoolean();
+                    int digestLength=in.readInt();
+                    boolean truncateLeaves=in.readBoolean();
+
+                    BDTree tree=compact?new BDTree(levels,digestLength,truncateLeaves):new BDTree(levels);
+                    tree.readNodes(in);
+                    if(leafIndex) tree.setLeafIndexEnabled(true);
+
+                    ret.add(new Entry(projectID,maID,new MAIntegrityRecord(tree,role)));
+                }
+            }
+
+            return ret;
+        }
+    }
+
+    private static <T> List<T> runAll(List<Callable<T>> tasks,int threads) throws IOException
+    {
+        ExecutorService pool=Executors.newFixedThreadPool(Math.min(threads, Math.max(1, tasks.size())));
+        try {
+            ArrayList<T> ret=new ArrayList<>();
+            for(Future<T> future:pool.invokeAll(tasks)) ret.add(future.get());
+
+            return ret;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("The checkpoint has been interrupted");
+        } catch (ExecutionException ex) {
+            if(ex.getCause() instanceof IOException) throw (IOException)ex.getCause();
+            throw new IOException("The checkpoint has failed: "+ex.getCause().getMessage(),ex.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static class Entry {
+        private final String projectID;
+        private final String maID;
+        private final MAIntegrityRecord record;
+
+        Entry(String projectID,String maID,MAIntegrityRecord record)
+        {
+            this.projectID=projectID;
+            this.maID=maID;
+            this.record=record;
+        }
+    }
+}
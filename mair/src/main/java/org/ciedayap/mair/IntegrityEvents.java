@@ -0,0 +1,130 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+/**
+ * It emits the Java Flight Recorder events of the integrity operations (see JfrEvents). The events are only
+ * referenced when the jdk.jfr module is available, so the library keeps running on the runtime images built without it.
+ * Each begin method returns null when the event is disabled (e.g. there is not a recording), so the instrumented
+ * paths only pay a null check; the fields are filled only when the duration reaches the configured threshold.
+ * The events can be turned off with the system property mair.jfr.disabled=true.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+final class IntegrityEvents {
+    /**
+     * It indicates whether the events could be emitted in this virtual machine
+     */
+    static final boolean AVAILABLE=isAvailable();
+
+    private IntegrityEvents()
+    {
+    }
+
+    private static boolean isAvailable()
+    {
+        if(Boolean.getBoolean("mair.jfr.disabled")) return false;
+
+        try{
+            Class.forName("jdk.jfr.Event");
+            return true;
+        }catch(ClassNotFoundException | LinkageError e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * @return The started push event, null when it is disabled
+     */
+    static Object beginPush()
+    {
+        return AVAILABLE?JfrEvents.beginPush():null;
+    }
+
+    /**
+     * It ends the push event and commits it when its duration reaches the threshold
+     * @param event The event returned by beginPush (it could be null)
+     * @param projectID The project ID
+     * @param maID The measurement adapter ID
+     * @param levels The levels of the tree
+     * @param hashes The number of hashes computed
+     * @param lockWait The time waiting for the lock of the record (nanoseconds)
+     * @param stored TRUE when the transaction has been stored
+     */
+    static void endPush(Object event,String projectID,String maID,int levels,long hashes,long lockWait,boolean stored)
+    {
+        if(event!=null) JfrEvents.endPush(event, projectID, maID, levels, hashes, lockWait, stored);
+    }
+
+    /**
+     * @return The started recompute event, null when it is disabled
+     */
+    static Object beginRecompute()
+    {
+        return AVAILABLE?JfrEvents.beginRecompute():null;
+    }
+
+    /**
+     * It ends the recompute event and commits it when its duration reaches the threshold
+     * @param event The event returned by beginRecompute (it could be null)
+     * @param levels The levels of the tree
+     * @param hashes The number of hashes computed
+     * @param compact TRUE when the tree keeps only the packed digests
+     */
+    static void endRecompute(Object event,int levels,long hashes,boolean compact)
+    {
+        if(event!=null) JfrEvents.endRecompute(event, levels, hashes, compact);
+    }
+
+    /**
+     * @return The started record creation event, null when it is disabled
+     */
+    static Object beginRecordCreation()
+    {
+        return AVAILABLE?JfrEvents.beginRecordCreation():null;
+    }
+
+    /**
+     * It ends the record creation event and commits it when its duration reaches the threshold
+     * @param event The event returned by beginRecordCreation (it could be null)
+     * @param projectID The project ID
+     * @param maID The measurement adapter ID
+     * @param levels The levels of the new tree
+     * @param digestLength The bytes kept by the intermediary nodes (0 for the default trees)
+     * @param pooled TRUE when the tree has been obtained from a pool
+     */
+    static void endRecordCreation(Object event,String projectID,String maID,int levels,int digestLength,boolean pooled)
+    {
+        if(event!=null) JfrEvents.endRecordCreation(event, projectID, maID, levels, digestLength, pooled);
+    }
+
+    /**
+     * @return The started verification event, null when it is disabled
+     */
+    static Object beginVerification()
+    {
+        return AVAILABLE?JfrEvents.beginVerification():null;
+    }
+
+    /**
+     * It ends the verification event and commits it when its duration reaches the threshold
+     * @param event The event returned by beginVerification (it could be null)
+     * @param projectID The project ID
+     * @param maID The measurement adapter ID
+     * @param kind The kind of verification
+     * @param requests The number of verified requests
+     * @param levels The levels of the tree
+     * @param hashes The number of hashes computed
+     * @param lockWait The time waiting for the lock of the record (nanoseconds)
+     * @param passed TRUE when all the requests have been verified successfully
+     */
+    static void endVerification(Object event,String projectID,String maID,String kind,int requests,int levels,long hashes,long lockWait,boolean passed)
+    {
+        if(event!=null) JfrEvents.endVerification(event, projectID, maID, kind, requests, levels, hashes, lockWait, passed);
+    }
+}
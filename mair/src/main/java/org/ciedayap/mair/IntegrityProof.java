@@ -0,0 +1,173 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * It contains the proof that links the root of a measurement adapter with the root of its project,
+ * and the root of the project with the global root.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class IntegrityProof {
+    private final String projectID;
+    private final String maID;
+    private final String maRootHash;
+    private final List<Step> maToProject;
+    private final String projectRootHash;
+    private final List<Step> projectToGlobal;
+    private final String globalRootHash;
+
+    IntegrityProof(String projectID,String maID,String maRootHash,List<Step> maToProject,
+            String projectRootHash,List<Step> projectToGlobal,String globalRootHash)
+    {
+        this.projectID=projectID;
+        this.maID=maID;
+        this.maRootHash=maRootHash;
+        this.maToProject=Collections.unmodifiableList(maToProject);
+        this.projectRootHash=projectRootHash;
+        this.projectToGlobal=Collections.unmodifiableList(projectToGlobal);
+        this.globalRootHash=globalRootHash;
+    }
+
+    /**
+     * It recomputes the project and global roots starting from the root of the measurement adapter
+     * and contrasts them with the informed ones.
+     * @return TRUE when the whole path is consistent, FALSE otherwise
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    public boolean verify() throws NoSuchAlgorithmException
+    {
+        MessageDigest md=MessageDigest.getInstance("MD5");
+
+        String prj=IntegrityProof.climb(md, maRootHash, maToProject);
+        if(!IntegrityProof.same(prj, projectRootHash)) return false;
+
+        String global=IntegrityProof.climb(md, projectRootHash, projectToGlobal);
+
+        return IntegrityProof.same(global, globalRootHash);
+    }
+
+    /**
+     * It recomputes the root starting from a leaf hash and its path
+     * @param md The message digest to be used
+     * @param leaf The hash of the leaf
+     * @param steps The ordered list of brothers from the leaf to the root
+     * @return The computed root
+     */
+    static String climb(MessageDigest md,String leaf,List<Step> steps)
+    {
+        String current=leaf;
+        for(Step step:steps)
+        {
+            current=step.isBrotherLeft()?BDTree.combineHashes(md, step.getBrotherHash(), current):
+                    BDTree.combineHashes(md, current, step.getBrotherHash());
+        }
+
+        return current;
+    }
+
+    private static boolean same(String a,String b)
+    {
+        if(a==null || b==null) return a==b;
+
+        return a.equalsIgnoreCase(b);
+    }
+
+    /**
+     * @return the projectID
+     */
+    public String getProjectID() {
+        return projectID;
+    }
+
+    /**
+     * @return the maID
+     */
+    public String getMaID() {
+        return maID;
+    }
+
+    /**
+     * @return the root hash of the measurement adapter
+     */
+    public String getMaRootHash() {
+        return maRootHash;
+    }
+
+    /**
+     * @return the path from the measurement adapter root up to the project root
+     */
+    public List<Step> getMaToProject() {
+        return maToProject;
+    }
+
+    /**
+     * @return the root hash of the project
+     */
+    public String getProjectRootHash() {
+        return projectRootHash;
+    }
+
+    /**
+     * @return the path from the project root up to the global root
+     */
+    public List<Step> getProjectToGlobal() {
+        return projectToGlobal;
+    }
+
+    /**
+     * @return the global root hash
+     */
+    public String getGlobalRootHash() {
+        return globalRootHash;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb=new StringBuilder();
+        sb.append("Project: ").append(projectID).append(" MA: ").append(maID)
+                .append(" MA Root: ").append((maRootHash==null)?"-":maRootHash)
+                .append(" Project Root: ").append((projectRootHash==null)?"-":projectRootHash)
+                .append(" Global Root: ").append((globalRootHash==null)?"-":globalRootHash);
+
+        return sb.toString();
+    }
+
+    /**
+     * It is a step in the path from a leaf up to the root
+     */
+    public static class Step {
+        private final String brotherHash;
+        private final boolean brotherLeft;
+
+        Step(String brotherHash,boolean brotherLeft)
+        {
+            this.brotherHash=brotherHash;
+            this.brotherLeft=brotherLeft;
+        }
+
+        /**
+         * @return the hash of the brother node (it could be null)
+         */
+        public String getBrotherHash() {
+            return brotherHash;
+        }
+
+        /**
+         * @return TRUE when the brother is the left node, FALSE otherwise
+         */
+        public boolean isBrotherLeft() {
+            return brotherLeft;
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * It walks the trees of all the measurement adapters of a global integrity record in the background, recomputing the
+ * intermediary nodes from their children and contrasting them with the stored hashes (see BDTree.scrub), so a corrupted
+ * tree (e.g. a bit flip or a bad restore) is detected before a verification fails against a client.
+ * Each tree is scrubbed in small batches, holding the lock of the record only during a batch. After each batch, the
+ * scrubber sleeps in proportion to the time spent according to its CPU budget. The time spent includes the wait
+ * for the record's lock, so the scrubber slows down when the ingestion is contending for the same records.
+ * The mismatches are reported by project and measurement adapter and, optionally, repaired (updating the project
+ * and global roots).
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class IntegrityScrubber implements AutoCloseable {
+    /**
+     * The default number of nodes of each batch
+     */
+    public static final int DEFAULT_BATCH=256;
+    /**
+     * The default pause between two passes over all the trees (milliseconds)
+     */
+    public static final long DEFAULT_PASS_INTERVAL=60000;
+
+    private final GlobalIntegrityRecord record;
+    /**
+     * The fraction of a core to be used while scrubbing, in (0;1]
+     */
+    private final double cpuBudget;
+    private final int batch;
+    private final boolean repair;
+    private final long passInterval;
+    /**
+     * The number of mismatched nodes by project and measurement adapter
+     */
+    private final HashMap<String,HashMap<String,Long>> mismatches;
+    private long batches;
+    private long mismatchCount;
+    private long passes;
+    private Thread worker;
+    private volatile boolean closed;
+    private volatile Exception error;
+
+    /**
+     * It creates a scrubber using DEFAULT_BATCH and DEFAULT_PASS_INTERVAL
+     * @param record The global integrity record to be scrubbed
+     * @param cpuBudget The fraction of a core to be used while scrubbing, in (0;1]
+     * @param repair TRUE for replacing the mismatched hashes with the recomputed ones, FALSE for only reporting them
+     * @throws IntegrityRecordException It is raised when the record is not defined or the budget is out of range
+     */
+    public IntegrityScrubber(GlobalIntegrityRecord record,double cpuBudget,boolean repair) throws IntegrityRecordException
+    {
+        this(record,cpuBudget,DEFAULT_BATCH,repair,DEFAULT_PASS_INTERVAL);
+    }
+
+    /**
+     * It creates a scrubber
+     * @param record The global integrity record to be scrubbed
+     * @param cpuBudget The fraction of a core to be used while scrubbing, in (0;1]
+     * @param batch The number of nodes scrubbed while holding the lock of a record
+     * @param repair TRUE for replacing the mismatched hashes with the recomputed ones, FALSE for only reporting them
+     * @param passInterval The pause between two passes over all the trees in milliseconds
+     * @throws IntegrityRecordException It is raised when the record is not defined or some parameter is out of range
+     */
+    public IntegrityScrubber(GlobalIntegrityRecord record,double cpuBudget,int batch,boolean repair,long passInterval) throws IntegrityRecordException
+    {
+        if(record==null) throw new IntegrityRecordException("The global integrity record is not defined");
+        if(!(cpuBudget>0 && cpuBudget<=1)) throw new IntegrityRecordException("The CPU budget must be in (0;1]");
+        if(batch<1) throw new IntegrityRecordException("The batch must be upper or equal than 1");
+        if(passInterval<0) throw new IntegrityRecordException("The pass interval must be upper or equal than 0");
+
+        this.record=record;
+        this.cpuBudget=cpuBudget;
+        this.batch=batch;
+        this.repair=repair;
+        this.passInterval=passInterval;
+        mismatches=new HashMap<>();
+    }
+
+    /**
+     * It starts scrubbing in a background (daemon) thread, one pass after another
+     */
+    public synchronized void start()
+    {
+        if(worker!=null || closed) return;
+
+        worker=new Thread(this::scrubLoop,"mair-scrubber");
+        worker.setDaemon(true);
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+    }
+
+    private void scrubLoop()
+    {
+        try{
+            while(!closed)
+            {
+                scrubPass();
+                Thread.sleep(passInterval);
+            }
+        }catch(InterruptedException e)
+        {//closed
+        }catch(NoSuchAlgorithmException | RuntimeException e)
+        {
+            error=e;
+        }
+    }
+
+    /**
+     * It scrubs once all the trees of the record in the calling thread, respecting the CPU budget
+     * @return The number of mismatched nodes found in the pass
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     * @throws InterruptedException It is raised when the thread is interrupted while sleeping
+     */
+    public long scrubPass() throws NoSuchAlgorithmException, InterruptedException
+    {
+        long found=0;
+        ArrayList<Integer> nodes=new ArrayList<>();
+        //The IDs are copied under the monitors, so the measurement adapters can be removed while scrubbing
+        ArrayList<Map.Entry<String,ProjectIntegrityRecord>> projects;
+        synchronized(record)
+        {
+            projects=new ArrayList<>(record.getProjects().entrySet());
+        }
+        for(Map.Entry<String,ProjectIntegrityRecord> prj:projects)
+        {
+            boolean changed=false;
+            ArrayList<String> mas;
+            synchronized(prj.getValue())
+            {
+                mas=new ArrayList<>(prj.getValue().getRecords().keySet());
+            }
+            for(String maID:mas)
+            {
+                int cursor=0;
+                do{
+                    if(closed) return found;
+
+                    nodes.clear();
+                    long start=System.nanoTime();
+                    cursor=prj.getValue().scrub(maID, cursor, batch, repair, nodes);
+                    long spent=System.nanoTime()-start;
+                    account(prj.getKey(),maID,nodes.size());
+                    found+=nodes.size();
+                    changed|=(repair && !nodes.isEmpty());
+                    throttle(spent);
+                }while(cursor!=0);
+            }
+            if(changed) record.refreshProjectRoot(prj.getKey());
+        }
+
+        synchronized(this){ passes++; }
+        return found;
+    }
+
+    private synchronized void account(String projectID,String maID,int found)
+    {
+        batches++;
+        if(found==0) return;
+
+        mismatchCount+=found;
+        HashMap<String,Long> mas=mismatches.get(projectID);
+        if(mas==null)
+        {
+            mas=new HashMap<>();
+            mismatches.put(projectID, mas);
+        }
+        mas.put(maID, mas.getOrDefault(maID, 0L)+found);
+    }
+
+    /**
+     * It sleeps the time required for keeping the CPU budget given the time spent in the last batch
+     * @param spent The time spent in the last batch (nanoseconds)
+     */
+    private void throttle(long spent) throws InterruptedException
+    {
+        if(cpuBudget>=1)
+        {
+            Thread.yield();
+            return;
+        }
+
+        long pause=(long)(spent*(1-cpuBudget)/cpuBudget);
+        if(pause>0) Thread.sleep(pause/1000000, (int)(pause%1000000));
+    }
+
+    /**
+     * It stops the background thread
+     */
+    @Override
+    public synchronized void close()
+    {
+        closed=true;
+        if(worker!=null) worker.interrupt();
+    }
+
+    /**
+     * @return A copy of the number of mismatched nodes found by project and measurement adapter since the creation
+     */
+    public synchronized Map<String,Map<String,Long>> getMismatches()
+    {
+        HashMap<String,Map<String,Long>> ret=new HashMap<>();
+        for(Map.Entry<String,HashMap<String,Long>> prj:mismatches.entrySet()) ret.put(prj.getKey(), new HashMap<>(prj.getValue()));
+
+        return ret;
+    }
+
+    /**
+     * @return The number of mismatched nodes found since the creation (they have been repaired when isRepairing)
+     */
+    public synchronized long getMismatchCount()
+    {
+        return mismatchCount;
+    }
+
+    /**
+     * @return The number of batches scrubbed since the creation
+     */
+    public synchronized long getBatchCount()
+    {
+        return batches;
+    }
+
+    /**
+     * @return The number of completed passes over all the trees
+     */
+    public synchronized long getPasses()
+    {
+        return passes;
+    }
+
+    /**
+     * @return The exception that stopped the background thread, null when there is not one
+     */
+    public Exception getError()
+    {
+        return error;
+    }
+
+    /**
+     * @return TRUE when the mismatched hashes are repaired, FALSE when they are only reported
+     */
+    public boolean isRepairing() {
+        return repair;
+    }
+
+    /**
+     * @return the fraction of a core to be used while scrubbing
+     */
+    public double getCpuBudget() {
+        return cpuBudget;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "IntegrityScrubber{passes="+passes+", batches="+batches+", mismatches="+mismatchCount+
+                ", projects="+mismatches.size()+", repair="+repair+", budget="+cpuBudget+"}";
+    }
+}
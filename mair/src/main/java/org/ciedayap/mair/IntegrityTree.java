@@ -0,0 +1,105 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * It is the sliding window of transactions kept by a measurement adapter record, independently of the layout of its tree
+ * (the binary BDTree or the k-ary KaryTree). The offsets go from 1 (the oldest transaction) to getCapacity (the newest one),
+ * and each level groups getArity nodes of the level below.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public interface IntegrityTree {
+    /**
+     * @return The number of levels of the tree (without the root)
+     */
+    Integer getLevels();
+
+    /**
+     * @return The number of children of each intermediary node
+     */
+    int getArity();
+
+    /**
+     * @return The number of transactions kept by the tree (getArity()^getLevels())
+     */
+    int getCapacity();
+
+    /**
+     * It scrolls left the leaves and appends the hash as the most recent transaction
+     * @param newHash The hash of the transaction
+     * @param timestamp The event timestamp of the transaction, or BDTree.NO_TIMESTAMP
+     * @return TRUE when the transaction has been pushed, FALSE otherwise
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not present
+     */
+    Boolean push(String newHash,long timestamp) throws NoSuchAlgorithmException;
+
+    /**
+     * It scrolls left the leaves and appends the binary MD5 digest as the most recent transaction
+     * @param digest The array containing the MD5 digest of the transaction
+     * @param offset The position in which the digest starts in the array
+     * @param timestamp The event timestamp of the transaction, or BDTree.NO_TIMESTAMP
+     * @return TRUE when the transaction has been pushed, FALSE otherwise
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not present
+     */
+    boolean pushDigest(byte digest[],int offset,long timestamp) throws NoSuchAlgorithmException;
+
+    /**
+     * @return The root hash (null when there are not transactions)
+     */
+    String getRootHash();
+
+    /**
+     * @param offset The offset of the transaction (1 is the oldest)
+     * @return The hash of the transaction, null when the offset is out of range or the leaf is empty
+     */
+    String getOffsetHash(int offset);
+
+    /**
+     * @param qlevels The number of levels of the subtree
+     * @return The hash of the first getArity()^qlevels transactions, null when it is not defined
+     */
+    String getHashForFirstNTransactions(int qlevels);
+
+    /**
+     * @param qlevels The number of levels of the subtree
+     * @return The hash of the last getArity()^qlevels transactions, null when it is not defined
+     */
+    String getHashForLastNTransactions(int qlevels);
+
+    /**
+     * It copies the digest of the node that covers the first or the last getArity()^qlevels transactions (the root when
+     * qlevels is getLevels()) without building its hexadecimal representation
+     * @param qlevels The number of levels of the subtree
+     * @param last TRUE for the last transactions, FALSE for the first ones
+     * @param dst The array in which the digest is copied (it must have room for BDTree.DIGEST_LENGTH bytes)
+     * @param offset The position of dst in which the digest is copied
+     * @return The number of copied bytes, 0 when the node is not defined or it has no hash, -1 when its hash is not a
+     * lower-case hexadecimal digest (see getHashForFirstNTransactions and getHashForLastNTransactions)
+     */
+    int copySubtreeDigest(int qlevels,boolean last,byte dst[],int offset);
+
+    /**
+     * @return The number of transactions pushed into the tree since its creation
+     */
+    long getPushCount();
+
+    /**
+     * @return The number of MD5 hashes computed by the tree since its creation
+     */
+    long getHashCount();
+
+    /**
+     * It contrasts a stored hash with a given one following the representation of the tree
+     * @param stored The hash kept by the tree
+     * @param given The hash to be contrasted
+     * @return TRUE when the hashes match, FALSE otherwise
+     */
+    boolean isSameHash(String stored,String given);
+}
@@ -0,0 +1,212 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * It contains the Java Flight Recorder event types of the integrity operations. It is only loaded through
+ * IntegrityEvents when the jdk.jfr module is available. The default thresholds keep the events out of the
+ * recordings unless the operation is slow; the sample configuration mair.jfc (in the resources) lowers them
+ * for profiling.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+final class JfrEvents {
+    private JfrEvents()
+    {
+    }
+
+    static Object beginPush()
+    {
+        PushEvent event=new PushEvent();
+        if(!event.isEnabled()) return null;
+
+        event.begin();
+        return event;
+    }
+
+    static void endPush(Object started,String projectID,String maID,int levels,long hashes,long lockWait,boolean stored)
+    {
+        PushEvent event=(PushEvent)started;
+        event.end();
+        if(!event.shouldCommit()) return;
+
+        event.projectID=projectID;
+        event.maID=maID;
+        event.levels=levels;
+        event.hashCount=hashes;
+        event.lockWait=lockWait;
+        event.stored=stored;
+        event.commit();
+    }
+
+    static Object beginRecompute()
+    {
+        RecomputeEvent event=new RecomputeEvent();
+        if(!event.isEnabled()) return null;
+
+        event.begin();
+        return event;
+    }
+
+    static void endRecompute(Object started,int levels,long hashes,boolean compact)
+    {
+        RecomputeEvent event=(RecomputeEvent)started;
+        event.end();
+        if(!event.shouldCommit()) return;
+
+        event.levels=levels;
+        event.hashCount=hashes;
+        event.compact=compact;
+        event.commit();
+    }
+
+    static Object beginRecordCreation()
+    {
+        RecordCreationEvent event=new RecordCreationEvent();
+        if(!event.isEnabled()) return null;
+
+        event.begin();
+        return event;
+    }
+
+    static void endRecordCreation(Object started,String projectID,String maID,int levels,int digestLength,boolean pooled)
+    {
+        RecordCreationEvent event=(RecordCreationEvent)started;
+        event.end();
+        if(!event.shouldCommit()) return;
+
+        event.projectID=projectID;
+        event.maID=maID;
+        event.levels=levels;
+        event.digestLength=digestLength;
+        event.pooled=pooled;
+        event.commit();
+    }
+
+    static Object beginVerification()
+    {
+        VerificationEvent event=new VerificationEvent();
+        if(!event.isEnabled()) return null;
+
+        event.begin();
+        return event;
+    }
+
+    static void endVerification(Object started,String projectID,String maID,String kind,int requests,int levels,long hashes,long lockWait,boolean passed)
+    {
+        VerificationEvent event=(VerificationEvent)started;
+        event.end();
+        if(!event.shouldCommit()) return;
+
+        event.projectID=projectID;
+        event.maID=maID;
+        event.kind=kind;
+        event.requests=requests;
+        event.levels=levels;
+        event.hashCount=hashes;
+        event.lockWait=lockWait;
+        event.passed=passed;
+        event.commit();
+    }
+
+    @Name("org.ciedayap.mair.Push")
+    @Label("Transaction Push")
+    @Description("A transaction incorporated into the tree of a measurement adapter")
+    @Category({"MAIR","Ingestion"})
+    @Threshold("20 ms")
+    @StackTrace(false)
+    static class PushEvent extends Event {
+        @Label("Project")
+        String projectID;
+        @Label("Measurement Adapter")
+        String maID;
+        @Label("Levels")
+        int levels;
+        @Label("Hash Count")
+        @Description("The number of MD5 hashes computed")
+        long hashCount;
+        @Label("Lock Wait")
+        @Timespan(Timespan.NANOSECONDS)
+        long lockWait;
+        @Label("Stored")
+        boolean stored;
+    }
+
+    @Name("org.ciedayap.mair.Recompute")
+    @Label("Tree Recompute")
+    @Description("The recomputation of all the intermediary nodes of a tree from new leaves")
+    @Category({"MAIR","Tree"})
+    @Threshold("20 ms")
+    @StackTrace(false)
+    static class RecomputeEvent extends Event {
+        @Label("Levels")
+        int levels;
+        @Label("Hash Count")
+        @Description("The number of MD5 hashes computed")
+        long hashCount;
+        @Label("Compact")
+        boolean compact;
+    }
+
+    @Name("org.ciedayap.mair.RecordCreation")
+    @Label("Record Creation")
+    @Description("The creation of the integrity record of a new measurement adapter")
+    @Category({"MAIR","Records"})
+    @Threshold("20 ms")
+    @StackTrace(false)
+    static class RecordCreationEvent extends Event {
+        @Label("Project")
+        String projectID;
+        @Label("Measurement Adapter")
+        String maID;
+        @Label("Levels")
+        int levels;
+        @Label("Digest Length")
+        @DataAmount(DataAmount.BYTES)
+        int digestLength;
+        @Label("Pooled")
+        @Description("The tree has been obtained from a pool of trees")
+        boolean pooled;
+    }
+
+    @Name("org.ciedayap.mair.Verification")
+    @Label("Verification")
+    @Description("The verification of hashes against the tree of a measurement adapter")
+    @Category({"MAIR","Verification"})
+    @Threshold("20 ms")
+    @StackTrace(false)
+    static class VerificationEvent extends Event {
+        @Label("Project")
+        String projectID;
+        @Label("Measurement Adapter")
+        String maID;
+        @Label("Kind")
+        String kind;
+        @Label("Requests")
+        int requests;
+        @Label("Levels")
+        int levels;
+        @Label("Hash Count")
+        @Description("The number of MD5 hashes computed")
+        long hashCount;
+        @Label("Lock Wait")
+        @Timespan(Timespan.NANOSECONDS)
+        long lockWait;
+        @Label("Passed")
+        boolean passed;
+    }
+}
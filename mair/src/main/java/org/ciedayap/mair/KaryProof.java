@@ -0,0 +1,133 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * It is the proof of a transaction in a KaryTree: for each level, from the leaf up to the root, the position of the node
+ * among its brothers and the hashes of the arity-1 brothers (null for the absent ones). The root is recomputed following
+ * the rules of KaryTree, so the proof can be verified without the tree.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class KaryProof {
+    private final int arity;
+    private final int offset;
+    private final int positions[];
+    private final String siblings[][];
+
+    KaryProof(int arity,int offset,int positions[],String siblings[][])
+    {
+        this.arity=arity;
+        this.offset=offset;
+        this.positions=positions;
+        this.siblings=siblings;
+    }
+
+    /**
+     * It recomputes the root from the hash of the transaction
+     * @param leafHash The hash of the transaction
+     * @return The recomputed root, null when the hash is not defined
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    public String computeRoot(String leafHash) throws NoSuchAlgorithmException
+    {
+        if(leafHash==null || leafHash.trim().length()==0) return null;
+
+        MessageDigest md=MessageDigest.getInstance("MD5");
+        String current=leafHash.toLowerCase();
+        String children[]=new String[arity];
+        for(int l=0;l<positions.length;l++)
+        {
+            int s=0;
+            for(int c=0;c<arity;c++) children[c]=(c==positions[l])?current:siblings[l][s++];
+            current=combine(md,children);
+        }
+
+        return current;
+    }
+
+    /**
+     * It verifies the proof against a trusted root
+     * @param leafHash The hash of the transaction
+     * @param trustedRoot The root obtained from a trusted source
+     * @return TRUE when the recomputed root matches with the trusted root, FALSE otherwise
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    public boolean verify(String leafHash,String trustedRoot) throws NoSuchAlgorithmException
+    {
+        String root=computeRoot(leafHash);
+
+        return root!=null && trustedRoot!=null && root.equalsIgnoreCase(trustedRoot);
+    }
+
+    /**
+     * It combines the hashes of the children of a node following the rules of KaryTree
+     * @param md The MD5 message digest
+     * @param children The hexadecimal hashes of the children (null for the absent ones)
+     * @return The hash of the node, null when all the children are absent
+     */
+    static String combine(MessageDigest md,String children[])
+    {
+        StringBuilder sb=new StringBuilder();
+        String only=null;
+        int count=0;
+        for(String child:children)
+        {
+            if(child==null) continue;
+            if(count>0) sb.append('.');
+            sb.append(child);
+            only=child;
+            count++;
+        }
+        if(count<2) return only;
+
+        return BDTree.toHexString(md.digest(sb.toString().getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * @return The number of children of each intermediary node
+     */
+    public int getArity() {
+        return arity;
+    }
+
+    /**
+     * @return The offset of the proven transaction
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return The number of levels of the proof
+     */
+    public int getLevels() {
+        return positions.length;
+    }
+
+    /**
+     * @return The number of hashes contained in the proof (the absent brothers are not counted)
+     */
+    public int size()
+    {
+        int ret=0;
+        for(String level[]:siblings)
+            for(String hash:level) if(hash!=null) ret++;
+
+        return ret;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "KaryProof{arity="+arity+", offset="+offset+", levels="+positions.length+", hashes="+size()+"}";
+    }
+}
@@ -0,0 +1,439 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * It is a Merkle tree in which each intermediary node has arity children (4, 8 or 16), keeping the same sliding window
+ * of transactions than BDTree: the offsets go from 1 (the oldest) to arity^levels (the newest), and each push scrolls left
+ * the leaves. For the same window, the tree has log_arity(2)-times the levels of the binary tree and it computes about
+ * 1/(arity-1) of its hashes by push, each one over a longer input. The nodes are kept as packed MD5 digests in a single array
+ * (the children of the node i are arity*i+1 to arity*i+arity), so the recompute walks the array without pointer chasing.
+ * <p>
+ * The hash of an intermediary node follows the rules of BDTree: the MD5 of the hexadecimal hashes of the present children
+ * joined by ".", the hash of the child when only one of them is present, and no hash when all of them are absent.
+ * Thus, a tree with arity 2 produces the same roots than BDTree. The leaves must be hexadecimal MD5 hashes.
+ * A proof of a transaction (see getProof) contains arity-1 siblings by level.
+ * </p>
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class KaryTree implements IntegrityTree {
+    private static final int DIGEST_LENGTH=BDTree.DIGEST_LENGTH;
+
+    private final MessageDigest md5;
+    private final int arity;
+    private final int levels;
+    private final int capacity;
+    /**
+     * The position of the first leaf (i.e. the number of intermediary nodes)
+     */
+    private final int firstLeaf;
+    private final int nodes;
+    private final byte digests[];
+    private final boolean present[];
+    /**
+     * It keeps the hexadecimal children of a node while its hash is computed
+     */
+    private final byte scratch[];
+    private long pushCount;
+    private long hashCount;
+    private long lastTimestamp=BDTree.NO_TIMESTAMP;
+
+    /**
+     * It creates an empty tree
+     * @param arity The number of children of each intermediary node (2, 4, 8 or 16)
+     * @param levels The number of levels without the root (the tree keeps arity^levels transactions)
+     * @throws BDTreeException It is raised when the arity is not supported or the levels are not valid
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    public KaryTree(int arity,int levels) throws BDTreeException, NoSuchAlgorithmException
+    {
+        if(!isSupported(arity)) throw new BDTreeException("The arity must be 2, 4, 8 or 16");
+        if(levels<1) throw new BDTreeException("The levels must be upper or equal than 1");
+        //The capacity is bounded while it is computed, so a large number of levels cannot overflow it
+        long cap=1;
+        for(int i=0;i<levels;i++)
+        {
+            cap*=arity;
+            if(cap>Integer.MAX_VALUE) throw new BDTreeException("The tree is too large");
+        }
+        long inner=(cap-1)/(arity-1);
+        if((inner+cap)*DIGEST_LENGTH>Integer.MAX_VALUE-8) throw new BDTreeException("The tree is too large");
+
+        md5=MessageDigest.getInstance("MD5");
+        this.arity=arity;
+        this.levels=levels;
+        capacity=(int)cap;
+        firstLeaf=(int)inner;
+        nodes=firstLeaf+capacity;
+        digests=new byte[nodes*DIGEST_LENGTH];
+        present=new boolean[nodes];
+        scratch=new byte[arity*(2*DIGEST_LENGTH+1)];
+    }
+
+    /**
+     * @param arity The number of children of each intermediary node
+     * @return TRUE when the arity is 2, 4, 8 or 16, FALSE otherwise
+     */
+    public static boolean isSupported(int arity)
+    {
+        return arity==2 || arity==4 || arity==8 || arity==16;
+    }
+
+    /**
+     * It indicates the levels of a k-ary tree keeping the indicated number of transactions
+     * @param arity The number of children of each intermediary node (2, 4, 8 or 16)
+     * @param capacity The number of transactions
+     * @return The number of levels, -1 when the capacity is not a power of the arity
+     * @throws BDTreeException It is raised when the arity is not supported
+     */
+    public static int getLevelsForCapacity(int arity,int capacity) throws BDTreeException
+    {
+        if(!isSupported(arity)) throw new BDTreeException("The arity must be 2, 4, 8 or 16");
+        if(capacity<arity) return -1;
+
+        int ret=0;
+        long cap=1;
+        while(cap<capacity)
+        {
+            cap=Math.multiplyExact(cap, (long)arity);
+            ret++;
+        }
+
+        return (cap==capacity)?ret:-1;
+    }
+
+    public Integer getLevels()
+    {
+        return levels;
+    }
+
+    public int getArity()
+    {
+        return arity;
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * It scrolls left the leaves, discarding the oldest transaction, and appends the hash as the newest one
+     * @param newHash The hexadecimal MD5 hash of the transaction (null for an empty leaf)
+     * @return TRUE when the transaction has been pushed, FALSE when the hash is not a hexadecimal MD5 hash
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not present
+     */
+    public synchronized Boolean push(String newHash) throws NoSuchAlgorithmException
+    {
+        return push(newHash,BDTree.NO_TIMESTAMP);
+    }
+
+    /**
+     * It pushes the hash like push(String) does. The timestamps must not decrease (see BDTree.push(String,long)),
+     * although the k-ary tree keeps only the last one.
+     * @param newHash The hexadecimal MD5 hash of the transaction (null for an empty leaf)
+     * @param timestamp The event timestamp of the transaction, or BDTree.NO_TIMESTAMP
+     * @return TRUE when the transaction has been pushed, FALSE when the hash is not valid or the timestamp is older than the last one
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not present
+     */
+    public synchronized Boolean push(String newHash,long timestamp) throws NoSuchAlgorithmException
+    {
+        if(timestamp!=BDTree.NO_TIMESTAMP && timestamp<lastTimestamp) return false;
+        if(newHash!=null && !BDTree.isPackable(newHash, DIGEST_LENGTH)) return false;
+
+        shift(timestamp);
+        if(newHash!=null)
+        {
+            int base=(nodes-1)*DIGEST_LENGTH;
+            for(int i=0;i<DIGEST_LENGTH;i++)
+                digests[base+i]=(byte)((Character.digit(newHash.charAt(2*i), 16)<<4)+Character.digit(newHash.charAt(2*i+1), 16));
+            present[nodes-1]=true;
+        }
+        recompute();
+
+        return true;
+    }
+
+    /**
+     * It pushes the binary MD5 digest as the newest transaction (see push(String))
+     * @param digest The array containing the MD5 digest
+     * @param offset The position in which the digest starts in the array
+     * @return TRUE when the transaction has been pushed, FALSE otherwise
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not present
+     */
+    public synchronized boolean pushDigest(byte digest[],int offset) throws NoSuchAlgorithmException
+    {
+        return pushDigest(digest,offset,BDTree.NO_TIMESTAMP);
+    }
+
+    public synchronized boolean pushDigest(byte digest[],int offset,long timestamp) throws NoSuchAlgorithmException
+    {
+        if(digest==null || offset<0 || offset+DIGEST_LENGTH>digest.length) return false;
+        if(timestamp!=BDTree.NO_TIMESTAMP && timestamp<lastTimestamp) return false;
+
+        shift(timestamp);
+        System.arraycopy(digest, offset, digests, (nodes-1)*DIGEST_LENGTH, DIGEST_LENGTH);
+        present[nodes-1]=true;
+        recompute();
+
+        return true;
+    }
+
+    /**
+     * It scrolls left the leaves leaving the last one empty
+     */
+    private void shift(long timestamp)
+    {
+        System.arraycopy(digests, (firstLeaf+1)*DIGEST_LENGTH, digests, firstLeaf*DIGEST_LENGTH, (capacity-1)*DIGEST_LENGTH);
+        System.arraycopy(present, firstLeaf+1, present, firstLeaf, capacity-1);
+        present[nodes-1]=false;
+        pushCount++;
+        if(timestamp!=BDTree.NO_TIMESTAMP) lastTimestamp=timestamp;
+    }
+
+    /**
+     * It recomputes the intermediary nodes from the last one up to the root
+     */
+    private void recompute()
+    {
+        for(int i=firstLeaf-1;i>=0;i--) combine(i);
+    }
+
+    /**
+     * It computes the hash of the node from its children
+     * @param idx The position of the node
+     */
+    private void combine(int idx)
+    {
+        int first=arity*idx+1;
+        int count=0;
+        int only=-1;
+        for(int c=first;c<first+arity;c++)
+        {
+            if(!present[c]) continue;
+            count++;
+            only=c;
+        }
+
+        if(count==0)
+        {
+            present[idx]=false;
+            return;
+        }
+        present[idx]=true;
+        if(count==1)
+        {
+            System.arraycopy(digests, only*DIGEST_LENGTH, digests, idx*DIGEST_LENGTH, DIGEST_LENGTH);
+            return;
+        }
+
+        int len=0;
+        for(int c=first;c<first+arity;c++)
+        {
+            if(!present[c]) continue;
+            if(len>0) scratch[len++]='.';
+            BDTree.encodeHex(digests, c*DIGEST_LENGTH, DIGEST_LENGTH, scratch, len);
+            len+=2*DIGEST_LENGTH;
+        }
+        md5.update(scratch, 0, len);
+        hashCount++;
+        try {
+            md5.digest(digests, idx*DIGEST_LENGTH, DIGEST_LENGTH);
+        } catch (DigestException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * @param idx The position of the node
+     * @return The hexadecimal hash of the node, null when it is absent
+     */
+    private String hashOf(int idx)
+    {
+        return present[idx]?BDTree.toHexString(digests, idx*DIGEST_LENGTH, DIGEST_LENGTH):null;
+    }
+
+    public synchronized String getRootHash()
+    {
+        return hashOf(0);
+    }
+
+    public synchronized String getOffsetHash(int offset)
+    {
+        if(offset<1 || offset>capacity) return null;
+
+        return hashOf(firstLeaf+offset-1);
+    }
+
+    public synchronized String getHashForFirstNTransactions(int qlevels)
+    {
+        if(qlevels<1 || qlevels>levels) return null;
+
+        return hashOf(subtreeNode(qlevels,false));
+    }
+
+    public synchronized String getHashForLastNTransactions(int qlevels)
+    {
+        if(qlevels<1 || qlevels>levels) return null;
+
+        return hashOf(subtreeNode(qlevels,true));
+    }
+
+    public synchronized int copySubtreeDigest(int qlevels,boolean last,byte dst[],int offset)
+    {
+        if(qlevels<1 || qlevels>levels) return 0;
+
+        int idx=subtreeNode(qlevels,last);
+        if(!present[idx]) return 0;
+
+        System.arraycopy(digests, idx*DIGEST_LENGTH, dst, offset, DIGEST_LENGTH);
+        return DIGEST_LENGTH;
+    }
+
+    /**
+     * @param qlevels The number of levels of the subtree (1 to levels)
+     * @param last TRUE for the last transactions, FALSE for the first ones
+     * @return The position of the node covering the first or the last arity^qlevels transactions
+     */
+    private int subtreeNode(int qlevels,boolean last)
+    {
+        int idx=0;
+        for(int i=qlevels;i<levels;i++) idx=arity*idx+(last?arity:1);
+
+        return idx;
+    }
+
+    /**
+     * It creates the proof of a transaction, containing the siblings of each node in the path up to the root
+     * @param offset The offset of the transaction (1 is the oldest and arity^levels the newest)
+     * @return The proof, null when the offset is out of range or the leaf is empty
+     */
+    public synchronized KaryProof getProof(int offset)
+    {
+        if(offset<1 || offset>capacity) return null;
+        int idx=firstLeaf+offset-1;
+        if(!present[idx]) return null;
+
+        int positions[]=new int[levels];
+        String siblings[][]=new String[levels][arity-1];
+        for(int l=0;l<levels;l++)
+        {
+            int parent=(idx-1)/arity;
+            int first=arity*parent+1;
+            positions[l]=idx-first;
+            int s=0;
+            for(int c=first;c<first+arity;c++)
+                if(c!=idx) siblings[l][s++]=hashOf(c);
+            idx=parent;
+        }
+
+        return new KaryProof(arity,offset,positions,siblings);
+    }
+
+    public synchronized long getPushCount()
+    {
+        return pushCount;
+    }
+
+    public synchronized long getHashCount()
+    {
+        return hashCount;
+    }
+
+    public boolean isSameHash(String stored,String given)
+    {
+        if(stored==null || given==null) return false;
+
+        return stored.equalsIgnoreCase(given);
+    }
+
+    /**
+     * It writes the push counter, the packed digests of all the nodes (including the intermediary ones) and the last timestamp
+     * in binary format, so they must be read by a tree with the same arity and levels
+     * @param out The output stream
+     * @throws IOException It is raised when the nodes cannot be written
+     */
+    synchronized void writeNodes(DataOutputStream out) throws IOException
+    {
+        out.writeLong(pushCount);
+        out.writeInt(nodes);
+        for(boolean p:present) out.writeBoolean(p);
+        out.write(digests);
+        out.writeLong(lastTimestamp);
+    }
+    
+    /**
+     * It restores the push counter, the nodes and the last timestamp written by writeNodes, without recomputing them
+     * @param in The input stream
+     * @throws IOException It is raised when the nodes cannot be read or they do not correspond with the tree's arity and levels
+     */
+    synchronized void readNodes(DataInputStream in) throws IOException
+    {
+        long pushes=in.readLong();
+        int nnodes=in.readInt();
+        if(nnodes!=nodes) throw new IOException("There is not correspondence between the stored nodes and the tree levels");
+        
+        for(int i=0;i<nodes;i++) present[i]=in.readBoolean();
+        in.readFully(digests);
+        pushCount=pushes;
+        lastTimestamp=in.readLong();
+    }
+    
+    /**
+     * It loads the leaves of a window together with the state left by the transactions pushed up to it,
+     * recomputing the intermediary nodes once. The result is the same than pushing such transactions one at a time
+     * (see HistoryImporter).
+     * @param leaves The hexadecimal MD5 hashes of the leaves (the first one is the oldest), null for the empty leaves
+     * @param pushes The number of transactions pushed up to the window
+     * @param lastTimestamp The timestamp of the last transaction (BDTree.NO_TIMESTAMP when there is not)
+     * @throws BDTreeException It is raised when the number of leaves does not correspond with the capacity,
+     * or a hash is not a hexadecimal MD5 hash
+     */
+    synchronized void load(String leaves[],long pushes,long lastTimestamp) throws BDTreeException
+    {
+        if(leaves==null || leaves.length!=capacity) throw new BDTreeException("The leaves do not correspond with the capacity of the tree");
+        for(String hash:leaves)
+            if(hash!=null && !BDTree.isPackable(hash, DIGEST_LENGTH)) throw new BDTreeException("The leaf is not a hexadecimal MD5 hash: "+hash);
+
+        for(int i=0;i<capacity;i++)
+        {
+            int idx=firstLeaf+i;
+            present[idx]=leaves[i]!=null;
+            if(leaves[i]==null) continue;
+            for(int b=0;b<DIGEST_LENGTH;b++)
+                digests[idx*DIGEST_LENGTH+b]=(byte)((Character.digit(leaves[i].charAt(2*b), 16)<<4)+Character.digit(leaves[i].charAt(2*b+1), 16));
+        }
+        pushCount=pushes;
+        this.lastTimestamp=lastTimestamp;
+        recompute();
+    }
+    
+    /**
+     * It discards all the transactions, keeping the arrays for reusing the tree
+     */
+    public synchronized void reset()
+    {
+        Arrays.fill(present, false);
+        pushCount=0;
+        lastTimestamp=BDTree.NO_TIMESTAMP;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "KaryTree{arity="+arity+", levels="+levels+", pushes="+pushCount+", root="+hashOf(0)+"}";
+    }
+}
@@ -5,7 +5,10 @@
  */
 package org.ciedayap.mair;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.security.NoSuchAlgorithmException;
+import java.util.List;
 
 /**
  * It uses a Merkel tree for implementing the integrity verification for the
@@ -22,13 +25,55 @@ public class MAIntegrityRecord {
     public static final short ROLE_COOPERATIVE=3;
     
     /**
-     * It is a Merkel tree used to keep traceability of the transactions' integrity
+     * It is a Merkel tree used to keep traceability of the transactions' integrity.
+     * It is null once the record has been recycled or when the record uses a k-ary tree.
      */
-    private final BDTree tree;
+    private BDTree tree;
+    /**
+     * It is the window of transactions used by the verifications (the binary tree or the k-ary one).
+     * It is null once the record has been recycled.
+     */
+    private IntegrityTree window;
+    /**
+     * The pool from which the tree has been obtained and to which it is returned by recycle (it could be null)
+     */
+    private BDTreePool pool;
     /**
      * It contains the current role of the measurement adapter
      */
     private short currentRole;
+    /**
+     * It keeps the roots of the windows that slid out of the tree (it could be null)
+     */
+    private WindowArchive archive;
+    /**
+     * The last error raised by the archive, null when the archive works properly
+     */
+    private IOException archiveError;
+    /**
+     * The number of window roots that could not be archived
+     */
+    private long archiveFailures;
+    /**
+     * The bytes reserved for the record in the memory budget of its project (0 when there is not budget)
+     */
+    private long reservedBytes;
+    /**
+     * The logical time of the last transaction incorporated through the project record (used for evicting)
+     */
+    private long lastUse;
+    /**
+     * The snapshot epoch in which the record was created (it is not part of the snapshots of such an epoch)
+     */
+    private long createdEpoch;
+    /**
+     * The last snapshot epoch for which the root of the record has been kept
+     */
+    private long snapshotEpoch;
+    /**
+     * It keeps the roots and the firsts/lasts hashes of the recent versions (null when the retention is disabled)
+     */
+    private RootVersions history;
     
     /**
      * It creates an integrity record with the capacity to store
@@ -49,6 +94,126 @@ public class MAIntegrityRecord {
        this.currentRole=role;
        
        tree= BDTree.create(level);
+       window=tree;
+    }
+
+    /**
+     * It creates an integrity record whose transactions are kept in a k-ary tree (see KaryTree) with the capacity to store
+     * up to arity^level transactions. The verifications (whole, firsts, lasts, offsets and versions) work as in the binary
+     * record, although the firsts and lasts are expressed in levels of the k-ary tree (i.e. arity^levels transactions).
+     * The features related to the binary layout (e.g. multiproofs, leaf index, time ranges, scrubbing, and dumps)
+     * are not available for this record.
+     *
+     * @param level The number of levels to be represented (without the root)
+     * @param role The current role related to the measurement adapter
+     * @param arity The number of children of each intermediary node (2, 4, 8 or 16)
+     * @throws BDTreeException It is raised when the level or the arity are not valid, or the role is not defined
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm does not exist.
+     */
+    public MAIntegrityRecord(int level,short role,int arity) throws BDTreeException, NoSuchAlgorithmException
+    {
+       if(!isValidRole(role)) throw new BDTreeException("The indicated role is not defined");
+       
+       this.currentRole=role;
+       
+       window= new KaryTree(arity,level);
+    }
+    
+    /**
+     * It creates an integrity record whose tree keeps truncated binary digests (see BDTree(Integer,int,boolean)),
+     * reducing the memory required for each measurement adapter.
+     * 
+     * @param level The number of levels to be represented (without the root)
+     * @param role The current role related to the measurement adapter
+     * @param digestLength The number of bytes kept for each intermediary node (8, 12 or 16)
+     * @param truncateLeaves TRUE for truncating also the leaves, FALSE for keeping the whole MD5 of each transaction
+     * @throws BDTreeException It is raised when the level is negative, the role is not valid or the digest length is not supported
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm does not exist.
+     */
+    public MAIntegrityRecord(int level,short role,int digestLength,boolean truncateLeaves) throws BDTreeException, NoSuchAlgorithmException
+    {
+       if(!isValidRole(role)) throw new BDTreeException("The indicated role is not defined");
+       
+       this.currentRole=role;
+       
+       tree= new BDTree(level,digestLength,truncateLeaves);
+       window=tree;
+    }
+    
+    /**
+     * It creates an integrity record whose tree is obtained from the indicated pool. The tree is returned
+     * to the pool when the record is recycled (see recycle).
+     * 
+     * @param level The number of levels to be represented (without the root)
+     * @param role The current role related to the measurement adapter
+     * @param pool The pool of trees (null for creating a new tree)
+     * @throws BDTreeException It is raised when the level is negative or the role is not valid
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm does not exist.
+     * @throws TreeNodeException It is raised when the node can not be created.
+     */
+    public MAIntegrityRecord(int level,short role,BDTreePool pool) throws BDTreeException, NoSuchAlgorithmException, TreeNodeException
+    {
+       if(!isValidRole(role)) throw new BDTreeException("The indicated role is not defined");
+       
+       this.currentRole=role;
+       this.pool=pool;
+       
+       tree= (pool==null)?BDTree.create(level):pool.acquire(level);
+       window=tree;
+    }
+    
+    /**
+     * It creates an integrity record whose compact tree (see BDTree(Integer,int,boolean)) is obtained from the indicated pool.
+     * The tree is returned to the pool when the record is recycled (see recycle).
+     * 
+     * @param level The number of levels to be represented (without the root)
+     * @param role The current role related to the measurement adapter
+     * @param digestLength The number of bytes kept for each intermediary node (8, 12 or 16)
+     * @param truncateLeaves TRUE for truncating also the leaves, FALSE for keeping the whole MD5 of each transaction
+     * @param pool The pool of trees (null for creating a new tree)
+     * @throws BDTreeException It is raised when the level is negative, the role is not valid or the digest length is not supported
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm does not exist.
+     */
+    public MAIntegrityRecord(int level,short role,int digestLength,boolean truncateLeaves,BDTreePool pool) throws BDTreeException, NoSuchAlgorithmException
+    {
+       if(!isValidRole(role)) throw new BDTreeException("The indicated role is not defined");
+       
+       this.currentRole=role;
+       this.pool=pool;
+       
+       tree= (pool==null)?new BDTree(level,digestLength,truncateLeaves):pool.acquire(level, digestLength, truncateLeaves);
+       window=tree;
+    }
+    
+    /**
+     * It creates an integrity record using an existing tree (e.g. restored from a checkpoint)
+     * @param tree The Merkle tree of the measurement adapter
+     * @param role The current role related to the measurement adapter
+     * @throws BDTreeException It is raised when the tree is not defined or the role is not valid
+     */
+    MAIntegrityRecord(BDTree tree,short role) throws BDTreeException
+    {
+       if(tree==null) throw new BDTreeException("The tree is not defined");
+       if(!isValidRole(role)) throw new BDTreeException("The indicated role is not defined");
+       
+       this.currentRole=role;
+       this.tree=tree;
+       this.window=tree;
+    }
+    
+    /**
+     * It creates an integrity record using an existing k-ary tree (e.g. restored from a checkpoint)
+     * @param window The k-ary tree of the measurement adapter
+     * @param role The current role related to the measurement adapter
+     * @throws BDTreeException It is raised when the tree is not defined or the role is not valid
+     */
+    MAIntegrityRecord(KaryTree window,short role) throws BDTreeException
+    {
+       if(window==null) throw new BDTreeException("The tree is not defined");
+       if(!isValidRole(role)) throw new BDTreeException("The indicated role is not defined");
+       
+       this.currentRole=role;
+       this.window=window;
     }
     
     /**
@@ -80,12 +245,131 @@ public class MAIntegrityRecord {
      */
     public synchronized Boolean addTransaction(Short role,String hashMD5) throws NoSuchAlgorithmException
     {
+        return addTransaction(role,hashMD5,BDTree.NO_TIMESTAMP);
+    }
+    
+    /**
+     * It adds a transaction at the end of the list, discarding the oldest transaction. The event timestamp is kept
+     * alongside the transaction for the time-range queries. The timestamps must not decrease.
+     * 
+     * @param role The current role informed for the measurement adapter
+     * @param hashMD5 The MD5 related to the transaction to be added
+     * @param timestamp The event timestamp of the transaction (BDTree.NO_TIMESTAMP when it is not known)
+     * @return TRUE when the new transaction has been added, FALSE otherwise (e.g. the timestamp is older than the last one)
+     * @throws NoSuchAlgorithmException It is raised when MD5 algorithm is not available
+     */
+    public synchronized Boolean addTransaction(Short role,String hashMD5,long timestamp) throws NoSuchAlgorithmException
+    {
+        if(window==null) return false;
         if(hashMD5!=null && hashMD5.trim().length()==0) return false;
         if(!MAIntegrityRecord.isValidRole(role)) return false;
         
         this.currentRole=role;
         
-        return tree.push(hashMD5);
+        Boolean ret=window.push(hashMD5,timestamp);
+        if(history!=null && ret!=null && ret) history.record(window);
+        if(archive!=null) archiveWindow();
+        
+        return ret;
+    }
+
+    /**
+     * It adds a transaction expressed as a binary MD5 digest at the end of the list, discarding the oldest transaction.
+     * Once the tree has been warmed up, this path does not allocate memory for each transaction (see BDTree.pushDigest)
+     * except when the leaf index is enabled or when a window is archived.
+     *
+     * @param role The current role informed for the measurement adapter
+     * @param digest The array containing the MD5 digest related to the transaction to be added
+     * @param offset The position in which the digest starts in the array
+     * @return TRUE when the new transaction has been added, FALSE otherwise
+     * @throws NoSuchAlgorithmException It is raised when MD5 algorithm is not available
+     */
+    public synchronized boolean addTransaction(short role,byte digest[],int offset) throws NoSuchAlgorithmException
+    {
+        return addTransaction(role,digest,offset,BDTree.NO_TIMESTAMP);
+    }
+
+    /**
+     * It adds a transaction expressed as a binary MD5 digest together with its event timestamp
+     * (see addTransaction(short,byte[],int)). The timestamps must not decrease.
+     *
+     * @param role The current role informed for the measurement adapter
+     * @param digest The array containing the MD5 digest related to the transaction to be added
+     * @param offset The position in which the digest starts in the array
+     * @param timestamp The event timestamp of the transaction (BDTree.NO_TIMESTAMP when it is not known)
+     * @return TRUE when the new transaction has been added, FALSE otherwise
+     * @throws NoSuchAlgorithmException It is raised when MD5 algorithm is not available
+     */
+    public synchronized boolean addTransaction(short role,byte digest[],int offset,long timestamp) throws NoSuchAlgorithmException
+    {
+        if(window==null) return false;
+        if(!MAIntegrityRecord.isValidRole(role)) return false;
+
+        this.currentRole=role;
+
+        boolean ret=window.pushDigest(digest, offset, timestamp);
+        if(history!=null && ret) history.record(window);
+        if(archive!=null) archiveWindow();
+
+        return ret;
+    }
+
+    /**
+     * It loads the window of leaves left by the transactions of an imported history (see BDTree.load and KaryTree.load,
+     * which keeps only the last timestamp), keeping the loaded state as a retained version when the retention is enabled
+     * @param role The current role of the measurement adapter
+     * @param leaves The hashes of the leaves (the first one is the oldest), null for the empty leaves
+     * @param pushes The number of transactions incorporated up to the window
+     * @param stamps The timestamps of the leaves, null when no transaction has had a timestamp
+     * @param lastTimestamp The timestamp of the last transaction
+     * @return TRUE when the window has been loaded, FALSE when the record is recycled
+     * @throws BDTreeException It is raised when the leaves do not correspond with the tree
+     * @throws NoSuchAlgorithmException It is raised when MD5 algorithm is not available
+     */
+    synchronized boolean load(short role,String leaves[],long pushes,long stamps[],long lastTimestamp) throws BDTreeException, NoSuchAlgorithmException
+    {
+        if(window==null) return false;
+        
+        this.currentRole=role;
+        if(tree!=null) tree.load(leaves, pushes, stamps, lastTimestamp);
+        else ((KaryTree)window).load(leaves, pushes, lastTimestamp);
+        if(history!=null) history.record(window);
+        
+        return true;
+    }
+    
+    /**
+     * It archives the root of a window computed outside the tree (e.g. while importing a history)
+     * @param windowSeq The window sequence number
+     * @param rootHash The root of the window
+     * @throws NoSuchAlgorithmException It is raised when MD5 algorithm is not available
+     * @throws IOException It is raised when the root cannot be archived
+     */
+    synchronized void archive(long windowSeq,String rootHash) throws NoSuchAlgorithmException, IOException
+    {
+        if(archive==null) return;
+        
+        archive.append(windowSeq, rootHash);
+    }
+    
+    /**
+     * It archives the root of the tree each time a whole window of 2^levels fresh transactions has been pushed.
+     * The window sequence number n is related to the transactions (n-1)*2^levels+1 to n*2^levels.
+     * When the root cannot be archived, the transaction is kept and the failure is counted (see getArchiveFailures).
+     * @throws NoSuchAlgorithmException It is raised when MD5 algorithm is not available
+     */
+    private void archiveWindow() throws NoSuchAlgorithmException
+    {
+        long capacity=window.getCapacity();
+        long pushes=window.getPushCount();
+        if(pushes==0 || (pushes%capacity)!=0) return;
+        
+        try {
+            archive.append(pushes/capacity, window.getRootHash());
+        } catch (IOException ex) {
+            archiveError=ex;
+            archiveFailures++;
+        }
     }
     
     /**
@@ -95,12 +379,13 @@ public class MAIntegrityRecord {
      */
     public synchronized Boolean hasWholeIntegrity(String comeMD5)
     {
+        if(window==null) return false;
         if(comeMD5==null || comeMD5.trim().length()==0) return false;
         
-        String rootHash=tree.getRootHash();
+        String rootHash=window.getRootHash();
         if(rootHash==null || rootHash.trim().length()==0) return false;
         
-        return rootHash.equalsIgnoreCase(comeMD5);
+        return window.isSameHash(rootHash,comeMD5);
     }
     
     /**
@@ -113,14 +398,15 @@ public class MAIntegrityRecord {
      */
     public synchronized Boolean verifyIntegrityFirsts(String hashMD5, int levels)
     {
+        if(window==null) return false;
         if(hashMD5==null || hashMD5.trim().length()==0) return false;
         if(levels<1) return false;
-        if(levels>tree.getLevels()) return false;
+        if(levels>window.getLevels()) return false;
         
-        String firsts=tree.getHashForFirstNTransactions(levels);
+        String firsts=window.getHashForFirstNTransactions(levels);
         if(firsts==null || firsts.trim().length()==0) return false;
         
-        return firsts.equalsIgnoreCase(hashMD5);
+        return window.isSameHash(firsts,hashMD5);
     }
 
     /**
@@ -133,14 +419,194 @@ public class MAIntegrityRecord {
      */    
     public synchronized Boolean verifyIntegrityLasts(String hashMD5, int levels)
     {
+        if(window==null) return false;
         if(hashMD5==null || hashMD5.trim().length()==0) return false;
         if(levels<1) return false;
-        if(levels>tree.getLevels()) return false;
+        if(levels>window.getLevels()) return false;
         
-        String lasts=tree.getHashForLastNTransactions(levels);
+        String lasts=window.getHashForLastNTransactions(levels);
         if(lasts==null || lasts.trim().length()==0) return false;
         
-        return lasts.equalsIgnoreCase(hashMD5);
+        return window.isSameHash(lasts,hashMD5);
+    }
+    
+    /**
+     * It verifies whether the root of the indicated version matches with the indicated hash. The version is the number of
+     * transactions incorporated when the hash was computed (see getVersion); it must be the current version
+     * or one of the retained versions (see setRetainedVersions).
+     * @param comeMD5 The hash to be contrasted with the root hash of the version
+     * @param version The version of the record against which the hash is contrasted
+     * @return TRUE when the hashes match between them, FALSE otherwise (e.g. the version is not retained)
+     */
+    public synchronized Boolean hasWholeIntegrity(String comeMD5,long version)
+    {
+        return verifyVersions(VerificationRequest.TYPE_WHOLE,comeMD5,0,version,version);
+    }
+    
+    /**
+     * It verifies whether the root of the current version or of one of the previous tolerance versions
+     * matches with the indicated hash, so the transactions pushed after the hash was computed do not fail the verification.
+     * @param comeMD5 The hash to be contrasted with the root hashes
+     * @param tolerance The number of previous versions that are accepted (0 means only the current version).
+     * The versions older than the retained ones are not considered.
+     * @return TRUE when the hash matches with one of the accepted versions, FALSE otherwise
+     */
+    public synchronized Boolean hasWholeIntegrityWithin(String comeMD5,int tolerance)
+    {
+        if(window==null || tolerance<0) return false;
+        long current=window.getPushCount();
+        
+        return verifyVersions(VerificationRequest.TYPE_WHOLE,comeMD5,0,current-tolerance,current);
+    }
+    
+    /**
+     * It verifies the hash of the firsts 2^levels transactions of the indicated version (see hasWholeIntegrity(String,long))
+     * @param hashMD5 The hash associated with the firsts 2^levels transactions
+     * @param levels The number of levels related to the transactions to be contrasted
+     * @param version The version of the record against which the hash is contrasted
+     * @return TRUE when the hashes match between them, FALSE otherwise (e.g. the version is not retained)
+     */
+    public synchronized Boolean verifyIntegrityFirsts(String hashMD5,int levels,long version)
+    {
+        return verifyVersions(VerificationRequest.TYPE_FIRSTS,hashMD5,levels,version,version);
+    }
+    
+    /**
+     * It verifies the hash of the firsts 2^levels transactions against the current version and the previous
+     * tolerance versions (see hasWholeIntegrityWithin)
+     * @param hashMD5 The hash associated with the firsts 2^levels transactions
+     * @param levels The number of levels related to the transactions to be contrasted
+     * @param tolerance The number of previous versions that are accepted (0 means only the current version)
+     * @return TRUE when the hash matches with one of the accepted versions, FALSE otherwise
+     */
+    public synchronized Boolean verifyIntegrityFirstsWithin(String hashMD5,int levels,int tolerance)
+    {
+        if(window==null || tolerance<0) return false;
+        long current=window.getPushCount();
+        
+        return verifyVersions(VerificationRequest.TYPE_FIRSTS,hashMD5,levels,current-tolerance,current);
+    }
+    
+    /**
+     * It verifies the hash of the lasts 2^levels transactions of the indicated version (see hasWholeIntegrity(String,long))
+     * @param hashMD5 The hash associated with the lasts 2^levels transactions
+     * @param levels The number of levels related to the transactions to be contrasted
+     * @param version The version of the record against which the hash is contrasted
+     * @return TRUE when the hashes match between them, FALSE otherwise (e.g. the version is not retained)
+     */
+    public synchronized Boolean verifyIntegrityLasts(String hashMD5,int levels,long version)
+    {
+        return verifyVersions(VerificationRequest.TYPE_LASTS,hashMD5,levels,version,version);
+    }
+    
+    /**
+     * It verifies the hash of the lasts 2^levels transactions against the current version and the previous
+     * tolerance versions (see hasWholeIntegrityWithin)
+     * @param hashMD5 The hash associated with the lasts 2^levels transactions
+     * @param levels The number of levels related to the transactions to be contrasted
+     * @param tolerance The number of previous versions that are accepted (0 means only the current version)
+     * @return TRUE when the hash matches with one of the accepted versions, FALSE otherwise
+     */
+    public synchronized Boolean verifyIntegrityLastsWithin(String hashMD5,int levels,int tolerance)
+    {
+        if(window==null || tolerance<0) return false;
+        long current=window.getPushCount();
+        
+        return verifyVersions(VerificationRequest.TYPE_LASTS,hashMD5,levels,current-tolerance,current);
+    }
+    
+    /**
+     * It contrasts the hash with the versions in the indicated interval, from the newest to the oldest.
+     * The current version is read from the tree and the previous ones from the retained versions.
+     * @param type VerificationRequest.TYPE_WHOLE, TYPE_FIRSTS or TYPE_LASTS
+     * @param hashMD5 The hash to be contrasted
+     * @param qlevels The levels of the firsts or lasts transactions (it is ignored for TYPE_WHOLE)
+     * @param from The oldest accepted version
+     * @param to The newest accepted version
+     * @return TRUE when the hash matches with one of the versions, FALSE otherwise
+     */
+    private Boolean verifyVersions(short type,String hashMD5,int qlevels,long from,long to)
+    {
+        if(window==null) return false;
+        if(hashMD5==null || hashMD5.trim().length()==0) return false;
+        if(type!=VerificationRequest.TYPE_WHOLE && (qlevels<1 || qlevels>window.getLevels())) return false;
+        
+        long current=window.getPushCount();
+        if(to>current) to=current;
+        if(to<from) return false;
+        
+        if(to==current)
+        {
+            String hash;
+            switch(type)
+            {
+                case VerificationRequest.TYPE_FIRSTS:
+                    hash=window.getHashForFirstNTransactions(qlevels);
+                    break;
+                case VerificationRequest.TYPE_LASTS:
+                    hash=window.getHashForLastNTransactions(qlevels);
+                    break;
+                default:
+                    hash=window.getRootHash();
+            }
+            if(hash!=null && window.isSameHash(hash, hashMD5)) return true;
+            to--;
+        }
+        if(history==null || history.size()==0) return false;
+        
+        from=Math.max(from, history.getOldestVersion());
+        for(long v=to;v>=from;v--)
+        {
+            String hash=history.getHash(v, type, qlevels);
+            if(hash!=null && window.isSameHash(hash, hashMD5)) return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * It defines the number of versions retained for the verifications against a previous version
+     * (e.g. hasWholeIntegrity(String,long)). Each retained version keeps its root and the hashes of the
+     * firsts and lasts 2^l transactions as packed digests, so the retention costs 2*levels-1 digests by version in memory
+     * and their copy in each transaction. The retention starts with the current version;
+     * changing the number of versions discards the retained ones.
+     * @param versions The number of versions to be retained, 0 for disabling the retention (by default)
+     * @return TRUE when the retention has been defined, FALSE otherwise (e.g. a negative number, a number of versions
+     * too large for the levels or a recycled record)
+     */
+    public synchronized boolean setRetainedVersions(int versions)
+    {
+        if(window==null || versions<0) return false;
+        if(versions>0 && !RootVersions.fits(versions, window.getLevels())) return false;
+        if(versions==getRetainedVersions()) return true;
+        if(versions==0)
+        {
+            history=null;
+            return true;
+        }
+        
+        history=new RootVersions(versions,window.getLevels());
+        history.record(window);
+        
+        return true;
+    }
+    
+    /**
+     * @return The number of versions retained for the verifications, 0 when the retention is disabled
+     */
+    public synchronized int getRetainedVersions()
+    {
+        return (history==null)?0:history.getCapacity();
+    }
+    
+    /**
+     * @return The oldest version against which a hash can be verified, -1 when the record is recycled
+     */
+    public synchronized long getOldestVerifiableVersion()
+    {
+        if(window==null) return -1;
+        
+        return (history==null || history.size()==0)?window.getPushCount():history.getOldestVersion();
     }
     
     /**
@@ -153,15 +619,282 @@ public class MAIntegrityRecord {
      */
     public synchronized Boolean verifyTransactionIntegrity(String hashMD5, int offset)
     {
+        if(window==null) return false;
         if(offset<1) return false;
-        Integer levels=tree.getLevels();
-        if(levels==null || levels<1) return false;
-        if(offset>BDTree.getMaxNumberOfTransactions(levels)) return false;
+        if(offset>window.getCapacity()) return false;
         
-        String ohash=tree.getOffsetHash(offset);
+        String ohash=window.getOffsetHash(offset);
         if(ohash==null || ohash.trim().length()==0) return false;
-        return ohash.equalsIgnoreCase(hashMD5);
-    }    
+        return window.isSameHash(ohash,hashMD5);
+    }
+
+    /**
+     * It creates a single proof for several offsets of the current window (see BDTree.getMultiProof)
+     * @param offsets The offsets to be proven (1 is the oldest and 2^levels the newest)
+     * @return The proof, null when the offsets are not valid or the record is recycled
+     */
+    public synchronized MultiProof getMultiProof(int offsets[])
+    {
+        if(tree==null) return null;
+        
+        return tree.getMultiProof(offsets);
+    }
+    
+    /**
+     * It creates the proof of a transaction of the current window when the record uses a k-ary tree (see KaryTree.getProof)
+     * @param offset The offset of the transaction (1 is the oldest and arity^levels the newest)
+     * @return The proof, null when the offset is not valid, the record uses the binary tree (see getMultiProof) or it is recycled
+     */
+    public synchronized KaryProof getProof(int offset)
+    {
+        if(!(window instanceof KaryTree)) return null;
+        
+        return ((KaryTree)window).getProof(offset);
+    }
+    
+    /**
+     * It recomputes a batch of intermediary nodes of the tree and contrasts them with the stored hashes (see BDTree.scrub)
+     * @param fromNode The node ID from which the batch starts (downwards), 0 for starting from the last intermediary node
+     * @param maxNodes The max number of nodes of the batch
+     * @param repair TRUE for replacing the mismatched hashes with the recomputed ones, FALSE for only reporting them
+     * @param mismatches The list in which the IDs of the mismatched nodes are incorporated (it could be null)
+     * @return The node ID from which the next batch starts, 0 when the root has been reached, the record is recycled
+     * or it keeps a k-ary tree (whose nodes are not scrubbed)
+     */
+    synchronized int scrub(int fromNode,int maxNodes,boolean repair,List<Integer> mismatches)
+    {
+        if(tree==null) return 0;
+        
+        int ret=tree.scrub(fromNode, maxNodes, repair, mismatches);
+        if(repair && history!=null) history.record(tree);//It replaces the current version with the repaired hashes
+        
+        return ret;
+    }
+    
+    /**
+     * @return The levels of the tree, 0 when the record is recycled
+     */
+    synchronized int getLevels()
+    {
+        return (window==null)?0:window.getLevels();
+    }
+    
+    /**
+     * @return The number of MD5 hashes computed by the tree since its creation, 0 when the record is recycled
+     */
+    synchronized long getHashCount()
+    {
+        return (window==null)?0:window.getHashCount();
+    }
+    
+    /**
+     * It looks for the transaction with the indicated hash in the current window
+     * @param hashMD5 The hash of the transaction to be found
+     * @return The offset of the most recent transaction with such a hash (1 is the oldest and 2^levels the newest), -1 when it is not present
+     */
+    public synchronized int findTransaction(String hashMD5)
+    {
+        if(tree==null) return -1;
+        if(hashMD5==null || hashMD5.trim().length()==0) return -1;
+        
+        return tree.findOffset(hashMD5);
+    }
+
+    /**
+     * It resolves a time interval to the offsets of the transactions happened in it
+     * @param from The start of the interval (inclusive)
+     * @param to The end of the interval (inclusive)
+     * @return An array with two positions (0: first offset, 1: last offset), null when there are not transactions in the interval
+     */
+    public synchronized int[] getOffsetRange(long from,long to)
+    {
+        if(tree==null) return null;
+        
+        return tree.getOffsetRange(from, to);
+    }
+
+    /**
+     * It returns the hashes of the transactions happened in the indicated time interval
+     * @param from The start of the interval (inclusive)
+     * @param to The end of the interval (inclusive)
+     * @return The hashes from the oldest to the newest, null when there are not transactions in the interval
+     */
+    public synchronized String[] getHashesBetween(long from,long to)
+    {
+        if(tree==null) return null;
+        
+        return tree.getHashesBetween(from, to);
+    }
+
+    /**
+     * It returns the hashes of the subtrees covering the transactions happened in the indicated time interval
+     * @param from The start of the interval (inclusive)
+     * @param to The end of the interval (inclusive)
+     * @return The covering hashes from the left to the right, null when there are not transactions in the interval
+     */
+    public synchronized String[] getCoveringHashes(long from,long to)
+    {
+        if(tree==null) return null;
+        
+        return tree.getCoveringHashes(from, to);
+    }
+
+    /**
+     * It verifies the transactions happened in the indicated time interval
+     * @param from The start of the interval (inclusive)
+     * @param to The end of the interval (inclusive)
+     * @param hashes The hashes of the transactions from the oldest to the newest
+     * @return TRUE when the hashes match, FALSE otherwise
+     */
+    public synchronized Boolean verifyTimeRange(long from,long to,String hashes[])
+    {
+        if(tree==null) return false;
+        
+        return tree.verifyTimeRange(from, to, hashes);
+    }
+
+    /**
+     * It enables or disables the reverse index from the transaction hashes to their offsets.
+     * When it is disabled, findTransaction scans the whole window.
+     * @param enabled TRUE for enabling the index, FALSE otherwise
+     */
+    public synchronized void setLeafIndexEnabled(boolean enabled)
+    {
+        if(tree!=null) tree.setLeafIndexEnabled(enabled);
+    }
+    
+    /**
+     * @return TRUE when the reverse index of transactions is enabled, FALSE otherwise
+     */
+    public synchronized boolean isLeafIndexEnabled()
+    {
+        if(tree==null) return false;
+        
+        return tree.isLeafIndexEnabled();
+    }
+
+    /**
+     * It evaluates a group of verification requests related to this measurement adapter
+     * acquiring the record's monitor only once.
+     * @param requests The whole set of requests
+     * @param idx The positions of the requests (in the whole set) related to this record
+     * @param count The number of valid positions in idx
+     * @param ok The outcome for each position (it is updated by this method)
+     * @param reasons The failure reason for each position (it is updated by this method)
+     */
+    synchronized void verifyBatch(VerificationRequest requests[],int idx[],int count,boolean ok[],String reasons[])
+    {
+        for(int i=0;i<count;i++)
+        {
+            int pos=idx[i];
+            VerificationRequest req=requests[pos];
+            Boolean ret;
+
+            switch(req.getType())
+            {
+                case VerificationRequest.TYPE_WHOLE:
+                    ret=hasWholeIntegrity(req.getHashMD5());
+                    break;
+                case VerificationRequest.TYPE_FIRSTS:
+                    ret=verifyIntegrityFirsts(req.getHashMD5(), req.getValue());
+                    break;
+                case VerificationRequest.TYPE_LASTS:
+                    ret=verifyIntegrityLasts(req.getHashMD5(), req.getValue());
+                    break;
+                case VerificationRequest.TYPE_TRANSACTION:
+                    ret=verifyTransactionIntegrity(req.getHashMD5(), req.getValue());
+                    break;
+                default:
+                    ret=false;
+            }
+
+            ok[pos]=(ret!=null && ret);
+            if(!ok[pos]) reasons[pos]="The hash does not match";
+        }
+    }
+
+    /**
+     * @return The root hash of the Merkle tree (null when there are not transactions)
+     */
+    public synchronized String getRootHash()
+    {
+        if(window==null) return null;
+        
+        return window.getRootHash();
+    }
+
+    /**
+     * It returns the version of the record, given by the number of transactions incorporated since its creation
+     * @return the number of incorporated transactions
+     */
+    public synchronized long getVersion()
+    {
+        if(window==null) return 0;
+        
+        return window.getPushCount();
+    }
+    
+    /**
+     * It returns the archived root of the indicated window
+     * @param windowSeq The window sequence number (the window n contains the transactions (n-1)*2^levels+1 to n*2^levels)
+     * @return The archived root, null when there is not archive or the window is not archived
+     * @throws IOException It is raised when the archive cannot be read
+     */
+    public synchronized String getArchivedRootHash(long windowSeq) throws IOException
+    {
+        if(archive==null) return null;
+        
+        return archive.getRootHash(windowSeq);
+    }
+    
+    /**
+     * It verifies the hash of a window that slid out of the tree using the archive
+     * @param hashMD5 The hash to be contrasted with the archived root
+     * @param windowSeq The window sequence number
+     * @return TRUE when the hashes match, FALSE otherwise
+     * @throws IOException It is raised when the archive cannot be read
+     */
+    public synchronized Boolean verifyArchivedWindow(String hashMD5,long windowSeq) throws IOException
+    {
+        if(hashMD5==null || hashMD5.trim().length()==0) return false;
+        
+        if(archive==null) return false;
+        
+        try {
+            return archive.matchesRoot(windowSeq, hashMD5);
+        } catch (NoSuchAlgorithmException ex) {
+            return false;
+        }
+    }
+    
+    /**
+     * @return the archive (null when the windows are not archived)
+     */
+    public synchronized WindowArchive getArchive() {
+        return archive;
+    }
+
+    /**
+     * @param archive the archive to set (null disables the archiving)
+     */
+    public synchronized void setArchive(WindowArchive archive) {
+        this.archive = archive;
+        this.archiveError = null;
+    }
+
+    /**
+     * @return the last error raised by the archive, null when the archive works properly
+     */
+    public synchronized IOException getArchiveError() {
+        return archiveError;
+    }
+
+    /**
+     * @return the number of window roots that could not be archived since the creation of the record
+     */
+    public synchronized long getArchiveFailures() {
+        return archiveFailures;
+    }
 
     /**
      * @return the currentRole
@@ -177,9 +910,149 @@ public class MAIntegrityRecord {
         this.currentRole = currentRole;
     }
     
+    /**
+     * @return the Merkle tree of the measurement adapter
+     */
+    synchronized BDTree getTree()
+    {
+        return tree;
+    }
+    
+    /**
+     * @return the window of transactions of the measurement adapter (the binary or the k-ary tree)
+     */
+    synchronized IntegrityTree getWindow()
+    {
+        return window;
+    }
+    
+    /**
+     * @return the snapshot epoch in which the record was created
+     */
+    long getCreatedEpoch()
+    {
+        return createdEpoch;
+    }
+    
+    /**
+     * @param createdEpoch the snapshot epoch in which the record was created
+     */
+    void setCreatedEpoch(long createdEpoch)
+    {
+        this.createdEpoch=createdEpoch;
+    }
+    
+    /**
+     * @return the last snapshot epoch for which the root of the record has been kept
+     */
+    long getSnapshotEpoch()
+    {
+        return snapshotEpoch;
+    }
+    
+    /**
+     * @param snapshotEpoch the last snapshot epoch for which the root of the record has been kept
+     */
+    void setSnapshotEpoch(long snapshotEpoch)
+    {
+        this.snapshotEpoch=snapshotEpoch;
+    }
+    
+    /**
+     * It returns the tree to the pool from which it was obtained (when there is one), so it can be reused by another
+     * measurement adapter. The record must have been removed from its project; once recycled, the verifications
+     * fail and no transaction is incorporated.
+     * @return TRUE when the tree has been returned to the pool, FALSE otherwise
+     */
+    public synchronized boolean recycle()
+    {
+        if(window==null) return false;
+        
+        BDTree released=tree;
+        tree=null;
+        window=null;
+        history=null;
+        
+        return released!=null && pool!=null && pool.release(released);
+    }
+    
+    /**
+     * @return TRUE when the record has been recycled, FALSE otherwise
+     */
+    public synchronized boolean isRecycled()
+    {
+        return window==null;
+    }
+    
+    /**
+     * @return the bytes reserved for the record in the memory budget of its project
+     */
+    long getReservedBytes()
+    {
+        return reservedBytes;
+    }
+    
+    /**
+     * @param reservedBytes the bytes reserved for the record in the memory budget of its project
+     */
+    void setReservedBytes(long reservedBytes)
+    {
+        this.reservedBytes=reservedBytes;
+    }
+    
+    /**
+     * @return the logical time of the last transaction incorporated through the project record
+     */
+    long getLastUse()
+    {
+        return lastUse;
+    }
+    
+    /**
+     * @param lastUse the logical time of the last transaction incorporated through the project record
+     */
+    void setLastUse(long lastUse)
+    {
+        this.lastUse=lastUse;
+    }
+    
+    /**
+     * It writes a page of the nodes of the tree in a human-readable format (see BDTree.dump(Appendable,int,int,int)).
+     * The page is written under the monitor of the record, so the tree cannot be recycled while it is written.
+     * @param out The destination
+     * @param fromNode The first node ID of the page
+     * @param toNode The last node ID of the range
+     * @param maxNodes The max number of nodes of the page
+     * @return The node ID from which the next page starts, 0 when the range has been completed, the record is recycled
+     * or it keeps a k-ary tree (nothing is written)
+     * @throws IOException It is raised when the destination cannot be written
+     */
+    public synchronized int dump(Appendable out,int fromNode,int toNode,int maxNodes) throws IOException
+    {
+        return (tree==null)?0:tree.dump(out, fromNode, toNode, maxNodes);
+    }
+    
+    /**
+     * It writes a page of the nodes of the tree in the compact binary format (see BDTree.dump(OutputStream,int,int,int)).
+     * The page is written under the monitor of the record, so the tree cannot be recycled while it is written.
+     * @param out The destination (it is not closed)
+     * @param fromNode The first node ID of the page
+     * @param toNode The last node ID of the range
+     * @param maxNodes The max number of nodes of the page
+     * @return The node ID from which the next page starts, 0 when the range has been completed, the record is recycled
+     * or it keeps a k-ary tree (nothing is written)
+     * @throws IOException It is raised when the destination cannot be written
+     */
+    public synchronized int dump(OutputStream out,int fromNode,int toNode,int maxNodes) throws IOException
+    {
+        return (tree==null)?0:tree.dump(out, fromNode, toNode, maxNodes);
+    }
+    
     @Override
     public String toString()
     {
-        return tree.toString();
+        IntegrityTree current=getWindow();
+        
+        return (current==null)?"Recycled":current.toString();
     }
 }
@@ -0,0 +1,337 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * It keeps the estimated memory used by the integrity records of the measurement adapters, globally and by project,
+ * and decides whether a new record can be admitted. The footprint of each record is estimated from the levels and the
+ * storage of its tree (see estimate), so a stray measurement adapter ID cannot allocate a tree beyond the budget.
+ * When a new record does not fit, the policy indicates the outcome:
+ * <ul>
+ * <li>REJECT: the record is not created and the transaction is not stored</li>
+ * <li>DOWNGRADE: the levels of the new record are reduced until it fits (down to the minimum levels)</li>
+ * <li>EVICT: the least recently updated measurement adapters of the same project are removed until it fits</li>
+ * </ul>
+ * The same budget could be shared by several global or project integrity records.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class MemoryBudget {
+    /**
+     * It indicates the outcome when a new record does not fit in the budget
+     */
+    public enum Policy { REJECT, DOWNGRADE, EVICT }
+
+    /**
+     * The estimated bytes of a record and its tree, without the nodes
+     */
+    public static final long RECORD_OVERHEAD=600;
+    /**
+     * The estimated bytes of each node in the default trees (TreeNode, String hash and packed digest)
+     */
+    public static final long NODE_BYTES=136;
+    /**
+     * The estimated bytes of each leaf when the reverse index of transactions is enabled
+     */
+    public static final long INDEX_ENTRY_BYTES=112;
+    /**
+     * The bytes of each leaf for keeping its event timestamp
+     */
+    public static final long TIMESTAMP_BYTES=8;
+    /**
+     * The key used for the project records not contained in a global integrity record
+     */
+    private static final String NO_PROJECT="";
+
+    /**
+     * The max number of bytes for all the records (0 means without limit)
+     */
+    private final long globalLimit;
+    /**
+     * The max number of bytes for the records of each project (0 means without limit)
+     */
+    private final long projectLimit;
+    private final Policy policy;
+    /**
+     * The lowest levels admitted by the DOWNGRADE policy
+     */
+    private final int minLevels;
+    private long used;
+    private final HashMap<String,Long> usedByProject;
+    private long rejected;
+    private long downgraded;
+    private long evicted;
+
+    /**
+     * It creates a budget whose DOWNGRADE policy can reduce the levels up to 1
+     * @param globalLimit The max number of bytes for all the records (0 means without limit)
+     * @param projectLimit The max number of bytes for the records of each project (0 means without limit)
+     * @param policy The outcome when a new record does not fit
+     * @throws IntegrityRecordException It is raised when the limits are negative or the policy is not indicated
+     */
+    public MemoryBudget(long globalLimit,long projectLimit,Policy policy) throws IntegrityRecordException
+    {
+        this(globalLimit,projectLimit,policy,1);
+    }
+
+    /**
+     * It creates a budget
+     * @param globalLimit The max number of bytes for all the records (0 means without limit)
+     * @param projectLimit The max number of bytes for the records of each project (0 means without limit)
+     * @param policy The outcome when a new record does not fit
+     * @param minLevels The lowest levels admitted by the DOWNGRADE policy
+     * @throws IntegrityRecordException It is raised when the limits are negative, the policy is not indicated or minLevels is lower than 1
+     */
+    public MemoryBudget(long globalLimit,long projectLimit,Policy policy,int minLevels) throws IntegrityRecordException
+    {
+        if(globalLimit<0 || projectLimit<0) throw new IntegrityRecordException("The limits must be upper or equal than 0");
+        if(policy==null) throw new IntegrityRecordException("The policy is not defined");
+        if(minLevels<1) throw new IntegrityRecordException("The min levels must be upper or equal than 1");
+
+        this.globalLimit=globalLimit;
+        this.projectLimit=projectLimit;
+        this.policy=policy;
+        this.minLevels=minLevels;
+        usedByProject=new HashMap<>();
+    }
+
+    /**
+     * It estimates the bytes required by an integrity record once its tree is full. The estimation is an upper bound
+     * that includes the event timestamps of the leaves.
+     * @param levels The levels of the tree
+     * @param digestLength The number of bytes kept for each intermediary node in a compact tree (8, 12 or 16), 0 for the default trees
+     * @param truncateLeaves TRUE when the compact tree truncates also the leaves
+     * @param leafIndexing TRUE when the reverse index of transactions is enabled
+     * @return The estimated bytes
+     */
+    public static long estimate(int levels,int digestLength,boolean truncateLeaves,boolean leafIndexing)
+    {
+        if(levels<1) return RECORD_OVERHEAD;
+
+        long leaves=1L<<levels;
+        long nodes=2*leaves-1;
+        long ret=RECORD_OVERHEAD+leaves*TIMESTAMP_BYTES;
+        if(digestLength==0)
+        {
+            ret+=nodes*NODE_BYTES;
+            if(leafIndexing) ret+=leaves*INDEX_ENTRY_BYTES;
+        }
+        else
+        {
+            int leafLength=truncateLeaves?digestLength:BDTree.DIGEST_LENGTH;
+            ret+=(nodes-leaves)*(digestLength+1)+leaves*(leafLength+1);
+        }
+
+        return ret;
+    }
+
+    /**
+     * It estimates the bytes required by an integrity record whose transactions are kept in a k-ary tree (see KaryTree).
+     * Each node keeps a packed MD5 digest and its presence, and the tree keeps only the last event timestamp.
+     * @param arity The number of children of each intermediary node
+     * @param levels The levels of the tree
+     * @return The estimated bytes, Long.MAX_VALUE when the tree could not be created
+     */
+    public static long estimateKary(int arity,int levels)
+    {
+        if(levels<1 || arity<2) return RECORD_OVERHEAD;
+
+        long nodes=1,width=1;
+        for(int i=0;i<levels;i++)
+        {
+            if(width>Integer.MAX_VALUE) return Long.MAX_VALUE;
+            width*=arity;
+            nodes+=width;
+        }
+
+        return RECORD_OVERHEAD+nodes*(BDTree.DIGEST_LENGTH+1);
+    }
+
+    /**
+     * It estimates the bytes required by the indicated integrity record
+     * @param record The integrity record
+     * @return The estimated bytes (only the overhead for a recycled record)
+     */
+    static long estimate(MAIntegrityRecord record)
+    {
+        BDTree tree=record.getTree();
+        if(tree!=null) return estimate(tree.getLevels(),tree.isCompact()?tree.getDigestLength():0,tree.isTruncatingLeaves(),tree.isLeafIndexEnabled());
+
+        IntegrityTree window=record.getWindow();
+
+        return (window==null)?RECORD_OVERHEAD:estimateKary(window.getArity(),window.getLevels());
+    }
+
+    /**
+     * It reserves the indicated bytes when they fit in the global and project limits
+     * @param projectID The project ID (null for a project record not contained in a global record)
+     * @param bytes The bytes to be reserved
+     * @return TRUE when the bytes have been reserved, FALSE otherwise
+     */
+    synchronized boolean reserve(String projectID,long bytes)
+    {
+        String key=(projectID==null)?NO_PROJECT:projectID;
+        long current=usedByProject.getOrDefault(key, 0L);
+        if(globalLimit>0 && used+bytes>globalLimit) return false;
+        if(projectLimit>0 && current+bytes>projectLimit) return false;
+
+        used+=bytes;
+        usedByProject.put(key, current+bytes);
+
+        return true;
+    }
+
+    /**
+     * It verifies whether the indicated bytes would fit in the global and project limits once the indicated
+     * bytes of the project were released (e.g. by evicting its records)
+     * @param projectID The project ID (null for a project record not contained in a global record)
+     * @param bytes The bytes to be reserved
+     * @param released The bytes of the project that would be released
+     * @return TRUE when the bytes would fit, FALSE otherwise
+     */
+    synchronized boolean fitsAfterRelease(String projectID,long bytes,long released)
+    {
+        String key=(projectID==null)?NO_PROJECT:projectID;
+        long current=usedByProject.getOrDefault(key, 0L);
+        long freed=Math.min(current, Math.max(0, released));
+        if(globalLimit>0 && used-freed+bytes>globalLimit) return false;
+        if(projectLimit>0 && current-freed+bytes>projectLimit) return false;
+
+        return true;
+    }
+
+    /**
+     * It charges the indicated bytes without verifying the limits (e.g. for the records created before the budget)
+     * @param projectID The project ID (null for a project record not contained in a global record)
+     * @param bytes The bytes to be charged
+     */
+    synchronized void charge(String projectID,long bytes)
+    {
+        String key=(projectID==null)?NO_PROJECT:projectID;
+        used+=bytes;
+        usedByProject.put(key, usedByProject.getOrDefault(key, 0L)+bytes);
+    }
+
+    /**
+     * It releases the bytes previously reserved or charged
+     * @param projectID The project ID (null for a project record not contained in a global record)
+     * @param bytes The bytes to be released
+     */
+    synchronized void release(String projectID,long bytes)
+    {
+        String key=(projectID==null)?NO_PROJECT:projectID;
+        Long current=usedByProject.get(key);
+        if(current==null) return;
+
+        long value=Math.max(0, current-bytes);
+        used=Math.max(0, used-Math.min(current, bytes));
+        if(value==0) usedByProject.remove(key);
+        else usedByProject.put(key, value);
+    }
+
+    synchronized void recordRejection()
+    {
+        rejected++;
+    }
+
+    synchronized void recordDowngrade()
+    {
+        downgraded++;
+    }
+
+    synchronized void recordEviction()
+    {
+        evicted++;
+    }
+
+    /**
+     * @return The estimated bytes used by all the admitted records
+     */
+    public synchronized long getUsedBytes()
+    {
+        return used;
+    }
+
+    /**
+     * @param projectID The project ID (null for a project record not contained in a global record)
+     * @return The estimated bytes used by the admitted records of the project
+     */
+    public synchronized long getUsedBytes(String projectID)
+    {
+        return usedByProject.getOrDefault((projectID==null)?NO_PROJECT:projectID, 0L);
+    }
+
+    /**
+     * @return A copy of the estimated bytes used by each project
+     */
+    public synchronized Map<String,Long> getUsageByProject()
+    {
+        return new HashMap<>(usedByProject);
+    }
+
+    /**
+     * @return The number of records that have not been admitted
+     */
+    public synchronized long getRejectedCount()
+    {
+        return rejected;
+    }
+
+    /**
+     * @return The number of records admitted with fewer levels than requested
+     */
+    public synchronized long getDowngradedCount()
+    {
+        return downgraded;
+    }
+
+    /**
+     * @return The number of records evicted for admitting new records
+     */
+    public synchronized long getEvictedCount()
+    {
+        return evicted;
+    }
+
+    /**
+     * @return the max number of bytes for all the records (0 means without limit)
+     */
+    public long getGlobalLimit() {
+        return globalLimit;
+    }
+
+    /**
+     * @return the max number of bytes for the records of each project (0 means without limit)
+     */
+    public long getProjectLimit() {
+        return projectLimit;
+    }
+
+    /**
+     * @return the outcome when a new record does not fit
+     */
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * @return the lowest levels admitted by the DOWNGRADE policy
+     */
+    public int getMinLevels() {
+        return minLevels;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "MemoryBudget{used="+used+", globalLimit="+globalLimit+", projectLimit="+projectLimit+", policy="+policy+
+                ", projects="+usedByProject.size()+", rejected="+rejected+", downgraded="+downgraded+", evicted="+evicted+"}";
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.util.Arrays;
+
+/**
+ * It keeps the window archive in memory using primitive arrays. Each entry requires
+ * 8 bytes for the sequence number and 32 bytes for the root and chain digests.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class MemoryWindowArchive extends WindowArchive {
+    private long sequences[];
+    /**
+     * The root and chain digests of each entry stored consecutively
+     */
+    private byte digests[];
+    private int count;
+
+    public MemoryWindowArchive()
+    {
+        this(16);
+    }
+
+    /**
+     * It creates an in-memory archive with the indicated initial capacity
+     * @param initialCapacity The initial number of entries
+     */
+    public MemoryWindowArchive(int initialCapacity)
+    {
+        int cap=(initialCapacity<1)?1:initialCapacity;
+
+        sequences=new long[cap];
+        digests=new byte[cap*2*DIGEST_LENGTH];
+        count=0;
+    }
+
+    @Override
+    protected void write(long seq, byte[] root, byte[] chain)
+    {
+        if(count==sequences.length)
+        {
+            sequences=Arrays.copyOf(sequences, sequences.length*2);
+            digests=Arrays.copyOf(digests, digests.length*2);
+        }
+
+        sequences[count]=seq;
+        System.arraycopy(root, 0, digests, count*2*DIGEST_LENGTH, DIGEST_LENGTH);
+        System.arraycopy(chain, 0, digests, count*2*DIGEST_LENGTH+DIGEST_LENGTH, DIGEST_LENGTH);
+        count++;
+    }
+
+    @Override
+    protected long sequenceAt(long idx)
+    {
+        return sequences[(int)idx];
+    }
+
+    @Override
+    protected void read(long idx, byte[] root, byte[] chain)
+    {
+        int pos=(int)idx*2*DIGEST_LENGTH;
+
+        System.arraycopy(digests, pos, root, 0, DIGEST_LENGTH);
+        System.arraycopy(digests, pos+DIGEST_LENGTH, chain, 0, DIGEST_LENGTH);
+    }
+
+    @Override
+    public synchronized long size()
+    {
+        return count;
+    }
+}
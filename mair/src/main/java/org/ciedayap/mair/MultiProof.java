@@ -0,0 +1,330 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * It contains a single proof linking several leaves (offsets) of a window with the root of the tree.
+ * Unlike a set of audit paths, each node is included at most once, and the nodes computable from the requested
+ * leaves are omitted: only the brothers not covered by the requested leaves are kept, ordered from the leaves to
+ * the root and from the left to the right. Thus, verifying k offsets of a window with 2^levels transactions requires
+ * about k*log2(2^levels/k) hashes instead of k*levels.
+ * The proof does not contain the leaves; the auditor provides them when verifying.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class MultiProof {
+    private static final int MAGIC=0x4D41494D;//MAIM
+    private static final int VERSION=1;
+    /**
+     * The max levels of a BDTree
+     */
+    private static final int MAX_LEVELS=25;
+    /**
+     * The initial capacity of the arrays while reading, so the memory follows the bytes actually read
+     */
+    private static final int READ_CHUNK=1024;
+
+    private final int levels;
+    /**
+     * The number of bytes kept by the intermediary nodes (16 for the default trees)
+     */
+    private final int innerLength;
+    /**
+     * The number of bytes kept by the leaves (16 unless the compact tree truncates the leaves)
+     */
+    private final int leafLength;
+    /**
+     * The requested offsets, ascending and without repetitions
+     */
+    private final int offsets[];
+    /**
+     * The hashes of the brothers not computable from the requested leaves (some of them could be null)
+     */
+    private final String helpers[];
+    private final String rootHash;
+
+    MultiProof(int levels,int innerLength,int leafLength,int offsets[],String helpers[],String rootHash)
+    {
+        this.levels=levels;
+        this.innerLength=innerLength;
+        this.leafLength=leafLength;
+        this.offsets=offsets;
+        this.helpers=helpers;
+        this.rootHash=rootHash;
+    }
+
+    /**
+     * It sorts the offsets removing the repetitions
+     * @param offsets The offsets
+     * @param levels The levels of the tree
+     * @return The sorted offsets, null when there are not offsets or some of them is out of the window
+     */
+    static int[] normalize(int offsets[],int levels)
+    {
+        if(offsets==null || offsets.length==0) return null;
+
+        int sorted[]=offsets.clone();
+        Arrays.sort(sorted);
+        if(sorted[0]<1 || sorted[sorted.length-1]>BDTree.getMaxNumberOfTransactions(levels)) return null;
+
+        int n=1;
+        for(int i=1;i<sorted.length;i++)
+            if(sorted[i]!=sorted[n-1]) sorted[n++]=sorted[i];
+
+        return (n==sorted.length)?sorted:Arrays.copyOf(sorted, n);
+    }
+
+    /**
+     * It recomputes the root from the indicated leaves and the proof, and contrasts it with the root of the proof
+     * @param leafHashes The hashes of the transactions in the same order as getOffsets
+     * @return TRUE when the leaves belong to the tree whose root is kept in the proof, FALSE otherwise
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    public boolean verify(String leafHashes[]) throws NoSuchAlgorithmException
+    {
+        return verify(leafHashes,rootHash);
+    }
+
+    /**
+     * It recomputes the root from the indicated leaves and the proof, and contrasts it with a trusted root
+     * (e.g. a root obtained from a snapshot or a checkpoint)
+     * @param leafHashes The hashes of the transactions in the same order as getOffsets
+     * @param trustedRoot The root to be contrasted
+     * @return TRUE when the leaves belong to the tree with such root, FALSE otherwise
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    public boolean verify(String leafHashes[],String trustedRoot) throws NoSuchAlgorithmException
+    {
+        if(leafHashes==null || leafHashes.length!=offsets.length) return false;
+        if(trustedRoot==null) return false;
+
+        String computed=computeRoot(leafHashes);
+
+        return computed!=null && sameRoot(computed,trustedRoot);
+    }
+
+    /**
+     * It recomputes the root from the indicated leaves combining them with the brothers kept in the proof
+     * @param leafHashes The hashes of the transactions in the same order as getOffsets
+     * @return The computed root, null when the proof is not consistent with the number of leaves
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    String computeRoot(String leafHashes[]) throws NoSuchAlgorithmException
+    {
+        MessageDigest md=MessageDigest.getInstance("MD5");
+        int count=offsets.length;
+        int ids[]=new int[count];
+        String level[]=new String[count];
+        int first=BDTree.getInitialNodeByLevel(levels)-1;
+        for(int i=0;i<count;i++)
+        {
+            ids[i]=first+offsets[i];
+            level[i]=truncate(leafHashes[i],leafLength);
+        }
+
+        int h=0;
+        for(int lv=levels;lv>0;lv--)
+        {
+            int next=0;
+            for(int i=0;i<count;i++)
+            {
+                int id=ids[i];
+                String left,right;
+                if((id&1)==0 && i+1<count && ids[i+1]==id+1)
+                {
+                    left=level[i];
+                    right=level[++i];
+                }
+                else
+                {
+                    if(h>=helpers.length) return null;
+                    if((id&1)==0)
+                    {
+                        left=level[i];
+                        right=helpers[h++];
+                    }
+                    else
+                    {
+                        left=helpers[h++];
+                        right=level[i];
+                    }
+                }
+
+                ids[next]=id>>1;
+                level[next++]=truncate(BDTree.combineHashes(md, left, right),innerLength);
+            }
+            count=next;
+        }
+
+        return (h==helpers.length)?level[0]:null;
+    }
+
+    /**
+     * It keeps the hexadecimal digits of the indicated number of bytes, as the compact trees do
+     */
+    private String truncate(String hash,int length)
+    {
+        if(hash==null || length==BDTree.DIGEST_LENGTH) return hash;
+
+        String lower=hash.toLowerCase(Locale.ROOT);
+
+        return (lower.length()>2*length)?lower.substring(0, 2*length):lower;
+    }
+
+    /**
+     * It compares the roots ignoring the case. When the tree truncates its digests, a whole MD5 hash starting with the
+     * truncated root is also accepted.
+     */
+    private boolean sameRoot(String computed,String trusted)
+    {
+        if(computed.equalsIgnoreCase(trusted)) return true;
+        if(innerLength==BDTree.DIGEST_LENGTH || trusted.length()<=computed.length()) return false;
+
+        return trusted.regionMatches(true, 0, computed, 0, computed.length());
+    }
+
+    /**
+     * It writes the proof in a compact binary format (the hashes are written as bytes)
+     * @param out The output stream (it is not closed)
+     * @throws IOException It is raised when the proof cannot be written
+     */
+    public void write(DataOutputStream out) throws IOException
+    {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(levels);
+        out.writeByte(innerLength);
+        out.writeByte(leafLength);
+        out.writeInt(offsets.length);
+        int previous=0;
+        for(int offset:offsets)
+        {
+            out.writeInt(offset-previous);
+            previous=offset;
+        }
+        out.writeInt(helpers.length);
+        for(String hash:helpers) writeHex(out,hash);
+        writeHex(out,rootHash);
+        out.flush();
+    }
+
+    /**
+     * It reads a proof written by write. The header is validated before allocating, and the arrays grow with the
+     * read entries, so a corrupted or hostile stream cannot force a large allocation.
+     * @param in The input stream (it is not closed)
+     * @return The proof
+     * @throws IOException It is raised when the proof cannot be read or it is not consistent
+     */
+    public static MultiProof read(DataInputStream in) throws IOException
+    {
+        if(in.readInt()!=MAGIC) throw new IOException("It is not a multiproof");
+        if(in.readByte()!=VERSION) throw new IOException("Unsupported multiproof version");
+
+        int levels=in.readByte();
+        int innerLength=in.readByte();
+        int leafLength=in.readByte();
+        if(levels<1 || levels>MAX_LEVELS) throw new IOException("Invalid levels: "+levels);
+        if(innerLength!=8 && innerLength!=12 && innerLength!=BDTree.DIGEST_LENGTH) throw new IOException("Invalid digest length: "+innerLength);
+        if(leafLength!=innerLength && leafLength!=BDTree.DIGEST_LENGTH) throw new IOException("Invalid leaf digest length: "+leafLength);
+
+        int max=BDTree.getMaxNumberOfTransactions(levels);
+        int n=in.readInt();
+        if(n<1 || n>max) throw new IOException("Invalid number of offsets: "+n);
+        int offsets[]=new int[Math.min(n, READ_CHUNK)];
+        long previous=0;
+        for(int i=0;i<n;i++)
+        {
+            int delta=in.readInt();
+            if(delta<1 && i>0) throw new IOException("The offsets are not ascending");
+            if(previous+delta<1 || previous+delta>max) throw new IOException("The offsets are out of the window");
+            if(i==offsets.length) offsets=Arrays.copyOf(offsets, (int)Math.min((long)n, 2L*offsets.length));
+            offsets[i]=(int)(previous+delta);
+            previous=offsets[i];
+        }
+
+        int nh=in.readInt();
+        if(nh<0 || nh>(long)n*levels) throw new IOException("Invalid number of hashes: "+nh);
+        String helpers[]=new String[Math.min(nh, READ_CHUNK)];
+        for(int i=0;i<nh;i++)
+        {
+            if(i==helpers.length) helpers=Arrays.copyOf(helpers, (int)Math.min((long)nh, 2L*helpers.length));
+            helpers[i]=readHex(in,innerLength,leafLength);
+        }
+
+        return new MultiProof(levels,innerLength,leafLength,offsets,helpers,readHex(in,innerLength,leafLength));
+    }
+
+    private static void writeHex(DataOutputStream out,String hash) throws IOException
+    {
+        byte digest[]=(hash==null || hash.length()>2*BDTree.DIGEST_LENGTH)?null:BDTree.fromHexString(hash);
+        if(digest==null || !hash.equals(BDTree.toHexString(digest)))
+        {
+            out.writeByte((hash==null)?0:-1);
+            if(hash!=null) out.writeUTF(hash);
+            return;
+        }
+
+        out.writeByte(digest.length);
+        out.write(digest);
+    }
+
+    private static String readHex(DataInputStream in,int innerLength,int leafLength) throws IOException
+    {
+        int length=in.readByte();
+        if(length==0) return null;
+        if(length<0) return in.readUTF();
+        if(length!=innerLength && length!=leafLength) throw new IOException("Invalid hash length: "+length);
+
+        byte digest[]=new byte[length];
+        in.readFully(digest);
+
+        return BDTree.toHexString(digest);
+    }
+
+    /**
+     * @return the levels of the tree
+     */
+    public int getLevels() {
+        return levels;
+    }
+
+    /**
+     * @return a copy of the offsets covered by the proof (ascending)
+     */
+    public int[] getOffsets() {
+        return offsets.clone();
+    }
+
+    /**
+     * @return The number of hashes contained in the proof (without the root)
+     */
+    public int size()
+    {
+        return helpers.length;
+    }
+
+    /**
+     * @return the root of the tree when the proof was created
+     */
+    public String getRootHash() {
+        return rootHash;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MultiProof levels: "+levels+" Offsets: "+offsets.length+" Hashes: "+helpers.length+" Root: "+((rootHash==null)?"-":rootHash);
+    }
+}
@@ -5,8 +5,17 @@
  */
 package org.ciedayap.mair;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 /**
  * It implements the project integrity record, where the set of measurement adapters
@@ -24,6 +33,77 @@ public class ProjectIntegrityRecord {
      * The defaul level value for the number of transactions to keep an integrity record (2^levels).
      */
     private final int levels;
+    /**
+     * It keeps a Merkle tree over the roots of the measurement adapters, ordered by their IDs.
+     */
+    private final RootMerkleTree roots;
+    /**
+     * The project ID when the record is contained in a global integrity record, null otherwise
+     */
+    private String projectID;
+    /**
+     * It creates the window archive for each new measurement adapter (it could be null)
+     */
+    private WindowArchiveFactory archiveFactory;
+    /**
+     * It indicates whether the reverse index of transactions is enabled for the measurement adapters
+     */
+    private boolean leafIndexing;
+    /**
+     * The number of bytes kept for each intermediary node by the trees of the new measurement adapters
+     * (8, 12 or 16 for compact trees, 0 for the default trees)
+     */
+    private int digestLength;
+    /**
+     * It indicates whether the compact trees of the new measurement adapters truncate also the leaves
+     */
+    private boolean truncateLeaves;
+    /**
+     * The number of children of each intermediary node in the trees of the new measurement adapters
+     * (2 for the binary trees, 4, 8 or 16 for the k-ary trees)
+     */
+    private int arity=2;
+    /**
+     * The number of versions retained by the records of the measurement adapters (0 when the retention is disabled)
+     */
+    private int retainedVersions;
+    /**
+     * The records cached by the integer ID of the measurement adapters. It only keeps the measurement adapters of the project.
+     */
+    private final IntRecordCache<MAIntegrityRecord> recordsById=new IntRecordCache<>();
+    /**
+     * It limits the estimated memory of the measurement adapter records (null means without limit)
+     */
+    private MemoryBudget budget;
+    /**
+     * It provides the cleared trees for the new measurement adapters and receives the trees of the removed ones (it could be null)
+     */
+    private BDTreePool treePool;
+    /**
+     * It indexes the IDs of the measurement adapters by their current role (the position is the role).
+     * The sets are concurrent, so they can be read without the project's lock.
+     */
+    private final Set<String> byRole[];
+    /**
+     * The number of transactions rejected because the measurement adapter was blocked
+     */
+    private long blockedRejections;
+    /**
+     * It orders the changes of the records with respect to the consistent snapshots (it is shared with the global record)
+     */
+    private SnapshotClock epochs;
+    /**
+     * The snapshot epoch in which the project was created
+     */
+    private long createdEpoch;
+    /**
+     * It offers the root changes to the subscriptions of the global record (null when the record is used standalone)
+     */
+    private RootChangePublisher publisher;
+    /**
+     * The logical clock used for tracking the last use of each measurement adapter record
+     */
+    private long clock;
     
     /**
      * It initializes the Project Integrity record with an initial capacity of 10 measurement adapters by project.
@@ -35,7 +115,10 @@ public class ProjectIntegrityRecord {
         if(plevels<1) throw new BDTreeException("The indicated levels must be upper or equal to zero");
         
         levels=plevels;
-        map=new ConcurrentHashMap(10);
+        map=new ConcurrentHashMap<>(10);
+        roots=new RootMerkleTree();
+        byRole=newRoleIndex();
+        epochs=new SnapshotClock();
     }
 
     /**
@@ -52,7 +135,10 @@ public class ProjectIntegrityRecord {
         if(nofMA<1) throw new IntegrityRecordException("The number of measurement adapters in the record should be upper or equal than 1");
             
         levels=plevels;
-        map=new ConcurrentHashMap(nofMA);
+        map=new ConcurrentHashMap<>(nofMA);
+        roots=new RootMerkleTree();
+        byRole=newRoleIndex();
+        epochs=new SnapshotClock();
     }
     
     /**
@@ -64,20 +150,309 @@ public class ProjectIntegrityRecord {
      * @throws BDTreeException It is raised when the Merkel tree cannot be created
      * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available on the platform
      * @throws TreeNodeException It is raised when the new node for the transaction cannot be created
+     * @throws IntegrityRecordException It is raised when the window archive for a new measurement adapter cannot be created,
+     * or when the transaction has been incorporated but the root of the window that it completes cannot be archived
+     */
+    public synchronized Boolean addTransaction(String maID,short currentRole, String hashMD5) throws BDTreeException, NoSuchAlgorithmException, TreeNodeException, IntegrityRecordException
+    {
+        return addTransaction(maID,currentRole,hashMD5,BDTree.NO_TIMESTAMP);
+    }
+    
+    /**
+     * It adds a new hash associated with a transaction together with its event timestamp in the MAIntegrityRecord. 
+     * In case of the record does not exist, it is created.
+     * @param maID The measurement adapter ID
+     * @param currentRole The current role related to the measurement adapterr
+     * @param hashMD5 The hash associated with the transaction to be stored
+     * @param timestamp The event timestamp of the transaction (BDTree.NO_TIMESTAMP when it is not known)
+     * @return TRUE when the transaction has been stored in the integrity record, FALSE otherwise (e.g. the timestamp is older than the last one or the measurement adapter is blocked)
+     * @throws BDTreeException It is raised when the Merkel tree cannot be created
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available on the platform
+     * @throws TreeNodeException It is raised when the new node for the transaction cannot be created
+     * @throws IntegrityRecordException It is raised when the window archive for a new measurement adapter cannot be created,
+     * or when the transaction has been incorporated but the root of the window that it completes cannot be archived
      */
-    public synchronized Boolean addTransaction(String maID,short currentRole, String hashMD5) throws BDTreeException, NoSuchAlgorithmException, TreeNodeException
+    public synchronized Boolean addTransaction(String maID,short currentRole, String hashMD5,long timestamp) throws BDTreeException, NoSuchAlgorithmException, TreeNodeException, IntegrityRecordException
     {
         if(maID==null || maID.trim().length()==0) return false;
         if(!MAIntegrityRecord.isValidRole(currentRole)) return false;
         if(hashMD5==null || hashMD5.trim().length()==0) return false;
         
-        MAIntegrityRecord record=(map.containsKey(maID))?map.get(maID):new MAIntegrityRecord(levels,currentRole);
+        epochs.enter();
+        try{
+            MAIntegrityRecord record=map.get(maID);
+            if(record==null)
+            {
+                record=admit(maID,currentRole);
+                if(record==null) return false;
+                map.put(maID, record);
+                byRole[record.getCurrentRole()].add(maID);
+            }
+            else if(isRejected(record)) return false;
+
+            return apply(maID,record,currentRole,hashMD5,timestamp);
+        }finally{
+            epochs.exit();
+        }
+    }
+    
+    /**
+     * It adds a new hash associated with a transaction resolving the MAIntegrityRecord through its integer ID.
+     * When the record is not cached yet, it follows the String-based path and caches the record.
+     * @param maIdx The integer ID of the measurement adapter
+     * @param maID The measurement adapter ID related to maIdx
+     * @param currentRole The current role related to the measurement adapter
+     * @param hashMD5 The hash associated with the transaction to be stored
+     * @return TRUE when the transaction has been stored in the integrity record, FALSE otherwise
+     */
+    synchronized Boolean addTransaction(int maIdx,String maID,short currentRole, String hashMD5) throws BDTreeException, NoSuchAlgorithmException, TreeNodeException, IntegrityRecordException
+    {
+        MAIntegrityRecord record=getRecord(maIdx);
+        if(record==null)
+        {
+            Boolean ret=addTransaction(maID,currentRole,hashMD5);
+            cacheRecord(maIdx,map.get(maID));
+            
+            return ret;
+        }
+        
+        if(!MAIntegrityRecord.isValidRole(currentRole)) return false;
+        if(hashMD5==null || hashMD5.trim().length()==0) return false;
+        if(isRejected(record)) return false;
+        
+        epochs.enter();
+        try{
+            return apply(maID,record,currentRole,hashMD5,BDTree.NO_TIMESTAMP);
+        }finally{
+            epochs.exit();
+        }
+    }
+    
+    /**
+     * It incorporates the transaction into the indicated record and updates the project root and the role index.
+     * When a snapshot is in progress, the root previous to the transaction is kept for it.
+     * @param maID The measurement adapter ID
+     * @param record The integrity record of the measurement adapter
+     * @param currentRole The current role related to the measurement adapter
+     * @param hashMD5 The hash associated with the transaction to be stored
+     * @param timestamp The event timestamp of the transaction
+     * @return TRUE when the transaction has been stored in the integrity record, FALSE otherwise
+     * @throws IntegrityRecordException It is raised when the transaction has been incorporated (and the roots updated),
+     * but the root of the window that it completes cannot be archived
+     */
+    private Boolean apply(String maID,MAIntegrityRecord record,short currentRole,String hashMD5,long timestamp) throws NoSuchAlgorithmException, IntegrityRecordException
+    {
+        short previous=record.getCurrentRole();
+        boolean ret;
+        long failures;
+        IOException archiveError=null;
+        Object event=IntegrityEvents.beginPush();
+        long wait=(event==null)?0:System.nanoTime();
+        long hashes=0;
+        List<RootSubscription> deliveries=null;
+        synchronized(record)
+        {
+            if(event!=null)
+            {
+                wait=System.nanoTime()-wait;
+                hashes=record.getHashCount();
+            }
+            epochs.preserve(projectID, maID, record);
+            failures=record.getArchiveFailures();
+            ret=record.addTransaction(currentRole, hashMD5, timestamp);
+            if(record.getArchiveFailures()!=failures) archiveError=record.getArchiveError();
+            if(ret && publisher!=null) deliveries=publisher.publish(projectID, maID, record, false);
+            if(event!=null) hashes=record.getHashCount()-hashes;
+        }
+        RootChangePublisher.schedule(deliveries);
+        if(record.getCurrentRole()!=previous) reindex(maID,previous,record.getCurrentRole());
+        record.setLastUse(++clock);
+        roots.update(maID, record.getRootHash());
+        IntegrityEvents.endPush(event, projectID, maID, record.getLevels(), hashes, wait, ret);
+        if(archiveError!=null) throw new IntegrityRecordException("The transaction has been incorporated, but the root of its window cannot be archived: "+archiveError.getMessage());
+        
+        return ret;
+    }
+    
+    /**
+     * It creates a new integrity record for the measurement adapter when it fits in the memory budget.
+     * Otherwise, the policy of the budget indicates whether the record is rejected, created with fewer levels,
+     * or created after evicting the least recently used records of the project. The records are not evicted when
+     * the memory released by all of them could not cover the new record (e.g. the global limit is used by other projects).
+     * @param maID The measurement adapter ID
+     * @param currentRole The current role related to the measurement adapter
+     * @return The new integrity record, null when it is rejected by the memory budget
+     */
+    private MAIntegrityRecord admit(String maID,short currentRole) throws BDTreeException, NoSuchAlgorithmException, TreeNodeException, IntegrityRecordException
+    {
+        if(budget==null) return newRecord(maID,currentRole,levels);
+        
+        int lv=levels;
+        long bytes=estimate(lv);
+        while(!budget.reserve(projectID, bytes))
+        {
+            boolean retry=false;
+            switch(budget.getPolicy())
+            {
+                case DOWNGRADE:
+                    if(lv>budget.getMinLevels())
+                    {
+                        lv--;
+                        bytes=estimate(lv);
+                        retry=true;
+                    }
+                    break;
+                case EVICT:
+                    //The records are evicted only when the released memory lets the new one fit
+                    retry=budget.fitsAfterRelease(projectID, bytes, getReservedBytes()) && evictLeastRecentlyUsed();
+                    break;
+            }
+            
+            if(!retry)
+            {
+                budget.recordRejection();
+                return null;
+            }
+        }
         
-        boolean ret=record.addTransaction(currentRole, hashMD5);
-        map.put(maID, record);
+        MAIntegrityRecord record;
+        try{
+            record=newRecord(maID,currentRole,lv);
+        }catch(BDTreeException | NoSuchAlgorithmException | TreeNodeException | IntegrityRecordException e)
+        {
+            budget.release(projectID, bytes);
+            throw e;
+        }
+        record.setReservedBytes(bytes);
+        if(lv<levels) budget.recordDowngrade();
         
+        return record;
+    }
+    
+    /**
+     * @return The bytes reserved by the measurement adapter records of the project
+     */
+    private long getReservedBytes()
+    {
+        long ret=0;
+        for(MAIntegrityRecord record:map.values()) ret+=record.getReservedBytes();
+
         return ret;
     }
+
+    /**
+     * It removes the measurement adapter record whose last transaction is the oldest one, releasing its memory
+     * @return TRUE when a record has been evicted, FALSE when there are not records in the project
+     */
+    private boolean evictLeastRecentlyUsed() throws NoSuchAlgorithmException
+    {
+        String victim=null;
+        long oldest=Long.MAX_VALUE;
+        for(Map.Entry<String,MAIntegrityRecord> entry:map.entrySet())
+        {
+            if(entry.getValue().getLastUse()<oldest)
+            {
+                oldest=entry.getValue().getLastUse();
+                victim=entry.getKey();
+            }
+        }
+        if(victim==null) return false;
+        
+        removeRecord(victim).recycle();
+        budget.recordEviction();
+        
+        return true;
+    }
+    
+    /**
+     * It removes the measurement adapter from the project. Its tree is returned to the pool of trees (when there is one)
+     * and its memory is released from the budget.
+     * @param maID The measurement adapter ID
+     * @return TRUE when the measurement adapter has been removed, FALSE when it does not exist
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    public synchronized Boolean removeMA(String maID) throws NoSuchAlgorithmException
+    {
+        MAIntegrityRecord record=removeRecord(maID);
+        if(record==null) return false;
+        
+        record.recycle();
+        
+        return true;
+    }
+    
+    /**
+     * It removes the integrity record of the measurement adapter, releasing its memory from the budget
+     * and recycling its tree when it was obtained from the pool
+     * @param maID The measurement adapter ID
+     * @return The removed record, null when it does not exist
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    synchronized MAIntegrityRecord removeRecord(String maID) throws NoSuchAlgorithmException
+    {
+        MAIntegrityRecord record=(maID==null)?null:map.get(maID);
+        if(record==null) return null;
+        
+        List<RootSubscription> deliveries=null;
+        epochs.enter();
+        try{
+            synchronized(record)
+            {
+                epochs.preserve(projectID, maID, record);
+                if(publisher!=null) deliveries=publisher.publish(projectID, maID, record, true);
+            }
+            map.remove(maID);
+        }finally{
+            epochs.exit();
+        }
+        RootChangePublisher.schedule(deliveries);
+        roots.remove(maID);
+        byRole[record.getCurrentRole()].remove(maID);
+        recordsById.removeValue(record);
+        if(budget!=null) budget.release(projectID, record.getReservedBytes());
+        record.setReservedBytes(0);
+        
+        return record;
+    }
+    
+    /**
+     * @param lv The levels of the new record
+     * @return The estimated bytes of a new record with the storage of the project (see MemoryBudget.estimate)
+     */
+    private long estimate(int lv)
+    {
+        return (arity==2)?MemoryBudget.estimate(lv, digestLength, truncateLeaves, leafIndexing):MemoryBudget.estimateKary(arity, lv);
+    }
+    
+    /**
+     * It creates a new integrity record for the measurement adapter
+     * @param maID The measurement adapter ID
+     * @param currentRole The current role related to the measurement adapter
+     * @param lv The levels of the new record
+     * @return The new integrity record
+     */
+    private MAIntegrityRecord newRecord(String maID,short currentRole,int lv) throws BDTreeException, NoSuchAlgorithmException, TreeNodeException, IntegrityRecordException
+    {
+        Object event=IntegrityEvents.beginRecordCreation();
+        MAIntegrityRecord record;
+        if(arity!=2) record=new MAIntegrityRecord(lv,currentRole,arity);
+        else record=(digestLength==0)?new MAIntegrityRecord(lv,currentRole,treePool):
+                new MAIntegrityRecord(lv,currentRole,digestLength,truncateLeaves,treePool);
+        if(leafIndexing || treePool!=null) record.setLeafIndexEnabled(leafIndexing);
+        if(retainedVersions>0) record.setRetainedVersions(retainedVersions);
+        IntegrityEvents.endRecordCreation(event, projectID, maID, lv, digestLength, treePool!=null);
+        record.setCreatedEpoch(epochs.getEpoch());
+        if(archiveFactory!=null)
+        {
+            try {
+                record.setArchive(archiveFactory.create(projectID, maID));
+            } catch (IOException ex) {
+                throw new IntegrityRecordException("The window archive cannot be created: "+ex.getMessage());
+            }
+        }
+        
+        return record;
+    }
     
     /**
      * it verifies whether the root hash matches or not with the indicated hash
@@ -93,7 +468,7 @@ public class ProjectIntegrityRecord {
         MAIntegrityRecord record=map.get(maID);
         if(record==null) return false;
                 
-        return record.hasWholeIntegrity(comeMD5);
+        return verify(maID,record,"whole",r -> r.hasWholeIntegrity(comeMD5));
     }
     
     /**
@@ -114,7 +489,7 @@ public class ProjectIntegrityRecord {
         MAIntegrityRecord record=map.get(maID);
         if(record==null) return false;
                 
-        return record.verifyIntegrityFirsts(hashMD5, levels);
+        return verify(maID,record,"firsts",r -> r.verifyIntegrityFirsts(hashMD5, levels));
     }
     
     /**
@@ -135,7 +510,128 @@ public class ProjectIntegrityRecord {
         MAIntegrityRecord record=map.get(maID);
         if(record==null) return false;
                 
-        return record.verifyIntegrityLasts(hashMD5, levels);
+        return verify(maID,record,"lasts",r -> r.verifyIntegrityLasts(hashMD5, levels));
+    }
+    
+    /**
+     * It verifies whether the root of the indicated version of the measurement adapter matches with the indicated hash
+     * (see MAIntegrityRecord.hasWholeIntegrity(String,long))
+     * @param maID It indicates the measurement adapter in which the verification should be made
+     * @param comeMD5 The hash to be contrasted with the root hash of the version
+     * @param version The version of the record against which the hash is contrasted
+     * @return TRUE when the hashes match between them, FALSE otherwise (e.g. the version is not retained)
+     */
+    public synchronized Boolean hasWholeIntegrity(String maID,String comeMD5,long version)
+    {
+        if(maID==null || maID.trim().length()==0) return false;
+        if(comeMD5==null || comeMD5.trim().length()==0) return false;
+        
+        MAIntegrityRecord record=map.get(maID);
+        if(record==null) return false;
+                
+        return verify(maID,record,"whole",r -> r.hasWholeIntegrity(comeMD5,version));
+    }
+    
+    /**
+     * It verifies whether the root of the current version of the measurement adapter or of one of its previous
+     * tolerance versions matches with the indicated hash (see MAIntegrityRecord.hasWholeIntegrityWithin)
+     * @param maID It indicates the measurement adapter in which the verification should be made
+     * @param comeMD5 The hash to be contrasted with the root hashes
+     * @param tolerance The number of previous versions that are accepted (0 means only the current version)
+     * @return TRUE when the hash matches with one of the accepted versions, FALSE otherwise
+     */
+    public synchronized Boolean hasWholeIntegrityWithin(String maID,String comeMD5,int tolerance)
+    {
+        if(maID==null || maID.trim().length()==0) return false;
+        if(comeMD5==null || comeMD5.trim().length()==0) return false;
+        if(tolerance<0) return false;
+        
+        MAIntegrityRecord record=map.get(maID);
+        if(record==null) return false;
+                
+        return verify(maID,record,"whole",r -> r.hasWholeIntegrityWithin(comeMD5,tolerance));
+    }
+    
+    /**
+     * It verifies the hash of the firsts 2^levels transactions of the indicated version of the measurement adapter
+     * @param maID It indicates the measurement adapter in which the verification should be made
+     * @param hashMD5 The hash associated with the firsts 2^levels transactions
+     * @param levels The number of levels related to the transactions to be contrasted
+     * @param version The version of the record against which the hash is contrasted
+     * @return TRUE when the hashes match between them, FALSE otherwise (e.g. the version is not retained)
+     */
+    public synchronized Boolean verifyIntegrityFirsts(String maID,String hashMD5,int levels,long version)
+    {
+        if(maID==null || maID.trim().length()==0) return false;
+        if(levels<1) return false;
+        if(hashMD5==null || hashMD5.trim().length()==0) return false;
+        
+        MAIntegrityRecord record=map.get(maID);
+        if(record==null) return false;
+                
+        return verify(maID,record,"firsts",r -> r.verifyIntegrityFirsts(hashMD5, levels, version));
+    }
+    
+    /**
+     * It verifies the hash of the firsts 2^levels transactions against the current version of the measurement adapter
+     * and its previous tolerance versions
+     * @param maID It indicates the measurement adapter in which the verification should be made
+     * @param hashMD5 The hash associated with the firsts 2^levels transactions
+     * @param levels The number of levels related to the transactions to be contrasted
+     * @param tolerance The number of previous versions that are accepted (0 means only the current version)
+     * @return TRUE when the hash matches with one of the accepted versions, FALSE otherwise
+     */
+    public synchronized Boolean verifyIntegrityFirstsWithin(String maID,String hashMD5,int levels,int tolerance)
+    {
+        if(maID==null || maID.trim().length()==0) return false;
+        if(levels<1 || tolerance<0) return false;
+        if(hashMD5==null || hashMD5.trim().length()==0) return false;
+        
+        MAIntegrityRecord record=map.get(maID);
+        if(record==null) return false;
+                
+        return verify(maID,record,"firsts",r -> r.verifyIntegrityFirstsWithin(hashMD5, levels, tolerance));
+    }
+    
+    /**
+     * It verifies the hash of the lasts 2^levels transactions of the indicated version of the measurement adapter
+     * @param maID It indicates the measurement adapter in which the verification should be made
+     * @param hashMD5 The hash associated with the lasts 2^levels transactions
+     * @param levels The number of levels related to the transactions to be contrasted
+     * @param version The version of the record against which the hash is contrasted
+     * @return TRUE when the hashes match between them, FALSE otherwise (e.g. the version is not retained)
+     */
+    public synchronized Boolean verifyIntegrityLasts(String maID,String hashMD5,int levels,long version)
+    {
+        if(maID==null || maID.trim().length()==0) return false;
+        if(levels<1) return false;
+        if(hashMD5==null || hashMD5.trim().length()==0) return false;
+        
+        MAIntegrityRecord record=map.get(maID);
+        if(record==null) return false;
+                
+        return verify(maID,record,"lasts",r -> r.verifyIntegrityLasts(hashMD5, levels, version));
+    }
+    
+    /**
+     * It verifies the hash of the lasts 2^levels transactions against the current version of the measurement adapter
+     * and its previous tolerance versions
+     * @param maID It indicates the measurement adapter in which the verification should be made
+     * @param hashMD5 The hash associated with the lasts 2^levels transactions
+     * @param levels The number of levels related to the transactions to be contrasted
+     * @param tolerance The number of previous versions that are accepted (0 means only the current version)
+     * @return TRUE when the hash matches with one of the accepted versions, FALSE otherwise
+     */
+    public synchronized Boolean verifyIntegrityLastsWithin(String maID,String hashMD5,int levels,int tolerance)
+    {
+        if(maID==null || maID.trim().length()==0) return false;
+        if(levels<1 || tolerance<0) return false;
+        if(hashMD5==null || hashMD5.trim().length()==0) return false;
+        
+        MAIntegrityRecord record=map.get(maID);
+        if(record==null) return false;
+                
+        return verify(maID,record,"lasts",r -> r.verifyIntegrityLastsWithin(hashMD5, levels, tolerance));
     }
     
     /**
@@ -156,9 +652,639 @@ public class ProjectIntegrityRecord {
         MAIntegrityRecord record=map.get(maID);
         if(record==null) return false;
                 
-        return record.verifyTransactionIntegrity(hashMD5, offset);
+        return verify(maID,record,"transaction",r -> r.verifyTransactionIntegrity(hashMD5, offset));
     }    
     
+    /**
+     * It runs a verification against the record, emitting the verification event when it is enabled
+     * @param maID The measurement adapter ID
+     * @param record The integrity record of the measurement adapter
+     * @param kind The kind of verification
+     * @param check The verification
+     * @return The outcome of the verification
+     */
+    private Boolean verify(String maID,MAIntegrityRecord record,String kind,Function<MAIntegrityRecord,Boolean> check)
+    {
+        Object event=IntegrityEvents.beginVerification();
+        if(event==null) return check.apply(record);
+        
+        long wait=System.nanoTime();
+        long hashes;
+        Boolean ret;
+        synchronized(record)
+        {
+            wait=System.nanoTime()-wait;
+            hashes=record.getHashCount();
+            ret=check.apply(record);
+            hashes=record.getHashCount()-hashes;
+        }
+        IntegrityEvents.endVerification(event, projectID, maID, kind, 1, record.getLevels(), hashes, wait, ret!=null && ret);
+        
+        return ret;
+    }
+    
+    /**
+     * It verifies the hash of a window that slid out of the tree of the indicated measurement adapter
+     * @param maID It indicates the measurement adapter in which the verification should be made
+     * @param hashMD5 The hash to be contrasted with the archived root
+     * @param windowSeq The window sequence number
+     * @return TRUE when the hashes match, FALSE otherwise
+     * @throws IOException It is raised when the archive cannot be read
+     */
+    public Boolean verifyArchivedWindow(String maID,String hashMD5,long windowSeq) throws IOException
+    {
+        if(maID==null || maID.trim().length()==0) return false;
+        if(hashMD5==null || hashMD5.trim().length()==0) return false;
+        
+        MAIntegrityRecord record=map.get(maID);
+        if(record==null) return false;
+        
+        return record.verifyArchivedWindow(hashMD5, windowSeq);
+    }
+    
+    /**
+     * It looks for the transaction with the indicated hash in the current window of the measurement adapter
+     * @param maID The measurement adapter ID
+     * @param hashMD5 The hash of the transaction to be found
+     * @return The offset of the most recent transaction with such a hash, -1 when it is not present
+     */
+    public int findTransaction(String maID,String hashMD5)
+    {
+        if(maID==null || maID.trim().length()==0) return -1;
+        
+        MAIntegrityRecord record=map.get(maID);
+        if(record==null) return -1;
+        
+        return record.findTransaction(hashMD5);
+    }
+    
+    /**
+     * It returns the hashes of the transactions that the measurement adapter sent in the indicated time interval
+     * @param maID The measurement adapter ID
+     * @param from The start of the interval (inclusive)
+     * @param to The end of the interval (inclusive)
+     * @return The hashes from the oldest to the newest, null when there are not transactions in the interval
+     */
+    public String[] getHashesBetween(String maID,long from,long to)
+    {
+        if(maID==null || maID.trim().length()==0) return null;
+        
+        MAIntegrityRecord record=map.get(maID);
+        if(record==null) return null;
+        
+        return record.getHashesBetween(from, to);
+    }
+    
+    /**
+     * It returns the hashes of the subtrees covering the transactions that the measurement adapter sent in the indicated time interval
+     * @param maID The measurement adapter ID
+     * @param from The start of the interval (inclusive)
+     * @param to The end of the interval (inclusive)
+     * @return The covering hashes from the left to the right, null when there are not transactions in the interval
+     */
+    public String[] getCoveringHashes(String maID,long from,long to)
+    {
+        if(maID==null || maID.trim().length()==0) return null;
+        
+        MAIntegrityRecord record=map.get(maID);
+        if(record==null) return null;
+        
+        return record.getCoveringHashes(from, to);
+    }
+    
+    /**
+     * It verifies the transactions that the measurement adapter sent in the indicated time interval
+     * @param maID The measurement adapter ID
+     * @param from The start of the interval (inclusive)
+     * @param to The end of the interval (inclusive)
+     * @param hashes The hashes of the transactions from the oldest to the newest
+     * @return TRUE when the hashes match, FALSE otherwise
+     */
+    public Boolean verifyTimeRange(String maID,long from,long to,String hashes[])
+    {
+        if(maID==null || maID.trim().length()==0) return false;
+        
+        MAIntegrityRecord record=map.get(maID);
+        if(record==null) return false;
+        
+        return verify(maID,record,"timeRange",r -> r.verifyTimeRange(from, to, hashes));
+    }
+    
+    /**
+     * It enables or disables the reverse index of transactions for the current and new measurement adapters
+     * @param enabled TRUE for enabling the index, FALSE otherwise
+     */
+    public synchronized void setLeafIndexing(boolean enabled)
+    {
+        leafIndexing=enabled;
+        for(MAIntegrityRecord record:map.values()) record.setLeafIndexEnabled(enabled);
+    }
+    
+    /**
+     * @return TRUE when the reverse index of transactions is enabled for the measurement adapters, FALSE otherwise
+     */
+    public synchronized boolean isLeafIndexing()
+    {
+        return leafIndexing;
+    }
+
+    /**
+     * It defines the number of versions retained by the current and new measurement adapters for the verifications
+     * against a previous version (see MAIntegrityRecord.setRetainedVersions)
+     * @param versions The number of versions to be retained, 0 for disabling the retention
+     * @throws IntegrityRecordException It is raised when the number of versions is negative
+     */
+    public synchronized void setRetainedVersions(int versions) throws IntegrityRecordException
+    {
+        if(versions<0) throw new IntegrityRecordException("The number of retained versions must be upper or equal than 0");
+        
+        retainedVersions=versions;
+        for(MAIntegrityRecord record:map.values()) record.setRetainedVersions(versions);
+    }
+    
+    /**
+     * @return The number of versions retained by the measurement adapters, 0 when the retention is disabled
+     */
+    public synchronized int getRetainedVersions()
+    {
+        return retainedVersions;
+    }
+
+    /**
+     * It defines the storage of the trees for the new measurement adapters. The existing trees keep their storage.
+     * @param digestLength The number of bytes kept for each intermediary node in a compact tree (8, 12 or 16),
+     * 0 for the default trees (see BDTree(Integer,int,boolean) for the trade-off)
+     * @param truncateLeaves TRUE for truncating also the leaves of the compact trees, FALSE otherwise
+     * @throws IntegrityRecordException It is raised when the digest length is not supported
+     */
+    public synchronized void setDigestStorage(int digestLength,boolean truncateLeaves) throws IntegrityRecordException
+    {
+        if(digestLength!=0 && digestLength!=8 && digestLength!=12 && digestLength!=BDTree.DIGEST_LENGTH) 
+            throw new IntegrityRecordException("The digest length must be 0, 8, 12 or 16 bytes");
+        
+        this.digestLength=digestLength;
+        this.truncateLeaves=truncateLeaves;
+    }
+    
+    /**
+     * @return The number of bytes kept for each intermediary node by the new compact trees, 0 for the default trees
+     */
+    public synchronized int getDigestLength()
+    {
+        return digestLength;
+    }
+    
+    /**
+     * @return TRUE when the new compact trees truncate also the leaves, FALSE otherwise
+     */
+    public synchronized boolean isTruncatingLeaves()
+    {
+        return truncateLeaves;
+    }
+    
+    /**
+     * It defines the arity of the trees for the new measurement adapters. The existing trees keep their arity.
+     * With an arity upper than 2, the new records keep their transactions in a k-ary tree (see MAIntegrityRecord(int,short,int))
+     * whose levels are the levels of the project, so each one keeps arity^levels transactions. Such records
+     * ignore the digest storage and the tree pool.
+     * @param arity The number of children of each intermediary node (2, 4, 8 or 16)
+     * @throws IntegrityRecordException It is raised when the arity is not supported
+     */
+    public synchronized void setArity(int arity) throws IntegrityRecordException
+    {
+        if(!KaryTree.isSupported(arity)) throw new IntegrityRecordException("The arity must be 2, 4, 8 or 16");
+        
+        this.arity=arity;
+    }
+    
+    /**
+     * @return The number of children of each intermediary node in the new trees (2 for the binary trees)
+     */
+    public synchronized int getArity()
+    {
+        return arity;
+    }
+    
+    /**
+     * It defines the memory budget that admits the new measurement adapter records. The existing records
+     * are charged to the new budget (even beyond its limits) and released from the previous one.
+     * @param budget The memory budget (null means without limit)
+     */
+    public synchronized void setMemoryBudget(MemoryBudget budget)
+    {
+        if(this.budget==budget) return;
+        
+        for(MAIntegrityRecord record:map.values())
+        {
+            if(this.budget!=null) this.budget.release(projectID, record.getReservedBytes());
+            record.setReservedBytes(0);
+            if(budget!=null)
+            {
+                record.setReservedBytes(MemoryBudget.estimate(record));
+                budget.charge(projectID, record.getReservedBytes());
+            }
+        }
+        this.budget=budget;
+    }
+    
+    /**
+     * @return the memory budget that admits the new measurement adapter records (null means without limit)
+     */
+    public synchronized MemoryBudget getMemoryBudget()
+    {
+        return budget;
+    }
+    
+    /**
+     * @return the clock ordering the changes of the records with respect to the consistent snapshots
+     */
+    SnapshotClock getSnapshotClock()
+    {
+        return epochs;
+    }
+    
+    /**
+     * It shares the clock of the global record (it must be called before incorporating records)
+     * @param epochs The clock ordering the changes of the records with respect to the consistent snapshots
+     */
+    void setSnapshotClock(SnapshotClock epochs)
+    {
+        if(epochs!=null) this.epochs=epochs;
+    }
+    
+    /**
+     * It shares the publisher of the root changes of the global record
+     * @param publisher The publisher (null for not publishing the changes)
+     */
+    void setRootChangePublisher(RootChangePublisher publisher)
+    {
+        this.publisher=publisher;
+    }
+    
+    /**
+     * @return the snapshot epoch in which the project was created
+     */
+    long getCreatedEpoch()
+    {
+        return createdEpoch;
+    }
+    
+    /**
+     * @param createdEpoch the snapshot epoch in which the project was created
+     */
+    void setCreatedEpoch(long createdEpoch)
+    {
+        this.createdEpoch=createdEpoch;
+    }
+    
+    /**
+     * It changes the current role of the measurement adapter (e.g. for unblocking it) without incorporating a transaction.
+     * When the record is replicated, the role must be changed through ReplicationPrimary.setRole.
+     * @param maID The measurement adapter ID
+     * @param role The new role
+     * @return TRUE when the role has been changed, FALSE when the measurement adapter does not exist or the role is not valid
+     */
+    public synchronized Boolean setRole(String maID,short role)
+    {
+        if(maID==null || !MAIntegrityRecord.isValidRole(role)) return false;
+        
+        MAIntegrityRecord record=map.get(maID);
+        if(record==null) return false;
+        
+        short previous=record.getCurrentRole();
+        record.setCurrentRole(role);
+        if(previous!=role) reindex(maID,previous,role);
+        
+        return true;
+    }
+    
+    /**
+     * It returns the measurement adapters whose current role is the indicated one. The view is updated
+     * as the roles change (it is weakly consistent while the transactions are incorporated).
+     * @param role The role
+     * @return An unmodifiable view of the IDs of the measurement adapters, an empty set when the role is not valid
+     */
+    public Set<String> getMAsByRole(short role)
+    {
+        if(!MAIntegrityRecord.isValidRole(role)) return Collections.emptySet();
+        
+        return Collections.unmodifiableSet(byRole[role]);
+    }
+    
+    /**
+     * It indicates whether the current role of the measurement adapter is the indicated one
+     * @param maID The measurement adapter ID
+     * @param role The role
+     * @return TRUE when the measurement adapter exists and has the role, FALSE otherwise
+     */
+    public boolean hasRole(String maID,short role)
+    {
+        if(maID==null || !MAIntegrityRecord.isValidRole(role)) return false;
+        
+        return byRole[role].contains(maID);
+    }
+    
+    /**
+     * @param maID The measurement adapter ID
+     * @return TRUE when the measurement adapter is blocked (its transactions are rejected), FALSE otherwise
+     */
+    public boolean isBlocked(String maID)
+    {
+        return hasRole(maID,MAIntegrityRecord.ROLE_BLOCKED);
+    }
+    
+    /**
+     * @return The number of transactions rejected because the measurement adapter was blocked
+     */
+    public synchronized long getBlockedRejections()
+    {
+        return blockedRejections;
+    }
+    
+    /**
+     * It rejects the transactions of a blocked measurement adapter without touching its tree. The transaction
+     * that blocks a measurement adapter is incorporated, while the later ones are rejected until its role is changed through setRole.
+     * @param record The integrity record of the measurement adapter
+     * @return TRUE when the measurement adapter is blocked, FALSE otherwise
+     */
+    private boolean isRejected(MAIntegrityRecord record)
+    {
+        if(record.getCurrentRole()!=MAIntegrityRecord.ROLE_BLOCKED) return false;
+        
+        blockedRejections++;
+        return true;
+    }
+    
+    /**
+     * It moves the measurement adapter between the sets of the role index
+     * @param maID The measurement adapter ID
+     * @param from The previous role
+     * @param to The new role
+     */
+    private void reindex(String maID,short from,short to)
+    {
+        byRole[to].add(maID);
+        byRole[from].remove(maID);
+    }
+    
+    private static Set<String>[] newRoleIndex()
+    {
+        @SuppressWarnings({"unchecked","rawtypes"})
+        Set<String> ret[]=new Set[MAIntegrityRecord.ROLE_COOPERATIVE+1];
+        for(int i=0;i<ret.length;i++) ret[i]=ConcurrentHashMap.newKeySet();
+        
+        return ret;
+    }
+    
+    /**
+     * It defines the pool from which the trees of the new measurement adapters are obtained
+     * and to which the trees of the removed measurement adapters are returned
+     * @param treePool The pool of trees (null for creating a new tree for each measurement adapter)
+     */
+    public synchronized void setTreePool(BDTreePool treePool)
+    {
+        this.treePool=treePool;
+    }
+    
+    /**
+     * @return the pool of trees used for the measurement adapters (null when the trees are not pooled)
+     */
+    public synchronized BDTreePool getTreePool()
+    {
+        return treePool;
+    }
+    
+    /**
+     * It estimates the memory used by the measurement adapter records of the project (see MemoryBudget.estimate)
+     * @return The estimated bytes
+     */
+    public long getEstimatedBytes()
+    {
+        long ret=0;
+        for(MAIntegrityRecord record:map.values()) ret+=MemoryBudget.estimate(record);
+        
+        return ret;
+    }
+    
+    /**
+     * @return the factory used for creating the window archive of each new measurement adapter
+     */
+    public WindowArchiveFactory getArchiveFactory() {
+        return archiveFactory;
+    }
+
+    /**
+     * @param archiveFactory the factory used for creating the window archive of each new measurement adapter (null disables the archiving)
+     */
+    public synchronized void setArchiveFactory(WindowArchiveFactory archiveFactory) {
+        this.archiveFactory = archiveFactory;
+    }
+
+    /**
+     * @return the project ID when the record is contained in a global integrity record, null otherwise
+     */
+    public String getProjectID() {
+        return projectID;
+    }
+
+    /**
+     * @param projectID the project ID to set
+     */
+    void setProjectID(String projectID) {
+        this.projectID = projectID;
+    }
+    
+    /**
+     * It returns the root of the Merkle tree built over the roots of the measurement adapters
+     * belonging to the project. The measurement adapters are ordered by their IDs.
+     * @return The project root hash, null when there are not transactions
+     */
+    public String getProjectRootHash()
+    {
+        return roots.getRootHash();
+    }
+
+    /**
+     * It returns the path from the root of the indicated measurement adapter up to the project root
+     * @param maID The measurement adapter ID
+     * @return The ordered list of brother hashes from the MA root to the project root, null when the MA is not present
+     */
+    List<IntegrityProof.Step> getProjectProof(String maID)
+    {
+        return roots.getProof(maID);
+    }
+
+    /**
+     * It returns the integrity record related to the indicated measurement adapter
+     * @param maID The measurement adapter ID
+     * @return The integrity record when it exists, null otherwise
+     */
+    MAIntegrityRecord getRecord(String maID)
+    {
+        if(maID==null || map==null) return null;
+
+        return map.get(maID);
+    }
+
+    /**
+     * It scrubs a batch of intermediary nodes of the measurement adapter tree (see BDTree.scrub). When a repair changes
+     * the root, the project root is updated under the project monitor (like a transaction), the previous root is kept for the
+     * snapshot in progress, and the change is published.
+     * @param maID The measurement adapter ID
+     * @param fromNode The node ID from which the batch starts (downwards), 0 for starting from the last intermediary node
+     * @param maxNodes The max number of nodes of the batch
+     * @param repair TRUE for replacing the mismatched hashes recomputed from verified children, FALSE for only reporting them
+     * @param mismatches The list in which the IDs of the mismatched nodes are incorporated
+     * @return The node ID from which the next batch starts, 0 when the root has been reached or the MA does not exist
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    int scrub(String maID,int fromNode,int maxNodes,boolean repair,List<Integer> mismatches) throws NoSuchAlgorithmException
+    {
+        MAIntegrityRecord record=getRecord(maID);
+        if(record==null) return 0;
+        if(!repair) return record.scrub(fromNode, maxNodes, false, mismatches);
+        
+        int before=mismatches.size();
+        int ret;
+        List<RootSubscription> deliveries=null;
+        synchronized(this)
+        {
+            //The record could have been removed, so it is resolved again under the project monitor
+            if(map.get(maID)!=record) return 0;
+            
+            epochs.enter();
+            try{
+                synchronized(record)
+                {
+                    epochs.preserve(projectID, maID, record);
+                    String root=record.getRootHash();
+                    ret=record.scrub(fromNode, maxNodes, true, mismatches);
+                    if(mismatches.size()>before && publisher!=null && !Objects.equals(root, record.getRootHash()))
+                        deliveries=publisher.publish(projectID, maID, record, false);
+                }
+                if(mismatches.size()>before) roots.update(maID, record.getRootHash());
+            }finally{
+                epochs.exit();
+            }
+        }
+        RootChangePublisher.schedule(deliveries);
+        
+        return ret;
+    }
+    
+    /**
+     * @return An unmodifiable view of the measurement adapter records indexed by their IDs
+     */
+    Map<String,MAIntegrityRecord> getRecords()
+    {
+        return Collections.unmodifiableMap(map);
+    }
+    
+    /**
+     * It creates a record for the measurement adapter following the settings of the project, without
+     * incorporating it (e.g. while importing a history, see HistoryImporter)
+     * @param maID The measurement adapter ID
+     * @param currentRole The role of the measurement adapter
+     * @return The new integrity record
+     */
+    synchronized MAIntegrityRecord createRecord(String maID,short currentRole) throws BDTreeException, NoSuchAlgorithmException, TreeNodeException, IntegrityRecordException
+    {
+        return newRecord(maID,currentRole,levels);
+    }
+    
+    /**
+     * It incorporates a record built from an imported history (see putRecord) and notifies its root to the subscribers.
+     * The project root must be rebuilt through rebuildRoots once all the records are incorporated.
+     * @param maID The measurement adapter ID
+     * @param record The integrity record
+     * @param rejections The transactions rejected because the measurement adapter was blocked
+     */
+    synchronized void importRecord(String maID,MAIntegrityRecord record,long rejections)
+    {
+        putRecord(maID,record);
+        blockedRejections+=rejections;
+        if(publisher==null) return;
+        
+        List<RootSubscription> deliveries;
+        synchronized(record)
+        {
+            deliveries=publisher.publish(projectID, maID, record, false);
+        }
+        RootChangePublisher.schedule(deliveries);
+    }
+    
+    /**
+     * It incorporates an already built integrity record (e.g. restored from a checkpoint) without
+     * updating the project root. The root must be rebuilt through rebuildRoots once all the records are incorporated.
+     * @param maID The measurement adapter ID
+     * @param record The integrity record
+     */
+    synchronized void putRecord(String maID,MAIntegrityRecord record)
+    {
+        if(maID==null || record==null) return;
+        if(retainedVersions>0) record.setRetainedVersions(retainedVersions);
+        
+        MAIntegrityRecord previous;
+        epochs.enter();
+        try{
+            record.setCreatedEpoch(epochs.getEpoch());
+            previous=map.put(maID, record);
+        }finally{
+            epochs.exit();
+        }
+        if(previous!=null)
+        {
+            //The integer ID would resolve the replaced record otherwise
+            recordsById.removeValue(previous);
+            byRole[previous.getCurrentRole()].remove(maID);
+        }
+        byRole[record.getCurrentRole()].add(maID);
+        if(budget==null) return;
+        
+        if(previous!=null) budget.release(projectID, previous.getReservedBytes());
+        record.setReservedBytes(MemoryBudget.estimate(record));
+        budget.charge(projectID, record.getReservedBytes());
+    }
+    
+    /**
+     * It rebuilds the Merkle tree over the roots of the measurement adapters at once
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    synchronized void rebuildRoots() throws NoSuchAlgorithmException
+    {
+        HashMap<String,String> values=new HashMap<>();
+        for(Map.Entry<String,MAIntegrityRecord> entry:map.entrySet()) values.put(entry.getKey(), entry.getValue().getRootHash());
+        
+        roots.reset(values);
+    }
+    
+    /**
+     * @return the default level value for the number of transactions to keep an integrity record (2^levels)
+     */
+    public int getLevels() {
+        return levels;
+    }
+    
+    /**
+     * It returns the integrity record cached for the integer ID of the measurement adapter
+     * @param maIdx The integer ID of the measurement adapter
+     * @return The integrity record when it is cached, null otherwise
+     */
+    MAIntegrityRecord getRecord(int maIdx)
+    {
+        return recordsById.get(maIdx);
+    }
+    
+    /**
+     * It caches the integrity record using the integer ID of the measurement adapter
+     * @param maIdx The integer ID of the measurement adapter
+     * @param record The record to be cached
+     */
+    synchronized void cacheRecord(int maIdx,MAIntegrityRecord record)
+    {
+        recordsById.put(maIdx, record);
+    }
+    
     /**
      * It returns a string version of the merkle tree associated with the indicated MA
      * @param maID The measurement adapter to be analyzed
@@ -172,4 +1298,40 @@ public class ProjectIntegrityRecord {
         
         return (record==null)?null:record.toString();        
     }
+    
+    /**
+     * It writes a page of the merkle tree associated with the indicated MA in a human-readable format, without
+     * building the representation of the whole tree (see BDTree.dump(Appendable,int,int,int))
+     * @param maID The measurement adapter to be dumped
+     * @param out The destination
+     * @param fromNode The first node ID of the page
+     * @param toNode The last node ID of the range (see BDTree.getNodeRangeOfLevels and BDTree.getNodeRangeOfOffsets)
+     * @param maxNodes The max number of nodes of the page
+     * @return The node ID from which the next page starts, 0 when the range has been completed, -1 when the MA does not exist
+     * @throws IOException It is raised when the destination cannot be written
+     */
+    public int dump(String maID,Appendable out,int fromNode,int toNode,int maxNodes) throws IOException
+    {
+        MAIntegrityRecord record=(maID==null)?null:map.get(maID);
+        
+        return (record==null)?-1:record.dump(out, fromNode, toNode, maxNodes);
+    }
+    
+    /**
+     * It writes a page of the merkle tree associated with the indicated MA in the compact binary format
+     * (see BDTree.dump(OutputStream,int,int,int))
+     * @param maID The measurement adapter to be dumped
+     * @param out The destination (it is not closed)
+     * @param fromNode The first node ID of the page
+     * @param toNode The last node ID of the range (see BDTree.getNodeRangeOfLevels and BDTree.getNodeRangeOfOffsets)
+     * @param maxNodes The max number of nodes of the page
+     * @return The node ID from which the next page starts, 0 when the range has been completed, -1 when the MA does not exist
+     * @throws IOException It is raised when the destination cannot be written
+     */
+    public int dump(String maID,OutputStream out,int fromNode,int toNode,int maxNodes) throws IOException
+    {
+        MAIntegrityRecord record=(maID==null)?null:map.get(maID);
+        
+        return (record==null)?-1:record.dump(out, fromNode, toNode, maxNodes);
+    }
 }
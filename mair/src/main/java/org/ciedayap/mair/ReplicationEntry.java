@@ -0,0 +1,168 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * It is an entry of the replication log. It describes a transaction or a change of role applied by the primary,
+ * identified by a sequence number that starts from 1 and increases without gaps.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class ReplicationEntry {
+    /**
+     * The entry incorporates a transaction into the measurement adapter record
+     */
+    public static final byte TYPE_TRANSACTION=0;
+    /**
+     * The entry changes the current role of the measurement adapter without incorporating a transaction
+     */
+    public static final byte TYPE_ROLE=1;
+
+    private final long sequence;
+    private final byte type;
+    /**
+     * The instant (in milliseconds) in which the primary applied the transaction
+     */
+    private final long timestamp;
+    private final String projectID;
+    private final String maID;
+    private final short role;
+    private final String hashMD5;
+
+    public ReplicationEntry(long sequence,long timestamp,String projectID,String maID,short role,String hashMD5)
+    {
+        this(sequence,TYPE_TRANSACTION,timestamp,projectID,maID,role,hashMD5);
+    }
+
+    /**
+     * It creates an entry of the indicated type
+     * @param sequence The sequence number
+     * @param type TYPE_TRANSACTION or TYPE_ROLE
+     * @param timestamp The instant (in milliseconds) in which the primary applied the entry
+     * @param projectID The project ID
+     * @param maID The measurement adapter ID
+     * @param role The current role of the measurement adapter
+     * @param hashMD5 The hash of the transaction (null for TYPE_ROLE)
+     */
+    public ReplicationEntry(long sequence,byte type,long timestamp,String projectID,String maID,short role,String hashMD5)
+    {
+        this.sequence=sequence;
+        this.type=type;
+        this.timestamp=timestamp;
+        this.projectID=projectID;
+        this.maID=maID;
+        this.role=role;
+        this.hashMD5=hashMD5;
+    }
+
+    /**
+     * It writes the entry in binary format
+     * @param out The output stream
+     * @throws IOException It is raised when the entry cannot be written
+     */
+    public void writeTo(DataOutputStream out) throws IOException
+    {
+        out.writeLong(sequence);
+        out.writeByte(type);
+        out.writeLong(timestamp);
+        out.writeUTF(projectID);
+        out.writeUTF(maID);
+        out.writeShort(role);
+        out.writeUTF((hashMD5==null)?"":hashMD5);
+    }
+
+    /**
+     * It reads an entry written by writeTo
+     * @param in The input stream
+     * @return The read entry
+     * @throws IOException It is raised when the entry cannot be read
+     */
+    public static ReplicationEntry readFrom(DataInputStream in) throws IOException
+    {
+        long sequence=in.readLong();
+        byte type=in.readByte();
+        if(type!=TYPE_TRANSACTION && type!=TYPE_ROLE) throw new IOException("Unknown type of replication entry: "+type);
+        long timestamp=in.readLong();
+        String projectID=in.readUTF();
+        String maID=in.readUTF();
+        short role=in.readShort();
+        String hashMD5=in.readUTF();
+
+        return new ReplicationEntry(sequence,type,timestamp,projectID,maID,role,(type==TYPE_ROLE)?null:hashMD5);
+    }
+
+    /**
+     * @return the sequence number
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return the type of the entry (TYPE_TRANSACTION or TYPE_ROLE)
+     */
+    public byte getType() {
+        return type;
+    }
+
+    /**
+     * @return TRUE when the entry changes the role of the measurement adapter, FALSE when it incorporates a transaction
+     */
+    public boolean isRoleChange() {
+        return type==TYPE_ROLE;
+    }
+
+    /**
+     * @return the instant (in milliseconds) in which the primary applied the transaction
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the projectID
+     */
+    public String getProjectID() {
+        return projectID;
+    }
+
+    /**
+     * @return the maID
+     */
+    public String getMaID() {
+        return maID;
+    }
+
+    /**
+     * @return the role
+     */
+    public short getRole() {
+        return role;
+    }
+
+    /**
+     * @return the hashMD5
+     */
+    public String getHashMD5() {
+        return hashMD5;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb=new StringBuilder();
+        sb.append("Seq: ").append(sequence).append(isRoleChange()?" Role change":"").append(" Project: ").append(projectID)
+                .append(" MA: ").append(maID).append(" Role: ").append(role)
+                .append(" Hash: ").append(hashMD5);
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * It is the follower side of the replication. The received entries are queued and applied in order
+ * by a dedicated thread into the follower's own global integrity record, which serves the verification
+ * reads. The follower can receive the entries in-process (it is a ReplicationTransport itself) or
+ * through a loopback or remote socket (see listen).
+ * The follower's record must not be mutated directly.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class ReplicationFollower implements ReplicationTransport {
+    /**
+     * The max number of received entries pending to be applied. When it is reached, the reception
+     * is blocked until the applier catches up, so the primary sees the follower as lagging.
+     */
+    public static final int MAX_PENDING=65536;
+
+    private final GlobalIntegrityRecord record;
+    private final LinkedBlockingQueue<ReplicationEntry> pending;
+    private final Thread applier;
+    private volatile long received;
+    private volatile long applied;
+    private volatile long appliedTimestamp;
+    private volatile boolean closed;
+    private volatile Exception error;
+    private ServerSocket server;
+
+    /**
+     * It creates the follower with its own global integrity record
+     * @param plevels It defines the number of transactions to be managed by each MA Integrity Record (it must match the primary)
+     * @param nOfMA It defines the default value for the number of measurement adapters per project
+     * @throws BDTreeException It is raised when the number of levels is lower than 1
+     * @throws IntegrityRecordException It is raised when the nOfMA indicated is lower than one
+     */
+    public ReplicationFollower(int plevels,int nOfMA) throws BDTreeException, IntegrityRecordException
+    {
+        this(new GlobalIntegrityRecord(plevels,nOfMA),0);
+    }
+
+    /**
+     * It creates the follower starting from an existing record (e.g. restored from a checkpoint)
+     * @param record The global integrity record of the follower
+     * @param appliedSequence The last sequence number already contained in the record
+     * @throws IntegrityRecordException It is raised when the record is not defined
+     */
+    public ReplicationFollower(GlobalIntegrityRecord record,long appliedSequence) throws IntegrityRecordException
+    {
+        if(record==null) throw new IntegrityRecordException("The global integrity record is not defined");
+
+        this.record=record;
+        pending=new LinkedBlockingQueue<>(MAX_PENDING);
+        received=appliedSequence;
+        applied=appliedSequence;
+        closed=false;
+        applier=new Thread(this::applyLoop,"mair-follower-applier");
+        applier.setDaemon(true);
+        applier.start();
+    }
+
+    @Override
+    public void send(ReplicationEntry entry) throws IOException
+    {
+        if(closed) throw new IOException("The follower is closed");
+        if(error!=null) throw new IOException("The follower has failed: "+error.getMessage());
+        if(entry==null) return;
+
+        //The received sequence is updated before queuing, so the applier never gets ahead of it
+        long previous=received;
+        if(entry.getSequence()>previous) received=entry.getSequence();
+        try {
+            pending.put(entry);
+        } catch (InterruptedException ex) {
+            if(received==entry.getSequence()) received=previous;
+            Thread.currentThread().interrupt();
+            throw new IOException("The reception has been interrupted");
+        }
+    }
+
+    private void applyLoop()
+    {
+        while(!closed)
+        {
+            ReplicationEntry entry;
+            try {
+                entry=pending.take();
+            } catch (InterruptedException ex) {
+                return;
+            }
+
+            if(entry.getSequence()<=applied) continue;//Already applied
+            if(entry.getSequence()!=applied+1)
+            {
+                error=new IntegrityRecordException("Gap in the replication log. Expected: "+(applied+1)+" Received: "+entry.getSequence());
+                return;
+            }
+
+            try {
+                if(entry.isRoleChange()) record.setRole(entry.getProjectID(), entry.getMaID(), entry.getRole());
+                else record.addTransaction(entry.getProjectID(), entry.getMaID(), entry.getRole(), entry.getHashMD5());
+            } catch (Exception ex) {
+                error=ex;
+                return;
+            }
+
+            appliedTimestamp=entry.getTimestamp();
+            applied=entry.getSequence();
+        }
+    }
+
+    /**
+     * It starts listening for a primary on the indicated port of the loopback interface
+     * @param port The port (0 for choosing a free one)
+     * @return The port in which the follower is listening
+     * @throws IOException It is raised when the socket cannot be opened
+     */
+    public int listen(int port) throws IOException
+    {
+        return listen(InetAddress.getLoopbackAddress(),port);
+    }
+
+    /**
+     * It starts listening for a primary on the indicated address and port. The connections
+     * are accepted one at a time, so a primary can reconnect after a failure.
+     * @param address The address in which the follower listens
+     * @param port The port (0 for choosing a free one)
+     * @return The port in which the follower is listening
+     * @throws IOException It is raised when the socket cannot be opened
+     */
+    public synchronized int listen(InetAddress address,int port) throws IOException
+    {
+        if(server!=null) throw new IOException("The follower is already listening");
+
+        server=new ServerSocket(port,1,address);
+        final ServerSocket listening=server;
+        Thread acceptor=new Thread(() -> {
+            while(!closed)
+            {
+                try (Socket socket=listening.accept();
+                        DataInputStream in=new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+                    while(!closed) send(ReplicationEntry.readFrom(in));
+                } catch (EOFException ex) {
+                    //The primary has closed the connection
+                } catch (IOException ex) {
+                    if(listening.isClosed()) return;
+                }
+            }
+        },"mair-follower-receiver");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        return server.getLocalPort();
+    }
+
+    /**
+     * @return The last sequence number applied by the follower
+     */
+    public long getAppliedSequence()
+    {
+        return applied;
+    }
+
+    /**
+     * @return The last sequence number received by the follower
+     */
+    public long getReceivedSequence()
+    {
+        return received;
+    }
+
+    /**
+     * @return The replication lag as the number of received entries pending to be applied
+     */
+    public long getLag()
+    {
+        return Math.max(0, received-applied);
+    }
+
+    /**
+     * @param primarySequence The last sequence number shipped by the primary
+     * @return The replication lag as the number of entries not applied yet
+     */
+    public long getLag(long primarySequence)
+    {
+        return Math.max(0, primarySequence-applied);
+    }
+
+    /**
+     * @return The time lag in milliseconds between the primary's application of the last applied entry and now,
+     * 0 when there are not pending entries
+     */
+    public long getTimeLagMillis()
+    {
+        if(getLag()==0) return 0;
+
+        return Math.max(0, System.currentTimeMillis()-appliedTimestamp);
+    }
+
+    /**
+     * It waits until the indicated sequence number has been applied
+     * @param sequence The sequence number to be waited
+     * @param timeoutMillis The max time to wait
+     * @return TRUE when the sequence number has been applied, FALSE otherwise
+     * @throws InterruptedException It is raised when the waiting thread is interrupted
+     */
+    public boolean awaitSequence(long sequence,long timeoutMillis) throws InterruptedException
+    {
+        long deadline=System.currentTimeMillis()+timeoutMillis;
+        while(applied<sequence)
+        {
+            if(error!=null || System.currentTimeMillis()>deadline) return false;
+            Thread.sleep(1);
+        }
+
+        return true;
+    }
+
+    /**
+     * It confirms the convergence with the primary comparing the global root hashes
+     * @param primaryRootHash The global root hash of the primary
+     * @param primarySequence The last sequence number shipped by the primary
+     * @return TRUE when all the entries shipped by the primary have been applied and the roots match, FALSE otherwise
+     */
+    public boolean isConverged(String primaryRootHash,long primarySequence)
+    {
+        if(getLag(primarySequence)!=0) return false;
+
+        String root=record.getGlobalRootHash();
+        if(root==null || primaryRootHash==null) return root==primaryRootHash;
+
+        return root.equalsIgnoreCase(primaryRootHash);
+    }
+
+    /**
+     * @return The global integrity record of the follower, used for serving verification reads
+     */
+    public GlobalIntegrityRecord getRecord()
+    {
+        return record;
+    }
+
+    /**
+     * @return The error that stopped the application of entries, null when the follower works properly
+     */
+    public Exception getError()
+    {
+        return error;
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        closed=true;
+        applier.interrupt();
+        if(server!=null) server.close();
+    }
+}
@@ -0,0 +1,364 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * It is the primary side of the replication. Each transaction and each change of role applied to the global
+ * integrity record is appended to an ordered log and shipped to the followers, which apply it in the same order.
+ * The record must be mutated only through the primary, so no change is missed by the followers.
+ * The last entries of the log are retained, so a follower can be attached later whether it has applied
+ * the entries up to a sequence number still covered by the retained log. Both the primary and the followers
+ * must start from the same state (e.g. empty records or the same checkpoint).
+ * <p>
+ * Each follower has a bounded queue of entries and its own shipping thread, so the entries are shipped
+ * outside the monitor of the primary and a slow follower never stops the ingestion. A follower whose transport
+ * fails, or which falls behind more than maxLag entries, is detached and closed; it can be attached again from
+ * its last applied sequence number while the retained log covers it.
+ * </p>
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class ReplicationPrimary {
+    /**
+     * The default max number of entries pending to be shipped to a follower
+     */
+    public static final int DEFAULT_MAX_LAG=65536;
+
+    private final GlobalIntegrityRecord record;
+    private final ArrayList<Link> followers;
+    /**
+     * The retained entries of the log
+     */
+    private final ArrayDeque<ReplicationEntry> log;
+    private final int retention;
+    private final int maxLag;
+    private long sequence;
+    private long detached;
+
+    /**
+     * It creates the primary for the indicated record, with DEFAULT_MAX_LAG entries pending by follower
+     * @param record The global integrity record in which the transactions are applied
+     * @param retention The number of entries retained in the log for attaching late followers
+     * @throws IntegrityRecordException It is raised when the record is not defined or the retention is negative
+     */
+    public ReplicationPrimary(GlobalIntegrityRecord record,int retention) throws IntegrityRecordException
+    {
+        this(record,retention,DEFAULT_MAX_LAG);
+    }
+
+    /**
+     * It creates the primary for the indicated record
+     * @param record The global integrity record in which the transactions are applied
+     * @param retention The number of entries retained in the log for attaching late followers
+     * @param maxLag The max number of entries pending to be shipped to a follower before detaching it
+     * @throws IntegrityRecordException It is raised when the record is not defined, the retention is negative or maxLag is lower than 1
+     */
+    public ReplicationPrimary(GlobalIntegrityRecord record,int retention,int maxLag) throws IntegrityRecordException
+    {
+        if(record==null) throw new IntegrityRecordException("The global integrity record is not defined");
+        if(retention<0) throw new IntegrityRecordException("The retention should be upper or equal than zero");
+        if(maxLag<1) throw new IntegrityRecordException("The max lag should be upper or equal than 1");
+
+        this.record=record;
+        this.retention=retention;
+        this.maxLag=maxLag;
+        followers=new ArrayList<>();
+        log=new ArrayDeque<>();
+        sequence=0;
+        detached=0;
+    }
+
+    /**
+     * It applies the transaction in the primary and enqueues it for the followers
+     * @param projectID The project ID
+     * @param maID The measurement adapter ID
+     * @param currentRole The current role related to the measurement adapter
+     * @param hashMD5 The hash associated with the transaction to be stored
+     * @return TRUE when the transaction has been stored, FALSE otherwise (in such a case, it is not shipped)
+     * @throws BDTreeException It is raised when the Merkel tree cannot be created
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available on the platform
+     * @throws TreeNodeException It is raised when the new node for the transaction cannot be created
+     * @throws IntegrityRecordException It is raised when the project record cannot be created, or when the transaction
+     * has been stored (and shipped) but the root of its window cannot be archived
+     */
+    public synchronized Boolean addTransaction(String projectID,String maID,short currentRole,String hashMD5) throws BDTreeException, NoSuchAlgorithmException, TreeNodeException, IntegrityRecordException
+    {
+        long version=versionOf(projectID,maID);
+        Boolean ret;
+        try{
+            ret=record.addTransaction(projectID, maID, currentRole, hashMD5);
+        }catch(IntegrityRecordException e)
+        {
+            //The archive failures are raised once the transaction has been incorporated
+            if(versionOf(projectID,maID)!=version) append(new ReplicationEntry(sequence+1,System.currentTimeMillis(),projectID,maID,currentRole,hashMD5));
+            throw e;
+        }
+        if(ret==null || !ret) return ret;
+
+        append(new ReplicationEntry(sequence+1,System.currentTimeMillis(),projectID,maID,currentRole,hashMD5));
+
+        return ret;
+    }
+
+    /**
+     * It changes the current role of the measurement adapter in the primary (e.g. for unblocking it) and enqueues
+     * the change for the followers
+     * @param projectID The project ID
+     * @param maID The measurement adapter ID
+     * @param role The new role
+     * @return TRUE when the role has been changed, FALSE otherwise (in such a case, it is not shipped)
+     */
+    public synchronized Boolean setRole(String projectID,String maID,short role)
+    {
+        Boolean ret=record.setRole(projectID, maID, role);
+        if(ret==null || !ret) return ret;
+
+        append(new ReplicationEntry(sequence+1,ReplicationEntry.TYPE_ROLE,System.currentTimeMillis(),projectID,maID,role,null));
+
+        return ret;
+    }
+
+    /**
+     * @return The version of the measurement adapter record, -1 when it does not exist
+     */
+    private long versionOf(String projectID,String maID)
+    {
+        MAIntegrityRecord current=record.getRecord(projectID, maID);
+
+        return (current==null)?-1:current.getVersion();
+    }
+
+    /**
+     * It incorporates the entry into the retained log and into the queue of each follower.
+     * The followers whose queue is full are detached.
+     * @param entry The entry with the next sequence number
+     */
+    private void append(ReplicationEntry entry)
+    {
+        sequence=entry.getSequence();
+        if(retention>0)
+        {
+            if(log.size()==retention) log.pollFirst();
+            log.addLast(entry);
+        }
+
+        for(int i=followers.size()-1;i>=0;i--)
+        {
+            Link link=followers.get(i);
+            if(!link.pending.offer(entry)) detach(link);
+        }
+    }
+
+    /**
+     * It removes the follower and stops its shipping thread, which closes the transport
+     */
+    private void detach(Link link)
+    {
+        if(!followers.remove(link)) return;
+
+        detached++;
+        link.stop(true);
+    }
+
+    /**
+     * It attaches a follower that starts from the same initial state than the primary
+     * @param follower The transport to the follower
+     * @throws IntegrityRecordException It is raised when the retained log does not cover the whole history
+     * @throws IOException It is raised when the follower cannot be attached
+     */
+    public void addFollower(ReplicationTransport follower) throws IntegrityRecordException, IOException
+    {
+        addFollower(follower,0);
+    }
+
+    /**
+     * It attaches a follower that has already applied the entries up to the indicated sequence number.
+     * The retained entries after such a sequence number are shipped before the new ones.
+     * @param follower The transport to the follower
+     * @param appliedSequence The last sequence number applied by the follower
+     * @throws IntegrityRecordException It is raised when the retained log does not cover the entries required by the follower,
+     * or when the follower is already attached
+     * @throws IOException It is raised when the follower cannot be attached
+     */
+    public synchronized void addFollower(ReplicationTransport follower,long appliedSequence) throws IntegrityRecordException, IOException
+    {
+        if(follower==null) throw new IntegrityRecordException("The follower is not defined");
+        if(appliedSequence<0 || appliedSequence>sequence) throw new IntegrityRecordException("The applied sequence is out of the log");
+        if(find(follower)!=null) throw new IntegrityRecordException("The follower is already attached");
+
+        long firstRetained=log.isEmpty()?sequence+1:log.peekFirst().getSequence();
+        if(appliedSequence+1<firstRetained) throw new IntegrityRecordException("The retained log does not cover the sequence "+(appliedSequence+1)+". A checkpoint is required");
+
+        //The queue keeps the retained entries to be shipped and up to maxLag new ones
+        Link link=new Link(follower,(int)Math.min((long)Integer.MAX_VALUE, (sequence-appliedSequence)+maxLag));
+        for(ReplicationEntry entry:log)
+        {
+            if(entry.getSequence()>appliedSequence) link.pending.add(entry);
+        }
+
+        followers.add(link);
+        link.shipper.start();
+    }
+
+    private Link find(ReplicationTransport follower)
+    {
+        for(Link link:followers) if(link.transport==follower) return link;
+
+        return null;
+    }
+
+    /**
+     * It detaches the follower without closing its transport. The entries pending to be shipped are discarded.
+     * @param follower The transport to the follower
+     * @return TRUE when the follower was attached, FALSE otherwise
+     */
+    public synchronized boolean removeFollower(ReplicationTransport follower)
+    {
+        Link link=find(follower);
+        if(link==null) return false;
+
+        followers.remove(link);
+        link.stop(false);
+
+        return true;
+    }
+
+    /**
+     * @return The number of attached followers
+     */
+    public synchronized int getFollowerCount()
+    {
+        return followers.size();
+    }
+
+    /**
+     * @return The number of followers detached due to transport failures or to exceeding the max lag
+     */
+    public synchronized long getDetachedCount()
+    {
+        return detached;
+    }
+
+    /**
+     * @param follower The transport to the follower
+     * @return The number of entries pending to be shipped to the follower, -1 when it is not attached
+     */
+    public synchronized int getPendingCount(ReplicationTransport follower)
+    {
+        Link link=find(follower);
+
+        return (link==null)?-1:link.pending.size();
+    }
+
+    /**
+     * @return The max number of entries pending to be shipped to a follower before detaching it
+     */
+    public int getMaxLag()
+    {
+        return maxLag;
+    }
+
+    /**
+     * @return The sequence number of the last shipped entry (0 when there are no entries)
+     */
+    public synchronized long getLastSequence()
+    {
+        return sequence;
+    }
+
+    /**
+     * @return The global root hash of the primary
+     */
+    public synchronized String getGlobalRootHash()
+    {
+        return record.getGlobalRootHash();
+    }
+
+    /**
+     * @return The global integrity record of the primary
+     */
+    public GlobalIntegrityRecord getRecord()
+    {
+        return record;
+    }
+
+    /**
+     * It detaches and closes all the followers
+     */
+    public synchronized void close()
+    {
+        for(Link link:followers) link.stop(true);
+        followers.clear();
+    }
+
+    private static void closeQuietly(ReplicationTransport follower)
+    {
+        try {
+            follower.close();
+        } catch (IOException ex) {
+            //The follower is discarded anyway
+        }
+    }
+
+    /**
+     * It is an attached follower: the entries pending to be shipped and the thread that ships them in order
+     */
+    private class Link implements Runnable {
+        private final ReplicationTransport transport;
+        private final LinkedBlockingQueue<ReplicationEntry> pending;
+        private final Thread shipper;
+        private volatile boolean stopped;
+        private volatile boolean closeOnStop;
+
+        Link(ReplicationTransport transport,int capacity)
+        {
+            this.transport=transport;
+            pending=new LinkedBlockingQueue<>(Math.max(capacity, 1));
+            shipper=new Thread(this,"mair-replication-shipper");
+            shipper.setDaemon(true);
+        }
+
+        void stop(boolean close)
+        {
+            closeOnStop=close;
+            stopped=true;
+            shipper.interrupt();
+        }
+
+        @Override
+        public void run()
+        {
+            try{
+                while(!stopped)
+                {
+                    ReplicationEntry entry;
+                    try{
+                        entry=pending.take();
+                    }catch(InterruptedException e)
+                    {
+                        continue;
+                    }
+                    transport.send(entry);
+                }
+            }catch(IOException e)
+            {
+                synchronized(ReplicationPrimary.this)
+                {
+                    detach(this);
+                }
+            }finally{
+                if(closeOnStop) closeQuietly(transport);
+            }
+        }
+    }
+}
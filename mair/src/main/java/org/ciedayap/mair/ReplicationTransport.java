@@ -0,0 +1,24 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * It ships the replication log from the primary to a follower.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public interface ReplicationTransport extends Closeable {
+    /**
+     * It ships an entry to the follower. The entries are shipped in order.
+     * @param entry The entry to be shipped
+     * @throws IOException It is raised when the entry cannot be shipped
+     */
+    void send(ReplicationEntry entry) throws IOException;
+}
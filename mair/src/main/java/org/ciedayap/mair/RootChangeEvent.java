@@ -0,0 +1,80 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+/**
+ * It represents the latest state of the root of a measurement adapter after a change. The events of the same
+ * measurement adapter could be coalesced before being delivered, so the version could advance more than one
+ * transaction between two consecutive events.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class RootChangeEvent {
+    private final String projectID;
+    private final String maID;
+    private final long version;
+    private final String rootHash;
+    private final boolean removed;
+
+    /**
+     * It creates a new event
+     * @param projectID The project ID
+     * @param maID The measurement adapter ID
+     * @param version The version of the record (the number of incorporated transactions)
+     * @param rootHash The root hash after the change (null when there are not transactions or the record has been removed)
+     * @param removed TRUE when the measurement adapter has been removed from the project
+     */
+    public RootChangeEvent(String projectID,String maID,long version,String rootHash,boolean removed)
+    {
+        this.projectID=projectID;
+        this.maID=maID;
+        this.version=version;
+        this.rootHash=rootHash;
+        this.removed=removed;
+    }
+
+    /**
+     * @return the project ID
+     */
+    public String getProjectID() {
+        return projectID;
+    }
+
+    /**
+     * @return the measurement adapter ID
+     */
+    public String getMaID() {
+        return maID;
+    }
+
+    /**
+     * @return the version of the record (the number of incorporated transactions)
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the root hash after the change (null when there are not transactions or the record has been removed)
+     */
+    public String getRootHash() {
+        return rootHash;
+    }
+
+    /**
+     * @return TRUE when the measurement adapter has been removed from the project
+     */
+    public boolean isRemoved() {
+        return removed;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Project: "+projectID+" MA: "+maID+" Version: "+version+" Root: "+rootHash+(removed?" (removed)":"");
+    }
+}
@@ -0,0 +1,21 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+/**
+ * It receives the changes of the measurement adapter roots from a subscription (see GlobalIntegrityRecord.subscribe).
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public interface RootChangeListener {
+    /**
+     * It is called by the executor of the subscription, never by the thread incorporating the transactions.
+     * The events of the same subscription are delivered one at a time.
+     * @param event The latest state of the root of the measurement adapter
+     */
+    void onRootChange(RootChangeEvent event);
+}
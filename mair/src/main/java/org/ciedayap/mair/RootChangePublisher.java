@@ -0,0 +1,88 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * It keeps the subscriptions of a global integrity record and offers them each root change. It is shared with the
+ * project records, which publish the changes of their measurement adapters. Without subscriptions, publishing
+ * has not cost beyond verifying that the list is empty.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+class RootChangePublisher {
+    private final CopyOnWriteArrayList<RootSubscription> subscriptions;
+
+    RootChangePublisher()
+    {
+        subscriptions=new CopyOnWriteArrayList<>();
+    }
+
+    void add(RootSubscription subscription)
+    {
+        subscriptions.add(subscription);
+    }
+
+    boolean remove(RootSubscription subscription)
+    {
+        return subscriptions.remove(subscription);
+    }
+
+    boolean isEmpty()
+    {
+        return subscriptions.isEmpty();
+    }
+
+    int size()
+    {
+        return subscriptions.size();
+    }
+
+    /**
+     * It publishes the current state of the record. It must be called holding the record's monitor,
+     * so the version and the root correspond to the same change. The deliveries are not scheduled here:
+     * the returned subscriptions must be passed to schedule once the record's monitor is released.
+     * @param projectID The project ID
+     * @param maID The measurement adapter ID
+     * @param record The integrity record after the change
+     * @param removed TRUE when the record has been removed from the project
+     * @return The subscriptions whose delivery must be scheduled, null when there are not
+     */
+    List<RootSubscription> publish(String projectID,String maID,MAIntegrityRecord record,boolean removed)
+    {
+        if(subscriptions.isEmpty()) return null;
+
+        RootChangeEvent event=null;
+        List<RootSubscription> ret=null;
+        for(RootSubscription sub:subscriptions)
+        {
+            if(!sub.matches(projectID, maID)) continue;
+
+            if(event==null) event=new RootChangeEvent(projectID,maID,record.getVersion(),removed?null:record.getRootHash(),removed);
+            if(!sub.offer(event)) continue;
+
+            if(ret==null) ret=new ArrayList<>(2);
+            ret.add(sub);
+        }
+
+        return ret;
+    }
+
+    /**
+     * It schedules the deliveries of the subscriptions returned by publish
+     * @param pending The subscriptions (null means none)
+     */
+    static void schedule(List<RootSubscription> pending)
+    {
+        if(pending==null) return;
+
+        for(RootSubscription sub:pending) sub.schedule();
+    }
+}
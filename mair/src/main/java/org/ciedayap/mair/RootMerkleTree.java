@@ -0,0 +1,260 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * It keeps an incrementally maintained Merkle tree over a set of keyed root hashes
+ * (e.g. the roots of the measurement adapters in a project, or the roots of the projects).
+ * The leaves are ordered by key, so the resulting root is deterministic. Updating the hash
+ * of a known key recomputes the path up to the root (O(log n)). The incorporation or removal of a key
+ * shifts the following leaves and recomputes only the paths of the shifted leaves, so a key appended at the end
+ * (e.g. the IDs created in order) costs O(log n) hashes. The empty leaves do not change the root, so the capacity
+ * is doubled without rehashing when the tree is full.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+class RootMerkleTree {
+    /**
+     * It is lazily obtained when the first hash must be combined
+     */
+    private MessageDigest md5;
+    /**
+     * The keys ordered lexicographically (only the first size positions are used). The i-th key is located at the leaf capacity+i
+     */
+    private String keys[];
+    /**
+     * The number of keys
+     */
+    private int size;
+    /**
+     * The position of each key in the keys array
+     */
+    private final HashMap<String,Integer> slots;
+    /**
+     * The nodes of the tree using a 1-based heap layout (the root is located at 1)
+     */
+    private String nodes[];
+    /**
+     * The number of leaves (a power of two)
+     */
+    private int capacity;
+
+    RootMerkleTree()
+    {
+        md5=null;
+        keys=new String[1];
+        size=0;
+        slots=new HashMap<>();
+        capacity=1;
+        nodes=new String[2];
+    }
+
+    /**
+     * It updates the hash related to the key, incorporating the key when it is not present.
+     * @param key The key to be updated
+     * @param hash The new hash related to the key
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    synchronized void update(String key,String hash) throws NoSuchAlgorithmException
+    {
+        if(key==null) return;
+
+        Integer slot=slots.get(key);
+        if(slot==null)
+        {
+            insert(key,hash);
+            return;
+        }
+
+        nodes[capacity+slot]=hash;
+        rehash(slot,slot);
+    }
+
+    /**
+     * It incorporates a new key in its ordered position, shifting right the following leaves
+     */
+    private void insert(String key,String hash) throws NoSuchAlgorithmException
+    {
+        if(size==capacity) grow();
+
+        int at=-Arrays.binarySearch(keys, 0, size, key)-1;
+        System.arraycopy(keys, at, keys, at+1, size-at);
+        System.arraycopy(nodes, capacity+at, nodes, capacity+at+1, size-at);
+        keys[at]=key;
+        nodes[capacity+at]=hash;
+        size++;
+        for(int i=at;i<size;i++) slots.put(keys[i], i);
+
+        rehash(at,size-1);
+    }
+
+    /**
+     * It doubles the capacity. The current tree becomes the left subtree of the new root, and the right subtree is empty,
+     * so the nodes are relocated without rehashing (an empty brother leaves the hash as it is).
+     */
+    private void grow()
+    {
+        String next[]=new String[4*capacity];
+        for(int first=1;first<=capacity;first*=2)
+            System.arraycopy(nodes, first, next, 2*first, first);
+        next[1]=next[2];
+
+        capacity*=2;
+        nodes=next;
+        keys=Arrays.copyOf(keys, capacity);
+    }
+
+    /**
+     * It recomputes the ancestors of the indicated range of leaves, up to the root
+     * @param from The first slot of the range
+     * @param to The last slot of the range
+     */
+    private void rehash(int from,int to) throws NoSuchAlgorithmException
+    {
+        int lo=(capacity+from)/2;
+        int hi=(capacity+to)/2;
+        while(lo>=1)
+        {
+            for(int node=lo;node<=hi;node++)
+                nodes[node]=BDTree.combineHashes(digest(), nodes[2*node], nodes[2*node+1]);
+            lo=lo/2;
+            hi=hi/2;
+        }
+    }
+
+    /**
+     * It replaces the whole content of the tree, rebuilding it once
+     * @param values The hash related to each key
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    synchronized void reset(Map<String,String> values) throws NoSuchAlgorithmException
+    {
+        rebuild(new HashMap<>(values));
+    }
+
+    /**
+     * It removes the indicated key from the tree
+     * @param key The key to be removed
+     * @return TRUE when the key has been removed, FALSE otherwise
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    synchronized boolean remove(String key) throws NoSuchAlgorithmException
+    {
+        Integer slot=(key==null)?null:slots.remove(key);
+        if(slot==null) return false;
+
+        int at=slot;
+        System.arraycopy(keys, at+1, keys, at, size-at-1);
+        System.arraycopy(nodes, capacity+at+1, nodes, capacity+at, size-at-1);
+        size--;
+        keys[size]=null;
+        nodes[capacity+size]=null;
+        for(int i=at;i<size;i++) slots.put(keys[i], i);
+
+        rehash(at,size);
+
+        return true;
+    }
+
+    /**
+     * It indicates whether the key is present or not
+     * @param key The key to be verified
+     * @return TRUE when the key is present, FALSE otherwise
+     */
+    synchronized boolean contains(String key)
+    {
+        return key!=null && slots.containsKey(key);
+    }
+
+    /**
+     * @return The root hash (null when there are not keys or all the hashes are null)
+     */
+    synchronized String getRootHash()
+    {
+        return nodes[1];
+    }
+
+    /**
+     * It returns the hash currently associated with the key
+     * @param key The key to be queried
+     * @return The hash associated with the key, null when the key is not present
+     */
+    synchronized String getHash(String key)
+    {
+        Integer slot=(key==null)?null:slots.get(key);
+
+        return (slot==null)?null:nodes[capacity+slot];
+    }
+
+    /**
+     * It returns the path from the leaf related to the key up to the root
+     * @param key The key for whom the path is required
+     * @return The ordered list of brother hashes from the leaf to the root, null when the key is not present
+     */
+    synchronized List<IntegrityProof.Step> getProof(String key)
+    {
+        Integer slot=(key==null)?null:slots.get(key);
+        if(slot==null) return null;
+
+        ArrayList<IntegrityProof.Step> steps=new ArrayList<>();
+        int node=capacity+slot;
+        while(node>1)
+        {
+            boolean left=(node%2==0);
+            int brother=left?node+1:node-1;
+            steps.add(new IntegrityProof.Step(nodes[brother],!left));
+            node=node/2;
+        }
+
+        return steps;
+    }
+
+    /**
+     * @return The keys ordered lexicographically
+     */
+    synchronized String[] getKeys()
+    {
+        return Arrays.copyOf(keys, size);
+    }
+
+    private MessageDigest digest() throws NoSuchAlgorithmException
+    {
+        if(md5==null) md5=MessageDigest.getInstance("MD5");
+
+        return md5;
+    }
+
+    private void rebuild(HashMap<String,String> values) throws NoSuchAlgorithmException
+    {
+        String sorted[]=values.keySet().toArray(new String[values.size()]);
+        Arrays.sort(sorted);
+
+        size=sorted.length;
+        capacity=1;
+        while(capacity<size) capacity*=2;
+
+        keys=Arrays.copyOf(sorted, capacity);
+        nodes=new String[2*capacity];
+        slots.clear();
+        for(int i=0;i<size;i++)
+        {
+            slots.put(keys[i], i);
+            nodes[capacity+i]=values.get(keys[i]);
+        }
+
+        for(int node=capacity-1;node>=1;node--)
+            nodes[node]=BDTree.combineHashes(digest(), nodes[2*node], nodes[2*node+1]);
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * It delivers the root changes of the measurement adapters to a listener, optionally filtered by project and
+ * measurement adapter. The thread incorporating the transactions only keeps the latest event of each measurement
+ * adapter in a bounded pending map and, when required, schedules the delivery on the executor, so it never waits
+ * for the listener. The pending events of the same measurement adapter are coalesced into the latest one.
+ * When the pending map is full with other measurement adapters, the oldest pending event is discarded
+ * (see getDroppedCount), so a slow listener loses intermediate states but never holds up the ingestion.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class RootSubscription {
+    /**
+     * The default max number of measurement adapters with a pending event
+     */
+    public static final int DEFAULT_MAX_PENDING=1024;
+    /**
+     * The executor used when the subscription does not indicate one (daemon threads, one at a time by subscription)
+     */
+    private static ExecutorService defaultExecutor;
+
+    private final String projectID;
+    private final String maID;
+    private final RootChangeListener listener;
+    private final Executor executor;
+    private final int maxPending;
+    /**
+     * The latest pending event by project and measurement adapter, in order of arrival
+     */
+    private final LinkedHashMap<String,RootChangeEvent> pending;
+    /**
+     * It indicates whether there is a delivery scheduled or running
+     */
+    private boolean scheduled;
+    private volatile boolean cancelled;
+    private long delivered;
+    private long coalesced;
+    private long dropped;
+    private long failures;
+
+    /**
+     * It creates a new subscription
+     * @param projectID The project ID to be observed (null for all the projects)
+     * @param maID The measurement adapter ID to be observed (null for all the measurement adapters)
+     * @param listener The listener receiving the events
+     * @param executor The executor delivering the events (null for the default daemon executor)
+     * @param maxPending The max number of measurement adapters with a pending event
+     * @throws IntegrityRecordException It is raised when the listener is not defined or maxPending is lower than 1
+     */
+    RootSubscription(String projectID,String maID,RootChangeListener listener,Executor executor,int maxPending) throws IntegrityRecordException
+    {
+        if(listener==null) throw new IntegrityRecordException("The listener is not defined");
+        if(maxPending<1) throw new IntegrityRecordException("The max number of pending events must be upper or equal than 1");
+
+        this.projectID=projectID;
+        this.maID=maID;
+        this.listener=listener;
+        this.executor=(executor==null)?getDefaultExecutor():executor;
+        this.maxPending=maxPending;
+        pending=new LinkedHashMap<>();
+    }
+
+    private static synchronized ExecutorService getDefaultExecutor()
+    {
+        if(defaultExecutor==null)
+        {
+            defaultExecutor=Executors.newCachedThreadPool(r -> {
+                Thread t=new Thread(r,"mair-root-subscription");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        return defaultExecutor;
+    }
+
+    /**
+     * @param prj The project ID
+     * @param ma The measurement adapter ID
+     * @return TRUE when the subscription observes the indicated measurement adapter
+     */
+    boolean matches(String prj,String ma)
+    {
+        if(projectID!=null && !projectID.equals(prj)) return false;
+
+        return maID==null || maID.equals(ma);
+    }
+
+    /**
+     * It keeps the event as the latest one of its measurement adapter. It never waits for the listener.
+     * @param event The event
+     * @return TRUE when the delivery must be scheduled (see schedule), FALSE when it is already scheduled
+     */
+    boolean offer(RootChangeEvent event)
+    {
+        if(cancelled || event==null) return false;
+
+        String key=event.getProjectID()+'\u0000'+event.getMaID();
+        synchronized(this)
+        {
+            if(pending.containsKey(key))
+            {
+                pending.put(key, event);//it keeps the position of the first pending event
+                coalesced++;
+            }
+            else
+            {
+                if(pending.size()>=maxPending)
+                {
+                    Iterator<RootChangeEvent> it=pending.values().iterator();
+                    it.next();
+                    it.remove();
+                    dropped++;
+                }
+                pending.put(key, event);
+            }
+
+            if(scheduled) return false;
+            scheduled=true;
+        }
+
+        return true;
+    }
+
+    /**
+     * It schedules the delivery of the pending events on the executor. It is called once offer has returned TRUE,
+     * after releasing the monitor of the record, so an executor running the tasks in the calling thread does not
+     * deliver the events while the record is locked.
+     */
+    void schedule()
+    {
+        try{
+            executor.execute(this::drain);
+        }catch(RejectedExecutionException e)
+        {
+            synchronized(this){ scheduled=false; }//the pending events are delivered with the next change
+        }
+    }
+
+    /**
+     * It delivers the pending events until there are not more of them
+     */
+    private void drain()
+    {
+        boolean completed=false;
+        try{
+            while(true)
+            {
+                ArrayList<RootChangeEvent> batch;
+                synchronized(this)
+                {
+                    if(pending.isEmpty() || cancelled)
+                    {
+                        scheduled=false;
+                        completed=true;
+                        return;
+                    }
+                    batch=new ArrayList<>(pending.values());
+                    pending.clear();
+                }
+
+                for(RootChangeEvent event:batch)
+                {
+                    if(cancelled) break;
+                    try{
+                        listener.onRootChange(event);
+                        synchronized(this){ delivered++; }
+                    }catch(RuntimeException e)
+                    {
+                        synchronized(this){ failures++; }
+                    }
+                }
+            }
+        }finally{
+            //An Error raised by the listener must not leave the subscription without delivery
+            if(!completed) synchronized(this){ scheduled=false; }
+        }
+    }
+
+    /**
+     * It stops the delivery of the events. The events pending are discarded.
+     */
+    public synchronized void cancel()
+    {
+        cancelled=true;
+        pending.clear();
+    }
+
+    /**
+     * @return TRUE when the subscription has been cancelled
+     */
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /**
+     * @return The number of measurement adapters with a pending event
+     */
+    public synchronized int getPendingCount()
+    {
+        return pending.size();
+    }
+
+    /**
+     * @return The number of events delivered to the listener
+     */
+    public synchronized long getDeliveredCount()
+    {
+        return delivered;
+    }
+
+    /**
+     * @return The number of events replaced by a later event of the same measurement adapter before being delivered
+     */
+    public synchronized long getCoalescedCount()
+    {
+        return coalesced;
+    }
+
+    /**
+     * @return The number of events discarded because the pending map was full
+     */
+    public synchronized long getDroppedCount()
+    {
+        return dropped;
+    }
+
+    /**
+     * @return The number of events whose listener raised an exception
+     */
+    public synchronized long getFailureCount()
+    {
+        return failures;
+    }
+
+    /**
+     * @return the observed project ID (null for all the projects)
+     */
+    public String getProjectID() {
+        return projectID;
+    }
+
+    /**
+     * @return the observed measurement adapter ID (null for all the measurement adapters)
+     */
+    public String getMaID() {
+        return maID;
+    }
+
+    /**
+     * @return the max number of measurement adapters with a pending event
+     */
+    public int getMaxPending() {
+        return maxPending;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return "RootSubscription{project="+projectID+", ma="+maID+", pending="+pending.size()+", delivered="+delivered+
+                ", coalesced="+coalesced+", dropped="+dropped+", failures="+failures+(cancelled?", cancelled":"")+"}";
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+/**
+ * It keeps a bounded ring with the most recent versions of a tree: for each version, its root and the hashes
+ * of the firsts and lasts 2^l transactions (1 &lt;= l &lt; levels). It lets the verifications be contrasted with
+ * the state that a measurement adapter saw when it computed its hashes, although other transactions have been pushed since then.
+ * The nodes are kept as packed digests in a single array allocated with the ring, so recording a version copies
+ * 2*levels-1 digests without creating Strings; the hexadecimal hashes are only built when a verification asks for them.
+ * It is not thread-safe; it is guarded by the monitor of its integrity record.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+class RootVersions {
+    private static final int DIGEST_LENGTH=BDTree.DIGEST_LENGTH;
+
+    private final int levels;
+    /**
+     * The nodes kept by version: the root, the firsts 2^l transactions and the lasts 2^l transactions
+     */
+    private final int width;
+    private final long versions[];
+    /**
+     * The packed digests of the nodes by slot (DIGEST_LENGTH bytes by node)
+     */
+    private final byte digests[];
+    /**
+     * The number of bytes kept for each node: 0 when the node has no hash, -1 when its hash is kept in texts
+     */
+    private final byte lengths[];
+    /**
+     * The hashes that are not hexadecimal digests (e.g. a leaf copied by a node with only one child).
+     * It is created when the first one is recorded.
+     */
+    private String texts[];
+    /**
+     * The slot of the newest version
+     */
+    private int head;
+    private int size;
+
+    /**
+     * It creates an empty ring
+     * @param capacity The number of versions to be kept (upper than 0, see fits)
+     * @param levels The levels of the tree
+     */
+    RootVersions(int capacity,int levels)
+    {
+        this.levels=levels;
+        width=Math.max(2*levels-1,1);
+        versions=new long[capacity];
+        digests=new byte[capacity*width*DIGEST_LENGTH];
+        lengths=new byte[capacity*width];
+        head=-1;
+        size=0;
+    }
+
+    /**
+     * @param capacity The number of versions to be kept
+     * @param levels The levels of the tree
+     * @return TRUE when the packed digests of the ring fit in an array, FALSE otherwise
+     */
+    static boolean fits(int capacity,int levels)
+    {
+        return capacity>0 && (long)capacity*Math.max(2*levels-1,1)*DIGEST_LENGTH<=Integer.MAX_VALUE-8;
+    }
+
+    /**
+     * It keeps the current state of the tree as its current version (given by its push count).
+     * When the newest kept version is the same one (e.g. after repairing the tree), it is replaced.
+     * @param tree The tree
+     */
+    void record(IntegrityTree tree)
+    {
+        long version=tree.getPushCount();
+        if(size==0 || versions[head]!=version)
+        {
+            head=(head+1)%versions.length;
+            if(size<versions.length) size++;
+        }
+
+        versions[head]=version;
+        int base=head*width;
+        copy(tree,base,levels,false);
+        for(int l=1;l<levels;l++)
+        {
+            copy(tree,base+l,l,false);
+            copy(tree,base+levels-1+l,l,true);
+        }
+    }
+
+    /**
+     * It copies the digest of the node covering the first or the last 2^qlevels transactions of the tree
+     * @param tree The tree
+     * @param node The position of the node in the ring
+     * @param qlevels The levels of the subtree
+     * @param last TRUE for the last transactions, FALSE for the first ones
+     */
+    private void copy(IntegrityTree tree,int node,int qlevels,boolean last)
+    {
+        int length=tree.copySubtreeDigest(qlevels, last, digests, node*DIGEST_LENGTH);
+        lengths[node]=(byte)length;
+        if(length>=0)
+        {
+            if(texts!=null) texts[node]=null;
+            return;
+        }
+
+        if(texts==null) texts=new String[lengths.length];
+        texts[node]=last?tree.getHashForLastNTransactions(qlevels):tree.getHashForFirstNTransactions(qlevels);
+    }
+
+    /**
+     * It finds the slot of the indicated version
+     * @param version The version
+     * @return The slot, -1 when the version is not kept
+     */
+    private int slotOf(long version)
+    {
+        if(size==0) return -1;
+
+        long back=versions[head]-version;
+        if(back<0) return -1;
+        if(back<size)
+        {
+            int slot=(int)((head-back+versions.length)%versions.length);
+            if(versions[slot]==version) return slot;
+        }
+
+        //The versions are not consecutive (e.g. several transactions incorporated at once)
+        for(int i=0;i<size;i++)
+        {
+            int slot=(head-i+versions.length)%versions.length;
+            if(versions[slot]==version) return slot;
+        }
+
+        return -1;
+    }
+
+    /**
+     * It returns the hash kept for the version
+     * @param version The version
+     * @param type VerificationRequest.TYPE_WHOLE, TYPE_FIRSTS or TYPE_LASTS
+     * @param qlevels The levels of the firsts or lasts transactions (it is ignored for TYPE_WHOLE)
+     * @return The kept hash, null when the version is not kept or the hash is not defined
+     */
+    String getHash(long version,short type,int qlevels)
+    {
+        int slot=slotOf(version);
+        if(slot<0) return null;
+        if(type==VerificationRequest.TYPE_WHOLE || qlevels==levels) return hashOf(slot*width);
+        if(qlevels<1 || qlevels>levels) return null;
+
+        switch(type)
+        {
+            case VerificationRequest.TYPE_FIRSTS:
+                return hashOf(slot*width+qlevels);
+            case VerificationRequest.TYPE_LASTS:
+                return hashOf(slot*width+levels-1+qlevels);
+        }
+
+        return null;
+    }
+
+    /**
+     * @param node The position of the node in the ring
+     * @return The hexadecimal hash of the node, null when it has no hash
+     */
+    private String hashOf(int node)
+    {
+        if(lengths[node]<0) return texts[node];
+
+        return (lengths[node]==0)?null:BDTree.toHexString(digests, node*DIGEST_LENGTH, lengths[node]);
+    }
+
+    /**
+     * @return The newest kept version, -1 when the ring is empty
+     */
+    long getNewestVersion()
+    {
+        return (size==0)?-1:versions[head];
+    }
+
+    /**
+     * @return The oldest kept version, -1 when the ring is empty
+     */
+    long getOldestVersion()
+    {
+        return (size==0)?-1:versions[(head-size+1+versions.length)%versions.length];
+    }
+
+    /**
+     * @return The number of versions that the ring can keep
+     */
+    int getCapacity()
+    {
+        return versions.length;
+    }
+
+    /**
+     * @return The number of kept versions
+     */
+    int size()
+    {
+        return size;
+    }
+}
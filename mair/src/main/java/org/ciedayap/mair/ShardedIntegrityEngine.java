@@ -0,0 +1,460 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * It is an execution engine in which the measurement adapters are partitioned among N shards
+ * by hashing the project and measurement adapter IDs. Each shard owns its integrity records, and
+ * they are only mutated by the shard's writer thread, which consumes the transactions from a bounded
+ * blocking queue (the producers wait while it is full). Thus, the records and their monitors are never shared among
+ * writers. The queue is a lock-based LinkedBlockingQueue instead of a lock-free multi-producer single-consumer queue:
+ * the JDK does not offer a bounded lock-free one, and its two locks keep the producers and the writer apart.
+ * After applying each transaction, the shard publishes the new root, version and hashes of the firsts and lasts
+ * 2^l transactions of the measurement adapter, so the root and subtree verifications are served from the published
+ * state without touching the records. The verification of a single transaction is the exception: publishing every
+ * leaf would copy the whole window by transaction, so it reads the record under its monitor.
+ * The JVM does not offer thread affinity, so the writer threads are not pinned to cores. Using a number
+ * of shards equal or lower than the available cores keeps each writer on its own core in practice.
+ * The project and global roots are computed per shard, so they are not exposed by the engine.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class ShardedIntegrityEngine {
+    /**
+     * It is the task that stops a writer thread once the engine has been shut down
+     */
+    private static final Task STOP=new Task(null,null,(short)0,null,null);
+
+    private final Shard shards[];
+    private volatile boolean running;
+    /**
+     * The number of producers that are enqueuing a task. The shutdown waits for them before stopping the writers.
+     */
+    private final AtomicInteger enqueuing=new AtomicInteger(0);
+
+    /**
+     * It creates and starts the engine
+     * @param plevels It defines the number of transactions to be managed by each MA Integrity Record  (i.e. 2^plevels)
+     * @param nOfMA It defines the default value for the number of measurement adapters per project
+     * @param nShards The number of shards (each one with its own writer thread)
+     * @param queueCapacity The max number of pending transactions by shard. When it is reached, the producers wait.
+     * @throws BDTreeException It is raised when the number of levels is lower than 1
+     * @throws IntegrityRecordException It is raised when the number of measurement adapters, shards or the capacity is lower than 1
+     */
+    public ShardedIntegrityEngine(int plevels,int nOfMA,int nShards,int queueCapacity) throws BDTreeException, IntegrityRecordException
+    {
+        if(nShards<1) throw new IntegrityRecordException("The number of shards should be upper or equal than 1");
+        if(queueCapacity<1) throw new IntegrityRecordException("The queue capacity should be upper or equal than 1");
+
+        running=true;
+        shards=new Shard[nShards];
+        for(int i=0;i<nShards;i++) shards[i]=new Shard(i,new GlobalIntegrityRecord(plevels,nOfMA),queueCapacity);
+        for(Shard shard:shards) shard.writer.start();
+    }
+
+    /**
+     * It creates and starts the engine using one shard per available processor
+     * @param plevels It defines the number of transactions to be managed by each MA Integrity Record  (i.e. 2^plevels)
+     * @param nOfMA It defines the default value for the number of measurement adapters per project
+     * @throws BDTreeException It is raised when the number of levels is lower than 1
+     * @throws IntegrityRecordException It is raised when the number of measurement adapters is lower than 1
+     */
+    public ShardedIntegrityEngine(int plevels,int nOfMA) throws BDTreeException, IntegrityRecordException
+    {
+        this(plevels,nOfMA,Runtime.getRuntime().availableProcessors(),65536);
+    }
+
+    /**
+     * It returns the shard that owns the indicated measurement adapter
+     * @param projectID The project ID
+     * @param maID The measurement adapter ID
+     * @return The shard number
+     */
+    public int shardOf(String projectID,String maID)
+    {
+        int h=31*projectID.hashCode()+maID.hashCode();
+        h^=(h>>>16);
+
+        return Math.floorMod(h, shards.length);
+    }
+
+    /**
+     * It enqueues a new transaction in the shard owning the measurement adapter. The caller only waits
+     * when the shard queue is full.
+     * @param projectID The project ID
+     * @param maID The measurement adapter ID
+     * @param currentRole The current role related to the measurement adapter
+     * @param hashMD5 The hash associated with the transaction to be stored
+     * @return A future completed with TRUE when the transaction has been stored, FALSE otherwise.
+     * It is completed exceptionally when the record raises an exception.
+     * @throws IntegrityRecordException It is raised when the engine has been shut down (or while it is being shut down),
+     * or when the caller is interrupted while it waits for room in the queue
+     */
+    public CompletableFuture<Boolean> submit(String projectID,String maID,short currentRole,String hashMD5) throws IntegrityRecordException
+    {
+        CompletableFuture<Boolean> ret=new CompletableFuture<>();
+        if(projectID==null || projectID.trim().length()==0 || maID==null || maID.trim().length()==0)
+        {
+            ret.complete(false);
+            return ret;
+        }
+
+        enqueue(shards[shardOf(projectID,maID)],new Task(projectID,maID,currentRole,hashMD5,ret));
+
+        return ret;
+    }
+
+    /**
+     * It enqueues the task in the shard, waiting while the shard queue is full. The task is rejected once the
+     * shutdown has started, so every accepted task is applied (or its future completed) before the writer stops.
+     * @param shard The shard
+     * @param task The task
+     * @throws IntegrityRecordException It is raised when the engine has been shut down or the caller is interrupted
+     */
+    private void enqueue(Shard shard,Task task) throws IntegrityRecordException
+    {
+        enqueuing.incrementAndGet();
+        try{
+            if(!running) throw new IntegrityRecordException("The engine has been shut down");
+            shard.queue.put(task);
+        }catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IntegrityRecordException("The transaction has not been enqueued: the thread has been interrupted");
+        }finally{
+            enqueuing.decrementAndGet();
+        }
+    }
+
+    /**
+     * It waits until all the transactions submitted before this call have been applied
+     * @throws IntegrityRecordException It is raised when the engine has been shut down
+     * @throws InterruptedException It is raised when the waiting thread is interrupted
+     */
+    public void flush() throws IntegrityRecordException, InterruptedException
+    {
+        @SuppressWarnings({"unchecked","rawtypes"})
+        CompletableFuture<Boolean> barriers[]=new CompletableFuture[shards.length];
+        for(int i=0;i<shards.length;i++)
+        {
+            barriers[i]=new CompletableFuture<>();
+            enqueue(shards[i],new Task(null,null,(short)0,null,barriers[i]));
+        }
+
+        try {
+            CompletableFuture.allOf(barriers).get();
+        } catch (ExecutionException ex) {
+            throw new IntegrityRecordException("The flush has failed: "+ex.getMessage());
+        }
+    }
+
+    /**
+     * It verifies the root hash using the state published by the owner shard
+     * @param projectID The project ID related to the measurement adapter
+     * @param maID It indicates the measurement adapter in which the verification should be made
+     * @param comeMD5 The hash to be contrasted with the root hash
+     * @return TRUE when the hashes match between them, FALSE otherwise
+     */
+    public Boolean hasWholeIntegrity(String projectID,String maID,String comeMD5)
+    {
+        if(comeMD5==null || comeMD5.trim().length()==0) return false;
+
+        PublishedRoot published=getPublishedRoot(projectID,maID);
+        if(published==null || published.getRootHash()==null) return false;
+
+        return published.getRootHash().equalsIgnoreCase(comeMD5);
+    }
+
+    /**
+     * It returns the last root published for the measurement adapter
+     * @param projectID The project ID related to the measurement adapter
+     * @param maID The measurement adapter ID
+     * @return The published root and version, null when the measurement adapter is unknown
+     */
+    public PublishedRoot getPublishedRoot(String projectID,String maID)
+    {
+        if(projectID==null || maID==null) return null;
+
+        ConcurrentHashMap<String,PublishedRoot> byMA=shards[shardOf(projectID,maID)].published.get(projectID);
+
+        return (byMA==null)?null:byMA.get(maID);
+    }
+
+    /**
+     * It verifies the hash of the firsts 2^levels transactions using the state published by the owner shard
+     * @param projectID The project ID associated with the measurement adapter
+     * @param maID It indicates the measurement adapter in which the verification should be made
+     * @param hashMD5 The hash associated with the firsts 2^levels transactions
+     * @param levels The number of levels related to the transactions to be contrasted
+     * @return TRUE when the hashes match between them, FALSE otherwise
+     */
+    public Boolean verifyIntegrityFirsts(String projectID,String maID,String hashMD5,int levels)
+    {
+        if(hashMD5==null || hashMD5.trim().length()==0) return false;
+
+        PublishedRoot published=getPublishedRoot(projectID,maID);
+        String firsts=(published==null)?null:published.getHashForFirstNTransactions(levels);
+
+        return firsts!=null && firsts.equalsIgnoreCase(hashMD5);
+    }
+
+    /**
+     * It verifies the hash of the lasts 2^levels transactions using the state published by the owner shard
+     * @param projectID The project ID associated with the measurement adapter
+     * @param maID It indicates the measurement adapter in which the verification should be made
+     * @param hashMD5 The hash associated with the lasts 2^levels transactions
+     * @param levels The number of levels related to the transactions to be contrasted
+     * @return TRUE when the hashes match between them, FALSE otherwise
+     */
+    public Boolean verifyIntegrityLasts(String projectID,String maID,String hashMD5,int levels)
+    {
+        if(hashMD5==null || hashMD5.trim().length()==0) return false;
+
+        PublishedRoot published=getPublishedRoot(projectID,maID);
+        String lasts=(published==null)?null:published.getHashForLastNTransactions(levels);
+
+        return lasts!=null && lasts.equalsIgnoreCase(hashMD5);
+    }
+
+    /**
+     * It verify the hash for a given transaction locking only the measurement adapter record.
+     * Unlike the other verifications, it reads the record owned by the shard (the leaves are not published),
+     * so it may wait while the writer applies a transaction to the same measurement adapter.
+     * @param projectID The project ID associated with the measurement adapter
+     * @param maID It indicates the measurement adapter in which the verification should be made
+     * @param hashMD5 The hash to be verified
+     * @param offset The offset of the transaction for whom the hash is associated
+     * @return TRUE when the hashes match, false otherwise
+     */
+    public Boolean verifyTransactionIntegrity(String projectID,String maID,String hashMD5,int offset)
+    {
+        MAIntegrityRecord record=getRecord(projectID,maID);
+
+        return (record==null)?false:record.verifyTransactionIntegrity(hashMD5, offset);
+    }
+
+    private MAIntegrityRecord getRecord(String projectID,String maID)
+    {
+        if(projectID==null || maID==null) return null;
+
+        return shards[shardOf(projectID,maID)].records.getRecord(projectID, maID);
+    }
+
+    /**
+     * @return The number of shards
+     */
+    public int getShardCount()
+    {
+        return shards.length;
+    }
+
+    /**
+     * @param shard The shard number
+     * @return The number of pending transactions in the shard queue, -1 when the shard does not exist
+     */
+    public int getQueueDepth(int shard)
+    {
+        if(shard<0 || shard>=shards.length) return -1;
+
+        return shards[shard].queue.size();
+    }
+
+    /**
+     * @param shard The shard number
+     * @return The number of transactions applied by the shard, -1 when the shard does not exist
+     */
+    public long getAppliedCount(int shard)
+    {
+        if(shard<0 || shard>=shards.length) return -1;
+
+        return shards[shard].applied.get();
+    }
+
+    /**
+     * It stops accepting transactions, waits for the pending ones and stops the writer threads.
+     * The transactions submitted from now on are rejected with an IntegrityRecordException.
+     * @throws InterruptedException It is raised when the waiting thread is interrupted
+     */
+    public void shutdown() throws InterruptedException
+    {
+        synchronized(this)
+        {
+            if(!running)
+            {
+                for(Shard shard:shards) shard.writer.join();
+                return;
+            }
+            running=false;
+        }
+        //The producers which passed the verification of running are finishing their enqueuing
+        while(enqueuing.get()>0) TimeUnit.MILLISECONDS.sleep(1);
+        for(Shard shard:shards) shard.queue.put(STOP);
+        for(Shard shard:shards) shard.writer.join();
+    }
+
+    /**
+     * @return TRUE when the engine accepts transactions, FALSE otherwise
+     */
+    public boolean isRunning()
+    {
+        return running;
+    }
+
+    /**
+     * It is the root, version and hashes of the firsts and lasts 2^l transactions published by a shard for a measurement adapter.
+     * The subtree hashes are kept as a single-version RootVersions, so publishing them copies 2*levels-1 digests.
+     */
+    public static class PublishedRoot {
+        private final String rootHash;
+        private final long version;
+        private final RootVersions subtrees;
+
+        PublishedRoot(String rootHash,long version,RootVersions subtrees)
+        {
+            this.rootHash=rootHash;
+            this.version=version;
+            this.subtrees=subtrees;
+        }
+
+        /**
+         * @return the root hash
+         */
+        public String getRootHash() {
+            return rootHash;
+        }
+
+        /**
+         * @return the number of transactions incorporated into the measurement adapter record
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * @param levels The number of levels related to the transactions (1 &lt;= levels &lt;= the levels of the tree)
+         * @return the hash of the firsts 2^levels transactions, null when it is not defined
+         */
+        public String getHashForFirstNTransactions(int levels) {
+            return (subtrees==null)?null:subtrees.getHash(version, VerificationRequest.TYPE_FIRSTS, levels);
+        }
+
+        /**
+         * @param levels The number of levels related to the transactions (1 &lt;= levels &lt;= the levels of the tree)
+         * @return the hash of the lasts 2^levels transactions, null when it is not defined
+         */
+        public String getHashForLastNTransactions(int levels) {
+            return (subtrees==null)?null:subtrees.getHash(version, VerificationRequest.TYPE_LASTS, levels);
+        }
+    }
+
+    private static class Task {
+        private final String projectID;
+        private final String maID;
+        private final short role;
+        private final String hashMD5;
+        private final CompletableFuture<Boolean> result;
+
+        Task(String projectID,String maID,short role,String hashMD5,CompletableFuture<Boolean> result)
+        {
+            this.projectID=projectID;
+            this.maID=maID;
+            this.role=role;
+            this.hashMD5=hashMD5;
+            this.result=result;
+        }
+    }
+
+    private class Shard implements Runnable {
+        private final GlobalIntegrityRecord records;
+        private final LinkedBlockingQueue<Task> queue;
+        private final AtomicLong applied;
+        private final ConcurrentHashMap<String,ConcurrentHashMap<String,PublishedRoot>> published;
+        private final Thread writer;
+
+        Shard(int id,GlobalIntegrityRecord records,int capacity)
+        {
+            this.records=records;
+            queue=new LinkedBlockingQueue<>(capacity);
+            applied=new AtomicLong(0);
+            published=new ConcurrentHashMap<>();
+            writer=new Thread(this,"mair-shard-"+id);
+            writer.setDaemon(true);
+        }
+
+        @Override
+        public void run()
+        {
+            while(true)
+            {
+                Task task;
+                try{
+                    task=queue.take();
+                }catch(InterruptedException e)
+                {
+                    continue;//The writer only stops through the STOP task, so the accepted tasks are always completed
+                }
+                if(task==STOP) return;
+
+                apply(task);
+            }
+        }
+
+        private void apply(Task task)
+        {
+            if(task.projectID==null)
+            {
+                task.result.complete(true);
+                return;
+            }
+
+            try {
+                Boolean ret=records.addTransaction(task.projectID, task.maID, task.role, task.hashMD5);
+                MAIntegrityRecord record=records.getRecord(task.projectID, task.maID);
+                if(record!=null)
+                {
+                    ConcurrentHashMap<String,PublishedRoot> byMA=published.get(task.projectID);
+                    if(byMA==null)
+                    {
+                        byMA=new ConcurrentHashMap<>();
+                        published.put(task.projectID, byMA);
+                    }
+                    byMA.put(task.maID, publish(record));
+                }
+
+                applied.incrementAndGet();
+                task.result.complete(ret);
+            } catch (Exception ex) {
+                task.result.completeExceptionally(ex);
+            }
+        }
+
+        /**
+         * It takes a snapshot of the root and subtree hashes of the record. The writer is the only thread
+         * mutating the record, so the snapshot is consistent.
+         * @param record The measurement adapter record
+         * @return The state to be published
+         */
+        private PublishedRoot publish(MAIntegrityRecord record)
+        {
+            IntegrityTree window=record.getWindow();
+            if(window==null) return new PublishedRoot(record.getRootHash(),record.getVersion(),null);
+
+            RootVersions subtrees=new RootVersions(1,window.getLevels());
+            subtrees.record(window);
+
+            return new PublishedRoot(record.getRootHash(),window.getPushCount(),subtrees);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * It keeps the epoch used for taking consistent cuts of the measurement adapter roots while the transactions
+ * are incorporated. Each change of a record (a transaction, a new record or a removal) happens inside the shared
+ * side of a read-write lock, while a new epoch is opened inside the exclusive side, so each change is either
+ * before or after the cut. Once the cut is opened, the first change of each record created before the cut
+ * keeps its previous root in the cut (copy on write), and the sweep keeps the current root of the untouched records.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+class SnapshotClock {
+    /**
+     * It represents a null root in the concurrent maps
+     */
+    private static final String NO_ROOT="";
+
+    private final ReentrantReadWriteLock lock;
+    private volatile long epoch;
+    private volatile Cut active;
+
+    SnapshotClock()
+    {
+        lock=new ReentrantReadWriteLock();
+        epoch=0;
+    }
+
+    /**
+     * It must be called before changing a record (or creating and removing records). It could be nested.
+     */
+    void enter()
+    {
+        lock.readLock().lock();
+    }
+
+    /**
+     * It must be called once the change has finished
+     */
+    void exit()
+    {
+        lock.readLock().unlock();
+    }
+
+    /**
+     * @return The current epoch (the records and projects created in it are not part of the open cut)
+     */
+    long getEpoch()
+    {
+        return epoch;
+    }
+
+    /**
+     * It opens a new epoch and the cut related to it
+     * @return The open cut
+     * @throws IntegrityRecordException It is raised when there is another open cut
+     */
+    Cut begin() throws IntegrityRecordException
+    {
+        lock.writeLock().lock();
+        try{
+            if(active!=null) throw new IntegrityRecordException("There is a snapshot in progress");
+
+            epoch++;
+            active=new Cut(epoch);
+
+            return active;
+        }finally{
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * It closes the indicated cut
+     * @param cut The cut to be closed
+     */
+    void end(Cut cut)
+    {
+        lock.writeLock().lock();
+        try{
+            if(active==cut) active=null;
+        }finally{
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * It keeps the current root of the record in the open cut when the record belongs to the cut and it has not been kept yet.
+     * It must be called holding the record's monitor, before changing or removing the record.
+     * @param projectID The project ID
+     * @param maID The measurement adapter ID
+     * @param record The integrity record
+     */
+    void preserve(String projectID,String maID,MAIntegrityRecord record)
+    {
+        Cut cut=active;
+        if(cut==null) return;
+        if(record.getCreatedEpoch()>=cut.epoch || record.getSnapshotEpoch()>=cut.epoch) return;
+
+        cut.keep(projectID,maID,record.getRootHash());
+        record.setSnapshotEpoch(cut.epoch);
+    }
+
+    /**
+     * It keeps the roots of the measurement adapters as of the start of an epoch
+     */
+    static class Cut {
+        private final long epoch;
+        private final ConcurrentHashMap<String,ConcurrentHashMap<String,String>> roots;
+
+        Cut(long epoch)
+        {
+            this.epoch=epoch;
+            roots=new ConcurrentHashMap<>();
+        }
+
+        long getEpoch()
+        {
+            return epoch;
+        }
+
+        /**
+         * It incorporates a project existing at the start of the epoch
+         * @param projectID The project ID
+         */
+        void addProject(String projectID)
+        {
+            roots.computeIfAbsent(projectID, k -> new ConcurrentHashMap<>());
+        }
+
+        private void keep(String projectID,String maID,String root)
+        {
+            String key=(projectID==null)?NO_ROOT:projectID;
+            roots.computeIfAbsent(key, k -> new ConcurrentHashMap<>()).put(maID, (root==null)?NO_ROOT:root);
+        }
+
+        /**
+         * @return A sorted copy of the kept roots by project and measurement adapter (a null value indicates a null root)
+         */
+        TreeMap<String,TreeMap<String,String>> getRoots()
+        {
+            TreeMap<String,TreeMap<String,String>> ret=new TreeMap<>();
+            for(Map.Entry<String,ConcurrentHashMap<String,String>> prj:roots.entrySet())
+            {
+                TreeMap<String,String> mas=new TreeMap<>();
+                for(Map.Entry<String,String> ma:prj.getValue().entrySet())
+                    mas.put(ma.getKey(), NO_ROOT.equals(ma.getValue())?null:ma.getValue());
+                ret.put(prj.getKey(), mas);
+            }
+
+            return ret;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * It ships the replication log to a follower listening on a TCP socket (see ReplicationFollower.listen).
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class SocketReplicationTransport implements ReplicationTransport {
+    private final Socket socket;
+    private final DataOutputStream out;
+
+    /**
+     * It connects to the follower
+     * @param host The follower host
+     * @param port The follower port
+     * @throws IOException It is raised when the connection cannot be established
+     */
+    public SocketReplicationTransport(String host,int port) throws IOException
+    {
+        socket=new Socket(host,port);
+        socket.setTcpNoDelay(true);
+        out=new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    @Override
+    public synchronized void send(ReplicationEntry entry) throws IOException
+    {
+        entry.writeTo(out);
+        out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        socket.close();
+    }
+}
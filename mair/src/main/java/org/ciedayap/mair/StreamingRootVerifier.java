@@ -0,0 +1,238 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * It reconstructs the root of a BDTree from its leaves in a streaming way. The leaves are
+ * received from the oldest to the newest, and only a stack of partial subtree hashes (one per level)
+ * is kept in memory. The rules used for combining the hashes are the same than the ones used in
+ * the BDTree (i.e. MD5 of "left.right", or the propagation of the present hash when its brother is null).
+ * The roots of the compact trees with truncated digests are reconstructed indicating the same digest length.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class StreamingRootVerifier {
+    /**
+     * It represents a null leaf in the textual streams (the same symbol used by TreeNode.toString)
+     */
+    public static final String NULL_LEAF="-";
+
+    private final MessageDigest md5;
+    private final int levels;
+    private final long expectedLeaves;
+    /**
+     * The pending subtree hash at each height (0 is the leaves' height)
+     */
+    private final String pending[];
+    /**
+     * It indicates whether there is a pending subtree at each height (its hash could be null)
+     */
+    private final boolean occupied[];
+    private long received;
+    /**
+     * The number of hexadecimal characters kept for the intermediary nodes (0 when they are not truncated)
+     */
+    private final int innerHex;
+    /**
+     * The number of hexadecimal characters kept for the leaves (0 when they are not truncated)
+     */
+    private final int leafHex;
+
+    /**
+     * It creates a streaming verifier for a tree with the indicated levels
+     * @param levels The number of levels of the tree (without the root)
+     * @throws BDTreeException It is raised when the levels are lower than 1
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    public StreamingRootVerifier(int levels) throws BDTreeException, NoSuchAlgorithmException
+    {
+        this(levels,0,false);
+    }
+
+    /**
+     * It creates a streaming verifier for a compact tree with truncated digests (see BDTree(Integer,int,boolean))
+     * @param levels The number of levels of the tree (without the root)
+     * @param digestLength The number of bytes kept for each intermediary node (0 or 16 when they are not truncated)
+     * @param truncateLeaves TRUE when the leaves are truncated too, FALSE otherwise
+     * @throws BDTreeException It is raised when the levels are lower than 1 or the digest length is not supported
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    public StreamingRootVerifier(int levels,int digestLength,boolean truncateLeaves) throws BDTreeException, NoSuchAlgorithmException
+    {
+        if(digestLength!=0 && digestLength!=8 && digestLength!=12 && digestLength!=BDTree.DIGEST_LENGTH)
+            throw new BDTreeException("The digest length must be 8, 12 or 16 bytes");
+        innerHex=(digestLength==0 || digestLength==BDTree.DIGEST_LENGTH)?0:2*digestLength;
+        leafHex=truncateLeaves?innerHex:0;
+
+        if(levels<1) throw new BDTreeException("The levels must be equal or upper than 1");
+        if(levels>62) throw new BDTreeException("The number of leaves cannot be represented");
+
+        md5=MessageDigest.getInstance("MD5");
+        this.levels=levels;
+        expectedLeaves=1L<<levels;
+        pending=new String[levels+1];
+        occupied=new boolean[levels+1];
+        received=0;
+    }
+
+    /**
+     * It incorporates the next leaf (from the oldest to the newest)
+     * @param hash The hash of the leaf (it could be null)
+     * @throws BDTreeException It is raised when all the leaves have been already received
+     */
+    public void add(String hash) throws BDTreeException
+    {
+        if(received>=expectedLeaves) throw new BDTreeException("All the leaves have been already received");
+
+        String current=(innerHex==0)?hash:truncate(hash,(leafHex==0)?Integer.MAX_VALUE:leafHex);
+        int height=0;
+        while(occupied[height])
+        {
+            current=truncate(BDTree.combineHashes(md5, pending[height], current),innerHex);
+            pending[height]=null;
+            occupied[height]=false;
+            height++;
+        }
+
+        pending[height]=current;
+        occupied[height]=true;
+        received++;
+    }
+
+    /**
+     * It keeps the indicated number of hexadecimal characters of a hash (in lower case), like the compact trees do
+     */
+    private static String truncate(String hash,int hexLength)
+    {
+        if(hash==null || hexLength==0) return hash;
+
+        String lower=hash.toLowerCase(Locale.ROOT);
+
+        return (lower.length()>hexLength)?lower.substring(0, hexLength):lower;
+    }
+
+    /**
+     * @return TRUE when all the leaves have been received, FALSE otherwise
+     */
+    public boolean isComplete()
+    {
+        return received==expectedLeaves;
+    }
+
+    /**
+     * @return The number of received leaves
+     */
+    public long getReceived()
+    {
+        return received;
+    }
+
+    /**
+     * It returns the reconstructed root
+     * @return The root hash (it could be null when all the leaves were null)
+     * @throws BDTreeException It is raised when there are missing leaves
+     */
+    public String getRootHash() throws BDTreeException
+    {
+        if(!isComplete()) throw new BDTreeException("There are "+(expectedLeaves-received)+" missing leaves");
+
+        return pending[levels];
+    }
+
+    /**
+     * It contrasts the reconstructed root with the indicated one
+     * @param rootHash The expected root hash
+     * @return TRUE when all the leaves have been received and the roots match, FALSE otherwise
+     */
+    public boolean verify(String rootHash)
+    {
+        if(rootHash==null || !isComplete()) return false;
+
+        String computed=pending[levels];
+
+        return computed!=null && computed.equalsIgnoreCase(rootHash);
+    }
+
+    /**
+     * It verifies a sequence of leaves provided by an iterator against the indicated root
+     * @param levels The number of levels of the tree (without the root)
+     * @param leaves The leaves from the oldest to the newest
+     * @param rootHash The expected root hash
+     * @return TRUE when the exact number of leaves is received and the roots match, FALSE otherwise
+     * @throws BDTreeException It is raised when the levels are lower than 1
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    public static boolean verify(int levels,Iterator<String> leaves,String rootHash) throws BDTreeException, NoSuchAlgorithmException
+    {
+        if(leaves==null) return false;
+
+        StreamingRootVerifier verifier=new StreamingRootVerifier(levels);
+        while(leaves.hasNext())
+        {
+            if(verifier.isComplete()) return false;
+            verifier.add(leaves.next());
+        }
+
+        return verifier.verify(rootHash);
+    }
+
+    /**
+     * It verifies a sequence of leaves provided by a stream against the indicated root.
+     * Each line contains a leaf, while NULL_LEAF or an empty line represent a null leaf.
+     * @param levels The number of levels of the tree (without the root)
+     * @param in The stream with the leaves from the oldest to the newest
+     * @param rootHash The expected root hash
+     * @return TRUE when the exact number of leaves is received and the roots match, FALSE otherwise
+     * @throws BDTreeException It is raised when the levels are lower than 1
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     * @throws IOException It is raised when the stream cannot be read
+     */
+    public static boolean verify(int levels,InputStream in,String rootHash) throws BDTreeException, NoSuchAlgorithmException, IOException
+    {
+        if(in==null) return false;
+
+        StreamingRootVerifier verifier=new StreamingRootVerifier(levels);
+        BufferedReader reader=new BufferedReader(new InputStreamReader(in));
+        String line;
+        while((line=reader.readLine())!=null)
+        {
+            if(verifier.isComplete()) return false;
+            verifier.add((line.length()==0 || NULL_LEAF.equals(line))?null:line);
+        }
+
+        return verifier.verify(rootHash);
+    }
+
+    /**
+     * It verifies a sequence of leaves provided by a channel against the indicated root.
+     * The channel follows the same format than the stream (a leaf per line).
+     * @param levels The number of levels of the tree (without the root)
+     * @param channel The channel with the leaves from the oldest to the newest
+     * @param rootHash The expected root hash
+     * @return TRUE when the exact number of leaves is received and the roots match, FALSE otherwise
+     * @throws BDTreeException It is raised when the levels are lower than 1
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     * @throws IOException It is raised when the channel cannot be read
+     */
+    public static boolean verify(int levels,ReadableByteChannel channel,String rootHash) throws BDTreeException, NoSuchAlgorithmException, IOException
+    {
+        if(channel==null) return false;
+
+        return verify(levels,Channels.newInputStream(channel),rootHash);
+    }
+}
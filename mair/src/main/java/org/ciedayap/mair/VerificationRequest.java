@@ -0,0 +1,171 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+/**
+ * It represents an individual verification to be evaluated in bulk against the
+ * integrity records. Each request identifies the project, the measurement adapter,
+ * the kind of verification and the hash to be contrasted.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class VerificationRequest {
+    public static final short TYPE_WHOLE=0;
+    public static final short TYPE_FIRSTS=1;
+    public static final short TYPE_LASTS=2;
+    public static final short TYPE_TRANSACTION=3;
+
+    private final String projectID;
+    private final String maID;
+    private final short type;
+    private final String hashMD5;
+    /**
+     * It contains the levels (TYPE_FIRSTS and TYPE_LASTS) or the offset (TYPE_TRANSACTION).
+     * It is ignored for TYPE_WHOLE.
+     */
+    private final int value;
+
+    /**
+     * It creates a new verification request
+     * @param projectID The project ID related to the measurement adapter
+     * @param maID The measurement adapter ID
+     * @param type The kind of verification (TYPE_WHOLE, TYPE_FIRSTS, TYPE_LASTS or TYPE_TRANSACTION)
+     * @param hashMD5 The hash to be contrasted
+     * @param value The levels for TYPE_FIRSTS/TYPE_LASTS, the offset for TYPE_TRANSACTION. It is ignored for TYPE_WHOLE
+     * @throws IntegrityRecordException It is raised when the type of verification is not defined
+     */
+    public VerificationRequest(String projectID,String maID,short type,String hashMD5,int value) throws IntegrityRecordException
+    {
+        if(!isValidType(type)) throw new IntegrityRecordException("The indicated type of verification is not defined");
+
+        this.projectID=projectID;
+        this.maID=maID;
+        this.type=type;
+        this.hashMD5=hashMD5;
+        this.value=value;
+    }
+
+    /**
+     * A factory method for verifying the root hash
+     * @param projectID The project ID related to the measurement adapter
+     * @param maID The measurement adapter ID
+     * @param comeMD5 The hash to be contrasted with the root hash
+     * @return A new verification request
+     * @throws IntegrityRecordException It is raised when the request cannot be created
+     */
+    public static VerificationRequest whole(String projectID,String maID,String comeMD5) throws IntegrityRecordException
+    {
+        return new VerificationRequest(projectID,maID,TYPE_WHOLE,comeMD5,0);
+    }
+
+    /**
+     * A factory method for verifying the firsts 2^levels transactions
+     * @param projectID The project ID related to the measurement adapter
+     * @param maID The measurement adapter ID
+     * @param hashMD5 The hash associated with the firsts 2^levels transactions
+     * @param levels The number of levels related to the transactions to be contrasted
+     * @return A new verification request
+     * @throws IntegrityRecordException It is raised when the request cannot be created
+     */
+    public static VerificationRequest firsts(String projectID,String maID,String hashMD5,int levels) throws IntegrityRecordException
+    {
+        return new VerificationRequest(projectID,maID,TYPE_FIRSTS,hashMD5,levels);
+    }
+
+    /**
+     * A factory method for verifying the lasts 2^levels transactions
+     * @param projectID The project ID related to the measurement adapter
+     * @param maID The measurement adapter ID
+     * @param hashMD5 The hash associated with the lasts 2^levels transactions
+     * @param levels The number of levels related to the transactions to be contrasted
+     * @return A new verification request
+     * @throws IntegrityRecordException It is raised when the request cannot be created
+     */
+    public static VerificationRequest lasts(String projectID,String maID,String hashMD5,int levels) throws IntegrityRecordException
+    {
+        return new VerificationRequest(projectID,maID,TYPE_LASTS,hashMD5,levels);
+    }
+
+    /**
+     * A factory method for verifying an individual transaction
+     * @param projectID The project ID related to the measurement adapter
+     * @param maID The measurement adapter ID
+     * @param hashMD5 The hash to be verified
+     * @param offset The offset of the transaction for whom the hash is associated
+     * @return A new verification request
+     * @throws IntegrityRecordException It is raised when the request cannot be created
+     */
+    public static VerificationRequest transaction(String projectID,String maID,String hashMD5,int offset) throws IntegrityRecordException
+    {
+        return new VerificationRequest(projectID,maID,TYPE_TRANSACTION,hashMD5,offset);
+    }
+
+    /**
+     * It indicates whether the type of verification is valid or not
+     * @param type The type to be verified
+     * @return TRUE when the type is valid, FALSE otherwise.
+     */
+    public static boolean isValidType(short type)
+    {
+       switch(type)
+       {
+           case VerificationRequest.TYPE_WHOLE:
+           case VerificationRequest.TYPE_FIRSTS:
+           case VerificationRequest.TYPE_LASTS:
+           case VerificationRequest.TYPE_TRANSACTION:
+               return true;
+       }
+
+       return false;
+    }
+
+    /**
+     * @return the projectID
+     */
+    public String getProjectID() {
+        return projectID;
+    }
+
+    /**
+     * @return the maID
+     */
+    public String getMaID() {
+        return maID;
+    }
+
+    /**
+     * @return the type
+     */
+    public short getType() {
+        return type;
+    }
+
+    /**
+     * @return the hashMD5
+     */
+    public String getHashMD5() {
+        return hashMD5;
+    }
+
+    /**
+     * @return the levels or the offset depending on the type of verification
+     */
+    public int getValue() {
+        return value;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder sb=new StringBuilder();
+        sb.append("Project: ").append(projectID).append(" MA: ").append(maID)
+                .append(" Type: ").append(type).append(" Value: ").append(value)
+                .append(" Hash: ").append((hashMD5==null)?"-":hashMD5);
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * It is an append-only archive of the roots related to the windows that slid out of a BDTree.
+ * Each entry keeps the window sequence number, the root of the window and the chain hash, computed
+ * as MD5("previousChain.root") (the first chain hash is the root itself). Thus, any change in an
+ * archived root breaks the chain from such an entry onwards.
+ * The roots and chain hashes are kept as 16-byte binary digests. When a root is not an
+ * hexadecimal MD5 (i.e. the window contained atypical leaves), its MD5 is archived instead.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public abstract class WindowArchive {
+    /**
+     * The size in bytes of each digest
+     */
+    public static final int DIGEST_LENGTH=16;
+
+    private MessageDigest md5;
+    private byte lastChain[];
+
+    /**
+     * It stores a new entry at the end of the archive
+     * @param seq The window sequence number
+     * @param root The root digest
+     * @param chain The chain digest
+     * @throws IOException It is raised when the entry cannot be stored
+     */
+    protected abstract void write(long seq,byte root[],byte chain[]) throws IOException;
+
+    /**
+     * It returns the window sequence number of the entry located at the indicated position
+     * @param idx The position of the entry (starting from 0)
+     * @return The window sequence number
+     * @throws IOException It is raised when the entry cannot be read
+     */
+    protected abstract long sequenceAt(long idx) throws IOException;
+
+    /**
+     * It reads the digests of the entry located at the indicated position
+     * @param idx The position of the entry (starting from 0)
+     * @param root The buffer in which the root digest will be copied
+     * @param chain The buffer in which the chain digest will be copied
+     * @throws IOException It is raised when the entry cannot be read
+     */
+    protected abstract void read(long idx,byte root[],byte chain[]) throws IOException;
+
+    /**
+     * @return The number of archived windows
+     */
+    public abstract long size();
+
+    /**
+     * It incorporates the root of a window at the end of the archive
+     * @param seq The window sequence number. It must be upper than the last archived one
+     * @param rootHash The root of the window
+     * @return TRUE when the window has been archived, FALSE otherwise
+     * @throws IOException It is raised when the entry cannot be stored
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    public synchronized boolean append(long seq,String rootHash) throws IOException, NoSuchAlgorithmException
+    {
+        if(rootHash==null || rootHash.trim().length()==0) return false;
+        long n=size();
+        if(n>0 && seq<=sequenceAt(n-1)) return false;
+
+        if(md5==null) md5=MessageDigest.getInstance("MD5");
+        if(lastChain==null && n>0)
+        {
+            lastChain=new byte[DIGEST_LENGTH];
+            read(n-1,new byte[DIGEST_LENGTH],lastChain);
+        }
+
+        byte root[]=toDigest(rootHash);
+
+        byte chain[]=(lastChain==null)?root:BDTree.fromHexString(
+                BDTree.combineHashes(md5, BDTree.toHexString(lastChain), BDTree.toHexString(root)));
+
+        write(seq,root,chain);
+        lastChain=chain;
+
+        return true;
+    }
+
+    /**
+     * It returns the position of the window sequence number using a binary search
+     * @param seq The window sequence number
+     * @return The position of the entry, -1 when it is not archived
+     * @throws IOException It is raised when the archive cannot be read
+     */
+    protected long indexOf(long seq) throws IOException
+    {
+        long lo=0;
+        long hi=size()-1;
+        while(lo<=hi)
+        {
+            long mid=(lo+hi)>>>1;
+            long cur=sequenceAt(mid);
+            if(cur==seq) return mid;
+            if(cur<seq) lo=mid+1;
+            else hi=mid-1;
+        }
+
+        return -1;
+    }
+
+    /**
+     * It returns the archived root for the indicated window
+     * @param seq The window sequence number
+     * @return The root as an hexadecimal String, null when the window is not archived
+     * @throws IOException It is raised when the archive cannot be read
+     */
+    public synchronized String getRootHash(long seq) throws IOException
+    {
+        long idx=indexOf(seq);
+        if(idx<0) return null;
+
+        byte root[]=new byte[DIGEST_LENGTH];
+        read(idx,root,new byte[DIGEST_LENGTH]);
+
+        return BDTree.toHexString(root);
+    }
+
+    /**
+     * It verifies the archived root of a window. The indicated root is converted like append does,
+     * so the roots which are not MD5 digests (e.g. truncated roots) are verified too.
+     * @param seq The window sequence number
+     * @param rootHash The root hash to be contrasted
+     * @return TRUE when the window is archived and the roots match, FALSE otherwise
+     * @throws IOException It is raised when the archive cannot be read
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    public synchronized boolean matchesRoot(long seq,String rootHash) throws IOException, NoSuchAlgorithmException
+    {
+        if(rootHash==null || rootHash.trim().length()==0) return false;
+        long idx=indexOf(seq);
+        if(idx<0) return false;
+
+        byte root[]=new byte[DIGEST_LENGTH];
+        read(idx,root,new byte[DIGEST_LENGTH]);
+        if(md5==null) md5=MessageDigest.getInstance("MD5");
+
+        return Arrays.equals(root, toDigest(rootHash));
+    }
+
+    /**
+     * It converts a root hash to the digest to be archived: the MD5 digests are kept as they are,
+     * while any other hash is archived as the MD5 of its text
+     */
+    private byte[] toDigest(String rootHash)
+    {
+        byte root[]=BDTree.fromHexString(rootHash);
+        if(root==null || root.length!=DIGEST_LENGTH) root=md5.digest(rootHash.getBytes());
+
+        return root;
+    }
+
+    /**
+     * It returns the chain hash for the indicated window
+     * @param seq The window sequence number
+     * @return The chain hash as an hexadecimal String, null when the window is not archived
+     * @throws IOException It is raised when the archive cannot be read
+     */
+    public synchronized String getChainHash(long seq) throws IOException
+    {
+        long idx=indexOf(seq);
+        if(idx<0) return null;
+
+        byte chain[]=new byte[DIGEST_LENGTH];
+        read(idx,new byte[DIGEST_LENGTH],chain);
+
+        return BDTree.toHexString(chain);
+    }
+
+    /**
+     * @return The chain hash related to the last archived window, null when the archive is empty
+     * @throws IOException It is raised when the archive cannot be read
+     */
+    public synchronized String getLastChainHash() throws IOException
+    {
+        long n=size();
+        if(n==0) return null;
+
+        return getChainHash(sequenceAt(n-1));
+    }
+
+    /**
+     * @return The first archived window sequence number, -1 when the archive is empty
+     * @throws IOException It is raised when the archive cannot be read
+     */
+    public synchronized long getFirstSequence() throws IOException
+    {
+        return (size()==0)?-1:sequenceAt(0);
+    }
+
+    /**
+     * @return The last archived window sequence number, -1 when the archive is empty
+     * @throws IOException It is raised when the archive cannot be read
+     */
+    public synchronized long getLastSequence() throws IOException
+    {
+        long n=size();
+
+        return (n==0)?-1:sequenceAt(n-1);
+    }
+
+    /**
+     * It recomputes the whole chain and contrasts it with the stored chain hashes
+     * @return TRUE when the chain is consistent, FALSE otherwise
+     * @throws IOException It is raised when the archive cannot be read
+     * @throws NoSuchAlgorithmException It is raised when the MD5 algorithm is not available
+     */
+    public synchronized boolean verifyChain() throws IOException, NoSuchAlgorithmException
+    {
+        if(md5==null) md5=MessageDigest.getInstance("MD5");
+
+        byte root[]=new byte[DIGEST_LENGTH];
+        byte chain[]=new byte[DIGEST_LENGTH];
+        String previous=null;
+        long lastSeq=Long.MIN_VALUE;
+        long n=size();
+        for(long i=0;i<n;i++)
+        {
+            long seq=sequenceAt(i);
+            if(seq<=lastSeq) return false;
+            lastSeq=seq;
+
+            read(i,root,chain);
+            String expected=BDTree.combineHashes(md5, previous, BDTree.toHexString(root));
+            String stored=BDTree.toHexString(chain);
+            if(!stored.equalsIgnoreCase(expected)) return false;
+
+            previous=stored;
+        }
+
+        return true;
+    }
+}
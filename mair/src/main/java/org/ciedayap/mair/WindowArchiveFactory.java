@@ -0,0 +1,25 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.io.IOException;
+
+/**
+ * It creates the window archive for each new measurement adapter integrity record.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public interface WindowArchiveFactory {
+    /**
+     * It creates the archive for the indicated measurement adapter
+     * @param projectID The project ID (it could be null when the project record is used standalone)
+     * @param maID The measurement adapter ID
+     * @return The archive to be used, null when the measurement adapter should not be archived
+     * @throws IOException It is raised when the archive cannot be created
+     */
+    WindowArchive create(String projectID,String maID) throws IOException;
+}
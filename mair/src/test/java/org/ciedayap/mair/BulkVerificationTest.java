@@ -0,0 +1,156 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * It verifies the bulk verification of the global integrity record
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class BulkVerificationTest {
+    private static final short ROLE=MAIntegrityRecord.ROLE_DATA_COLLECTOR;
+    private static final String MISMATCH="The hash does not match";
+
+    private static GlobalIntegrityRecord populate() throws Exception
+    {
+        GlobalIntegrityRecord ret=new GlobalIntegrityRecord(3,4);
+        for(int i=0;i<60;i++) assertTrue(ret.addTransaction("p"+(i%2), "ma"+(i%3), ROLE, TestHashes.md5(i)));
+
+        return ret;
+    }
+
+    @Test
+    public void testMixedRequestsAcrossProjects() throws Exception
+    {
+        GlobalIntegrityRecord global=populate();
+        List<VerificationRequest> requests=new ArrayList<>();
+        List<Boolean> expected=new ArrayList<>();
+        for(int p=0;p<2;p++)
+        {
+            for(int m=0;m<3;m++)
+            {
+                MAIntegrityRecord record=global.getRecord("p"+p, "ma"+m);
+                BDTree tree=record.getTree();
+                requests.add(VerificationRequest.whole("p"+p, "ma"+m, record.getRootHash()));
+                expected.add(true);
+                requests.add(VerificationRequest.whole("p"+p, "ma"+m, TestHashes.md5("x"+p+m)));
+                expected.add(false);
+                requests.add(VerificationRequest.firsts("p"+p, "ma"+m, tree.getHashForFirstNTransactions(2), 2));
+                expected.add(true);
+                requests.add(VerificationRequest.lasts("p"+p, "ma"+m, tree.getHashForLastNTransactions(1), 1));
+                expected.add(true);
+                requests.add(VerificationRequest.lasts("p"+p, "ma"+m, tree.getHashForFirstNTransactions(1), 1));
+                expected.add(false);
+                requests.add(VerificationRequest.transaction("p"+p, "ma"+m, tree.getOffsetHash(8), 8));
+                expected.add(true);
+                requests.add(VerificationRequest.transaction("p"+p, "ma"+m, tree.getOffsetHash(8), 7));
+                expected.add(false);
+            }
+        }
+
+        BulkVerificationResult result=global.verifyBulk(requests);
+        assertEquals(requests.size(), result.size());
+        int verified=0;
+        for(int i=0;i<requests.size();i++)
+        {
+            boolean ok=expected.get(i);
+            assertEquals("Request "+i, ok, result.isVerified(i));
+            if(ok) verified++;
+            else assertEquals(MISMATCH, result.getFailureReason(i));
+        }
+        assertEquals(verified, result.getVerifiedCount());
+        assertEquals(requests.size()-verified, result.getFailureCount());
+        assertFalse(result.allVerified());
+    }
+
+    @Test
+    public void testBitmapFollowsTheOrderOfTheRequests() throws Exception
+    {
+        GlobalIntegrityRecord global=populate();
+        String root0=global.getRecord("p0", "ma0").getRootHash();
+        String root1=global.getRecord("p1", "ma1").getRootHash();
+        List<VerificationRequest> requests=new ArrayList<>();
+        //The requests of the same measurement adapter are interleaved with the others
+        requests.add(VerificationRequest.whole("p1", "ma1", root0));
+        requests.add(VerificationRequest.whole("p0", "ma0", root0));
+        requests.add(VerificationRequest.whole("p1", "ma1", root1));
+        requests.add(VerificationRequest.whole("p0", "ma0", root1));
+        requests.add(VerificationRequest.whole("p0", "ma0", root0));
+
+        BulkVerificationResult result=global.verifyBulk(requests);
+        BitSet bitmap=result.getVerifiedBitmap();
+        BitSet expected=new BitSet();
+        expected.set(1);
+        expected.set(2);
+        expected.set(4);
+        assertEquals(expected, bitmap);
+
+        //The bitmap is a copy
+        bitmap.set(0);
+        assertFalse(result.isVerified(0));
+        assertFalse(result.isVerified(-1));
+        assertFalse(result.isVerified(5));
+        assertNull(result.getFailureReason(1));
+    }
+
+    @Test
+    public void testFailureDetails() throws Exception
+    {
+        GlobalIntegrityRecord global=populate();
+        String root=global.getRecord("p0", "ma0").getRootHash();
+        List<VerificationRequest> requests=new ArrayList<>();
+        requests.add(VerificationRequest.whole("p0", "ma0", root));
+        requests.add(VerificationRequest.whole("unknown", "ma0", root));
+        requests.add(VerificationRequest.whole("p0", "unknown", root));
+        requests.add(null);
+        requests.add(VerificationRequest.whole("", "ma0", root));
+        requests.add(VerificationRequest.whole("p0", null, root));
+        requests.add(VerificationRequest.whole("p0", "ma0", " "));
+        requests.add(VerificationRequest.firsts("p0", "ma0", root, 0));
+        requests.add(VerificationRequest.whole("unknown", "other", root));
+
+        BulkVerificationResult result=global.verifyBulk(requests);
+        assertEquals(9, result.size());
+        assertEquals(1, result.getVerifiedCount());
+        Map<Integer,String> failures=result.getFailures();
+        assertEquals(8, failures.size());
+        assertEquals("Project not found", failures.get(1));
+        assertEquals("Measurement adapter not found", failures.get(2));
+        assertEquals("Undefined request", failures.get(3));
+        assertEquals("Undefined project ID", failures.get(4));
+        assertEquals("Undefined measurement adapter ID", failures.get(5));
+        assertEquals("Undefined hash", failures.get(6));
+        assertEquals("The levels or offset must be upper or equal to 1", failures.get(7));
+        assertEquals("Project not found", failures.get(8));
+
+        //The failures are ordered by position
+        int previous=-1;
+        for(int idx:failures.keySet())
+        {
+            assertTrue(idx>previous);
+            previous=idx;
+        }
+    }
+
+    @Test
+    public void testEmptyAndUndefinedCollections() throws Exception
+    {
+        GlobalIntegrityRecord global=populate();
+
+        assertEquals(0, global.verifyBulk(null).size());
+        BulkVerificationResult empty=global.verifyBulk(new ArrayList<>());
+        assertEquals(0, empty.size());
+        assertTrue(empty.allVerified());
+    }
+}
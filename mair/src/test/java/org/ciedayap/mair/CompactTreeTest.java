@@ -0,0 +1,87 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * It verifies the compact storage with truncated digests
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class CompactTreeTest {
+    private static final int LEVELS=4;
+
+    @Test
+    public void testFullDigestsMatchTheDefaultTree() throws Exception
+    {
+        BDTree plain=BDTree.create(LEVELS);
+        BDTree compact=new BDTree(LEVELS,BDTree.DIGEST_LENGTH,false);
+        for(int i=0;i<40;i++)
+        {
+            plain.push(TestHashes.md5(i));
+            compact.push(TestHashes.md5(i));
+            assertEquals(plain.getRootHash(), compact.getRootHash());
+        }
+        assertTrue(compact.isCompact());
+        for(int offset=1;offset<=16;offset++) assertEquals(plain.getOffsetHash(offset), compact.getOffsetHash(offset));
+    }
+
+    @Test
+    public void testTruncatedDigests() throws Exception
+    {
+        for(int length:new int[]{8,12})
+        {
+            BDTree leaves=new BDTree(LEVELS,length,false);
+            BDTree truncated=new BDTree(LEVELS,length,true);
+            for(int i=0;i<20;i++)
+            {
+                leaves.push(TestHashes.md5(i));
+                truncated.push(TestHashes.md5(i));
+            }
+
+            assertEquals(2*length, leaves.getRootHash().length());
+            assertEquals(2*length, truncated.getRootHash().length());
+            //The leaves keep the whole digest unless they are truncated
+            assertEquals(TestHashes.md5(19), leaves.getOffsetHash(16));
+            assertEquals(TestHashes.md5(19).substring(0, 2*length), truncated.getOffsetHash(16));
+        }
+    }
+
+    @Test
+    public void testSameHashAcceptsTheWholeDigest() throws Exception
+    {
+        BDTree tree=new BDTree(LEVELS,8,true);
+        tree.push(TestHashes.md5("a"));
+        String stored=tree.getOffsetHash(16);
+
+        assertTrue(tree.isSameHash(stored, TestHashes.md5("a")));
+        assertTrue(tree.isSameHash(stored, TestHashes.md5("a").toUpperCase()));
+        assertFalse(tree.isSameHash(stored, TestHashes.md5("b")));
+        assertFalse(BDTree.create(LEVELS).isSameHash(stored, TestHashes.md5("a")));
+    }
+
+    @Test
+    public void testMARecordVerification() throws Exception
+    {
+        short role=MAIntegrityRecord.ROLE_DATA_COLLECTOR;
+        MAIntegrityRecord record=new MAIntegrityRecord(LEVELS,role,8,true);
+        for(int i=0;i<16;i++) record.addTransaction(role, TestHashes.md5(i));
+
+        assertTrue(record.verifyTransactionIntegrity(TestHashes.md5(15), 16));
+        assertFalse(record.verifyTransactionIntegrity(TestHashes.md5(14), 16));
+        assertTrue(record.hasWholeIntegrity(record.getRootHash()));
+        assertEquals(16, record.findTransaction(TestHashes.md5(15)));
+    }
+
+    @Test(expected=BDTreeException.class)
+    public void testUnsupportedDigestLength() throws Exception
+    {
+        new BDTree(LEVELS,10,false);
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * It verifies the consistent global snapshots and their manifests
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class GlobalSnapshotTest {
+    private static final short ROLE=MAIntegrityRecord.ROLE_DATA_COLLECTOR;
+    private static final int TRANSACTIONS=3000;
+
+    private static String project(int i)
+    {
+        return "p"+(i%5);
+    }
+
+    private static String ma(int i)
+    {
+        return "ma"+(i%13);
+    }
+
+    @Test
+    public void testSnapshotOfAQuiescentRecord() throws Exception
+    {
+        GlobalIntegrityRecord record=new GlobalIntegrityRecord(3,4);
+        for(int i=0;i<200;i++) record.addTransaction(project(i), ma(i), ROLE, TestHashes.md5(i));
+
+        GlobalSnapshot snapshot=record.takeSnapshot();
+        assertEquals(record.getGlobalRootHash(), snapshot.getGlobalRootHash());
+        assertEquals(5, snapshot.getProjectIDs().size());
+        for(String prj:snapshot.getProjectIDs())
+        {
+            assertEquals(record.getProjectRootHash(prj), snapshot.getProjectRootHash(prj));
+            for(String ma:snapshot.getMAs(prj)) assertEquals(record.getRecord(prj, ma).getRootHash(), snapshot.getRootHash(prj, ma));
+        }
+
+        //The later changes do not modify the snapshot
+        record.addTransaction("p0", "ma0", ROLE, TestHashes.md5("later"));
+        record.addTransaction("new", "ma", ROLE, TestHashes.md5("later"));
+        assertNotEquals(record.getGlobalRootHash(), snapshot.getGlobalRootHash());
+        assertNull(snapshot.getProjectRootHash("new"));
+    }
+
+    @Test
+    public void testSnapshotDuringIngestionIsAPrefixOfTheHistory() throws Exception
+    {
+        final GlobalIntegrityRecord record=new GlobalIntegrityRecord(3,4);
+        for(int i=0;i<100;i++) record.addTransaction(project(i), ma(i), ROLE, TestHashes.md5(i));
+
+        final AtomicReference<Exception> failure=new AtomicReference<>();
+        Thread writer=new Thread(() -> {
+            try{
+                for(int i=100;i<TRANSACTIONS;i++) record.addTransaction(project(i), ma(i), ROLE, TestHashes.md5(i));
+            }catch(Exception e)
+            {
+                failure.set(e);
+            }
+        });
+        writer.start();
+        Thread.sleep(5);
+        GlobalSnapshot snapshot=record.takeSnapshot();
+        writer.join();
+        assertNull(failure.get());
+
+        //The cut corresponds with the state after some prefix of the single writer's history
+        GlobalIntegrityRecord replay=new GlobalIntegrityRecord(3,4);
+        HashSet<String> prefixes=new HashSet<>();
+        for(int i=0;i<TRANSACTIONS;i++)
+        {
+            replay.addTransaction(project(i), ma(i), ROLE, TestHashes.md5(i));
+            if(i>=99) prefixes.add(replay.getGlobalRootHash());
+        }
+        assertTrue(prefixes.contains(snapshot.getGlobalRootHash()));
+    }
+
+    @Test
+    public void testManifestRoundTrip() throws Exception
+    {
+        GlobalIntegrityRecord record=new GlobalIntegrityRecord(3,4);
+        for(int i=0;i<100;i++) record.addTransaction(project(i), ma(i), ROLE, TestHashes.md5(i));
+        GlobalSnapshot snapshot=record.takeSnapshot();
+
+        ByteArrayOutputStream out=new ByteArrayOutputStream();
+        snapshot.write(out);
+        GlobalSnapshot read=GlobalSnapshot.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(snapshot.getEpoch(), read.getEpoch());
+        assertEquals(snapshot.getGlobalRootHash(), read.getGlobalRootHash());
+        assertEquals(snapshot.size(), read.size());
+
+        //A tampered root of a measurement adapter is detected
+        byte bytes[]=out.toByteArray();
+        bytes[bytes.length-1]^=1;
+        try{
+            GlobalSnapshot.read(new ByteArrayInputStream(bytes));
+            fail("The manifest has been tampered");
+        }catch(IOException e)
+        {
+            //Expected
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * It verifies that importing a history leaves the same state than replaying it through addTransaction
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class HistoryImporterTest {
+    private static final short ROLE=MAIntegrityRecord.ROLE_DATA_COLLECTOR;
+    private static final int LEVELS=3;
+    private static final int RETAINED=3;
+    private static final int PROJECTS=2;
+    private static final int MAS=5;
+
+    /**
+     * It is a row of the history
+     */
+    private static class Row {
+        final String projectID;
+        final String maID;
+        final short role;
+        final String hash;
+        final long timestamp;
+
+        Row(String projectID,String maID,short role,String hash,long timestamp)
+        {
+            this.projectID=projectID;
+            this.maID=maID;
+            this.role=role;
+            this.hash=hash;
+            this.timestamp=timestamp;
+        }
+    }
+
+    /**
+     * It is the state of a measurement adapter as of one version
+     */
+    private static class State {
+        final long version;
+        final String root;
+        final String firsts;
+        final String lasts;
+
+        State(MAIntegrityRecord record)
+        {
+            IntegrityTree window=record.getWindow();
+            version=record.getVersion();
+            root=window.getRootHash();
+            firsts=window.getHashForFirstNTransactions(1);
+            lasts=window.getHashForLastNTransactions(2);
+        }
+    }
+
+    /**
+     * It creates a history with invalid rows, blocked measurement adapters (some of them created blocked),
+     * timestamps older than the last one of their measurement adapter and rows without timestamp
+     */
+    private static List<Row> history(long seed,int count)
+    {
+        Random random=new Random(seed);
+        List<Row> ret=new ArrayList<>();
+        long clock=1000;
+        for(int i=0;i<count;i++)
+        {
+            String prj="p"+random.nextInt(PROJECTS);
+            String ma="ma"+random.nextInt(MAS);
+            short role=(random.nextInt(60)==0)?MAIntegrityRecord.ROLE_BLOCKED:ROLE;
+            String hash=(random.nextInt(50)==0)?"":TestHashes.md5(seed+":"+i);
+            long timestamp;
+            switch(random.nextInt(10))
+            {
+                case 0:
+                    timestamp=BDTree.NO_TIMESTAMP;
+                    break;
+                case 1:
+                    timestamp=clock-random.nextInt(40);
+                    break;
+                default:
+                    clock+=random.nextInt(5);
+                    timestamp=clock;
+            }
+            ret.add(new Row(prj,ma,role,hash,timestamp));
+        }
+        ret.add(new Row("p0","blockedFromStart",MAIntegrityRecord.ROLE_BLOCKED,TestHashes.md5(seed),BDTree.NO_TIMESTAMP));
+        ret.add(new Row("p0","blockedFromStart",ROLE,TestHashes.md5(seed+1),BDTree.NO_TIMESTAMP));
+
+        return ret;
+    }
+
+    private static GlobalIntegrityRecord target(boolean compact,int arity) throws Exception
+    {
+        GlobalIntegrityRecord ret=new GlobalIntegrityRecord(LEVELS,4);
+        ret.setRetainedVersions(RETAINED);
+        ret.setArchiveFactory((projectID,maID) -> new MemoryWindowArchive());
+        if(compact) ret.setDigestStorage(12, false);
+        ret.setArity(arity);
+
+        return ret;
+    }
+
+    private static String key(String projectID,String maID)
+    {
+        return projectID+"/"+maID;
+    }
+
+    private void assertEquivalent(long seed,boolean compact,int arity) throws Exception
+    {
+        List<Row> rows=history(seed,1500);
+        GlobalIntegrityRecord replayed=target(compact,arity);
+        GlobalIntegrityRecord imported=target(compact,arity);
+        HistoryImporter importer=new HistoryImporter(imported,3);
+        Map<String,List<State>> states=new HashMap<>();
+        long rejected=0;
+        for(Row row:rows)
+        {
+            Boolean stored=replayed.addTransaction(row.projectID, row.maID, row.role, row.hash, row.timestamp);
+            if(!stored && !row.hash.isEmpty()) rejected++;
+            assertEquals(stored, importer.add(row.projectID, row.maID, row.role, row.hash, row.timestamp));
+            MAIntegrityRecord record=replayed.getRecord(row.projectID, row.maID);
+            if(stored) states.computeIfAbsent(key(row.projectID,row.maID), k -> new ArrayList<>()).add(new State(record));
+        }
+        importer.apply();
+
+        long blocked=0,archived=0;
+        for(ProjectIntegrityRecord prj:replayed.getProjects().values())
+        {
+            blocked+=prj.getBlockedRejections();
+            for(MAIntegrityRecord record:prj.getRecords().values()) archived+=record.getArchive().size();
+        }
+        //The history covers the blocked measurement adapters, the old timestamps and the archived windows
+        assertTrue(blocked>0 && rejected>blocked && archived>0);
+
+        assertEquals(replayed.getGlobalRootHash(), imported.getGlobalRootHash());
+        for(Map.Entry<String,ProjectIntegrityRecord> prj:replayed.getProjects().entrySet())
+        {
+            ProjectIntegrityRecord other=imported.getProjects().get(prj.getKey());
+            assertEquals(prj.getValue().getProjectRootHash(), other.getProjectRootHash());
+            assertEquals(prj.getValue().getRecords().keySet(), other.getRecords().keySet());
+            assertEquals(prj.getValue().getBlockedRejections(), other.getBlockedRejections());
+
+            for(Map.Entry<String,MAIntegrityRecord> ma:prj.getValue().getRecords().entrySet())
+            {
+                MAIntegrityRecord expected=ma.getValue();
+                MAIntegrityRecord actual=other.getRecord(ma.getKey());
+                String name=key(prj.getKey(),ma.getKey());
+                assertEquals(name, expected.getRootHash(), actual.getRootHash());
+                assertEquals(name, expected.getVersion(), actual.getVersion());
+                assertEquals(name, expected.getCurrentRole(), actual.getCurrentRole());
+                assertEquals(name, expected.getOldestVerifiableVersion(), actual.getOldestVerifiableVersion());
+
+                assertEquals(name, expected.getArchive().size(), actual.getArchive().size());
+                for(long n=1;n<=expected.getArchive().size();n++)
+                    assertEquals(name, expected.getArchivedRootHash(n), actual.getArchivedRootHash(n));
+                assertEquals(name, expected.getArchive().getLastChainHash(), actual.getArchive().getLastChainHash());
+
+                for(State state:states.getOrDefault(name, new ArrayList<>()))
+                {
+                    boolean retained=state.version>=expected.getOldestVerifiableVersion();
+                    assertEquals(name, retained, actual.hasWholeIntegrity(state.root, state.version));
+                    if(state.firsts!=null) assertEquals(name, retained, actual.verifyIntegrityFirsts(state.firsts, 1, state.version));
+                    if(state.lasts!=null) assertEquals(name, retained, actual.verifyIntegrityLasts(state.lasts, 2, state.version));
+                }
+            }
+        }
+
+        //The imported records keep accepting and rejecting the same transactions (e.g. by their last timestamp)
+        List<Row> tail=history(seed+1,300);
+        for(Row row:tail)
+            assertEquals(replayed.addTransaction(row.projectID, row.maID, row.role, row.hash, row.timestamp),
+                    imported.addTransaction(row.projectID, row.maID, row.role, row.hash, row.timestamp));
+        assertEquals(replayed.getGlobalRootHash(), imported.getGlobalRootHash());
+    }
+
+    @Test
+    public void testImportMatchesTheSequentialReplay() throws Exception
+    {
+        for(long seed=1;seed<=3;seed++) assertEquivalent(seed,false,2);
+    }
+
+    @Test
+    public void testImportMatchesTheSequentialReplayOfCompactTrees() throws Exception
+    {
+        assertEquivalent(7,true,2);
+    }
+
+    @Test
+    public void testImportMatchesTheSequentialReplayOfKaryTrees() throws Exception
+    {
+        assertEquivalent(11,false,4);
+    }
+
+    @Test
+    public void testImportIsAppliedOnce() throws Exception
+    {
+        GlobalIntegrityRecord target=target(false,2);
+        assertTrue(target.addTransaction("p", "existing", ROLE, TestHashes.md5(0)));
+
+        HistoryImporter importer=new HistoryImporter(target);
+        assertTrue(importer.add("p", "ma", ROLE, TestHashes.md5(1), BDTree.NO_TIMESTAMP));
+        assertEquals(1, importer.apply());
+        try{
+            importer.apply();
+            fail("The import can be applied only once");
+        }catch(IntegrityRecordException e)
+        {
+            //Expected
+        }
+
+        HistoryImporter clash=new HistoryImporter(target);
+        clash.add("p", "existing", ROLE, TestHashes.md5(2), BDTree.NO_TIMESTAMP);
+        try{
+            clash.apply();
+            fail("The measurement adapter already exists");
+        }catch(IntegrityRecordException e)
+        {
+            //Expected
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * It verifies the interning of the IDs into dense integers
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class IdRegistryTest {
+
+    @Test
+    public void testDenseIds()
+    {
+        IdRegistry registry=new IdRegistry();
+        //The registry grows beyond its initial capacity
+        for(int i=0;i<100;i++) assertEquals(i, registry.register("id"+i));
+
+        assertEquals(100, registry.size());
+        for(int i=0;i<100;i++)
+        {
+            assertEquals("id"+i, registry.getName(i));
+            assertEquals(i, registry.getId("id"+i));
+        }
+    }
+
+    @Test
+    public void testRegisteringTheSameName()
+    {
+        IdRegistry registry=new IdRegistry();
+        int first=registry.register("ma");
+        assertEquals(first, registry.register("ma"));
+        assertEquals(first+1, registry.register("other"));
+        assertEquals(first, registry.register("ma"));
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    public void testUnknownIdsAndIndexes()
+    {
+        IdRegistry registry=new IdRegistry();
+        registry.register("ma");
+
+        assertEquals(-1, registry.getId("unknown"));
+        assertEquals(-1, registry.getId(null));
+        assertEquals(-1, registry.register(null));
+        assertEquals(-1, registry.register(" "));
+        assertNull(registry.getName(-1));
+        assertNull(registry.getName(1));
+        assertNull(registry.getName(1000));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void testConcurrentRegistration() throws Exception
+    {
+        IdRegistry registry=new IdRegistry();
+        ConcurrentLinkedQueue<Integer> ids=new ConcurrentLinkedQueue<>();
+        List<Thread> threads=new ArrayList<>();
+        for(int t=0;t<4;t++)
+        {
+            Thread thread=new Thread(() -> {
+                for(int i=0;i<500;i++) ids.add(registry.register("id"+i));
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for(Thread thread:threads) thread.join();
+
+        //Each name has only one integer, and the integers are dense
+        assertEquals(500, registry.size());
+        Set<Integer> distinct=new HashSet<>(ids);
+        assertEquals(500, distinct.size());
+        for(int i=0;i<500;i++)
+        {
+            assertTrue(distinct.contains(i));
+            assertEquals(i, registry.getId(registry.getName(i)));
+        }
+    }
+}
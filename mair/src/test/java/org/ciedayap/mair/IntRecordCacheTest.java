@@ -0,0 +1,90 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * It verifies the cache of records by integer ID and the integer-keyed path of the global record
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class IntRecordCacheTest {
+    private static final short ROLE=MAIntegrityRecord.ROLE_DATA_COLLECTOR;
+
+    @Test
+    public void testPutGetAndRemove()
+    {
+        IntRecordCache<String> cache=new IntRecordCache<>();
+        for(int i=0;i<1000;i++) cache.put(3*i, "v"+i);
+
+        for(int i=0;i<1000;i++)
+        {
+            assertEquals("v"+i, cache.get(3*i));
+            assertNull(cache.get(3*i+1));
+        }
+        cache.put(3, "other");
+        assertEquals("other", cache.get(3));
+        cache.removeValue("other");
+        assertNull(cache.get(3));
+        assertNull(cache.get(-1));
+    }
+
+    @Test
+    public void testSizeDependsOnTheCachedRecords()
+    {
+        IntRecordCache<String> cache=new IntRecordCache<>();
+        //A few records whose IDs were registered among millions of other IDs
+        for(int i=0;i<10;i++) cache.put(5_000_000+i*100_000, "v"+i);
+
+        assertTrue(cache.capacity()<=64);
+        for(int i=0;i<10;i++) assertEquals("v"+i, cache.get(5_000_000+i*100_000));
+    }
+
+    @Test
+    public void testRemovedEntriesAreReclaimed()
+    {
+        IntRecordCache<String> cache=new IntRecordCache<>();
+        for(int round=0;round<100;round++)
+        {
+            String value="r"+round;
+            cache.put(round, value);
+            cache.removeValue(value);
+        }
+
+        assertTrue(cache.capacity()<=64);
+        assertNull(cache.get(50));
+    }
+
+    @Test
+    public void testIntegerPathMatchesStringPath() throws Exception
+    {
+        GlobalIntegrityRecord global=new GlobalIntegrityRecord(3,4,4);
+        int p1=global.registerProject("p1");
+        int p2=global.registerProject("p2");
+        int mas[]=new int[20];
+        for(int i=0;i<mas.length;i++) mas[i]=global.registerMA("ma"+i);
+
+        for(int t=0;t<5;t++)
+        {
+            for(int i=0;i<mas.length;i++)
+            {
+                assertTrue(global.addTransaction((i%2==0)?p1:p2, mas[i], ROLE, TestHashes.md5(t+"."+i)));
+            }
+        }
+
+        for(int i=0;i<mas.length;i++)
+        {
+            String project=(i%2==0)?"p1":"p2";
+            MAIntegrityRecord record=global.getRecord(project, "ma"+i);
+            assertTrue(global.hasWholeIntegrity((i%2==0)?p1:p2, mas[i], record.getRootHash()));
+            assertFalse(global.hasWholeIntegrity((i%2==0)?p2:p1, mas[i], record.getRootHash()));
+            assertTrue(global.verifyTransactionIntegrity((i%2==0)?p1:p2, mas[i], TestHashes.md5("4."+i), 8));
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.io.File;
+import java.io.IOException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+/**
+ * It verifies the checkpoint and its parallel restore
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class IntegrityCheckpointTest {
+    private static final short ROLE=MAIntegrityRecord.ROLE_DATA_COLLECTOR;
+
+    @Rule
+    public TemporaryFolder folder=new TemporaryFolder();
+
+    private static GlobalIntegrityRecord populate(GlobalIntegrityRecord record) throws Exception
+    {
+        for(int i=0;i<300;i++) record.addTransaction("p"+(i%4), "ma"+(i%9), ROLE, TestHashes.md5(i));
+
+        return record;
+    }
+
+    private static void assertSameRoots(GlobalIntegrityRecord expected,GlobalIntegrityRecord actual)
+    {
+        assertEquals(expected.getGlobalRootHash(), actual.getGlobalRootHash());
+        for(int p=0;p<4;p++)
+        {
+            assertEquals(expected.getProjectRootHash("p"+p), actual.getProjectRootHash("p"+p));
+            for(int m=0;m<9;m++)
+                assertEquals(expected.getRecord("p"+p, "ma"+m).getRootHash(), actual.getRecord("p"+p, "ma"+m).getRootHash());
+        }
+    }
+
+    @Test
+    public void testRestoreMatchesTheOriginal() throws Exception
+    {
+        GlobalIntegrityRecord original=populate(new GlobalIntegrityRecord(3,4));
+        File dir=folder.newFolder("checkpoint");
+
+        assertEquals(36, IntegrityCheckpoint.write(original, dir, 3));
+        GlobalIntegrityRecord restored=IntegrityCheckpoint.restore(dir, 2);
+
+        assertSameRoots(original, restored);
+
+        //The restored record keeps working
+        original.addTransaction("p1", "ma1", ROLE, TestHashes.md5("next"));
+        restored.addTransaction("p1", "ma1", ROLE, TestHashes.md5("next"));
+        assertSameRoots(original, restored);
+    }
+
+    @Test
+    public void testRestoreCompactLeafIndexedRecord() throws Exception
+    {
+        GlobalIntegrityRecord original=new GlobalIntegrityRecord(3,4);
+        original.setLeafIndexing(true);
+        original.setDigestStorage(8, true);
+        populate(original);
+        File dir=folder.newFolder("compact");
+
+        IntegrityCheckpoint.write(original, dir, 1);
+        GlobalIntegrityRecord restored=IntegrityCheckpoint.restore(dir, 4);
+
+        assertSameRoots(original, restored);
+        assertTrue(restored.isLeafIndexing());
+        assertEquals(8, restored.getDigestLength());
+    }
+
+    @Test
+    public void testRestoreKaryRecords() throws Exception
+    {
+        GlobalIntegrityRecord original=new GlobalIntegrityRecord(2,4);
+        original.setArity(4);
+        populate(original);
+        File dir=folder.newFolder("kary");
+
+        IntegrityCheckpoint.write(original, dir, 2);
+        GlobalIntegrityRecord restored=IntegrityCheckpoint.restore(dir, 2);
+
+        assertSameRoots(original, restored);
+        assertEquals(4, restored.getArity());
+        assertEquals(original.getRecord("p1", "ma1").getVersion(), restored.getRecord("p1", "ma1").getVersion());
+        original.addTransaction("p1", "ma1", ROLE, TestHashes.md5("next"));
+        restored.addTransaction("p1", "ma1", ROLE, TestHashes.md5("next"));
+        assertSameRoots(original, restored);
+    }
+
+    @Test
+    public void testMissingSegmentIsRejected() throws Exception
+    {
+        File dir=folder.newFolder("broken");
+        IntegrityCheckpoint.write(populate(new GlobalIntegrityRecord(3,4)), dir, 2);
+        assertTrue(new File(dir,"segment-00001.bin").delete());
+
+        try{
+            IntegrityCheckpoint.restore(dir, 2);
+            fail("A segment is missing");
+        }catch(IOException e)
+        {
+            //Expected
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * It verifies the flight recorder events emitted by the integrity operations
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class IntegrityEventsTest {
+    private static final short ROLE=MAIntegrityRecord.ROLE_DATA_COLLECTOR;
+    private static final String EVENTS[]={"org.ciedayap.mair.Push","org.ciedayap.mair.Recompute",
+        "org.ciedayap.mair.RecordCreation","org.ciedayap.mair.Verification"};
+
+    private static List<RecordedEvent> of(List<RecordedEvent> events,String name)
+    {
+        List<RecordedEvent> ret=new ArrayList<>();
+        for(RecordedEvent event:events) if(event.getEventType().getName().equals(name)) ret.add(event);
+
+        return ret;
+    }
+
+    @Test
+    public void testEventsAreDisabledWithoutRecording()
+    {
+        assertTrue(IntegrityEvents.AVAILABLE);
+        assertNull(IntegrityEvents.beginPush());
+        assertNull(IntegrityEvents.beginVerification());
+
+        //The end methods ignore the disabled events
+        IntegrityEvents.endPush(null, "p", "ma", 3, 0, 0, true);
+        IntegrityEvents.endVerification(null, "p", "ma", "whole", 1, 3, 0, 0, true);
+    }
+
+    @Test
+    public void testOperationsAreRecorded() throws Exception
+    {
+        Path file=Files.createTempFile("mair", ".jfr");
+        try{
+            try(Recording recording=new Recording())
+            {
+                for(String name:EVENTS) recording.enable(name).withThreshold(Duration.ZERO);
+                recording.start();
+
+                GlobalIntegrityRecord global=new GlobalIntegrityRecord(3,4);
+                for(int i=0;i<3;i++) assertTrue(global.addTransaction("p", "ma", ROLE, TestHashes.md5(i)));
+                assertTrue(global.hasWholeIntegrity("p", "ma", global.getRecord("p", "ma").getRootHash()));
+                assertFalse(global.hasWholeIntegrity("p", "ma", TestHashes.md5("x")));
+
+                String leaves[]=new String[8];
+                for(int i=0;i<leaves.length;i++) leaves[i]=TestHashes.md5(i);
+                assertTrue(BDTree.create(3).setNewHashinLeafs(leaves));
+
+                recording.stop();
+                recording.dump(file);
+            }
+
+            List<RecordedEvent> events=RecordingFile.readAllEvents(file);
+            List<RecordedEvent> creations=of(events,"org.ciedayap.mair.RecordCreation");
+            assertEquals(1, creations.size());
+            assertEquals("ma", creations.get(0).getString("maID"));
+            assertEquals(3, creations.get(0).getInt("levels"));
+
+            List<RecordedEvent> pushes=of(events,"org.ciedayap.mair.Push");
+            assertEquals(3, pushes.size());
+            long hashes=0;
+            for(RecordedEvent push:pushes)
+            {
+                assertEquals("p", push.getString("projectID"));
+                assertTrue(push.getBoolean("stored"));
+                assertEquals(3, push.getInt("levels"));
+                hashes+=push.getLong("hashCount");
+            }
+            //A node with only one child copies its hash
+            assertTrue(hashes>0);
+
+            List<RecordedEvent> verifications=of(events,"org.ciedayap.mair.Verification");
+            assertEquals(2, verifications.size());
+            assertEquals("whole", verifications.get(0).getString("kind"));
+            assertTrue(verifications.get(0).getBoolean("passed"));
+            assertFalse(verifications.get(1).getBoolean("passed"));
+
+            List<RecordedEvent> recomputes=of(events,"org.ciedayap.mair.Recompute");
+            assertEquals(1, recomputes.size());
+            assertEquals(7, recomputes.get(0).getLong("hashCount"));
+        }finally{
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * It verifies the proofs linking the transactions of a measurement adapter with the project and global roots
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class IntegrityProofTest {
+    private static final short ROLE=MAIntegrityRecord.ROLE_DATA_COLLECTOR;
+
+    private static GlobalIntegrityRecord populate() throws Exception
+    {
+        GlobalIntegrityRecord ret=new GlobalIntegrityRecord(3,4);
+        for(int i=0;i<90;i++) assertTrue(ret.addTransaction("p"+(i%3), "ma"+(i%7), ROLE, TestHashes.md5(i)));
+
+        return ret;
+    }
+
+    @Test
+    public void testLeafToGlobalRoundTrip() throws Exception
+    {
+        GlobalIntegrityRecord global=populate();
+        for(int p=0;p<3;p++)
+        {
+            for(int m=0;m<7;m++)
+            {
+                MAIntegrityRecord record=global.getRecord("p"+p, "ma"+m);
+                if(record==null) continue;
+
+                //The leaf is linked with the root of the measurement adapter
+                BDTree tree=record.getTree();
+                MultiProof leaf=global.getMultiProof("p"+p, "ma"+m, new int[]{8});
+                assertTrue(leaf.verify(new String[]{tree.getOffsetHash(8)}));
+
+                //The root of the measurement adapter is linked with the project and global roots
+                IntegrityProof proof=global.getIntegrityProof("p"+p, "ma"+m);
+                assertEquals(leaf.getRootHash(), proof.getMaRootHash());
+                assertEquals(global.getProjectRootHash("p"+p), proof.getProjectRootHash());
+                assertEquals(global.getGlobalRootHash(), proof.getGlobalRootHash());
+                assertTrue(proof.verify());
+            }
+        }
+
+        assertNull(global.getIntegrityProof("p0", "unknown"));
+        assertNull(global.getIntegrityProof("unknown", "ma0"));
+        assertNull(global.getIntegrityProof("p0", null));
+    }
+
+    @Test
+    public void testTamperedProofsAreRejected() throws Exception
+    {
+        GlobalIntegrityRecord global=populate();
+        IntegrityProof proof=global.getIntegrityProof("p1", "ma2");
+        assertTrue(proof.verify());
+
+        String fake=TestHashes.md5("fake");
+        assertFalse(new IntegrityProof("p1","ma2",fake,proof.getMaToProject(),proof.getProjectRootHash(),
+                proof.getProjectToGlobal(),proof.getGlobalRootHash()).verify());
+        assertFalse(new IntegrityProof("p1","ma2",proof.getMaRootHash(),proof.getMaToProject(),fake,
+                proof.getProjectToGlobal(),proof.getGlobalRootHash()).verify());
+        assertFalse(new IntegrityProof("p1","ma2",proof.getMaRootHash(),proof.getMaToProject(),proof.getProjectRootHash(),
+                proof.getProjectToGlobal(),fake).verify());
+
+        List<IntegrityProof.Step> steps=new ArrayList<>(proof.getMaToProject());
+        IntegrityProof.Step first=steps.get(0);
+        steps.set(0, new IntegrityProof.Step(fake,first.isBrotherLeft()));
+        assertFalse(new IntegrityProof("p1","ma2",proof.getMaRootHash(),steps,proof.getProjectRootHash(),
+                proof.getProjectToGlobal(),proof.getGlobalRootHash()).verify());
+
+        //The side of the brother is part of the proof
+        steps=new ArrayList<>(proof.getProjectToGlobal());
+        first=steps.get(0);
+        steps.set(0, new IntegrityProof.Step(first.getBrotherHash(),!first.isBrotherLeft()));
+        assertFalse(new IntegrityProof("p1","ma2",proof.getMaRootHash(),proof.getMaToProject(),proof.getProjectRootHash(),
+                steps,proof.getGlobalRootHash()).verify());
+
+        //A proof obtained before a transaction does not match the new roots
+        assertTrue(global.addTransaction("p1", "ma2", ROLE, TestHashes.md5("next")));
+        assertFalse(new IntegrityProof("p1","ma2",proof.getMaRootHash(),proof.getMaToProject(),proof.getProjectRootHash(),
+                proof.getProjectToGlobal(),global.getGlobalRootHash()).verify());
+    }
+
+    @Test
+    public void testRootsAreRecomputedFromTheMeasurementAdapters() throws Exception
+    {
+        GlobalIntegrityRecord global=populate();
+        //The projects and measurement adapters are ordered by their IDs
+        TreeMap<String,String> projects=new TreeMap<>();
+        for(Map.Entry<String,ProjectIntegrityRecord> prj:global.getProjects().entrySet())
+        {
+            TreeMap<String,String> mas=new TreeMap<>();
+            for(Map.Entry<String,MAIntegrityRecord> ma:prj.getValue().getRecords().entrySet())
+                mas.put(ma.getKey(), ma.getValue().getRootHash());
+
+            String expected=RootMerkleTreeTest.expectedRoot(new ArrayList<>(mas.values()));
+            assertEquals(expected, global.getProjectRootHash(prj.getKey()));
+            projects.put(prj.getKey(), expected);
+        }
+        assertEquals(RootMerkleTreeTest.expectedRoot(new ArrayList<>(projects.values())), global.getGlobalRootHash());
+
+        //The roots follow the removal of a measurement adapter
+        assertTrue(global.removeMA("p0", "ma0"));
+        TreeMap<String,String> mas=new TreeMap<>();
+        for(Map.Entry<String,MAIntegrityRecord> ma:global.getProjects().get("p0").getRecords().entrySet())
+            mas.put(ma.getKey(), ma.getValue().getRootHash());
+        projects.put("p0", RootMerkleTreeTest.expectedRoot(new ArrayList<>(mas.values())));
+        assertEquals(projects.get("p0"), global.getProjectRootHash("p0"));
+        assertEquals(RootMerkleTreeTest.expectedRoot(new ArrayList<>(projects.values())), global.getGlobalRootHash());
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * It verifies the scrubbing of the trees and the repair of the corrupted nodes
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class IntegrityScrubberTest {
+    private static final short ROLE=MAIntegrityRecord.ROLE_DATA_COLLECTOR;
+    private static final int LEVELS=3;
+
+    /**
+     * It replaces the hash of a node as a bit flip would do, without updating the rest of the tree
+     */
+    private static void corrupt(BDTree tree,int id,String hash) throws Exception
+    {
+        synchronized(tree)
+        {
+            //The round trip leaves the hashes in the nodes
+            ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+            tree.writeNodes(new DataOutputStream(bytes));
+            tree.readNodes(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+            Field nodes=BDTree.class.getDeclaredField("tree");
+            nodes.setAccessible(true);
+            ((TreeNode[])nodes.get(tree))[id-1].setHash(hash);
+        }
+    }
+
+    private static BDTree filled(boolean indexed) throws Exception
+    {
+        BDTree tree=BDTree.create(LEVELS);
+        tree.setLeafIndexEnabled(indexed);
+        for(int i=0;i<12;i++) tree.push(TestHashes.md5(i));
+
+        return tree;
+    }
+
+    private static ArrayList<Integer> scrub(BDTree tree,int batch)
+    {
+        ArrayList<Integer> ret=new ArrayList<>();
+        int next=0;
+        do{
+            next=tree.scrub(next, batch, true, ret);
+        }while(next!=0);
+
+        return ret;
+    }
+
+    @Test
+    public void testNodesAreRepairedFromVerifiedChildren() throws Exception
+    {
+        for(int batch:new int[]{1,3,100})
+        {
+            BDTree tree=filled(false);
+            String root=tree.getRootHash();
+            corrupt(tree, 2, TestHashes.md5("x"));
+            corrupt(tree, 1, TestHashes.md5("y"));
+
+            assertEquals(Arrays.asList(2,1), scrub(tree,batch));
+            assertEquals(root, tree.getRootHash());
+            assertTrue(scrub(tree,batch).isEmpty());
+        }
+    }
+
+    @Test
+    public void testCorruptedLeafIsNotLaundered() throws Exception
+    {
+        BDTree tree=filled(true);
+        String root=tree.getRootHash();
+        corrupt(tree, 8, TestHashes.md5("x"));
+
+        //The father of the leaf is reported but not recomputed, so the root keeps reflecting the transactions
+        assertEquals(Arrays.asList(4), scrub(tree,2));
+        assertEquals(root, tree.getRootHash());
+        assertEquals(Arrays.asList(4), scrub(tree,2));
+        assertEquals(root, tree.getRootHash());
+    }
+
+    @Test
+    public void testLastIntermediaryLevelRequiresIndexedLeaves() throws Exception
+    {
+        BDTree indexed=filled(true);
+        String root=indexed.getRootHash();
+        corrupt(indexed, 4, TestHashes.md5("x"));
+        assertEquals(Arrays.asList(4), scrub(indexed,100));
+        assertTrue(scrub(indexed,100).isEmpty());
+        assertEquals(root, indexed.getRootHash());
+
+        //Without the reverse index, the leaves cannot be verified
+        BDTree scanned=filled(false);
+        corrupt(scanned, 4, TestHashes.md5("x"));
+        assertEquals(Arrays.asList(4,2), scrub(scanned,100));
+        assertEquals(Arrays.asList(4,2), scrub(scanned,100));
+        assertEquals(root, scanned.getRootHash());
+    }
+
+    @Test
+    public void testPassReportsAndRepairsTheRoots() throws Exception
+    {
+        GlobalIntegrityRecord global=new GlobalIntegrityRecord(LEVELS,4);
+        for(int i=0;i<20;i++) assertTrue(global.addTransaction("p", "ma"+(i%2), ROLE, TestHashes.md5(i)));
+        String expected=global.getGlobalRootHash();
+        BDTree tree=global.getRecord("p", "ma0").getTree();
+        corrupt(tree, 3, TestHashes.md5("x"));
+        corrupt(tree, 1, TestHashes.md5("y"));
+
+        IntegrityScrubber reporter=new IntegrityScrubber(global,1,2,false,0);
+        assertEquals(2, reporter.scrubPass());
+        assertEquals(2, reporter.scrubPass());
+        assertEquals(Long.valueOf(4), reporter.getMismatches().get("p").get("ma0"));
+        assertEquals(TestHashes.md5("y"), tree.getRootHash());
+
+        IntegrityScrubber repairer=new IntegrityScrubber(global,1,2,true,0);
+        assertEquals(2, repairer.scrubPass());
+        assertEquals(0, repairer.scrubPass());
+        assertEquals(expected, global.getGlobalRootHash());
+        assertTrue(global.hasWholeIntegrity("p", "ma0", tree.getRootHash()));
+    }
+
+    @Test
+    public void testRemovedRecordsAreNotResurrected() throws Exception
+    {
+        GlobalIntegrityRecord global=new GlobalIntegrityRecord(LEVELS,4);
+        for(int i=0;i<8;i++) assertTrue(global.addTransaction("p", "stable", ROLE, TestHashes.md5(i)));
+        IntegrityScrubber scrubber=new IntegrityScrubber(global,1,1,true,0);
+        AtomicReference<Exception> error=new AtomicReference<>();
+
+        Thread remover=new Thread(() -> {
+            try{
+                for(int i=0;i<300;i++)
+                {
+                    String maID="ma"+(i%5);
+                    for(int j=0;j<8;j++) global.addTransaction("p", maID, ROLE, TestHashes.md5(i*8+j));
+                    corrupt(global.getRecord("p", maID).getTree(), 1, TestHashes.md5("x"+i));
+                    global.removeMA("p", maID);
+                }
+            }catch(Exception e)
+            {
+                error.set(e);
+            }
+        });
+        remover.start();
+        while(remover.isAlive()) scrubber.scrubPass();
+        remover.join();
+        assertNull(error.get());
+
+        ProjectIntegrityRecord prj=global.getProjects().get("p");
+        assertEquals(1, prj.getRecords().size());
+        String root=prj.getProjectRootHash();
+        prj.rebuildRoots();
+        assertEquals(root, prj.getProjectRootHash());
+        String globalRoot=global.getGlobalRootHash();
+        global.refreshProjectRoot("p");
+        assertEquals(globalRoot, global.getGlobalRootHash());
+    }
+}
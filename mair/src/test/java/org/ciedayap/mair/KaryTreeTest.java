@@ -0,0 +1,242 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * It verifies the k-ary trees and the records created with them
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class KaryTreeTest {
+    private static final short ROLE=MAIntegrityRecord.ROLE_DATA_COLLECTOR;
+
+    private static KaryTree filled(int arity,int levels,int count) throws Exception
+    {
+        KaryTree tree=new KaryTree(arity,levels);
+        for(int i=0;i<count;i++) assertTrue(tree.push(TestHashes.md5(i)));
+
+        return tree;
+    }
+
+    @Test
+    public void testOversizedTreesAreRejected() throws Exception
+    {
+        for(int arity:new int[]{2,4,8,16})
+        {
+            try{
+                new KaryTree(arity,64);
+                fail("The capacity of the tree overflows");
+            }catch(BDTreeException e)
+            {
+                //Expected
+            }
+        }
+        try{
+            new KaryTree(16,16);
+            fail("The capacity of the tree overflows");
+        }catch(BDTreeException e)
+        {
+            //Expected
+        }
+        try{
+            new KaryTree(3,2);
+            fail("The arity is not supported");
+        }catch(BDTreeException e)
+        {
+            //Expected
+        }
+    }
+
+    @Test
+    public void testLevelsForCapacity() throws Exception
+    {
+        assertEquals(3, KaryTree.getLevelsForCapacity(4, 64));
+        assertEquals(1, KaryTree.getLevelsForCapacity(16, 16));
+        assertEquals(7, KaryTree.getLevelsForCapacity(16, 1<<28));
+        assertEquals(30, KaryTree.getLevelsForCapacity(2, 1<<30));
+        assertEquals(-1, KaryTree.getLevelsForCapacity(4, 32));
+        assertEquals(-1, KaryTree.getLevelsForCapacity(8, 4));
+        assertEquals(-1, KaryTree.getLevelsForCapacity(16, Integer.MAX_VALUE));
+        try{
+            KaryTree.getLevelsForCapacity(5, 25);
+            fail("The arity is not supported");
+        }catch(BDTreeException e)
+        {
+            //Expected
+        }
+    }
+
+    @Test
+    public void testBinaryArityMatchesBDTree() throws Exception
+    {
+        KaryTree kary=new KaryTree(2,3);
+        BDTree binary=BDTree.create(3);
+        for(int i=0;i<20;i++)
+        {
+            assertTrue(kary.push(TestHashes.md5(i)));
+            assertTrue(binary.push(TestHashes.md5(i)));
+            assertEquals(binary.getRootHash(), kary.getRootHash());
+            for(int l=1;l<3;l++)
+            {
+                assertEquals(binary.getHashForFirstNTransactions(l), kary.getHashForFirstNTransactions(l));
+                assertEquals(binary.getHashForLastNTransactions(l), kary.getHashForLastNTransactions(l));
+            }
+        }
+    }
+
+    @Test
+    public void testProofsAreVerified() throws Exception
+    {
+        KaryTree tree=filled(4,2,10);
+        String root=tree.getRootHash();
+        for(int offset=1;offset<=tree.getCapacity();offset++)
+        {
+            KaryProof proof=tree.getProof(offset);
+            if(offset<=tree.getCapacity()-10)
+            {
+                assertNull(proof);
+                continue;
+            }
+            assertEquals(2, proof.getLevels());
+            assertTrue(proof.size()<=2*3);
+            assertTrue(proof.verify(tree.getOffsetHash(offset), root));
+            assertFalse(proof.verify(TestHashes.md5("x"), root));
+        }
+    }
+
+    @Test
+    public void testSubtreeDigests() throws Exception
+    {
+        KaryTree tree=filled(8,3,700);
+        byte digest[]=new byte[BDTree.DIGEST_LENGTH];
+        for(int l=1;l<=3;l++)
+        {
+            assertEquals(BDTree.DIGEST_LENGTH, tree.copySubtreeDigest(l, true, digest, 0));
+            assertEquals(tree.getHashForLastNTransactions(l), BDTree.toHexString(digest));
+            assertEquals(BDTree.DIGEST_LENGTH, tree.copySubtreeDigest(l, false, digest, 0));
+            assertEquals(tree.getHashForFirstNTransactions(l), BDTree.toHexString(digest));
+        }
+        assertEquals(tree.getRootHash(), BDTree.toHexString(digest));
+        assertEquals(0, tree.copySubtreeDigest(4, true, digest, 0));
+    }
+
+    @Test
+    public void testLoadMatchesThePushes() throws Exception
+    {
+        KaryTree pushed=filled(4,2,21);
+        String leaves[]=new String[16];
+        for(int i=0;i<16;i++) leaves[i]=TestHashes.md5(5+i);
+        KaryTree loaded=new KaryTree(4,2);
+        loaded.load(leaves, 21, BDTree.NO_TIMESTAMP);
+
+        assertEquals(pushed.getRootHash(), loaded.getRootHash());
+        assertEquals(21, loaded.getPushCount());
+
+        //A partial window keeps the empty leaves at the beginning
+        KaryTree partial=filled(4,2,3);
+        Arrays.fill(leaves, 0, 13, null);
+        for(int i=0;i<3;i++) leaves[13+i]=TestHashes.md5(i);
+        loaded.load(leaves, 3, BDTree.NO_TIMESTAMP);
+        assertEquals(partial.getRootHash(), loaded.getRootHash());
+
+        leaves[0]="NOT-A-DIGEST";
+        try{
+            loaded.load(leaves, 3, BDTree.NO_TIMESTAMP);
+            fail("The leaves of a k-ary tree are MD5 hashes");
+        }catch(BDTreeException e)
+        {
+            //Expected
+        }
+    }
+
+    @Test
+    public void testNodesRoundTrip() throws Exception
+    {
+        KaryTree tree=filled(16,2,300);
+        assertTrue(tree.push(TestHashes.md5("last"), 1000));
+        ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+        tree.writeNodes(new DataOutputStream(bytes));
+
+        KaryTree restored=new KaryTree(16,2);
+        restored.readNodes(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(tree.getRootHash(), restored.getRootHash());
+        assertEquals(tree.getPushCount(), restored.getPushCount());
+        assertFalse(restored.push(TestHashes.md5("old"), 999));
+
+        try{
+            new KaryTree(4,2).readNodes(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            fail("The nodes do not correspond with the tree");
+        }catch(IOException e)
+        {
+            //Expected
+        }
+    }
+
+    @Test
+    public void testProjectCreatesKaryRecords() throws Exception
+    {
+        ProjectIntegrityRecord prj=new ProjectIntegrityRecord(2,4);
+        prj.setArity(8);
+        for(int i=0;i<100;i++) assertTrue(prj.addTransaction("ma", ROLE, TestHashes.md5(i)));
+
+        MAIntegrityRecord record=prj.getRecord("ma");
+        assertNull(record.getTree());
+        assertEquals(8, record.getWindow().getArity());
+        assertEquals(64, record.getWindow().getCapacity());
+        assertEquals(filled(8,2,100).getRootHash(), record.getRootHash());
+
+        //The binary features report nothing for the k-ary records
+        assertEquals(0, record.dump(new StringWriter(), 1, 100, 100));
+        assertEquals(0, record.scrub(0, 100, true, new ArrayList<>()));
+
+        try{
+            prj.setArity(3);
+            fail("The arity is not supported");
+        }catch(IntegrityRecordException e)
+        {
+            //Expected
+        }
+        assertEquals(8, prj.getArity());
+    }
+
+    @Test
+    public void testGlobalArityAndMemoryBudget() throws Exception
+    {
+        GlobalIntegrityRecord global=new GlobalIntegrityRecord(3,4);
+        assertTrue(global.addTransaction("binary", "ma", ROLE, TestHashes.md5(0)));
+        global.setArity(4);
+        assertEquals(4, global.getProjects().get("binary").getArity());
+        assertTrue(global.addTransaction("binary", "kary", ROLE, TestHashes.md5(1)));
+        assertTrue(global.addTransaction("new", "kary", ROLE, TestHashes.md5(2)));
+
+        assertNotNull(global.getRecord("binary", "ma").getTree());
+        assertEquals(4, global.getRecord("binary", "kary").getWindow().getArity());
+        assertEquals(4, global.getRecord("new", "kary").getWindow().getArity());
+
+        long kary=MemoryBudget.estimateKary(4, 3);
+        assertEquals(kary, MemoryBudget.estimate(global.getRecord("new", "kary")));
+        assertTrue(kary<MemoryBudget.estimate(3, 0, false, false));
+        assertEquals(Long.MAX_VALUE, MemoryBudget.estimateKary(16, 16));
+
+        MemoryBudget budget=new MemoryBudget(0,0,MemoryBudget.Policy.REJECT);
+        global.setMemoryBudget(budget);
+        assertEquals(MemoryBudget.estimate(3, 0, false, false)+2*kary, budget.getUsedBytes());
+        assertTrue(global.addTransaction("new", "other", ROLE, TestHashes.md5(3)));
+        assertEquals(MemoryBudget.estimate(3, 0, false, false)+3*kary, budget.getUsedBytes());
+    }
+}
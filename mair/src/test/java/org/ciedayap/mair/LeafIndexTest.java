@@ -0,0 +1,87 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * It verifies the reverse index of leaves of BDTree
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class LeafIndexTest {
+    private static final int LEVELS=4;
+
+    @Test
+    public void testIndexFollowsPushesAndLeafUpdates() throws Exception
+    {
+        BDTree tree=BDTree.create(LEVELS);
+        tree.setLeafIndexEnabled(true);
+        for(int i=0;i<40;i++) tree.push(TestHashes.md5(i));
+
+        assertEquals(16, tree.findOffset(TestHashes.md5(39)));
+        assertEquals(1, tree.findOffset(TestHashes.md5(24)));
+        assertEquals(-1, tree.findOffset(TestHashes.md5(23)));
+
+        tree.setNewHashinLeaf(3, TestHashes.md5("x"));
+        assertEquals(3, tree.findOffset(TestHashes.md5("x")));
+        assertEquals(-1, tree.findOffset(TestHashes.md5(26)));
+
+        String leaves[]=new String[16];
+        for(int i=0;i<16;i++) leaves[i]=TestHashes.md5("y"+i);
+        tree.setNewHashinLeafs(leaves);
+        assertEquals(-1, tree.findOffset(TestHashes.md5("x")));
+        for(int i=0;i<16;i++) assertEquals(i+1, tree.findOffset(leaves[i]));
+    }
+
+    @Test
+    public void testIndexedAndScannedLookupsMatch() throws Exception
+    {
+        BDTree indexed=BDTree.create(LEVELS);
+        BDTree scanned=BDTree.create(LEVELS);
+        indexed.setLeafIndexEnabled(true);
+        for(int i=0;i<50;i++)
+        {
+            String hash=TestHashes.md5(i%7);
+            indexed.push(hash);
+            scanned.push(hash);
+        }
+
+        for(int i=0;i<8;i++) assertEquals(scanned.findOffset(TestHashes.md5(i)), indexed.findOffset(TestHashes.md5(i)));
+    }
+
+    @Test
+    public void testLeafUpdatesAreAtomicForLookups() throws Exception
+    {
+        final BDTree tree=BDTree.create(LEVELS);
+        tree.setLeafIndexEnabled(true);
+        for(int i=0;i<16;i++) tree.push(TestHashes.md5(i));
+        final String pinned=TestHashes.md5(0);
+
+        final AtomicReference<Throwable> failure=new AtomicReference<>();
+        Thread writer=new Thread(() -> {
+            try{
+                for(int i=0;i<20000;i++) tree.setNewHashinLeaf(2+(i%15), TestHashes.md5("w"+i));
+            }catch(Throwable t)
+            {
+                failure.set(t);
+            }
+        });
+        writer.start();
+        while(writer.isAlive())
+        {
+            int offset=tree.findOffset(pinned);
+            if(offset!=1) fail("The pinned leaf has been found at "+offset);
+        }
+        writer.join();
+
+        assertNull(failure.get());
+        assertEquals(1, tree.findOffset(pinned));
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * It verifies the memory budget and its admission policies
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class MemoryBudgetTest {
+    private static final short ROLE=MAIntegrityRecord.ROLE_DATA_COLLECTOR;
+    private static final int LEVELS=3;
+    private static final long RECORD=MemoryBudget.estimate(LEVELS, 0, false, false);
+
+    private static GlobalIntegrityRecord withBudget(MemoryBudget budget) throws Exception
+    {
+        GlobalIntegrityRecord record=new GlobalIntegrityRecord(LEVELS,4);
+        record.setMemoryBudget(budget);
+
+        return record;
+    }
+
+    @Test
+    public void testRejectPolicy() throws Exception
+    {
+        MemoryBudget budget=new MemoryBudget(2*RECORD,0,MemoryBudget.Policy.REJECT);
+        GlobalIntegrityRecord record=withBudget(budget);
+
+        assertTrue(record.addTransaction("p", "ma0", ROLE, TestHashes.md5(0)));
+        assertTrue(record.addTransaction("p", "ma1", ROLE, TestHashes.md5(1)));
+        assertFalse(record.addTransaction("p", "ma2", ROLE, TestHashes.md5(2)));
+        //The admitted records keep working
+        assertTrue(record.addTransaction("p", "ma0", ROLE, TestHashes.md5(3)));
+
+        assertEquals(2*RECORD, budget.getUsedBytes());
+        assertEquals(1, budget.getRejectedCount());
+    }
+
+    @Test
+    public void testDowngradePolicy() throws Exception
+    {
+        MemoryBudget budget=new MemoryBudget(RECORD+MemoryBudget.estimate(1, 0, false, false),0,MemoryBudget.Policy.DOWNGRADE,1);
+        GlobalIntegrityRecord record=withBudget(budget);
+
+        assertTrue(record.addTransaction("p", "ma0", ROLE, TestHashes.md5(0)));
+        assertTrue(record.addTransaction("p", "ma1", ROLE, TestHashes.md5(1)));
+
+        assertEquals(LEVELS, record.getRecord("p", "ma0").getLevels());
+        assertEquals(1, record.getRecord("p", "ma1").getLevels());
+        assertEquals(1, budget.getDowngradedCount());
+    }
+
+    @Test
+    public void testEvictWhenTheProjectLimitIsTheShortfall() throws Exception
+    {
+        MemoryBudget budget=new MemoryBudget(0,2*RECORD,MemoryBudget.Policy.EVICT);
+        GlobalIntegrityRecord record=withBudget(budget);
+
+        assertTrue(record.addTransaction("p", "ma0", ROLE, TestHashes.md5(0)));
+        assertTrue(record.addTransaction("p", "ma1", ROLE, TestHashes.md5(1)));
+        assertTrue(record.addTransaction("p", "ma0", ROLE, TestHashes.md5(2)));
+        assertTrue(record.addTransaction("p", "ma2", ROLE, TestHashes.md5(3)));
+
+        //ma1 is the least recently used one
+        assertNull(record.getRecord("p", "ma1"));
+        assertNotNull(record.getRecord("p", "ma0"));
+        assertNotNull(record.getRecord("p", "ma2"));
+        assertEquals(1, budget.getEvictedCount());
+        assertEquals(2*RECORD, budget.getUsedBytes("p"));
+    }
+
+    @Test
+    public void testNoEvictionWhenItCannotCoverTheRecord() throws Exception
+    {
+        MemoryBudget budget=new MemoryBudget(3*RECORD,0,MemoryBudget.Policy.EVICT);
+        GlobalIntegrityRecord record=withBudget(budget);
+
+        for(int i=0;i<3;i++) assertTrue(record.addTransaction("a", "ma"+i, ROLE, TestHashes.md5(i)));
+        String rootA=record.getProjectRootHash("a");
+
+        //The project b has nothing to evict, and the records of a are not its own
+        assertFalse(record.addTransaction("b", "ma0", ROLE, TestHashes.md5(9)));
+        assertEquals(0, budget.getEvictedCount());
+        assertEquals(1, budget.getRejectedCount());
+        assertEquals(rootA, record.getProjectRootHash("a"));
+        for(int i=0;i<3;i++) assertNotNull(record.getRecord("a", "ma"+i));
+    }
+
+    @Test
+    public void testFitsAfterRelease() throws Exception
+    {
+        MemoryBudget budget=new MemoryBudget(1000,600,MemoryBudget.Policy.EVICT);
+        assertTrue(budget.reserve("a", 500));
+        assertTrue(budget.reserve("b", 400));
+
+        assertFalse(budget.fitsAfterRelease("b", 200, 0));
+        assertTrue(budget.fitsAfterRelease("b", 200, 100));
+        //Only the bytes used by the project can be released
+        assertFalse(budget.fitsAfterRelease("c", 200, 1000));
+        assertFalse(budget.fitsAfterRelease("a", 200, 50));
+        assertTrue(budget.fitsAfterRelease("a", 200, 100));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * It verifies the compressed multiproofs and their binary format
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class MultiProofTest {
+    private static final int LEVELS=5;
+    private static final int MAGIC=0x4D41494D;
+
+    private static BDTree filled(BDTree tree) throws Exception
+    {
+        for(int i=0;i<40;i++) tree.push(TestHashes.md5(i));
+
+        return tree;
+    }
+
+    private static String[] leaves(BDTree tree,int offsets[])
+    {
+        String ret[]=new String[offsets.length];
+        for(int i=0;i<offsets.length;i++) ret[i]=tree.getOffsetHash(offsets[i]);
+
+        return ret;
+    }
+
+    @Test
+    public void testVerifyAndCompression() throws Exception
+    {
+        BDTree tree=filled(BDTree.create(LEVELS));
+        int offsets[]={1,2,3,17,32};
+        MultiProof proof=tree.getMultiProof(new int[]{32,3,1,17,2,3});
+
+        assertArrayEquals(offsets, proof.getOffsets());
+        assertTrue(proof.verify(leaves(tree,offsets)));
+        assertTrue(proof.verify(leaves(tree,offsets), tree.getRootHash()));
+        //Fewer hashes than the separated audit paths
+        assertTrue(proof.size()<offsets.length*LEVELS);
+
+        String tampered[]=leaves(tree,offsets);
+        tampered[3]=TestHashes.md5("tampered");
+        assertFalse(proof.verify(tampered));
+        assertFalse(proof.verify(leaves(tree,new int[]{1,2,3,17})));
+        assertNull(tree.getMultiProof(new int[]{0,3}));
+        assertNull(tree.getMultiProof(new int[]{33}));
+    }
+
+    @Test
+    public void testBinaryRoundTrip() throws Exception
+    {
+        for(BDTree tree:new BDTree[]{filled(BDTree.create(LEVELS)),filled(new BDTree(LEVELS,8,true)),filled(new BDTree(LEVELS,12,false))})
+        {
+            int offsets[]={4,5,20,31};
+            MultiProof proof=tree.getMultiProof(offsets);
+            ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+            proof.write(new DataOutputStream(bytes));
+
+            MultiProof read=MultiProof.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+            assertArrayEquals(offsets, read.getOffsets());
+            assertEquals(proof.size(), read.size());
+            assertEquals(proof.getRootHash(), read.getRootHash());
+            assertTrue(read.verify(leaves(tree,offsets), tree.getRootHash()));
+        }
+    }
+
+    private static DataInputStream header(int levels,int innerLength,int leafLength,int n,int... rest) throws IOException
+    {
+        ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+        DataOutputStream out=new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeByte(1);
+        out.writeByte(levels);
+        out.writeByte(innerLength);
+        out.writeByte(leafLength);
+        out.writeInt(n);
+        for(int value:rest) out.writeInt(value);
+        out.flush();
+
+        return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    private static void assertRejected(DataInputStream in)
+    {
+        try{
+            MultiProof.read(in);
+            fail("The proof is not valid");
+        }catch(IOException e)
+        {
+            //Expected
+        }
+    }
+
+    @Test
+    public void testInvalidHeadersAreRejected() throws Exception
+    {
+        assertRejected(header(0,16,16,1,1,0));
+        assertRejected(header(26,16,16,1,1,0));
+        assertRejected(header(LEVELS,10,16,1,1,0));
+        assertRejected(header(LEVELS,16,8,1,1,0));
+        assertRejected(header(LEVELS,8,12,1,1,0));
+        assertRejected(header(LEVELS,16,16,0));
+        assertRejected(header(LEVELS,16,16,33));
+        //Out of the window, not ascending and too many hashes
+        assertRejected(header(LEVELS,16,16,1,33,0));
+        assertRejected(header(LEVELS,16,16,2,Integer.MAX_VALUE,Integer.MAX_VALUE,0));
+        assertRejected(header(LEVELS,16,16,2,3,0,0));
+        assertRejected(header(LEVELS,16,16,1,1,LEVELS+1));
+    }
+
+    @Test
+    public void testLargeCountsDoNotAllocateBeforeReading() throws Exception
+    {
+        //A header announcing 2^25 offsets without sending them fails at the end of the stream
+        assertRejected(header(25,16,16,1<<25,1,1,1));
+
+        ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+        DataOutputStream out=new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeByte(1);
+        out.writeByte(25);
+        out.writeByte(16);
+        out.writeByte(16);
+        out.writeInt(1);
+        out.writeInt(1);
+        out.writeInt(25);
+        out.writeByte(20);//A hash longer than the digests
+        out.flush();
+        assertRejected(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+}
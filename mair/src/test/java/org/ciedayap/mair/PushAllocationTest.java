@@ -0,0 +1,109 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.lang.management.ManagementFactory;
+import java.security.MessageDigest;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * It verifies that the digest push path does not allocate memory by transaction once the tree has been warmed up
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class PushAllocationTest {
+    private static final int LEVELS=8;
+    private static final int PUSHES=20000;
+    /**
+     * The bytes tolerated for the whole measurement (e.g. the allocations of the measurement itself)
+     */
+    private static final long SLACK=4096;
+
+    private com.sun.management.ThreadMXBean threads;
+    private byte digests[];
+
+    @Before
+    public void setUp() throws Exception
+    {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads=(com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        MessageDigest md=MessageDigest.getInstance("MD5");
+        digests=new byte[256*BDTree.DIGEST_LENGTH];
+        for(int i=0;i<256;i++)
+            System.arraycopy(md.digest(Integer.toString(i).getBytes("UTF-8")), 0, digests, i*BDTree.DIGEST_LENGTH, BDTree.DIGEST_LENGTH);
+    }
+
+    private long allocatedBy(Pusher pusher) throws Exception
+    {
+        for(int i=0;i<PUSHES;i++) pusher.push(i);//Warm up (packed form, JIT)
+
+        long id=Thread.currentThread().getId();
+        long before=threads.getThreadAllocatedBytes(id);
+        for(int i=PUSHES;i<2*PUSHES;i++) pusher.push(i);
+        long after=threads.getThreadAllocatedBytes(id);
+
+        return after-before;
+    }
+
+    @Test
+    public void testDefaultTreeDigestPushDoesNotAllocate() throws Exception
+    {
+        final BDTree tree=BDTree.create(LEVELS);
+        long bytes=allocatedBy(i -> assertTrue(tree.pushDigest(digests, (i&255)*BDTree.DIGEST_LENGTH)));
+
+        assertTrue("Allocated "+bytes+" bytes for "+PUSHES+" pushes", bytes<SLACK);
+    }
+
+    @Test
+    public void testCompactTreeDigestPushDoesNotAllocate() throws Exception
+    {
+        final BDTree tree=new BDTree(LEVELS,BDTree.DIGEST_LENGTH,false);
+        long bytes=allocatedBy(i -> assertTrue(tree.pushDigest(digests, (i&255)*BDTree.DIGEST_LENGTH)));
+
+        assertTrue("Allocated "+bytes+" bytes for "+PUSHES+" pushes", bytes<SLACK);
+    }
+
+    @Test
+    public void testTimestampedDigestPushDoesNotAllocate() throws Exception
+    {
+        final BDTree tree=BDTree.create(LEVELS);
+        long bytes=allocatedBy(i -> assertTrue(tree.pushDigest(digests, (i&255)*BDTree.DIGEST_LENGTH, 1000L+i)));
+
+        assertTrue("Allocated "+bytes+" bytes for "+PUSHES+" pushes", bytes<SLACK);
+    }
+
+    @Test
+    public void testRecordDigestTransactionDoesNotAllocate() throws Exception
+    {
+        final MAIntegrityRecord record=new MAIntegrityRecord(LEVELS,MAIntegrityRecord.ROLE_DATA_COLLECTOR);
+        long bytes=allocatedBy(i -> assertTrue(record.addTransaction(MAIntegrityRecord.ROLE_DATA_COLLECTOR, digests, (i&255)*BDTree.DIGEST_LENGTH)));
+
+        assertTrue("Allocated "+bytes+" bytes for "+PUSHES+" pushes", bytes<SLACK);
+    }
+
+    @Test
+    public void testStringPushAllocates() throws Exception
+    {
+        final BDTree tree=BDTree.create(LEVELS);
+        final String hashes[]=new String[256];
+        for(int i=0;i<256;i++) hashes[i]=BDTree.toHexString(digests, i*BDTree.DIGEST_LENGTH, BDTree.DIGEST_LENGTH);
+        long bytes=allocatedBy(i -> tree.push(hashes[i&255]));
+
+        //It makes sure that the measurement detects the allocations
+        assertTrue(bytes>=SLACK);
+    }
+
+    private interface Pusher {
+        void push(int i) throws Exception;
+    }
+}
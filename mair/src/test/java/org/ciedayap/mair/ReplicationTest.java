@@ -0,0 +1,263 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * It verifies the replication from the primary to the followers
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class ReplicationTest {
+    private static final short ROLE=MAIntegrityRecord.ROLE_DATA_COLLECTOR;
+    private static final long TIMEOUT=10000;
+
+    /**
+     * It is a transport that blocks the shipping until it is released
+     */
+    private static class BlockingTransport implements ReplicationTransport {
+        final CountDownLatch release=new CountDownLatch(1);
+        volatile boolean closed;
+
+        @Override
+        public void send(ReplicationEntry entry) throws IOException
+        {
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                throw new IOException("Interrupted");
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            closed=true;
+            release.countDown();
+        }
+    }
+
+    /**
+     * It is a transport that always fails
+     */
+    private static class FailingTransport implements ReplicationTransport {
+        volatile boolean closed;
+
+        @Override
+        public void send(ReplicationEntry entry) throws IOException
+        {
+            throw new IOException("The follower is unreachable");
+        }
+
+        @Override
+        public void close()
+        {
+            closed=true;
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException
+    {
+        long deadline=System.currentTimeMillis()+TIMEOUT;
+        while(!condition.getAsBoolean())
+        {
+            assertTrue("Timeout", System.currentTimeMillis()<deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void testFollowerConverges() throws Exception
+    {
+        ReplicationPrimary primary=new ReplicationPrimary(new GlobalIntegrityRecord(3,4),16);
+        ReplicationFollower follower=new ReplicationFollower(3,4);
+        try{
+            primary.addFollower(follower);
+            for(int i=0;i<200;i++) assertTrue(primary.addTransaction("p"+(i%3), "ma"+(i%7), ROLE, TestHashes.md5(i)));
+
+            assertTrue(follower.awaitSequence(primary.getLastSequence(), TIMEOUT));
+            assertTrue(follower.isConverged(primary.getGlobalRootHash(), primary.getLastSequence()));
+            assertEquals(0, follower.getLag());
+            //An entry shipped by the primary but not applied yet
+            assertFalse(follower.isConverged(primary.getGlobalRootHash(), primary.getLastSequence()+1));
+            assertEquals(0, primary.getDetachedCount());
+        }finally{
+            primary.close();
+            follower.close();
+        }
+    }
+
+    @Test
+    public void testLateFollowerFromRetainedLog() throws Exception
+    {
+        ReplicationPrimary primary=new ReplicationPrimary(new GlobalIntegrityRecord(3,4),8);
+        ReplicationFollower follower=new ReplicationFollower(3,4);
+        try{
+            for(int i=0;i<5;i++) primary.addTransaction("p", "ma", ROLE, TestHashes.md5(i));
+            primary.addFollower(follower);
+            for(int i=5;i<10;i++) primary.addTransaction("p", "ma", ROLE, TestHashes.md5(i));
+
+            assertTrue(follower.awaitSequence(10, TIMEOUT));
+            assertTrue(follower.isConverged(primary.getGlobalRootHash(), primary.getLastSequence()));
+
+            //The entries from 1 to 2 are not retained anymore
+            try{
+                primary.addFollower(new ReplicationFollower(3,4));
+                fail("The retained log does not cover the history");
+            }catch(IntegrityRecordException e)
+            {
+                //Expected
+            }
+        }finally{
+            primary.close();
+            follower.close();
+        }
+    }
+
+    @Test
+    public void testSlowFollowerIsDetachedWithoutBlockingThePrimary() throws Exception
+    {
+        final int maxLag=4;
+        ReplicationPrimary primary=new ReplicationPrimary(new GlobalIntegrityRecord(3,4),0,maxLag);
+        BlockingTransport slow=new BlockingTransport();
+        ReplicationFollower follower=new ReplicationFollower(3,4);
+        try{
+            primary.addFollower(slow);
+            primary.addFollower(follower);
+
+            //The slow follower holds one entry in its shipper and maxLag in its queue
+            assertTrue(primary.addTransaction("p", "ma", ROLE, TestHashes.md5(0)));
+            await(() -> primary.getPendingCount(slow)==0);
+            for(int i=1;i<=maxLag;i++)
+            {
+                //The follower that keeps up must not be detached
+                await(() -> primary.getPendingCount(follower)==0);
+                assertTrue(primary.addTransaction("p", "ma", ROLE, TestHashes.md5(i)));
+            }
+            await(() -> primary.getPendingCount(slow)==maxLag);
+            assertEquals(2, primary.getFollowerCount());
+
+            await(() -> primary.getPendingCount(follower)==0);
+            assertTrue(primary.addTransaction("p", "ma", ROLE, TestHashes.md5(maxLag+1)));
+            assertEquals(1, primary.getFollowerCount());
+            assertEquals(1, primary.getDetachedCount());
+            assertEquals(-1, primary.getPendingCount(slow));
+            await(() -> slow.closed);
+
+            assertTrue(follower.awaitSequence(primary.getLastSequence(), TIMEOUT));
+            assertTrue(follower.isConverged(primary.getGlobalRootHash(), primary.getLastSequence()));
+        }finally{
+            primary.close();
+            follower.close();
+        }
+    }
+
+    @Test
+    public void testFailingFollowerIsDetached() throws Exception
+    {
+        ReplicationPrimary primary=new ReplicationPrimary(new GlobalIntegrityRecord(3,4),4);
+        FailingTransport failing=new FailingTransport();
+        try{
+            primary.addFollower(failing);
+            assertTrue(primary.addTransaction("p", "ma", ROLE, TestHashes.md5(1)));
+
+            await(() -> failing.closed);
+            assertEquals(0, primary.getFollowerCount());
+            assertEquals(1, primary.getDetachedCount());
+
+            //It can be attached again from its last applied sequence
+            ReplicationFollower follower=new ReplicationFollower(3,4);
+            primary.addFollower(follower,0);
+            assertTrue(follower.awaitSequence(1, TIMEOUT));
+            assertTrue(follower.isConverged(primary.getGlobalRootHash(), primary.getLastSequence()));
+            follower.close();
+        }finally{
+            primary.close();
+        }
+    }
+
+    @Test
+    public void testRemovedFollowerIsNotClosed() throws Exception
+    {
+        ReplicationPrimary primary=new ReplicationPrimary(new GlobalIntegrityRecord(3,4),4);
+        BlockingTransport transport=new BlockingTransport();
+        try{
+            primary.addFollower(transport);
+            assertTrue(primary.removeFollower(transport));
+            assertFalse(primary.removeFollower(transport));
+            TimeUnit.MILLISECONDS.sleep(20);
+            assertFalse(transport.closed);
+            assertEquals(0, primary.getDetachedCount());
+        }finally{
+            primary.close();
+        }
+    }
+
+    @Test
+    public void testRoleChangesAreReplicated() throws Exception
+    {
+        ReplicationPrimary primary=new ReplicationPrimary(new GlobalIntegrityRecord(3,4),16);
+        ReplicationFollower follower=new ReplicationFollower(3,4);
+        try{
+            primary.addFollower(follower);
+            assertTrue(primary.addTransaction("p", "ma", ROLE, TestHashes.md5(0)));
+            assertTrue(primary.setRole("p", "ma", MAIntegrityRecord.ROLE_BLOCKED));
+            assertFalse(primary.addTransaction("p", "ma", ROLE, TestHashes.md5(1)));
+            assertFalse(primary.setRole("p", "unknown", MAIntegrityRecord.ROLE_BLOCKED));
+            assertEquals(2, primary.getLastSequence());
+
+            assertTrue(follower.awaitSequence(2, TIMEOUT));
+            assertEquals(MAIntegrityRecord.ROLE_BLOCKED, follower.getRecord().getRecord("p", "ma").getCurrentRole());
+            assertTrue(follower.getRecord().getMAsByRole("p", MAIntegrityRecord.ROLE_BLOCKED).contains("ma"));
+
+            assertTrue(primary.setRole("p", "ma", ROLE));
+            assertTrue(primary.addTransaction("p", "ma", ROLE, TestHashes.md5(2)));
+            assertTrue(follower.awaitSequence(4, TIMEOUT));
+            assertEquals(ROLE, follower.getRecord().getRecord("p", "ma").getCurrentRole());
+            assertTrue(follower.isConverged(primary.getGlobalRootHash(), primary.getLastSequence()));
+        }finally{
+            primary.close();
+            follower.close();
+        }
+    }
+
+    @Test
+    public void testEntryFormat() throws Exception
+    {
+        ReplicationEntry entries[]={
+            new ReplicationEntry(1,10,"p","ma",ROLE,TestHashes.md5(1)),
+            new ReplicationEntry(2,ReplicationEntry.TYPE_ROLE,20,"p","ma",MAIntegrityRecord.ROLE_BLOCKED,null)
+        };
+        ByteArrayOutputStream bytes=new ByteArrayOutputStream();
+        try(DataOutputStream out=new DataOutputStream(bytes))
+        {
+            for(ReplicationEntry entry:entries) entry.writeTo(out);
+        }
+
+        DataInputStream in=new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        for(ReplicationEntry expected:entries)
+        {
+            ReplicationEntry read=ReplicationEntry.readFrom(in);
+            assertEquals(expected.getSequence(), read.getSequence());
+            assertEquals(expected.getType(), read.getType());
+            assertEquals(expected.getTimestamp(), read.getTimestamp());
+            assertEquals(expected.getRole(), read.getRole());
+            assertEquals(expected.getHashMD5(), read.getHashMD5());
+        }
+        assertTrue(entries[1].isRoleChange());
+    }
+}
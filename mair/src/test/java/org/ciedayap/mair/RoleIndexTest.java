@@ -0,0 +1,85 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * It verifies the role index, the rejection of blocked measurement adapters and the role-filtered bulk verification
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class RoleIndexTest {
+    private static final short COLLECTOR=MAIntegrityRecord.ROLE_DATA_COLLECTOR;
+    private static final short GATEWAY=MAIntegrityRecord.ROLE_GATEWAY;
+    private static final short BLOCKED=MAIntegrityRecord.ROLE_BLOCKED;
+
+    @Test
+    public void testIndexFollowsTheRoles() throws Exception
+    {
+        GlobalIntegrityRecord record=new GlobalIntegrityRecord(3,4);
+        record.addTransaction("p", "ma0", COLLECTOR, TestHashes.md5(0));
+        record.addTransaction("p", "ma1", GATEWAY, TestHashes.md5(1));
+        record.addTransaction("q", "ma2", GATEWAY, TestHashes.md5(2));
+
+        assertEquals(1, record.getMAsByRole("p", GATEWAY).size());
+        assertEquals(2, record.getMAsByRole(GATEWAY).size());
+
+        //A transaction with another role moves the measurement adapter
+        record.addTransaction("p", "ma0", GATEWAY, TestHashes.md5(3));
+        assertTrue(record.getMAsByRole("p", COLLECTOR).isEmpty());
+        assertTrue(record.getMAsByRole("p", GATEWAY).contains("ma0"));
+
+        assertTrue(record.removeMA("p", "ma0"));
+        assertFalse(record.getMAsByRole("p", GATEWAY).contains("ma0"));
+    }
+
+    @Test
+    public void testBlockedMAIsRejected() throws Exception
+    {
+        GlobalIntegrityRecord record=new GlobalIntegrityRecord(3,4);
+        int prj=record.registerProject("p");
+        int ma=record.registerMA("ma");
+
+        assertTrue(record.addTransaction("p", "ma", COLLECTOR, TestHashes.md5(0)));
+        //The transaction that blocks the measurement adapter is stored
+        assertTrue(record.addTransaction("p", "ma", BLOCKED, TestHashes.md5(1)));
+        assertTrue(record.isBlocked("p", "ma"));
+        String root=record.getRecord("p", "ma").getRootHash();
+
+        assertFalse(record.addTransaction("p", "ma", COLLECTOR, TestHashes.md5(2)));
+        assertFalse(record.addTransaction(prj, ma, COLLECTOR, TestHashes.md5(3)));
+        assertEquals(root, record.getRecord("p", "ma").getRootHash());
+        assertEquals(2, record.getOrCreateProject("p").getBlockedRejections());
+
+        assertTrue(record.setRole("p", "ma", COLLECTOR));
+        assertFalse(record.isBlocked("p", "ma"));
+        assertTrue(record.addTransaction("p", "ma", COLLECTOR, TestHashes.md5(4)));
+    }
+
+    @Test
+    public void testRoleFilteredBulkVerification() throws Exception
+    {
+        GlobalIntegrityRecord record=new GlobalIntegrityRecord(3,4);
+        record.addTransaction("p", "ma0", COLLECTOR, TestHashes.md5(0));
+        record.addTransaction("p", "ma1", GATEWAY, TestHashes.md5(1));
+
+        List<VerificationRequest> requests=Arrays.asList(
+                VerificationRequest.whole("p", "ma0", record.getRecord("p", "ma0").getRootHash()),
+                VerificationRequest.whole("p", "ma1", record.getRecord("p", "ma1").getRootHash()));
+
+        assertTrue(record.verifyBulk(requests).allVerified());
+
+        BulkVerificationResult filtered=record.verifyBulk(requests, GATEWAY);
+        assertFalse(filtered.isVerified(0));
+        assertNotNull(filtered.getFailureReason(0));
+        assertTrue(filtered.isVerified(1));
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * It verifies the incremental maintenance of the Merkle tree over the keyed roots
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class RootMerkleTreeTest {
+
+    /**
+     * It computes the root of the ordered hashes pairing them level by level. A node without brother, or whose
+     * brother has not hash, is carried up as it is.
+     */
+    static String expectedRoot(List<String> ordered)
+    {
+        if(ordered.isEmpty()) return null;
+
+        List<String> level=new ArrayList<>(ordered);
+        while(level.size()>1)
+        {
+            List<String> next=new ArrayList<>();
+            for(int i=0;i<level.size();i+=2)
+            {
+                String left=level.get(i);
+                String right=(i+1<level.size())?level.get(i+1):null;
+                next.add((left==null || right==null)?((left==null)?right:left):TestHashes.md5(left+"."+right));
+            }
+            level=next;
+        }
+
+        return level.get(0);
+    }
+
+    private static void assertConsistent(RootMerkleTree tree,HashMap<String,String> values) throws Exception
+    {
+        String keys[]=values.keySet().toArray(new String[0]);
+        Arrays.sort(keys);
+        assertArrayEquals(keys, tree.getKeys());
+
+        List<String> ordered=new ArrayList<>();
+        for(String key:keys) ordered.add(values.get(key));
+        assertEquals(expectedRoot(ordered), tree.getRootHash());
+
+        RootMerkleTree rebuilt=new RootMerkleTree();
+        rebuilt.reset(values);
+        assertEquals(rebuilt.getRootHash(), tree.getRootHash());
+
+        MessageDigest md=MessageDigest.getInstance("MD5");
+        for(String key:keys)
+        {
+            assertEquals(values.get(key), tree.getHash(key));
+            if(values.get(key)!=null) assertEquals(tree.getRootHash(), IntegrityProof.climb(md, values.get(key), tree.getProof(key)));
+        }
+    }
+
+    @Test
+    public void testIncrementalChangesMatchTheRebuild() throws Exception
+    {
+        Random random=new Random(5);
+        RootMerkleTree tree=new RootMerkleTree();
+        HashMap<String,String> values=new HashMap<>();
+        for(int i=0;i<400;i++)
+        {
+            String key="k"+random.nextInt(60);
+            int op=random.nextInt(10);
+            if(op<2)
+            {
+                assertEquals(values.containsKey(key), tree.remove(key));
+                values.remove(key);
+            }
+            else
+            {
+                String hash=(op==2)?null:TestHashes.md5(i);
+                tree.update(key, hash);
+                values.put(key, hash);
+            }
+            assertConsistent(tree,values);
+        }
+
+        //The tree keeps working once all the keys are removed
+        for(String key:new ArrayList<>(values.keySet())) assertTrue(tree.remove(key));
+        values.clear();
+        assertConsistent(tree,values);
+        assertNull(tree.getRootHash());
+        tree.update("z", TestHashes.md5("z"));
+        assertEquals(TestHashes.md5("z"), tree.getRootHash());
+    }
+
+    @Test
+    public void testKeysAppendedInOrder() throws Exception
+    {
+        RootMerkleTree tree=new RootMerkleTree();
+        HashMap<String,String> values=new HashMap<>();
+        for(int i=0;i<70;i++)
+        {
+            String key=String.format("ma%04d", i);
+            tree.update(key, TestHashes.md5(i));
+            values.put(key, TestHashes.md5(i));
+            assertConsistent(tree,values);
+        }
+        assertFalse(tree.remove("unknown"));
+        assertFalse(tree.contains(null));
+        assertTrue(tree.contains("ma0069"));
+    }
+}
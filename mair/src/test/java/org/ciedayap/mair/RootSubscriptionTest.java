@@ -0,0 +1,140 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * It verifies the coalescing root-change subscriptions
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class RootSubscriptionTest {
+    private static final short ROLE=MAIntegrityRecord.ROLE_DATA_COLLECTOR;
+
+    /**
+     * It is an executor that keeps the tasks until they are run by the test
+     */
+    private static class ManualExecutor implements Executor {
+        final List<Runnable> tasks=new ArrayList<>();
+
+        @Override
+        public synchronized void execute(Runnable command)
+        {
+            tasks.add(command);
+        }
+
+        synchronized void runAll()
+        {
+            while(!tasks.isEmpty()) tasks.remove(0).run();
+        }
+    }
+
+    @Test
+    public void testEventsAreCoalesced() throws Exception
+    {
+        GlobalIntegrityRecord record=new GlobalIntegrityRecord(3,4);
+        ManualExecutor executor=new ManualExecutor();
+        List<RootChangeEvent> events=new ArrayList<>();
+        RootSubscription sub=record.subscribe("p", null, events::add, executor, 16);
+
+        for(int i=0;i<5;i++) record.addTransaction("p", "ma", ROLE, TestHashes.md5(i));
+        record.addTransaction("q", "ma", ROLE, TestHashes.md5(9));
+        assertEquals(1, executor.tasks.size());
+        assertEquals(4, sub.getCoalescedCount());
+
+        executor.runAll();
+        assertEquals(1, events.size());
+        assertEquals(5, events.get(0).getVersion());
+        assertEquals(record.getRecord("p", "ma").getRootHash(), events.get(0).getRootHash());
+        assertEquals(1, sub.getDeliveredCount());
+    }
+
+    @Test
+    public void testOldestPendingEventIsDropped() throws Exception
+    {
+        GlobalIntegrityRecord record=new GlobalIntegrityRecord(3,4);
+        ManualExecutor executor=new ManualExecutor();
+        List<RootChangeEvent> events=new ArrayList<>();
+        RootSubscription sub=record.subscribe(null, null, events::add, executor, 1);
+
+        record.addTransaction("p", "ma0", ROLE, TestHashes.md5(0));
+        record.addTransaction("p", "ma1", ROLE, TestHashes.md5(1));
+        executor.runAll();
+
+        assertEquals(1, sub.getDroppedCount());
+        assertEquals(1, events.size());
+        assertEquals("ma1", events.get(0).getMaID());
+    }
+
+    @Test
+    public void testDeliveryIsScheduledOutsideTheRecordMonitor() throws Exception
+    {
+        final GlobalIntegrityRecord record=new GlobalIntegrityRecord(3,4);
+        record.addTransaction("p", "ma", ROLE, TestHashes.md5(0));
+        final MAIntegrityRecord ma=record.getRecord("p", "ma");
+        final AtomicBoolean locked=new AtomicBoolean();
+        final AtomicInteger calls=new AtomicInteger();
+
+        //The executor runs the drain in the ingesting thread
+        record.subscribe("p", "ma", e -> {
+            calls.incrementAndGet();
+            if(Thread.holdsLock(ma)) locked.set(true);
+        }, Runnable::run, 16);
+
+        for(int i=1;i<4;i++) record.addTransaction("p", "ma", ROLE, TestHashes.md5(i));
+        assertEquals(3, calls.get());
+        assertFalse(locked.get());
+    }
+
+    @Test
+    public void testErrorInTheListenerDoesNotStallTheSubscription() throws Exception
+    {
+        GlobalIntegrityRecord record=new GlobalIntegrityRecord(3,4);
+        final CopyOnWriteArrayList<RootChangeEvent> events=new CopyOnWriteArrayList<>();
+        final AtomicBoolean failed=new AtomicBoolean();
+        Executor threads=r -> {
+            Thread t=new Thread(r);
+            t.setUncaughtExceptionHandler((th,ex) -> {});
+            t.start();
+        };
+        RootSubscription sub=record.subscribe("p", "ma", e -> {
+            if(failed.compareAndSet(false, true)) throw new StackOverflowError("listener");
+            events.add(e);
+        }, threads, 16);
+
+        record.addTransaction("p", "ma", ROLE, TestHashes.md5(0));
+        long deadline=System.currentTimeMillis()+10000;
+        while(!failed.get() || sub.getPendingCount()>0) { assertTrue(System.currentTimeMillis()<deadline); Thread.sleep(1); }
+        Thread.sleep(20);
+
+        record.addTransaction("p", "ma", ROLE, TestHashes.md5(1));
+        while(events.isEmpty()) { assertTrue("The subscription has stalled", System.currentTimeMillis()<deadline); Thread.sleep(1); }
+        assertEquals(2, events.get(events.size()-1).getVersion());
+    }
+
+    @Test
+    public void testRemovalIsPublished() throws Exception
+    {
+        GlobalIntegrityRecord record=new GlobalIntegrityRecord(3,4);
+        List<RootChangeEvent> events=new ArrayList<>();
+        record.addTransaction("p", "ma", ROLE, TestHashes.md5(0));
+        record.subscribe("p", "ma", events::add, Runnable::run, 16);
+
+        assertTrue(record.removeMA("p", "ma"));
+        assertEquals(1, events.size());
+        assertTrue(events.get(0).isRemoved());
+        assertNull(events.get(0).getRootHash());
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * It verifies the verifications against the retained versions of the records
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class RootVersionsTest {
+    private static final short ROLE=MAIntegrityRecord.ROLE_DATA_COLLECTOR;
+    private static final int RETAINED=4;
+
+    /**
+     * It is the state of a tree as of one version
+     */
+    private static class State {
+        final long version;
+        final String root;
+        final String firsts[];
+        final String lasts[];
+
+        State(MAIntegrityRecord record)
+        {
+            IntegrityTree window=record.getWindow();
+            version=record.getVersion();
+            root=window.getRootHash();
+            firsts=new String[window.getLevels()];
+            lasts=new String[window.getLevels()];
+            for(int l=1;l<window.getLevels();l++)
+            {
+                firsts[l]=window.getHashForFirstNTransactions(l);
+                lasts[l]=window.getHashForLastNTransactions(l);
+            }
+        }
+    }
+
+    private static MAIntegrityRecord[] records() throws Exception
+    {
+        return new MAIntegrityRecord[]{
+            new MAIntegrityRecord(4,ROLE),
+            new MAIntegrityRecord(4,ROLE,8,false),
+            new MAIntegrityRecord(4,ROLE,12,true),
+            new MAIntegrityRecord(2,ROLE,4)
+        };
+    }
+
+    private static List<State> fill(MAIntegrityRecord record,int count) throws Exception
+    {
+        assertTrue(record.setRetainedVersions(RETAINED));
+        List<State> ret=new ArrayList<>();
+        ret.add(new State(record));
+        for(int i=0;i<count;i++)
+        {
+            assertTrue(record.addTransaction(ROLE, TestHashes.md5(i)));
+            ret.add(new State(record));
+        }
+
+        return ret;
+    }
+
+    @Test
+    public void testRetainedVersionsAreVerified() throws Exception
+    {
+        for(MAIntegrityRecord record:records())
+        {
+            List<State> states=fill(record,20);
+            int levels=record.getLevels();
+            assertEquals(20-RETAINED+1, record.getOldestVerifiableVersion());
+
+            for(State state:states)
+            {
+                boolean retained=state.version>=record.getOldestVerifiableVersion();
+                assertEquals(retained, record.hasWholeIntegrity(state.root, state.version));
+                for(int l=1;l<levels;l++)
+                {
+                    assertEquals(retained, record.verifyIntegrityFirsts(state.firsts[l], l, state.version));
+                    assertEquals(retained, record.verifyIntegrityLasts(state.lasts[l], l, state.version));
+                }
+            }
+
+            //The hash of a version is not accepted for another one
+            State previous=states.get(18);
+            assertFalse(record.hasWholeIntegrity(previous.root, 19));
+            assertFalse(record.verifyIntegrityLasts(previous.lasts[1], 1, 19));
+            assertFalse(record.hasWholeIntegrity(TestHashes.md5("x"), 19));
+        }
+    }
+
+    @Test
+    public void testTolerance() throws Exception
+    {
+        for(MAIntegrityRecord record:records())
+        {
+            List<State> states=fill(record,20);
+            State old=states.get(17);
+
+            assertFalse(record.hasWholeIntegrityWithin(old.root, 2));
+            assertTrue(record.hasWholeIntegrityWithin(old.root, 3));
+            assertTrue(record.verifyIntegrityFirstsWithin(old.firsts[1], 1, 3));
+            assertTrue(record.verifyIntegrityLastsWithin(old.lasts[1], 1, 3));
+            //The tolerance does not reach the versions that are not retained
+            assertFalse(record.hasWholeIntegrityWithin(states.get(16).root, 100));
+        }
+    }
+
+    @Test
+    public void testRepairReplacesTheCurrentVersion() throws Exception
+    {
+        BDTree tree=BDTree.create(3);
+        for(int i=0;i<5;i++) tree.push(TestHashes.md5(i));
+        RootVersions ring=new RootVersions(2,3);
+        ring.record(tree);
+        ring.record(tree);
+        assertEquals(1, ring.size());
+        assertEquals(tree.getRootHash(), ring.getHash(5, VerificationRequest.TYPE_WHOLE, 0));
+        assertEquals(tree.getRootHash(), ring.getHash(5, VerificationRequest.TYPE_LASTS, 3));
+        assertNull(ring.getHash(5, VerificationRequest.TYPE_FIRSTS, 4));
+        assertNull(ring.getHash(4, VerificationRequest.TYPE_WHOLE, 0));
+    }
+
+    @Test
+    public void testHashesThatAreNotDigests() throws Exception
+    {
+        //A father with only one child copies its hash as it is
+        BDTree tree=BDTree.create(2);
+        tree.push("NOT-A-DIGEST");
+        RootVersions ring=new RootVersions(3,2);
+        ring.record(tree);
+        assertEquals("NOT-A-DIGEST", ring.getHash(1, VerificationRequest.TYPE_WHOLE, 0));
+        assertEquals("NOT-A-DIGEST", ring.getHash(1, VerificationRequest.TYPE_LASTS, 1));
+        assertNull(ring.getHash(1, VerificationRequest.TYPE_FIRSTS, 1));
+
+        tree.push(TestHashes.md5(1));
+        ring.record(tree);
+        assertEquals(tree.getRootHash(), ring.getHash(2, VerificationRequest.TYPE_WHOLE, 0));
+        assertEquals(tree.getHashForLastNTransactions(1), ring.getHash(2, VerificationRequest.TYPE_LASTS, 1));
+        assertEquals("NOT-A-DIGEST", ring.getHash(1, VerificationRequest.TYPE_WHOLE, 0));
+    }
+
+    @Test
+    public void testOversizedRetentionIsRejected() throws Exception
+    {
+        MAIntegrityRecord record=new MAIntegrityRecord(20,ROLE);
+        assertFalse(record.setRetainedVersions(Integer.MAX_VALUE));
+        assertEquals(0, record.getRetainedVersions());
+        assertTrue(record.setRetainedVersions(16));
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * It verifies the shard-per-core execution engine
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class ShardedIntegrityEngineTest {
+    private static final short ROLE=MAIntegrityRecord.ROLE_DATA_COLLECTOR;
+
+    @Test
+    public void testShardsMatchSequentialRecords() throws Exception
+    {
+        ShardedIntegrityEngine engine=new ShardedIntegrityEngine(3,4,4,8);
+        GlobalIntegrityRecord expected=new GlobalIntegrityRecord(3,4);
+        try{
+            List<CompletableFuture<Boolean>> futures=new ArrayList<>();
+            for(int i=0;i<400;i++)
+            {
+                String prj="p"+(i%3), ma="ma"+(i%11);
+                futures.add(engine.submit(prj, ma, ROLE, TestHashes.md5(i)));
+                expected.addTransaction(prj, ma, ROLE, TestHashes.md5(i));
+            }
+            engine.flush();
+
+            for(CompletableFuture<Boolean> f:futures) assertTrue(f.isDone() && f.get());
+            for(int p=0;p<3;p++)
+                for(int m=0;m<11;m++)
+                {
+                    String root=expected.getRecord("p"+p, "ma"+m).getRootHash();
+                    assertTrue(engine.hasWholeIntegrity("p"+p, "ma"+m, root));
+                }
+        }finally{
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void testSubtreeVerificationsUseThePublishedState() throws Exception
+    {
+        ShardedIntegrityEngine engine=new ShardedIntegrityEngine(3,4,2,8);
+        GlobalIntegrityRecord expected=new GlobalIntegrityRecord(3,4);
+        try{
+            for(int i=0;i<45;i++)
+            {
+                String ma="ma"+(i%2);
+                engine.submit("p", ma, ROLE, TestHashes.md5(i));
+                expected.addTransaction("p", ma, ROLE, TestHashes.md5(i));
+            }
+            engine.flush();
+
+            for(int m=0;m<2;m++)
+            {
+                BDTree tree=expected.getRecord("p", "ma"+m).getTree();
+                ShardedIntegrityEngine.PublishedRoot published=engine.getPublishedRoot("p", "ma"+m);
+                assertEquals(tree.getPushCount(), published.getVersion());
+                for(int l=1;l<=3;l++)
+                {
+                    String firsts=tree.getHashForFirstNTransactions(l), lasts=tree.getHashForLastNTransactions(l);
+                    assertEquals(firsts, published.getHashForFirstNTransactions(l));
+                    assertEquals(lasts, published.getHashForLastNTransactions(l));
+                    assertTrue(engine.verifyIntegrityFirsts("p", "ma"+m, firsts.toUpperCase(), l));
+                    assertTrue(engine.verifyIntegrityLasts("p", "ma"+m, lasts, l));
+                    if(l<3) assertFalse(engine.verifyIntegrityFirsts("p", "ma"+m, lasts, l));
+                }
+                assertEquals(tree.getRootHash(), published.getHashForLastNTransactions(3));
+                assertFalse(engine.verifyIntegrityFirsts("p", "ma"+m, tree.getHashForFirstNTransactions(1), 0));
+                assertFalse(engine.verifyIntegrityLasts("p", "ma"+m, tree.getRootHash(), 4));
+                assertFalse(engine.verifyIntegrityLasts("p", "ma"+m, null, 1));
+                assertTrue(engine.verifyTransactionIntegrity("p", "ma"+m, tree.getOffsetHash(8), 8));
+            }
+            assertFalse(engine.verifyIntegrityFirsts("p", "unknown", TestHashes.md5(0), 1));
+
+            //The published state is replaced by each transaction
+            String previous=engine.getPublishedRoot("p", "ma0").getHashForLastNTransactions(1);
+            engine.submit("p", "ma0", ROLE, TestHashes.md5("new"));
+            engine.flush();
+            assertFalse(engine.verifyIntegrityLasts("p", "ma0", previous, 1));
+        }finally{
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void testBoundedQueueWithConcurrentProducers() throws Exception
+    {
+        final int capacity=2;
+        final ShardedIntegrityEngine engine=new ShardedIntegrityEngine(2,4,1,capacity);
+        final ConcurrentLinkedQueue<CompletableFuture<Boolean>> futures=new ConcurrentLinkedQueue<>();
+        List<Thread> producers=new ArrayList<>();
+        for(int t=0;t<4;t++)
+        {
+            final int id=t;
+            Thread producer=new Thread(() -> {
+                try{
+                    for(int i=0;i<500;i++) futures.add(engine.submit("p", "ma"+id, ROLE, TestHashes.md5(id+"."+i)));
+                }catch(IntegrityRecordException e)
+                {
+                    throw new IllegalStateException(e);
+                }
+            });
+            producers.add(producer);
+            producer.start();
+        }
+
+        int maxDepth=0;
+        while(producers.get(0).isAlive() || producers.get(3).isAlive()) maxDepth=Math.max(maxDepth, engine.getQueueDepth(0));
+        for(Thread producer:producers) producer.join();
+        engine.shutdown();
+
+        assertTrue("Depth "+maxDepth, maxDepth<=capacity);
+        assertEquals(2000, futures.size());
+        for(CompletableFuture<Boolean> f:futures) assertTrue(f.isDone() && f.get());
+        assertEquals(2000, engine.getAppliedCount(0));
+    }
+
+    @Test
+    public void testSubmissionsAfterShutdownAreRejected() throws Exception
+    {
+        ShardedIntegrityEngine engine=new ShardedIntegrityEngine(2,4,2,4);
+        CompletableFuture<Boolean> accepted=engine.submit("p", "ma", ROLE, TestHashes.md5(1));
+        engine.shutdown();
+
+        assertTrue(accepted.get(1, TimeUnit.SECONDS));
+        assertFalse(engine.isRunning());
+        try{
+            engine.submit("p", "ma", ROLE, TestHashes.md5(2));
+            fail("The transaction has been accepted after the shutdown");
+        }catch(IntegrityRecordException e)
+        {
+            //expected
+        }
+        try{
+            engine.flush();
+            fail("The flush has been accepted after the shutdown");
+        }catch(IntegrityRecordException e)
+        {
+            //expected
+        }
+        engine.shutdown();//It is idempotent
+    }
+
+    @Test
+    public void testShutdownCompletesTheTasksOfBlockedProducers() throws Exception
+    {
+        final ShardedIntegrityEngine engine=new ShardedIntegrityEngine(2,4,1,1);
+        final ConcurrentLinkedQueue<CompletableFuture<Boolean>> futures=new ConcurrentLinkedQueue<>();
+        final ConcurrentLinkedQueue<Throwable> rejections=new ConcurrentLinkedQueue<>();
+        List<Thread> producers=new ArrayList<>();
+        for(int t=0;t<4;t++)
+        {
+            final int id=t;
+            Thread producer=new Thread(() -> {
+                for(int i=0;i<200;i++)
+                {
+                    try{
+                        futures.add(engine.submit("p", "ma"+id, ROLE, TestHashes.md5(i)));
+                    }catch(IntegrityRecordException e)
+                    {
+                        rejections.add(e);
+                    }
+                }
+            });
+            producers.add(producer);
+            producer.start();
+        }
+        engine.shutdown();
+        for(Thread producer:producers) producer.join();
+
+        for(CompletableFuture<Boolean> f:futures) assertTrue(f.get(1, TimeUnit.SECONDS));
+        assertEquals(800, futures.size()+rejections.size());
+    }
+}
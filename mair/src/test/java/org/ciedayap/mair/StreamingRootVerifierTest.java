@@ -0,0 +1,169 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * It verifies the streaming reconstruction of the roots against the trees
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class StreamingRootVerifierTest {
+    private static final int LEVELS=4;
+
+    /**
+     * It pushes the transactions into the tree and returns the leaves of its window (the oldest first, null for the empty ones)
+     */
+    private static List<String> fill(BDTree tree,int count) throws Exception
+    {
+        List<String> pushed=new ArrayList<>();
+        for(int i=0;i<count;i++)
+        {
+            String hash=TestHashes.md5(i);
+            assertTrue(tree.push(hash));
+            pushed.add(hash);
+        }
+
+        int capacity=BDTree.getMaxNumberOfTransactions(tree.getLevels());
+        List<String> leaves=new ArrayList<>();
+        for(int i=count-capacity;i<count;i++) leaves.add((i<0)?null:pushed.get(i));
+
+        return leaves;
+    }
+
+    private static String stream(StreamingRootVerifier verifier,List<String> leaves) throws Exception
+    {
+        for(String leaf:leaves) verifier.add(leaf);
+        assertTrue(verifier.isComplete());
+        assertEquals(leaves.size(), verifier.getReceived());
+
+        return verifier.getRootHash();
+    }
+
+    private static String text(List<String> leaves,boolean emptyLines)
+    {
+        StringBuilder sb=new StringBuilder();
+        for(String leaf:leaves) sb.append((leaf!=null)?leaf:(emptyLines?"":StreamingRootVerifier.NULL_LEAF)).append('\n');
+
+        return sb.toString();
+    }
+
+    @Test
+    public void testFullPartialAndEmptyWindows() throws Exception
+    {
+        for(int count:new int[]{0,1,3,5,16,40})
+        {
+            BDTree tree=BDTree.create(LEVELS);
+            List<String> leaves=fill(tree,count);
+            StreamingRootVerifier verifier=new StreamingRootVerifier(LEVELS);
+            assertEquals("Transactions: "+count, tree.getRootHash(), stream(verifier,leaves));
+            assertEquals(count>0, verifier.verify(tree.getRootHash()));
+        }
+
+        //A window without transactions has not root
+        StreamingRootVerifier empty=new StreamingRootVerifier(2);
+        for(int i=0;i<4;i++) empty.add(null);
+        assertNull(empty.getRootHash());
+        assertFalse(empty.verify(TestHashes.md5(0)));
+    }
+
+    @Test
+    public void testTruncatedCompactTrees() throws Exception
+    {
+        for(int length:new int[]{8,12})
+        {
+            for(boolean truncateLeaves:new boolean[]{false,true})
+            {
+                for(int count:new int[]{3,16,21})
+                {
+                    BDTree tree=new BDTree(LEVELS,length,truncateLeaves);
+                    List<String> leaves=fill(tree,count);
+                    String root=stream(new StreamingRootVerifier(LEVELS,length,truncateLeaves),leaves);
+                    assertEquals(length+"/"+truncateLeaves+"/"+count, tree.getRootHash(), root);
+                }
+            }
+        }
+
+        try{
+            new StreamingRootVerifier(LEVELS,10,false);
+            fail("The digest length is not supported");
+        }catch(BDTreeException e)
+        {
+            //Expected
+        }
+    }
+
+    @Test
+    public void testEntryPoints() throws Exception
+    {
+        BDTree tree=BDTree.create(LEVELS);
+        List<String> leaves=fill(tree,11);
+        String root=tree.getRootHash();
+
+        assertTrue(StreamingRootVerifier.verify(LEVELS, leaves.iterator(), root));
+        assertFalse(StreamingRootVerifier.verify(LEVELS, leaves.iterator(), TestHashes.md5("x")));
+
+        for(boolean emptyLines:new boolean[]{false,true})
+        {
+            byte bytes[]=text(leaves,emptyLines).getBytes(StandardCharsets.UTF_8);
+            assertTrue(StreamingRootVerifier.verify(LEVELS, new ByteArrayInputStream(bytes), root));
+            assertTrue(StreamingRootVerifier.verify(LEVELS, Channels.newChannel(new ByteArrayInputStream(bytes)), root));
+        }
+
+        assertFalse(StreamingRootVerifier.verify(LEVELS, (Iterator<String>)null, root));
+        assertFalse(StreamingRootVerifier.verify(LEVELS, (InputStream)null, root));
+        assertFalse(StreamingRootVerifier.verify(LEVELS, (ReadableByteChannel)null, root));
+    }
+
+    @Test
+    public void testTooManyAndTooFewLeaves() throws Exception
+    {
+        BDTree tree=BDTree.create(LEVELS);
+        List<String> leaves=fill(tree,20);
+        String root=tree.getRootHash();
+
+        List<String> more=new ArrayList<>(leaves);
+        more.add(TestHashes.md5("extra"));
+        List<String> fewer=new ArrayList<>(leaves.subList(1, leaves.size()));
+
+        assertFalse(StreamingRootVerifier.verify(LEVELS, more.iterator(), root));
+        assertFalse(StreamingRootVerifier.verify(LEVELS, fewer.iterator(), root));
+        assertFalse(StreamingRootVerifier.verify(LEVELS, new ByteArrayInputStream(text(more,false).getBytes(StandardCharsets.UTF_8)), root));
+        assertFalse(StreamingRootVerifier.verify(LEVELS, new ByteArrayInputStream(text(fewer,false).getBytes(StandardCharsets.UTF_8)), root));
+
+        StreamingRootVerifier verifier=new StreamingRootVerifier(LEVELS);
+        for(String leaf:fewer) verifier.add(leaf);
+        assertFalse(verifier.isComplete());
+        assertFalse(verifier.verify(root));
+        try{
+            verifier.getRootHash();
+            fail("There are missing leaves");
+        }catch(BDTreeException e)
+        {
+            //Expected
+        }
+
+        verifier.add(TestHashes.md5(19));
+        try{
+            verifier.add(TestHashes.md5("extra"));
+            fail("All the leaves have been received");
+        }catch(BDTreeException e)
+        {
+            //Expected
+        }
+    }
+}
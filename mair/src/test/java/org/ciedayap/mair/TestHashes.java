@@ -0,0 +1,35 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * It generates deterministic MD5 hashes for the tests
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+final class TestHashes {
+    private TestHashes()
+    {
+    }
+
+    /**
+     * @param value The value to be hashed
+     * @return The lower-case hexadecimal MD5 hash of the value
+     */
+    static String md5(Object value)
+    {
+        try {
+            return BDTree.toHexString(MessageDigest.getInstance("MD5").digest(String.valueOf(value).getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+}
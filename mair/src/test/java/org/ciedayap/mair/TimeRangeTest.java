@@ -0,0 +1,102 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * It verifies the per-leaf timestamps and the time-range queries
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class TimeRangeTest {
+    private static final int LEVELS=4;
+
+    /**
+     * It fills the window with transactions whose timestamps are 10, 20, ..., 160
+     */
+    private static BDTree filled(BDTree tree) throws Exception
+    {
+        for(int i=1;i<=16;i++) assertTrue(tree.push(TestHashes.md5(i), 10L*i));
+
+        return tree;
+    }
+
+    @Test
+    public void testOffsetRange() throws Exception
+    {
+        BDTree tree=filled(BDTree.create(LEVELS));
+
+        assertEquals(10, tree.getTimestamp(1));
+        assertEquals(160, tree.getTimestamp(16));
+        assertArrayEquals(new int[]{3,5}, tree.getOffsetRange(25, 55));
+        assertArrayEquals(new int[]{3,5}, tree.getOffsetRange(30, 50));
+        assertArrayEquals(new int[]{1,16}, tree.getOffsetRange(Long.MIN_VALUE, Long.MAX_VALUE));
+        assertNull(tree.getOffsetRange(161, 200));
+        assertNull(tree.getOffsetRange(31, 39));
+        assertNull(tree.getOffsetRange(50, 30));
+    }
+
+    @Test
+    public void testOlderTimestampIsRejectedAndMissingOneIsInherited() throws Exception
+    {
+        BDTree tree=filled(BDTree.create(LEVELS));
+        String root=tree.getRootHash();
+
+        assertFalse(tree.push(TestHashes.md5("old"), 100L));
+        assertEquals(root, tree.getRootHash());
+
+        assertTrue(tree.push(TestHashes.md5("none")));
+        assertEquals(160, tree.getTimestamp(16));
+        assertEquals(160, tree.getTimestamp(15));
+    }
+
+    @Test
+    public void testHashesBetweenAndVerification() throws Exception
+    {
+        BDTree tree=filled(BDTree.create(LEVELS));
+
+        String hashes[]=tree.getHashesBetween(20, 140);
+        assertEquals(13, hashes.length);
+        for(int i=0;i<hashes.length;i++) assertEquals(TestHashes.md5(i+2), hashes[i]);
+
+        String cover[]=tree.getCoveringHashes(20, 140);
+        assertTrue(cover.length>0 && cover.length<=2*LEVELS);
+
+        assertTrue(tree.verifyTimeRange(20, 140, hashes));
+        assertTrue(tree.verifyTimeRange(31, 39, new String[0]));
+
+        String tampered[]=hashes.clone();
+        tampered[6]=TestHashes.md5("tampered");
+        assertFalse(tree.verifyTimeRange(20, 140, tampered));
+        assertFalse(tree.verifyTimeRange(20, 150, hashes));
+    }
+
+    @Test
+    public void testTimestampsShiftWithTheWindow() throws Exception
+    {
+        BDTree tree=filled(BDTree.create(LEVELS));
+        for(int i=17;i<=20;i++) tree.push(TestHashes.md5(i), 10L*i);
+
+        assertEquals(50, tree.getTimestamp(1));
+        assertNull(tree.getOffsetRange(10, 40));
+        assertArrayEquals(new String[]{TestHashes.md5(19),TestHashes.md5(20)}, tree.getHashesBetween(190, 200));
+    }
+
+    @Test
+    public void testMARecordQueries() throws Exception
+    {
+        MAIntegrityRecord record=new MAIntegrityRecord(LEVELS,MAIntegrityRecord.ROLE_DATA_COLLECTOR);
+        for(int i=1;i<=16;i++) assertTrue(record.addTransaction(MAIntegrityRecord.ROLE_DATA_COLLECTOR, TestHashes.md5(i), 10L*i));
+
+        String hashes[]=record.getHashesBetween(40, 80);
+        assertEquals(5, hashes.length);
+        assertTrue(record.verifyTimeRange(40, 80, hashes));
+        assertArrayEquals(new int[]{4,8}, record.getOffsetRange(40, 80));
+    }
+}
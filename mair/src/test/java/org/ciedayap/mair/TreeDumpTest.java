@@ -0,0 +1,133 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.nio.channels.Channels;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * It verifies the paginated dumps of the trees
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class TreeDumpTest {
+    private static final int LEVELS=4;
+
+    private static BDTree filled(BDTree tree,int count) throws Exception
+    {
+        for(int i=0;i<count;i++) tree.push(TestHashes.md5(i));
+
+        return tree;
+    }
+
+    @Test
+    public void testTextPagesMatchTheWholeDump() throws Exception
+    {
+        BDTree tree=filled(BDTree.create(LEVELS),20);
+        int nodes=BDTree.getTotalRequiredNodes(LEVELS);
+
+        StringBuilder sb=new StringBuilder();
+        int pages=0;
+        for(int next=1;next!=0;pages++) next=tree.dump(sb, next, nodes, 7);
+
+        assertEquals((nodes+6)/7, pages);
+        assertEquals(tree.toString(), sb.toString());
+        assertEquals(nodes, sb.toString().split("\n").length);
+    }
+
+    @Test
+    public void testPartialRange() throws Exception
+    {
+        BDTree tree=filled(BDTree.create(LEVELS),20);
+        int leaves[]=BDTree.getNodeRangeOfLevels(LEVELS, LEVELS, LEVELS);
+
+        StringBuilder sb=new StringBuilder();
+        assertEquals(0, tree.dump(sb, leaves[0], leaves[1], 100));
+        String lines[]=sb.toString().split("\n");
+        assertEquals(16, lines.length);
+        assertTrue(lines[15].endsWith(TestHashes.md5(19)));
+
+        assertEquals(0, tree.dump(new StringBuilder(), 0, 10, 10));
+        assertEquals(0, tree.dump(new StringBuilder(), 1, 10, 0));
+    }
+
+    /**
+     * It reads the binary pages and compares each hash with the one reported by the tree
+     */
+    private static void assertBinaryPages(BDTree tree,byte bytes[],int pageSize) throws Exception
+    {
+        DataInputStream in=new DataInputStream(new ByteArrayInputStream(bytes));
+        int expected=1;
+        while(in.available()>0)
+        {
+            assertEquals(BDTree.DUMP_MAGIC, in.readInt());
+            assertEquals(BDTree.DUMP_VERSION, in.readByte());
+            assertEquals(LEVELS, in.readByte());
+            in.readByte();
+            in.readByte();
+            assertEquals(expected, in.readInt());
+            int count=in.readInt();
+            assertTrue(count<=pageSize);
+            for(int i=0;i<count;i++,expected++)
+            {
+                int length=in.readByte();
+                String hash=null;
+                if(length>0)
+                {
+                    byte digest[]=new byte[length];
+                    in.readFully(digest);
+                    hash=BDTree.toHexString(digest);
+                }
+                else if(length<0) hash=in.readUTF();
+
+                String stored=tree.getNodeHash(expected);
+                if(stored==null) assertNull(hash);
+                else assertTrue(stored.equalsIgnoreCase(hash));
+            }
+        }
+        assertEquals(BDTree.getTotalRequiredNodes(LEVELS)+1, expected);
+    }
+
+    private static byte[] binaryDump(BDTree tree,int pageSize,boolean channel) throws Exception
+    {
+        ByteArrayOutputStream out=new ByteArrayOutputStream();
+        int nodes=BDTree.getTotalRequiredNodes(LEVELS);
+        for(int next=1;next!=0;)
+            next=channel?tree.dump(Channels.newChannel(out), next, nodes, pageSize):tree.dump(out, next, nodes, pageSize);
+
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testBinaryPages() throws Exception
+    {
+        BDTree partial=filled(BDTree.create(LEVELS),5);
+        assertBinaryPages(partial, binaryDump(partial,8,false), 8);
+
+        BDTree full=filled(BDTree.create(LEVELS),40);
+        assertBinaryPages(full, binaryDump(full,5,true), 5);
+
+        BDTree compact=filled(new BDTree(LEVELS,8,true),40);
+        assertBinaryPages(compact, binaryDump(compact,31,false), 31);
+    }
+
+    @Test
+    public void testRecordDump() throws Exception
+    {
+        GlobalIntegrityRecord record=new GlobalIntegrityRecord(LEVELS,4);
+        for(int i=0;i<20;i++) record.addTransaction("p", "ma", MAIntegrityRecord.ROLE_DATA_COLLECTOR, TestHashes.md5(i));
+
+        StringBuilder sb=new StringBuilder();
+        assertEquals(0, record.dump("p", "ma", sb, 1, 31, 31));
+        assertEquals(record.getRecord("p", "ma").toString(), sb.toString());
+        assertEquals(-1, record.dump("p", "unknown", new StringBuilder(), 1, 31, 31));
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * It verifies the pool of trees and the removal of measurement adapters
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class TreeRecyclingTest {
+    private static final short ROLE=MAIntegrityRecord.ROLE_DATA_COLLECTOR;
+    private static final int LEVELS=3;
+
+    @Test
+    public void testRemovedTreeIsReusedClean() throws Exception
+    {
+        BDTreePool pool=new BDTreePool();
+        GlobalIntegrityRecord record=new GlobalIntegrityRecord(LEVELS,4);
+        record.setTreePool(pool);
+
+        for(int i=0;i<10;i++) record.addTransaction("p", "ma0", ROLE, TestHashes.md5(i));
+        MAIntegrityRecord removed=record.getRecord("p", "ma0");
+        assertTrue(record.removeMA("p", "ma0"));
+        assertTrue(removed.isRecycled());
+        assertEquals(1, pool.getPooledCount(LEVELS));
+        assertNull(record.getRecord("p", "ma0"));
+
+        record.addTransaction("p", "ma1", ROLE, TestHashes.md5("x"));
+        assertEquals(0, pool.getPooledCount(LEVELS));
+        assertEquals(1, pool.getHits());
+
+        BDTree expected=BDTree.create(LEVELS);
+        expected.push(TestHashes.md5("x"));
+        assertEquals(expected.getRootHash(), record.getRecord("p", "ma1").getRootHash());
+        assertFalse(removed.hasWholeIntegrity(expected.getRootHash()));
+    }
+
+    @Test
+    public void testReplacedRecordIsNotResolvedThroughItsIntegerID() throws Exception
+    {
+        GlobalIntegrityRecord record=new GlobalIntegrityRecord(LEVELS,4);
+        int prj=record.registerProject("p");
+        int ma=record.registerMA("ma");
+
+        assertTrue(record.addTransaction(prj, ma, ROLE, TestHashes.md5(0)));
+        assertTrue(record.addTransaction(prj, ma, ROLE, TestHashes.md5(1)));
+        MAIntegrityRecord previous=record.getRecord("p", "ma");
+
+        MAIntegrityRecord replacement=new MAIntegrityRecord(LEVELS,ROLE);
+        record.getOrCreateProject("p").putRecord("ma", replacement);
+        assertTrue(record.addTransaction(prj, ma, ROLE, TestHashes.md5(2)));
+
+        assertEquals(2, previous.getVersion());
+        assertEquals(1, replacement.getVersion());
+        assertSame(replacement, record.getRecord("p", "ma"));
+    }
+
+    @Test
+    public void testDumpOfARecycledRecord() throws Exception
+    {
+        MAIntegrityRecord record=new MAIntegrityRecord(LEVELS,ROLE,new BDTreePool());
+        record.addTransaction(ROLE, TestHashes.md5(0));
+
+        StringBuilder sb=new StringBuilder();
+        assertEquals(0, record.dump(sb, 1, BDTree.getTotalRequiredNodes(LEVELS), 100));
+        assertTrue(sb.indexOf(TestHashes.md5(0))>=0);
+
+        assertTrue(record.recycle());
+        sb.setLength(0);
+        assertEquals(0, record.dump(sb, 1, BDTree.getTotalRequiredNodes(LEVELS), 100));
+        assertEquals(0, sb.length());
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair;
+
+import java.io.IOException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * It verifies the archiving of the windows that slide out of the trees
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class WindowArchiveTest {
+    private static final short ROLE=MAIntegrityRecord.ROLE_DATA_COLLECTOR;
+
+    /**
+     * It is an archive whose storage always fails
+     */
+    private static class FailingArchive extends WindowArchive {
+        @Override
+        protected void write(long seq,byte root[],byte chain[]) throws IOException
+        {
+            throw new IOException("disk full");
+        }
+
+        @Override
+        protected long sequenceAt(long idx) throws IOException
+        {
+            throw new IOException("empty");
+        }
+
+        @Override
+        protected void read(long idx,byte root[],byte chain[]) throws IOException
+        {
+            throw new IOException("empty");
+        }
+
+        @Override
+        public long size()
+        {
+            return 0;
+        }
+    }
+
+    @Test
+    public void testWholeWindowsAreArchived() throws Exception
+    {
+        MAIntegrityRecord record=new MAIntegrityRecord(2,ROLE);
+        record.setArchive(new MemoryWindowArchive());
+        String roots[]=new String[3];
+        for(int i=0;i<12;i++)
+        {
+            assertTrue(record.addTransaction(ROLE, TestHashes.md5(i)));
+            if((i+1)%4==0) roots[(i+1)/4-1]=record.getRootHash();
+        }
+
+        assertEquals(3, record.getArchive().size());
+        for(int n=1;n<=3;n++)
+        {
+            assertEquals(roots[n-1], record.getArchivedRootHash(n));
+            assertTrue(record.verifyArchivedWindow(roots[n-1], n));
+        }
+        assertFalse(record.verifyArchivedWindow(roots[0], 2));
+        assertEquals(0, record.getArchiveFailures());
+    }
+
+    @Test
+    public void testRecordCountsArchiveFailures() throws Exception
+    {
+        MAIntegrityRecord record=new MAIntegrityRecord(2,ROLE);
+        record.setArchive(new FailingArchive());
+        for(int i=0;i<8;i++) assertTrue(record.addTransaction(ROLE, TestHashes.md5(i)));
+
+        assertEquals(2, record.getArchiveFailures());
+        assertEquals("disk full", record.getArchiveError().getMessage());
+        assertEquals(8, record.getVersion());
+    }
+
+    @Test
+    public void testProjectSurfacesArchiveFailures() throws Exception
+    {
+        GlobalIntegrityRecord global=new GlobalIntegrityRecord(2,4,4);
+        global.setArchiveFactory((projectID,maID) -> new FailingArchive());
+        for(int i=0;i<3;i++) assertTrue(global.addTransaction("p", "ma", ROLE, TestHashes.md5(i)));
+
+        try{
+            global.addTransaction("p", "ma", ROLE, TestHashes.md5(3));
+            fail("The archive failure has not been reported");
+        }catch(IntegrityRecordException e)
+        {
+            assertTrue(e.getMessage().contains("disk full"));
+        }
+
+        //The transaction has been incorporated and the roots are up to date
+        MAIntegrityRecord record=global.getRecord("p", "ma");
+        assertEquals(4, record.getVersion());
+        assertEquals(1, record.getArchiveFailures());
+        assertEquals(global.getOrCreateProject("p").getProjectRootHash(), global.getProjectRootHash("p"));
+        assertTrue(global.addTransaction("p", "ma", ROLE, TestHashes.md5(4)));
+    }
+}
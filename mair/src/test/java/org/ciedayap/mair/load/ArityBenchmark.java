@@ -0,0 +1,196 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair.load;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import org.ciedayap.mair.BDTree;
+import org.ciedayap.mair.IntegrityTree;
+import org.ciedayap.mair.KaryProof;
+import org.ciedayap.mair.KaryTree;
+import org.ciedayap.mair.MultiProof;
+
+/**
+ * It compares the binary layouts of BDTree (default and compact) with the k-ary layouts of KaryTree for the same
+ * window of 2^bits transactions. For each layout, it reports the height of the tree, the time and the MD5 hashes
+ * by push, and the size and verification time of the proof of a single transaction. A k-ary proof has fewer levels
+ * but arity-1 siblings by level, so it is larger than the binary one; the k-ary layouts trade proof size for push cost.
+ * The layouts whose levels do not fit the window (e.g. 8-ary for 2^10) are skipped.
+ * <p>
+ * Usage (after mvn test-compile): java -cp target/classes:target/test-classes org.ciedayap.mair.load.ArityBenchmark [bits=12] [pushes=100000] [warmup=20000] [proofs=2000] [seed=1] [out=file]
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class ArityBenchmark {
+    private static final int HASH_POOL=4096;
+    private static final int DIGEST_LENGTH=BDTree.DIGEST_LENGTH;
+    private static final int ARITIES[]={4,8,16};
+
+    private int bits=12;
+    private int pushes=100000;
+    private int warmup=20000;
+    private int proofs=2000;
+    private long seed=1;
+    private String out;
+    private byte digests[];
+
+    /**
+     * It parses the parameters expressed as key=value
+     * @param args The parameters
+     * @return The benchmark
+     * @throws IllegalArgumentException It is raised when a parameter is unknown or its value is not valid
+     */
+    public static ArityBenchmark parse(String args[])
+    {
+        ArityBenchmark b=new ArityBenchmark();
+        if(args==null) return b;
+
+        for(String arg:args)
+        {
+            if(arg==null || arg.trim().length()==0) continue;
+            String a=arg.trim();
+            while(a.startsWith("-")) a=a.substring(1);
+            int eq=a.indexOf('=');
+            if(eq<1) throw new IllegalArgumentException("Expected key=value: "+arg);
+            String key=a.substring(0,eq).trim();
+            String value=a.substring(eq+1).trim();
+            try{
+                switch(key)
+                {
+                    case "bits": b.bits=Integer.parseInt(value); break;
+                    case "pushes": b.pushes=Integer.parseInt(value); break;
+                    case "warmup": b.warmup=Integer.parseInt(value); break;
+                    case "proofs": b.proofs=Integer.parseInt(value); break;
+                    case "seed": b.seed=Long.parseLong(value); break;
+                    case "out": b.out=value; break;
+                    default: throw new IllegalArgumentException("Unknown parameter: "+key);
+                }
+            }catch(NumberFormatException e)
+            {
+                throw new IllegalArgumentException("Invalid value for "+key+": "+value);
+            }
+        }
+        if(b.bits<2 || b.bits>20) throw new IllegalArgumentException("The bits must be between 2 and 20");
+        if(b.pushes<1 || b.warmup<0 || b.proofs<1) throw new IllegalArgumentException("The pushes and proofs must be positive");
+
+        return b;
+    }
+
+    /**
+     * It runs the comparison
+     * @return The JSON report
+     * @throws Exception It is raised when the trees cannot be created
+     */
+    public String run() throws Exception
+    {
+        SplittableRandom rnd=new SplittableRandom(seed);
+        digests=new byte[HASH_POOL*DIGEST_LENGTH];
+        for(int i=0;i<digests.length;i++) digests[i]=(byte)rnd.nextInt(256);
+
+        StringBuilder sb=new StringBuilder(1024);
+        sb.append("{\"bits\":").append(bits)
+          .append(",\"capacity\":").append(1<<bits)
+          .append(",\"pushes\":").append(pushes)
+          .append(",\"layouts\":[");
+        measure(sb,"binary",BDTree.create(bits));
+        sb.append(',');
+        measure(sb,"binary-compact",new BDTree(bits,DIGEST_LENGTH,false));
+        for(int arity:ARITIES)
+        {
+            int levels=KaryTree.getLevelsForCapacity(arity, 1<<bits);
+            if(levels<1) continue;
+            sb.append(',');
+            measure(sb,arity+"-ary",new KaryTree(arity,levels));
+        }
+        sb.append("]}");
+
+        return sb.toString();
+    }
+
+    private void measure(StringBuilder sb,String name,IntegrityTree tree) throws Exception
+    {
+        int capacity=tree.getCapacity();
+        //The window is filled before the warm up, so every measured push recomputes a full tree
+        int fill=Math.max(capacity, warmup);
+        for(int i=0;i<fill;i++) tree.pushDigest(digests, (i%HASH_POOL)*DIGEST_LENGTH, BDTree.NO_TIMESTAMP);
+
+        long hashes=tree.getHashCount();
+        long t0=System.nanoTime();
+        for(int i=0;i<pushes;i++) tree.pushDigest(digests, ((fill+i)%HASH_POOL)*DIGEST_LENGTH, BDTree.NO_TIMESTAMP);
+        long pushNanos=System.nanoTime()-t0;
+        hashes=tree.getHashCount()-hashes;
+
+        SplittableRandom rnd=new SplittableRandom(seed);
+        String root=tree.getRootHash();
+        long siblings=0, verifyNanos=0, failures=0;
+        for(int i=0;i<proofs;i++)
+        {
+            int offset=1+rnd.nextInt(capacity);
+            String leaf=tree.getOffsetHash(offset);
+            boolean ok;
+            long t1;
+            if(tree instanceof KaryTree)
+            {
+                KaryProof proof=((KaryTree)tree).getProof(offset);
+                siblings+=proof.size();
+                t1=System.nanoTime();
+                ok=proof.verify(leaf, root);
+            }
+            else
+            {
+                MultiProof proof=((BDTree)tree).getMultiProof(new int[]{offset});
+                siblings+=proof.size();
+                t1=System.nanoTime();
+                ok=proof.verify(new String[]{leaf}, root);
+            }
+            verifyNanos+=System.nanoTime()-t1;
+            if(!ok) failures++;
+        }
+
+        sb.append("{\"layout\":\"").append(name)
+          .append("\",\"arity\":").append(tree.getArity())
+          .append(",\"height\":").append(tree.getLevels())
+          .append(",\"nsPerPush\":").append(round(pushNanos/(double)pushes))
+          .append(",\"hashesPerPush\":").append(round(hashes/(double)pushes))
+          .append(",\"proofSiblings\":").append(round(siblings/(double)proofs))
+          .append(",\"proofBytes\":").append(round(siblings*DIGEST_LENGTH/(double)proofs))
+          .append(",\"nsPerProofVerify\":").append(round(verifyNanos/(double)proofs))
+          .append(",\"proofFailures\":").append(failures).append('}');
+    }
+
+    private static double round(double v)
+    {
+        return Math.round(v*1000.0)/1000.0;
+    }
+
+    /**
+     * It runs the comparison from the command line, writing the report to the standard output
+     * or to the file indicated through the "out" parameter.
+     * @param args The parameters as key=value
+     * @throws Exception It is raised when the comparison cannot be run
+     */
+    public static void main(String args[]) throws Exception
+    {
+        ArityBenchmark b=parse(args);
+        String json=b.run();
+        if(b.out==null)
+        {
+            System.out.println(json);
+            return;
+        }
+
+        try(Writer w=new OutputStreamWriter(new FileOutputStream(new File(b.out)),StandardCharsets.UTF_8))
+        {
+            w.write(json);
+            w.write('\n');
+        }
+    }
+}
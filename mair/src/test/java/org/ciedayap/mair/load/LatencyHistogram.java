@@ -0,0 +1,120 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair.load;
+
+/**
+ * It is a log-linear histogram of latencies in nanoseconds. Each power of two is split into 64 buckets,
+ * so the percentiles are reported with a relative error under 1.6% while the memory is fixed.
+ * It is not thread-safe: each thread records into its own histogram and they are merged at the end.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS=6;
+    private static final int SUB_MASK=(1<<SUB_BITS)-1;
+    private static final int BUCKETS=(64-SUB_BITS+1)<<SUB_BITS;
+
+    private final long counts[];
+    private long total;
+    private long sum;
+    private long max;
+
+    public LatencyHistogram()
+    {
+        counts=new long[BUCKETS];
+    }
+
+    /**
+     * It records a latency
+     * @param nanos The latency in nanoseconds (the negative values are recorded as 0)
+     */
+    public void record(long nanos)
+    {
+        if(nanos<0) nanos=0;
+
+        counts[indexOf(nanos)]++;
+        total++;
+        sum+=nanos;
+        if(nanos>max) max=nanos;
+    }
+
+    /**
+     * It adds the latencies recorded by another histogram
+     * @param other The histogram to be merged
+     */
+    public void merge(LatencyHistogram other)
+    {
+        for(int i=0;i<BUCKETS;i++) counts[i]+=other.counts[i];
+        total+=other.total;
+        sum+=other.sum;
+        if(other.max>max) max=other.max;
+    }
+
+    /**
+     * It returns the latency under which the indicated fraction of the records is found
+     * @param fraction The fraction (e.g. 0.99 for the 99th percentile)
+     * @return The latency in nanoseconds (0 when there are no records)
+     */
+    public long getPercentile(double fraction)
+    {
+        if(total==0) return 0;
+
+        long target=(long)Math.ceil(fraction*total);
+        if(target<1) target=1;
+        long seen=0;
+        for(int i=0;i<BUCKETS;i++)
+        {
+            seen+=counts[i];
+            if(seen>=target) return Math.min(max, highestOf(i));
+        }
+
+        return max;
+    }
+
+    /**
+     * @return The number of recorded latencies
+     */
+    public long getCount()
+    {
+        return total;
+    }
+
+    /**
+     * @return The mean latency in nanoseconds
+     */
+    public double getMean()
+    {
+        return (total==0)?0:((double)sum)/total;
+    }
+
+    /**
+     * @return The max latency in nanoseconds
+     */
+    public long getMax()
+    {
+        return max;
+    }
+
+    private static int indexOf(long value)
+    {
+        int msb=63-Long.numberOfLeadingZeros(value);
+        if(msb<SUB_BITS) return (int)value;
+
+        return ((msb-SUB_BITS+1)<<SUB_BITS) | (int)((value>>>(msb-SUB_BITS)) & SUB_MASK);
+    }
+
+    private static long highestOf(int index)
+    {
+        int block=index>>>SUB_BITS;
+        if(block==0) return index;
+
+        int shift=block-1;
+        long lowest=((long)((1<<SUB_BITS) | (index & SUB_MASK)))<<shift;
+
+        return lowest+(1L<<shift)-1;
+    }
+}
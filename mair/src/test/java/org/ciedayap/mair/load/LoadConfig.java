@@ -0,0 +1,232 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair.load;
+
+/**
+ * It describes the workload to be generated by the load harness. Each parameter can be indicated
+ * from the command line as key=value (or --key=value). The defaults describe 500 projects with 200
+ * measurement adapters each, running during one minute after a warm up of ten seconds.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class LoadConfig {
+    /**
+     * The transactions are added through the string IDs of the global integrity record
+     */
+    public static final String MODE_DIRECT="direct";
+    /**
+     * The transactions are added through the integer IDs assigned by the global integrity record
+     */
+    public static final String MODE_IDS="ids";
+    /**
+     * The transactions are submitted to a sharded integrity engine
+     */
+    public static final String MODE_SHARDED="sharded";
+
+    private String mode=MODE_DIRECT;
+    private int projects=500;
+    private int mas=200;
+    private int levels=4;
+    private int durationSeconds=60;
+    private int warmupSeconds=10;
+    private int ingestThreads=Math.max(1, Runtime.getRuntime().availableProcessors());
+    private int auditorThreads=1;
+    private double verifyRatio=0.2;
+    private double zipfExponent=1.0;
+    private int burst=1;
+    private long burstPauseMicros=0;
+    private long seed=42;
+    private int shards=Math.max(1, Runtime.getRuntime().availableProcessors());
+    private int queueCapacity=1024;
+    private int digestLength=0;
+    private boolean truncateLeaves=false;
+    private String out;
+
+    /**
+     * It creates a configuration from the command line arguments
+     * @param args The arguments as key=value or --key=value
+     * @return The configuration
+     * @throws IllegalArgumentException It is raised when a key is unknown or a value is not valid
+     */
+    public static LoadConfig parse(String args[])
+    {
+        LoadConfig cfg=new LoadConfig();
+        if(args==null) return cfg;
+
+        for(String arg:args)
+        {
+            if(arg==null || arg.trim().length()==0) continue;
+            String a=arg.trim();
+            while(a.startsWith("-")) a=a.substring(1);
+            int eq=a.indexOf('=');
+            if(eq<1) throw new IllegalArgumentException("Expected key=value: "+arg);
+            cfg.set(a.substring(0,eq).trim(), a.substring(eq+1).trim());
+        }
+        cfg.validate();
+
+        return cfg;
+    }
+
+    /**
+     * It sets a parameter
+     * @param key The parameter name
+     * @param value The parameter value
+     * @return The same configuration
+     * @throws IllegalArgumentException It is raised when the key is unknown or the value is not valid
+     */
+    public LoadConfig set(String key,String value)
+    {
+        try{
+            switch(key)
+            {
+                case "mode": mode=value; break;
+                case "projects": projects=Integer.parseInt(value); break;
+                case "mas": mas=Integer.parseInt(value); break;
+                case "levels": levels=Integer.parseInt(value); break;
+                case "duration": durationSeconds=Integer.parseInt(value); break;
+                case "warmup": warmupSeconds=Integer.parseInt(value); break;
+                case "ingestThreads": ingestThreads=Integer.parseInt(value); break;
+                case "auditorThreads": auditorThreads=Integer.parseInt(value); break;
+                case "verifyRatio": verifyRatio=Double.parseDouble(value); break;
+                case "zipf": zipfExponent=Double.parseDouble(value); break;
+                case "burst": burst=Integer.parseInt(value); break;
+                case "burstPauseMicros": burstPauseMicros=Long.parseLong(value); break;
+                case "seed": seed=Long.parseLong(value); break;
+                case "shards": shards=Integer.parseInt(value); break;
+                case "queueCapacity": queueCapacity=Integer.parseInt(value); break;
+                case "digestLength": digestLength=Integer.parseInt(value); break;
+                case "truncateLeaves": truncateLeaves=Boolean.parseBoolean(value); break;
+                case "out": out=value; break;
+                default: throw new IllegalArgumentException("Unknown parameter: "+key);
+            }
+        }catch(NumberFormatException e)
+        {
+            throw new IllegalArgumentException("Invalid value for "+key+": "+value);
+        }
+
+        return this;
+    }
+
+    /**
+     * It verifies the consistency of the parameters
+     * @throws IllegalArgumentException It is raised when a parameter is not valid
+     */
+    public void validate()
+    {
+        if(!MODE_DIRECT.equals(mode) && !MODE_IDS.equals(mode) && !MODE_SHARDED.equals(mode))
+            throw new IllegalArgumentException("The mode should be direct, ids or sharded");
+        if(projects<1 || mas<1) throw new IllegalArgumentException("The number of projects and MAs should be upper or equal than 1");
+        if(levels<1) throw new IllegalArgumentException("The levels should be upper or equal than 1");
+        if(durationSeconds<1 || warmupSeconds<0) throw new IllegalArgumentException("Invalid duration or warmup");
+        if(ingestThreads<0 || auditorThreads<0 || (ingestThreads+auditorThreads)==0)
+            throw new IllegalArgumentException("At least one ingest or auditor thread is required");
+        if(verifyRatio<0 || verifyRatio>1) throw new IllegalArgumentException("The verify ratio should be between 0 and 1");
+        if(zipfExponent<0) throw new IllegalArgumentException("The zipf exponent should be upper or equal than 0");
+        if(burst<1 || burstPauseMicros<0) throw new IllegalArgumentException("Invalid burst settings");
+        if(shards<1 || queueCapacity<1) throw new IllegalArgumentException("Invalid shard settings");
+        if(digestLength!=0 && digestLength!=8 && digestLength!=12 && digestLength!=16)
+            throw new IllegalArgumentException("The digest length should be 0, 8, 12 or 16");
+    }
+
+    /**
+     * It adds the configuration as a JSON object to the builder
+     * @param sb The builder
+     */
+    public void toJSON(StringBuilder sb)
+    {
+        sb.append("{\"mode\":\"").append(mode).append('"')
+          .append(",\"projects\":").append(projects)
+          .append(",\"mas\":").append(mas)
+          .append(",\"levels\":").append(levels)
+          .append(",\"durationSeconds\":").append(durationSeconds)
+          .append(",\"warmupSeconds\":").append(warmupSeconds)
+          .append(",\"ingestThreads\":").append(ingestThreads)
+          .append(",\"auditorThreads\":").append(auditorThreads)
+          .append(",\"verifyRatio\":").append(verifyRatio)
+          .append(",\"zipf\":").append(zipfExponent)
+          .append(",\"burst\":").append(burst)
+          .append(",\"burstPauseMicros\":").append(burstPauseMicros)
+          .append(",\"seed\":").append(seed)
+          .append(",\"shards\":").append(shards)
+          .append(",\"queueCapacity\":").append(queueCapacity)
+          .append(",\"digestLength\":").append(digestLength)
+          .append(",\"truncateLeaves\":").append(truncateLeaves)
+          .append('}');
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    public int getProjects() {
+        return projects;
+    }
+
+    public int getMas() {
+        return mas;
+    }
+
+    public int getLevels() {
+        return levels;
+    }
+
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public int getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    public int getIngestThreads() {
+        return ingestThreads;
+    }
+
+    public int getAuditorThreads() {
+        return auditorThreads;
+    }
+
+    public double getVerifyRatio() {
+        return verifyRatio;
+    }
+
+    public double getZipfExponent() {
+        return zipfExponent;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    public long getBurstPauseMicros() {
+        return burstPauseMicros;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public int getDigestLength() {
+        return digestLength;
+    }
+
+    public boolean isTruncateLeaves() {
+        return truncateLeaves;
+    }
+
+    public String getOut() {
+        return out;
+    }
+}
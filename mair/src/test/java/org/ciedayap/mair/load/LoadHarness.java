@@ -0,0 +1,446 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair.load;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import org.ciedayap.mair.GlobalIntegrityRecord;
+import org.ciedayap.mair.MAIntegrityRecord;
+import org.ciedayap.mair.ShardedIntegrityEngine;
+
+/**
+ * It is a runnable load and soak harness for the integrity records. It generates a multi-tenant workload
+ * during a given time, where the activity of the measurement adapters follows a Zipf distribution, the
+ * ingest threads mix transactions and verifications, the transactions may arrive in bursts to the same
+ * measurement adapter, and a set of auditor threads continuously verifies the latest transactions.
+ * Once the warm up is over, it measures the throughput, the latency percentiles (p50, p99, p999) per
+ * operation, and the garbage collection and heap statistics, which are reported as a JSON document.
+ * <p>
+ * Usage (after mvn test-compile): java -cp target/classes:target/test-classes org.ciedayap.mair.load.LoadHarness [key=value ...] (see LoadConfig)
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class LoadHarness {
+    private static final int HASH_POOL=4096;
+    private static final short ROLE=MAIntegrityRecord.ROLE_DATA_COLLECTOR;
+
+    private final LoadConfig cfg;
+    private final Target target;
+    private final ZipfGenerator zipf;
+    private final AtomicReferenceArray<String> lastHash;
+    private final String hashes[];
+    private final int offset;
+    private volatile boolean measuring;
+    private volatile boolean stopped;
+
+    private LoadHarness(LoadConfig cfg) throws Exception
+    {
+        this.cfg=cfg;
+        int total=cfg.getProjects()*cfg.getMas();
+        this.zipf=new ZipfGenerator(total,cfg.getZipfExponent(),cfg.getSeed());
+        this.lastHash=new AtomicReferenceArray<>(total);
+        this.offset=1<<cfg.getLevels();
+
+        SplittableRandom rnd=new SplittableRandom(cfg.getSeed());
+        hashes=new String[HASH_POOL];
+        char hex[]="0123456789abcdef".toCharArray();
+        for(int i=0;i<HASH_POOL;i++)
+        {
+            char h[]=new char[32];
+            for(int j=0;j<32;j++) h[j]=hex[rnd.nextInt(16)];
+            hashes[i]=new String(h);
+        }
+
+        switch(cfg.getMode())
+        {
+            case LoadConfig.MODE_IDS: target=new IdsTarget(cfg); break;
+            case LoadConfig.MODE_SHARDED: target=new ShardedTarget(cfg); break;
+            default: target=new DirectTarget(cfg);
+        }
+    }
+
+    /**
+     * It runs the workload described by the configuration
+     * @param cfg The workload configuration
+     * @return The JSON report
+     * @throws Exception It is raised when the integrity records cannot be created
+     */
+    public static String run(LoadConfig cfg) throws Exception
+    {
+        if(cfg==null) throw new IllegalArgumentException("The configuration is required");
+        cfg.validate();
+
+        LoadHarness h=new LoadHarness(cfg);
+        try{
+            return h.execute();
+        }finally{
+            h.target.close();
+        }
+    }
+
+    private String execute() throws InterruptedException
+    {
+        int nThreads=cfg.getIngestThreads()+cfg.getAuditorThreads();
+        CountDownLatch start=new CountDownLatch(1);
+        List<Worker> workers=new ArrayList<>();
+        List<Thread> threads=new ArrayList<>();
+        SplittableRandom seeds=new SplittableRandom(cfg.getSeed()^0x5DEECE66DL);
+        for(int i=0;i<nThreads;i++)
+        {
+            Worker w=new Worker(i>=cfg.getIngestThreads(),seeds.split(),start);
+            Thread t=new Thread(w,(w.auditor?"mair-auditor-":"mair-ingest-")+i);
+            t.setDaemon(true);
+            workers.add(w);
+            threads.add(t);
+            t.start();
+        }
+
+        start.countDown();
+        TimeUnit.SECONDS.sleep(cfg.getWarmupSeconds());
+
+        GcSnapshot before=GcSnapshot.take();
+        for(MemoryPoolMXBean pool:ManagementFactory.getMemoryPoolMXBeans())
+            if(pool.getType()==MemoryType.HEAP) pool.resetPeakUsage();
+        measuring=true;
+        long t0=System.nanoTime();
+        TimeUnit.SECONDS.sleep(cfg.getDurationSeconds());
+        stopped=true;
+        long elapsed=System.nanoTime()-t0;
+        for(Thread t:threads) t.join();
+        GcSnapshot after=GcSnapshot.take();
+
+        return report(workers,elapsed,before,after);
+    }
+
+    private String report(List<Worker> workers,long elapsed,GcSnapshot before,GcSnapshot after)
+    {
+        LatencyHistogram ingest=new LatencyHistogram();
+        LatencyHistogram verify=new LatencyHistogram();
+        LatencyHistogram audit=new LatencyHistogram();
+        long rejected=0, mismatches=0, errors=0;
+        for(Worker w:workers)
+        {
+            ingest.merge(w.ingest);
+            verify.merge(w.verify);
+            audit.merge(w.audit);
+            rejected+=w.rejected;
+            mismatches+=w.mismatches;
+            errors+=w.errors;
+        }
+        double seconds=elapsed/1e9;
+        long ops=ingest.getCount()+verify.getCount()+audit.getCount();
+
+        long peak=0;
+        for(MemoryPoolMXBean pool:ManagementFactory.getMemoryPoolMXBeans())
+            if(pool.getType()==MemoryType.HEAP && pool.getPeakUsage()!=null) peak+=pool.getPeakUsage().getUsed();
+
+        StringBuilder sb=new StringBuilder(1024);
+        sb.append("{\"config\":");
+        cfg.toJSON(sb);
+        sb.append(",\"elapsedSeconds\":").append(round(seconds))
+          .append(",\"throughput\":{\"total\":").append(round(ops/seconds))
+          .append(",\"ingest\":").append(round(ingest.getCount()/seconds))
+          .append(",\"verify\":").append(round(verify.getCount()/seconds))
+          .append(",\"audit\":").append(round(audit.getCount()/seconds)).append('}')
+          .append(",\"latencyMicros\":{");
+        latency(sb,"ingest",ingest);
+        sb.append(',');
+        latency(sb,"verify",verify);
+        sb.append(',');
+        latency(sb,"audit",audit);
+        sb.append('}')
+          .append(",\"rejected\":").append(rejected)
+          .append(",\"verifyMismatches\":").append(mismatches)
+          .append(",\"errors\":").append(errors)
+          .append(",\"gc\":{\"collections\":").append(after.count-before.count)
+          .append(",\"timeMillis\":").append(after.time-before.time).append('}')
+          .append(",\"heap\":{\"usedBytes\":").append(after.heapUsed)
+          .append(",\"peakUsedBytes\":").append(peak)
+          .append(",\"maxBytes\":").append(after.heapMax).append('}')
+          .append('}');
+
+        return sb.toString();
+    }
+
+    private static void latency(StringBuilder sb,String name,LatencyHistogram h)
+    {
+        sb.append('"').append(name).append("\":{\"count\":").append(h.getCount())
+          .append(",\"mean\":").append(round(h.getMean()/1000.0))
+          .append(",\"p50\":").append(round(h.getPercentile(0.50)/1000.0))
+          .append(",\"p99\":").append(round(h.getPercentile(0.99)/1000.0))
+          .append(",\"p999\":").append(round(h.getPercentile(0.999)/1000.0))
+          .append(",\"max\":").append(round(h.getMax()/1000.0)).append('}');
+    }
+
+    private static double round(double v)
+    {
+        return Math.round(v*1000.0)/1000.0;
+    }
+
+    /**
+     * It runs the harness from the command line, writing the report to the standard output
+     * or to the file indicated through the "out" parameter.
+     * @param args The workload parameters as key=value
+     * @throws Exception It is raised when the harness cannot be run
+     */
+    public static void main(String args[]) throws Exception
+    {
+        LoadConfig cfg=LoadConfig.parse(args);
+        String json=run(cfg);
+        if(cfg.getOut()==null)
+        {
+            System.out.println(json);
+            return;
+        }
+
+        try(Writer w=new OutputStreamWriter(new FileOutputStream(new File(cfg.getOut())),StandardCharsets.UTF_8))
+        {
+            w.write(json);
+            w.write('\n');
+        }
+    }
+
+    /**
+     * It is a thread generating the workload. The ingest workers mix transactions and verifications
+     * according to the verify ratio, while the auditors only verify the latest known transactions.
+     */
+    private class Worker implements Runnable {
+        private final boolean auditor;
+        private final SplittableRandom rnd;
+        private final CountDownLatch start;
+        private final LatencyHistogram ingest=new LatencyHistogram();
+        private final LatencyHistogram verify=new LatencyHistogram();
+        private final LatencyHistogram audit=new LatencyHistogram();
+        private long rejected;
+        private long mismatches;
+        private long errors;
+
+        Worker(boolean auditor,SplittableRandom rnd,CountDownLatch start)
+        {
+            this.auditor=auditor;
+            this.rnd=rnd;
+            this.start=start;
+        }
+
+        @Override
+        public void run()
+        {
+            try{
+                start.await();
+            }catch(InterruptedException e)
+            {
+                return;
+            }
+
+            while(!stopped)
+            {
+                int item=zipf.next(rnd);
+                if(auditor || rnd.nextDouble()<cfg.getVerifyRatio())
+                {
+                    verifyLast(item,auditor?audit:verify);
+                    continue;
+                }
+
+                int n=(cfg.getBurst()>1)?1+rnd.nextInt(cfg.getBurst()):1;
+                for(int i=0;i<n && !stopped;i++) ingest(item);
+                if(cfg.getBurstPauseMicros()>0) LockSupport.parkNanos(cfg.getBurstPauseMicros()*1000L);
+            }
+        }
+
+        private void ingest(int item)
+        {
+            String hash=hashes[rnd.nextInt(HASH_POOL)];
+            boolean measured=measuring;
+            long t=System.nanoTime();
+            try{
+                if(target.add(item/cfg.getMas(),item%cfg.getMas(),hash)) lastHash.set(item, hash);
+                else if(measured) rejected++;
+            }catch(Exception e)
+            {
+                if(measured) errors++;
+            }
+            if(measured) ingest.record(System.nanoTime()-t);
+        }
+
+        private void verifyLast(int item,LatencyHistogram h)
+        {
+            String hash=lastHash.get(item);
+            if(hash==null)
+            {
+                if(auditor) Thread.yield();
+                return;
+            }
+
+            boolean measured=measuring;
+            long t=System.nanoTime();
+            boolean ok;
+            try{
+                ok=target.verify(item/cfg.getMas(),item%cfg.getMas(),hash,offset);
+            }catch(Exception e)
+            {
+                if(measured) errors++;
+                return;
+            }
+            if(!measured) return;
+            h.record(System.nanoTime()-t);
+            // A concurrent transaction on the same adapter may have displaced the hash before the verification
+            if(!ok) mismatches++;
+        }
+    }
+
+    /**
+     * It is the API under test
+     */
+    private interface Target {
+        boolean add(int prj,int ma,String hash) throws Exception;
+        boolean verify(int prj,int ma,String hash,int offset);
+        void close() throws InterruptedException;
+    }
+
+    private static String[] names(String prefix,int n)
+    {
+        String ret[]=new String[n];
+        for(int i=0;i<n;i++) ret[i]=prefix+i;
+
+        return ret;
+    }
+
+    /**
+     * It adds the transactions through the string IDs of the global integrity record
+     */
+    private static class DirectTarget implements Target {
+        protected final GlobalIntegrityRecord gir;
+        protected final String prjIds[];
+        protected final String maIds[];
+
+        DirectTarget(LoadConfig cfg) throws Exception
+        {
+            gir=new GlobalIntegrityRecord(cfg.getLevels(),cfg.getMas());
+            if(cfg.getDigestLength()!=0) gir.setDigestStorage(cfg.getDigestLength(), cfg.isTruncateLeaves());
+            prjIds=names("PRJ-",cfg.getProjects());
+            maIds=names("MA-",cfg.getMas());
+        }
+
+        @Override
+        public boolean add(int prj,int ma,String hash) throws Exception
+        {
+            return Boolean.TRUE.equals(gir.addTransaction(prjIds[prj], maIds[ma], ROLE, hash));
+        }
+
+        @Override
+        public boolean verify(int prj,int ma,String hash,int offset)
+        {
+            return Boolean.TRUE.equals(gir.verifyTransactionIntegrity(prjIds[prj], maIds[ma], hash, offset));
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+
+    /**
+     * It adds the transactions through the integer IDs assigned by the global integrity record
+     */
+    private static class IdsTarget extends DirectTarget {
+        private final int prjIdx[];
+        private final int maIdx[];
+
+        IdsTarget(LoadConfig cfg) throws Exception
+        {
+            super(cfg);
+            prjIdx=new int[prjIds.length];
+            maIdx=new int[maIds.length];
+            for(int i=0;i<prjIds.length;i++) prjIdx[i]=gir.registerProject(prjIds[i]);
+            for(int i=0;i<maIds.length;i++) maIdx[i]=gir.registerMA(maIds[i]);
+        }
+
+        @Override
+        public boolean add(int prj,int ma,String hash) throws Exception
+        {
+            return Boolean.TRUE.equals(gir.addTransaction(prjIdx[prj], maIdx[ma], ROLE, hash));
+        }
+
+        @Override
+        public boolean verify(int prj,int ma,String hash,int offset)
+        {
+            return Boolean.TRUE.equals(gir.verifyTransactionIntegrity(prjIdx[prj], maIdx[ma], hash, offset));
+        }
+    }
+
+    /**
+     * It submits the transactions to a sharded integrity engine, waiting for them to be applied
+     */
+    private static class ShardedTarget implements Target {
+        private final ShardedIntegrityEngine engine;
+        private final String prjIds[];
+        private final String maIds[];
+
+        ShardedTarget(LoadConfig cfg) throws Exception
+        {
+            engine=new ShardedIntegrityEngine(cfg.getLevels(),cfg.getMas(),cfg.getShards(),cfg.getQueueCapacity());
+            prjIds=names("PRJ-",cfg.getProjects());
+            maIds=names("MA-",cfg.getMas());
+        }
+
+        @Override
+        public boolean add(int prj,int ma,String hash) throws Exception
+        {
+            return Boolean.TRUE.equals(engine.submit(prjIds[prj], maIds[ma], ROLE, hash).join());
+        }
+
+        @Override
+        public boolean verify(int prj,int ma,String hash,int offset)
+        {
+            return Boolean.TRUE.equals(engine.verifyTransactionIntegrity(prjIds[prj], maIds[ma], hash, offset));
+        }
+
+        @Override
+        public void close() throws InterruptedException
+        {
+            engine.shutdown();
+        }
+    }
+
+    /**
+     * It keeps the accumulated garbage collection statistics and the heap usage at a given moment
+     */
+    private static class GcSnapshot {
+        private long count;
+        private long time;
+        private long heapUsed;
+        private long heapMax;
+
+        static GcSnapshot take()
+        {
+            GcSnapshot s=new GcSnapshot();
+            for(GarbageCollectorMXBean gc:ManagementFactory.getGarbageCollectorMXBeans())
+            {
+                if(gc.getCollectionCount()>0) s.count+=gc.getCollectionCount();
+                if(gc.getCollectionTime()>0) s.time+=gc.getCollectionTime();
+            }
+            s.heapUsed=ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            s.heapMax=ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getMax();
+
+            return s;
+        }
+    }
+}
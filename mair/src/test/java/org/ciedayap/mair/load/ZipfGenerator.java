@@ -0,0 +1,77 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.ciedayap.mair.load;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * It draws items following a Zipf distribution, where the item with rank k (starting in 1) is chosen
+ * with a probability proportional to 1/k^exponent. The ranks are assigned to the items through a seeded
+ * permutation, so the hot items are spread among the projects. The cumulative distribution is precomputed
+ * and each draw is a binary search.
+ *
+ * @author Mario Diván
+ * @version 1.0
+ */
+public class ZipfGenerator {
+    private final double cdf[];
+    private final int items[];
+
+    /**
+     * It creates the generator
+     * @param n The number of items
+     * @param exponent The exponent of the distribution (0 for a uniform distribution)
+     * @param seed The seed used for assigning the ranks to the items
+     */
+    public ZipfGenerator(int n,double exponent,long seed)
+    {
+        if(n<1) throw new IllegalArgumentException("The number of items should be upper or equal than 1");
+        if(exponent<0) throw new IllegalArgumentException("The exponent should be upper or equal than 0");
+
+        cdf=new double[n];
+        double sum=0;
+        for(int k=1;k<=n;k++)
+        {
+            sum+=1.0/Math.pow(k, exponent);
+            cdf[k-1]=sum;
+        }
+        for(int k=0;k<n;k++) cdf[k]/=sum;
+        cdf[n-1]=1.0;
+
+        items=new int[n];
+        for(int i=0;i<n;i++) items[i]=i;
+        SplittableRandom rnd=new SplittableRandom(seed);
+        for(int i=n-1;i>0;i--)
+        {
+            int j=rnd.nextInt(i+1);
+            int tmp=items[i];
+            items[i]=items[j];
+            items[j]=tmp;
+        }
+    }
+
+    /**
+     * It draws the next item
+     * @param rnd The random generator of the calling thread
+     * @return The item (between 0 and n-1)
+     */
+    public int next(SplittableRandom rnd)
+    {
+        int pos=Arrays.binarySearch(cdf, rnd.nextDouble());
+        if(pos<0) pos=-pos-1;
+
+        return items[Math.min(pos, items.length-1)];
+    }
+
+    /**
+     * @return The number of items
+     */
+    public int size()
+    {
+        return items.length;
+    }
+}